@@ -0,0 +1,149 @@
+package benchmark.hamster.comm.buffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hamster.comm.buffer.AccessBuffer;
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>JMH microbenchmarks for {@link PipelineBuffer} and {@link AccessBuffer}.  Every benchmark is run with heap and with direct
+ * buffers.
+ * <ul>
+ * <li>scalar produce and consume of ints.</li>
+ * <li>write and read message blocks with a length header.</li>
+ * <li>reclaim (compact) of held data when switching from consuming to producing.</li>
+ * <li>transfer to an access buffer and random access reads.</li>
+ * </ul>
+ *
+ * @author jdf19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmarks
+{
+  //Values per invocation.
+  private static final int COUNT = 64;
+
+  //Message blocks per invocation.
+  private static final int MESSAGES = 16;
+
+  //Heap or direct buffers.
+  @Param({"false", "true"})
+  public boolean direct;
+
+  //Buffers under test.
+  private PipelineBuffer pb;
+  private PipelineBuffer held;
+  private AccessBuffer ab;
+
+  @Setup
+  public void setup()
+  {
+    BufferFactory factory = BufferFactory.getDefaultBufferFactory().setSize(4096).setDirectness(direct);
+    pb = new PipelineBuffer(factory);
+    ab = new AccessBuffer(factory);
+
+    //1000 bytes held, so that every produce after a consume compacts them.
+    held = new PipelineBuffer(factory);
+    held.produceFromBytes(new byte[1000]);
+  }
+
+  /**
+   * <p>Scalar int produce then consume.
+   *
+   * @return the sum of the consumed values.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public long scalarInt()
+  {
+    for(int i = 0; i < COUNT; i++)
+    {
+      pb.produceInt(i);
+    }
+    long sum = 0;
+    for(int i = 0; i < COUNT; i++)
+    {
+      sum += pb.consumeInt();
+    }
+    return sum;
+  }
+
+  /**
+   * <p>Write then read length headed message blocks.
+   *
+   * @return the sum of the consumed values.
+   */
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public long messageBlock()
+  {
+    for(int i = 0; i < MESSAGES; i++)
+    {
+      pb.startWriteMessage();
+      pb.produceChar((char) 0).produceInt(i).produceLong(i * 7L);
+      pb.produceCharAt(0, (char) pb.messageBlockWritePosition());
+      pb.completeWriteMessage();
+    }
+    long sum = 0;
+    while(!pb.isEmpty() && pb.tryStartReadMessage(pb.peekChar(0)))
+    {
+      pb.consumeChar();
+      sum += pb.consumeInt() + pb.consumeLong();
+      pb.completeReadMessage();
+    }
+    return sum;
+  }
+
+  /**
+   * <p>Produce after consume with 1000 bytes held.
+   *
+   * @return the consumed value.
+   */
+  @Benchmark
+  public int reclaim()
+  {
+    held.produceInt(1);
+    return held.consumeInt();
+  }
+
+  /**
+   * <p>Transfer into an access buffer then read fields at scattered positions.
+   *
+   * @return the sum of the read values.
+   */
+  @Benchmark
+  @OperationsPerInvocation(COUNT)
+  public long accessTransferRead()
+  {
+    for(int i = 0; i < COUNT; i++)
+    {
+      pb.produceInt(i);
+    }
+    ab.transferFrom(pb);
+    long sum = 0;
+    for(int i = 0; i < COUNT; i++)
+    {
+      sum += ab.readInt(((i * 17) % COUNT) * 4);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,167 @@
+package benchmark.hamster.comm.buffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>JMH benchmarks comparing the bulk array produce and consume methods of {@link PipelineBuffer} with a loop of the scalar
+ * methods, for int, long and double arrays.  Each benchmark produces the whole array then consumes it back, with heap and direct
+ * buffers and a range of array lengths.  Scores are the time for the whole array.
+ *
+ * @author jdf19
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkArrayBenchmarks
+{
+  //Heap or direct buffers.
+  @Param({"false", "true"})
+  public boolean direct;
+
+  //Array length.
+  @Param({"8", "64", "256"})
+  public int length;
+
+  //Buffer under test.
+  private PipelineBuffer pb;
+
+  //Source and destination arrays.
+  private int[] ints;
+  private int[] intsOut;
+  private long[] longs;
+  private long[] longsOut;
+  private double[] doubles;
+  private double[] doublesOut;
+
+  @Setup
+  public void setup()
+  {
+    pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(4096).setDirectness(direct));
+    ints = new int[length];
+    intsOut = new int[length];
+    longs = new long[length];
+    longsOut = new long[length];
+    doubles = new double[length];
+    doublesOut = new double[length];
+    for(int i = 0; i < length; i++)
+    {
+      ints[i] = i * 31;
+      longs[i] = i * 31L;
+      doubles[i] = i * 0.5;
+    }
+  }
+
+  /**
+   * <p>Produce then consume an int array one element at a time.
+   *
+   * @return the consumed array.
+   */
+  @Benchmark
+  public int[] intLoop()
+  {
+    for(int i = 0; i < length; i++)
+    {
+      pb.produceInt(ints[i]);
+    }
+    for(int i = 0; i < length; i++)
+    {
+      intsOut[i] = pb.consumeInt();
+    }
+    return intsOut;
+  }
+
+  /**
+   * <p>Produce then consume an int array in bulk.
+   *
+   * @return the consumed array.
+   */
+  @Benchmark
+  public int[] intBulk()
+  {
+    pb.produceInts(ints, 0, length);
+    pb.consumeInts(intsOut, 0, length);
+    return intsOut;
+  }
+
+  /**
+   * <p>Produce then consume a long array one element at a time.
+   *
+   * @return the consumed array.
+   */
+  @Benchmark
+  public long[] longLoop()
+  {
+    for(int i = 0; i < length; i++)
+    {
+      pb.produceLong(longs[i]);
+    }
+    for(int i = 0; i < length; i++)
+    {
+      longsOut[i] = pb.consumeLong();
+    }
+    return longsOut;
+  }
+
+  /**
+   * <p>Produce then consume a long array in bulk.
+   *
+   * @return the consumed array.
+   */
+  @Benchmark
+  public long[] longBulk()
+  {
+    pb.produceLongs(longs, 0, length);
+    pb.consumeLongs(longsOut, 0, length);
+    return longsOut;
+  }
+
+  /**
+   * <p>Produce then consume a double array one element at a time.
+   *
+   * @return the consumed array.
+   */
+  @Benchmark
+  public double[] doubleLoop()
+  {
+    for(int i = 0; i < length; i++)
+    {
+      pb.produceDouble(doubles[i]);
+    }
+    for(int i = 0; i < length; i++)
+    {
+      doublesOut[i] = pb.consumeDouble();
+    }
+    return doublesOut;
+  }
+
+  /**
+   * <p>Produce then consume a double array in bulk.
+   *
+   * @return the consumed array.
+   */
+  @Benchmark
+  public double[] doubleBulk()
+  {
+    pb.produceDoubles(doubles, 0, length);
+    pb.consumeDoubles(doublesOut, 0, length);
+    return doublesOut;
+  }
+}
@@ -0,0 +1,131 @@
+package benchmark.hamster.comm.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.server.NonBlockingCommunicationApplicationServer;
+
+/**
+ * <p>Loopback echo benchmark through an {@link EchoServer} running in a {@link NonBlockingCommunicationApplicationServer} loop.
+ * Each benchmark thread has its own blocking client connection, sends one message and waits for the whole echo.  Run in sample
+ * time mode, so JMH reports the p50/p99/p999 round trip latency; run with more threads (<code>-t</code>) for more connections
+ * sharing the server loop.
+ *
+ * @author jdf19
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EchoBenchmark
+{
+  /**
+   * <p>The echo server, shared by all of the benchmark threads.
+   */
+  @State(Scope.Benchmark)
+  public static class Server
+  {
+    //Echo server.
+    private EchoServer echoServer;
+
+    //Listening address.
+    private InetSocketAddress address;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException, InterruptedException
+    {
+      echoServer = new EchoServer(BufferFactory.getDefaultBufferFactory().setSize(4096).setDirectness(true));
+      address = echoServer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws InterruptedException
+    {
+      echoServer.stop();
+    }
+  }
+
+  /**
+   * <p>A client connection for each benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Client
+  {
+    //Message size in bytes.
+    @Param({"64", "1024"})
+    public int size;
+
+    //Blocking client connection.
+    private SocketChannel channel;
+
+    //Outgoing message.
+    private ByteBuffer out;
+
+    //Incoming echo.
+    private ByteBuffer in;
+
+    @Setup(Level.Trial)
+    public void connect(Server server) throws IOException
+    {
+      channel = SocketChannel.open(server.address);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      out = ByteBuffer.allocateDirect(size);
+      in = ByteBuffer.allocateDirect(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException
+    {
+      channel.close();
+    }
+  }
+
+  /**
+   * <p>Send one message and wait for its echo.
+   *
+   * @param client the thread's client connection.
+   * @return the first byte of the echo.
+   * @throws IOException if the connection failed.
+   */
+  @Benchmark
+  public byte roundTrip(Client client) throws IOException
+  {
+    ByteBuffer out = client.out;
+    ByteBuffer in = client.in;
+    out.clear();
+    while(out.hasRemaining())
+    {
+      client.channel.write(out);
+    }
+    in.clear();
+    while(in.hasRemaining())
+    {
+      if(client.channel.read(in) < 0)
+      {
+        throw new EOFException();
+      }
+    }
+    return in.get(0);
+  }
+}
@@ -0,0 +1,174 @@
+package benchmark.hamster.comm.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.LoggerFactory;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.ServerSocketChannelController;
+import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
+import hamster.comm.itf.listener.SimpleSocketChannelListener;
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.metrics.LoopMetrics;
+import hamster.comm.server.NonBlockingCommunicationApplicationImpl;
+import hamster.comm.server.NonBlockingCommunicationApplicationServer;
+import hamster.comm.server.exception.ChannelRegistrationException;
+import hamster.comm.server.listener.CommunicationApplicationController;
+
+/**
+ * <p>Loopback echo server for the benchmarks and load tools.  The server runs its own communication loop thread, listens on an
+ * ephemeral port on 127.0.0.1 and writes every byte it receives on a connection straight back.
+ *
+ * @author jdf19
+ */
+public final class EchoServer implements NonBlockingCommunicationApplicationImpl
+{
+  //Buffer factory for the connection buffers.
+  private final BufferFactory factory;
+
+  //Communication loop.
+  private final NonBlockingCommunicationApplicationServer server;
+
+  //Loop thread.
+  private final Thread thread;
+
+  //Counted down when the listening port is known.
+  private final CountDownLatch listening = new CountDownLatch(1);
+
+  //Application controller.
+  private CommunicationApplicationController controller;
+
+  //Listening port.
+  private volatile int port;
+
+  /**
+   * <p>Create the server.  It is started with {@link #start()}.
+   *
+   * @param factory the buffer factory for the connection buffers.
+   * @throws IOException if the communication loop couldn't be created.
+   */
+  public EchoServer(BufferFactory factory) throws IOException
+  {
+    this.factory = factory;
+    this.server = new NonBlockingCommunicationApplicationServer(this, LoggerFactory.getLogger(EchoServer.class));
+    this.thread = new Thread(server, "echo-server");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * <p>Start the server and wait until it is listening.
+   *
+   * @return the listening address.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public InetSocketAddress start() throws InterruptedException
+  {
+    thread.start();
+    listening.await();
+    return new InetSocketAddress("127.0.0.1", port);
+  }
+
+  /**
+   * <p>Return the ID of the server loop thread.
+   *
+   * @return the thread ID.
+   */
+  public long threadId()
+  {
+    return thread.getId();
+  }
+
+  /**
+   * <p>Return the metrics of the server loop.
+   *
+   * @return the loop metrics.
+   */
+  public LoopMetrics loopMetrics()
+  {
+    return server.getLoopMetrics();
+  }
+
+  /**
+   * <p>Stop the server and wait for the loop thread to finish.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public void stop() throws InterruptedException
+  {
+    server.externalApplicationShutdownRequired();
+    thread.join();
+  }
+
+  @Override
+  public void registerAppController(CommunicationApplicationController controller)
+  {
+    this.controller = controller;
+    try
+    {
+      port = controller.openServerSocket(new InetSocketAddress("127.0.0.1", 0), new Acceptor());
+    }
+    catch(ChannelRegistrationException e)
+    {
+      throw new IllegalStateException(e);
+    }
+    listening.countDown();
+  }
+
+  @Override
+  public void externalShutdownCommand()
+  {
+    controller.getCommLoopCloser().closeCommLoop();
+  }
+
+  /**
+   * <p>Creates an echo listener for each accepted connection.
+   */
+  private class Acceptor implements InitialisedServerSocketChannelListener
+  {
+    @Override
+    public void initController(ServerSocketChannelController controller)
+    {
+    }
+
+    @Override
+    public SocketChannelListener handleIncomingConnection(SocketAddress socketAddress)
+    {
+      return new EchoListener();
+    }
+
+    @Override
+    public void hasShut()
+    {
+    }
+  }
+
+  /**
+   * <p>Writes everything read back to the connection.
+   */
+  private class EchoListener extends SimpleSocketChannelListener
+  {
+    //Data waiting to be echoed.
+    private final PipelineBuffer buffer = new PipelineBuffer(factory);
+
+    @Override
+    public void handleDataRead()
+    {
+      //Read what there is space for, then send it back.
+      if(buffer.canAcceptTransfer())
+      {
+        channelController.fillBufferFromChannel(buffer);
+      }
+      channelController.writeOutgoingData(buffer);
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+      channelController.writeOutgoingData(buffer);
+    }
+  }
+}
@@ -0,0 +1,539 @@
+package benchmark.hamster.comm.server;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.LoggerFactory;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.codec.FixedLengthFrameDecoder;
+import hamster.comm.codec.FrameListener;
+import hamster.comm.itf.listener.ClientSocketChannelListener;
+import hamster.comm.itf.listener.SimpleSocketChannelListener;
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.metrics.Histogram;
+import hamster.comm.metrics.LoopMetrics;
+import hamster.comm.server.NonBlockingCommunicationApplicationImpl;
+import hamster.comm.server.NonBlockingCommunicationApplicationServer;
+import hamster.comm.server.listener.CommunicationApplicationController;
+import hamster.comm.wakeupschedule.ProcessCallbackScheduler;
+import hamster.comm.wakeupschedule.WakeupCallback;
+
+/**
+ * <p>Load generator and soak harness.  A client {@link NonBlockingCommunicationApplicationServer} loop opens many connections to a
+ * local {@link EchoServer} over 127.0.0.1 and sends time stamped messages of a fixed size, timing each echo.
+ * <p>In closed loop mode (the default) each connection keeps a fixed number of messages in flight and sends a new message for each
+ * echo.  In open loop mode (<code>--rate</code> greater than zero) each connection sends at a fixed rate whatever the echoes do;
+ * latency is measured from the time each message was due to be sent, so that a stalled loop shows up as latency rather than as
+ * fewer samples.  Connections can be churned: closed and replaced at a given rate.
+ * <p>The client loop prints a line at each report interval with the message rate, latency percentiles and the number of open
+ * connections.  At the end a summary gives the message rate, the latency histogram percentiles, GC counts and times, and the bytes
+ * allocated per message by the client and server loop threads.  Thresholds can be given for the summary figures; if any is exceeded
+ * the tool exits with status 1, so that it can be used as a regression gate.
+ * <p>Options, as <code>--name=value</code>:
+ * <ul>
+ * <li>connections (100): number of connections.</li>
+ * <li>size (64): message size in bytes, at least 8.</li>
+ * <li>inflight (1): messages in flight per connection in closed loop mode.</li>
+ * <li>rate (0): messages per second per connection in open loop mode, 0 for closed loop.</li>
+ * <li>churn (0): connections closed and replaced per second.</li>
+ * <li>warmup (5): warmup seconds before measuring.</li>
+ * <li>duration (30): measured seconds.</li>
+ * <li>report (1): report interval in seconds.</li>
+ * <li>max-p99-us: fail if the 99th percentile latency in microseconds is higher.</li>
+ * <li>min-rate: fail if the message rate is lower.</li>
+ * <li>max-alloc-per-msg: fail if the client or server loop allocates more bytes per message.</li>
+ * </ul>
+ * <p>Thousands of connections need a matching open file limit.
+ *
+ * @author jdf19
+ */
+public final class LoadGenerator implements NonBlockingCommunicationApplicationImpl, WakeupCallback
+{
+  //Wakeup parameters.
+  private static final int TICK = 1;
+  private static final int REPORT = 2;
+
+  //Open loop send tick.
+  private static final long TICK_NANOS = 1_000_000L;
+
+  //Most connection attempts in progress at once, to stay inside the listening socket's accept backlog.
+  private static final int MAX_PENDING_CONNECTS = 32;
+
+  //Options.
+  private final Map<String, String> options;
+  private final int connections;
+  private final int messageSize;
+  private final int inFlight;
+  private final int rate;
+  private final double churn;
+  private final long reportNanos;
+
+  //Server address.
+  private final InetSocketAddress address;
+
+  //Buffer factory.
+  private final BufferFactory factory;
+
+  //Message padding after the time stamp.
+  private final byte[] padding;
+
+  //Open connections.
+  private final List<LoadClient> clients = new ArrayList<>();
+
+  //Latency since the last report, and over the whole measurement.
+  private final Histogram interval = new Histogram();
+  private final Histogram total = new Histogram();
+
+  //Messages echoed while measuring, and in total.
+  private long messages = 0;
+  private long echoes = 0;
+
+  //Connections still to open, and connection attempts in progress.
+  private int toOpen = 0;
+  private int pendingConnects = 0;
+
+  //Open loop sends skipped because the connection's outgoing buffer was full.
+  private long skipped = 0;
+
+  //Connections closed by churn, and failed connection attempts.
+  private long churned = 0;
+  private long failures = 0;
+
+  //Time measurement starts, set before the loop runs.
+  private long measureStart;
+
+  //Time of the last report and the echo count then.
+  private long lastReport;
+  private long lastReportEchoes;
+
+  //Fractional churn carried between ticks, and the time of the last tick.
+  private double churnCredit = 0;
+  private long lastTick;
+
+  //Application controller.
+  private CommunicationApplicationController controller;
+
+  //Wakeup scheduler.
+  private ProcessCallbackScheduler scheduler;
+
+  private LoadGenerator(Map<String, String> options, InetSocketAddress address, BufferFactory factory)
+  {
+    this.options = options;
+    this.connections = intOption("connections", 100);
+    this.messageSize = Math.max(8, intOption("size", 64));
+    this.inFlight = intOption("inflight", 1);
+    this.rate = intOption("rate", 0);
+    this.churn = Double.parseDouble(options.getOrDefault("churn", "0"));
+    this.reportNanos = intOption("report", 1) * 1_000_000_000L;
+    this.address = address;
+    this.factory = factory;
+    this.padding = new byte[messageSize - 8];
+  }
+
+  /**
+   * <p>Run the load generator.
+   *
+   * @param args options as <code>--name=value</code>.
+   * @throws IOException if a communication loop couldn't be created.
+   * @throws InterruptedException if interrupted.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    //Options.
+    Map<String, String> options = new HashMap<>();
+    for(String arg : args)
+    {
+      int eq = arg.indexOf('=');
+      if(!arg.startsWith("--") || eq < 0) throw new IllegalArgumentException("Expected --name=value: " + arg);
+      options.put(arg.substring(2, eq), arg.substring(eq + 1));
+    }
+    long warmupNanos = Long.parseLong(options.getOrDefault("warmup", "5")) * 1_000_000_000L;
+    long durationNanos = Long.parseLong(options.getOrDefault("duration", "30")) * 1_000_000_000L;
+
+    //Start the server.
+    int size = Math.max(8, Integer.parseInt(options.getOrDefault("size", "64")));
+    int inFlight = Integer.parseInt(options.getOrDefault("inflight", "1"));
+    BufferFactory factory = BufferFactory.getDefaultBufferFactory().setSize(Math.max(4096, 4 * size * inFlight)).setDirectness(true);
+    EchoServer echoServer = new EchoServer(factory);
+    InetSocketAddress address = echoServer.start();
+
+    //Start the clients.
+    LoadGenerator generator = new LoadGenerator(options, address, factory);
+    generator.measureStart = System.nanoTime() + warmupNanos;
+    NonBlockingCommunicationApplicationServer clientLoop = new NonBlockingCommunicationApplicationServer(generator, LoggerFactory.getLogger(LoadGenerator.class));
+    Thread clientThread = new Thread(clientLoop, "load-clients");
+    clientThread.setDaemon(true);
+    clientThread.start();
+
+    //Warm up.
+    Thread.sleep(warmupNanos / 1_000_000L);
+
+    //Measure.
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long clientAlloc = allocatedBytes(threads, clientThread.getId());
+    long serverAlloc = allocatedBytes(threads, echoServer.threadId());
+    long gcCount = gcCount();
+    long gcMillis = gcMillis();
+    LoopMetrics serverLoop = echoServer.loopMetrics();
+    long[] loopBefore = loopSample(serverLoop);
+    Histogram dispatch = serverLoop.dispatchNanos().copyInto(new Histogram());
+    long start = System.nanoTime();
+    Thread.sleep(durationNanos / 1_000_000L);
+    long elapsed = System.nanoTime() - start;
+    clientAlloc = allocatedBytes(threads, clientThread.getId()) - clientAlloc;
+    serverAlloc = allocatedBytes(threads, echoServer.threadId()) - serverAlloc;
+    gcCount = gcCount() - gcCount;
+    gcMillis = gcMillis() - gcMillis;
+    long[] loopAfter = loopSample(serverLoop);
+    dispatch = serverLoop.dispatchNanos().copyInto(new Histogram()).subtract(dispatch);
+
+    //Stop.
+    clientLoop.externalApplicationShutdownRequired();
+    clientThread.join();
+    echoServer.stop();
+
+    //Summary.
+    Histogram latency = generator.total;
+    long messages = generator.messages;
+    double msgRate = messages * 1e9 / elapsed;
+    double clientPerMsg = (messages == 0) ? 0 : (double) clientAlloc / messages;
+    double serverPerMsg = (messages == 0) ? 0 : (double) serverAlloc / messages;
+    System.out.println("---- summary");
+    System.out.printf("connections=%d size=%d %s churn=%.1f/s%n", generator.connections, generator.messageSize,
+                      (generator.rate > 0) ? "rate=" + generator.rate + "/s" : "inflight=" + generator.inFlight, generator.churn);
+    System.out.printf("%.0f msgs/sec, %d messages, %d skipped sends, %d churned, %d connect failures%n", msgRate, messages, generator.skipped, generator.churned, generator.failures);
+    System.out.printf("latency us: mean %.1f", latency.mean() / 1000.0);
+    for(double p : new double[] {50, 90, 99, 99.9, 99.99, 100})
+    {
+      System.out.printf(", p%s %.1f", (p == Math.rint(p)) ? Integer.toString((int) p) : Double.toString(p), latency.valueAtPercentile(p) / 1000.0);
+    }
+    System.out.println();
+    System.out.printf("gc: %d collections, %d ms%n", gcCount, gcMillis);
+    System.out.printf("allocation: client loop %.1f MB/s (%.1f bytes/msg), server loop %.1f MB/s (%.1f bytes/msg)%n",
+                      clientAlloc * 1e3 / elapsed, clientPerMsg, serverAlloc * 1e3 / elapsed, serverPerMsg);
+    long iterations = Math.max(1, loopAfter[0] - loopBefore[0]);
+    long loopNanos = Math.max(1, loopAfter[1] + loopAfter[2] + loopAfter[3] + loopAfter[4] - loopBefore[1] - loopBefore[2] - loopBefore[3] - loopBefore[4]);
+    System.out.printf("server loop: %.0f iterations/s, %.1f ready keys/iteration, select %.1f%% dispatch %.1f%% loop end %.1f%% service %.1f%%, dispatch p99 %.1f us max %.1f us%n",
+                      iterations * 1e9 / elapsed, (double) (loopAfter[5] - loopBefore[5]) / iterations,
+                      100.0 * (loopAfter[1] - loopBefore[1]) / loopNanos, 100.0 * (loopAfter[2] - loopBefore[2]) / loopNanos,
+                      100.0 * (loopAfter[3] - loopBefore[3]) / loopNanos, 100.0 * (loopAfter[4] - loopBefore[4]) / loopNanos,
+                      dispatch.valueAtPercentile(99) / 1000.0, dispatch.max() / 1000.0);
+    System.out.printf("server channels: %s%n", serverLoop.channelTotals());
+
+    //Regression gate.
+    boolean failed = false;
+    if(options.containsKey("max-p99-us") && latency.valueAtPercentile(99) / 1000.0 > Double.parseDouble(options.get("max-p99-us")))
+    {
+      System.out.println("FAIL: p99 latency above " + options.get("max-p99-us") + " us");
+      failed = true;
+    }
+    if(options.containsKey("min-rate") && msgRate < Double.parseDouble(options.get("min-rate")))
+    {
+      System.out.println("FAIL: message rate below " + options.get("min-rate") + "/s");
+      failed = true;
+    }
+    if(options.containsKey("max-alloc-per-msg") && Math.max(clientPerMsg, serverPerMsg) > Double.parseDouble(options.get("max-alloc-per-msg")))
+    {
+      System.out.println("FAIL: allocation above " + options.get("max-alloc-per-msg") + " bytes/msg");
+      failed = true;
+    }
+    System.exit(failed ? 1 : 0);
+  }
+
+  /**
+   * <p>Sample the iteration count, the total time in each loop phase and the total ready keys of a loop.
+   */
+  private static long[] loopSample(LoopMetrics loop)
+  {
+    return new long[] {loop.iterations(), loop.selectNanos().sum(), loop.dispatchNanos().sum(), loop.loopEndNanos().sum(), loop.serviceNanos().sum(), loop.readyKeys().sum()};
+  }
+
+  @Override
+  public void registerAppController(CommunicationApplicationController controller)
+  {
+    this.controller = controller;
+
+    //Connections.
+    toOpen = connections;
+    openConnections();
+
+    //Open loop sends and churn on a tick, and the reports.  These are one shot wakeups requested again each time, so that an
+    //overloaded loop skips ticks rather than falling further behind.
+    scheduler = controller.getProcessScheduler();
+    if(rate > 0 || churn > 0)
+    {
+      scheduler.requestWakeupCallNanos(TICK, TICK_NANOS, this);
+    }
+    scheduler.requestWakeupCallNanos(REPORT, reportNanos, this);
+    lastReport = System.nanoTime();
+    lastTick = lastReport;
+  }
+
+  @Override
+  public void externalShutdownCommand()
+  {
+    scheduler.cancelWakeupCall(TICK);
+    scheduler.cancelWakeupCall(REPORT);
+    for(int i = clients.size() - 1; i >= 0; i--)
+    {
+      clients.get(i).close();
+    }
+    controller.getCommLoopCloser().closeCommLoop();
+  }
+
+  @Override
+  public void wakeup(int parameter, long wakeupTime)
+  {
+    long now = System.nanoTime();
+    if(parameter == TICK)
+    {
+      tick(now);
+      scheduler.requestWakeupCallNanos(TICK, TICK_NANOS, this);
+    }
+    else
+    {
+      report(now);
+      scheduler.requestWakeupCallNanos(REPORT, reportNanos, this);
+    }
+  }
+
+  /**
+   * <p>Send the open loop messages that are due and churn connections.
+   */
+  private void tick(long now)
+  {
+    if(rate > 0)
+    {
+      for(int i = 0; i < clients.size(); i++)
+      {
+        clients.get(i).sendDue(now);
+      }
+    }
+
+    //Close the oldest connections and open replacements.
+    churnCredit += churn * (now - lastTick) / 1e9;
+    lastTick = now;
+    while(churnCredit >= 1 && !clients.isEmpty())
+    {
+      churnCredit -= 1;
+      churned++;
+      clients.get(0).close();
+      toOpen++;
+    }
+    openConnections();
+  }
+
+  /**
+   * <p>Start connection attempts for the connections still to open, keeping the number in progress limited.
+   */
+  private void openConnections()
+  {
+    while(toOpen > 0 && pendingConnects < MAX_PENDING_CONNECTS)
+    {
+      toOpen--;
+      pendingConnects++;
+      controller.openClientSocket(address, new Connector());
+    }
+  }
+
+  /**
+   * <p>Print the interval report line.
+   */
+  private void report(long now)
+  {
+    double seconds = (now - lastReport) / 1e9;
+    System.out.printf("%s %8.0f msgs/s  p50 %7.1f us  p99 %7.1f us  p999 %7.1f us  max %7.1f us  conns %d%n",
+                      (now < measureStart) ? "warmup " : "measure", (echoes - lastReportEchoes) / seconds,
+                      interval.valueAtPercentile(50) / 1000.0, interval.valueAtPercentile(99) / 1000.0,
+                      interval.valueAtPercentile(99.9) / 1000.0, interval.max() / 1000.0, clients.size());
+    interval.reset();
+    lastReport = now;
+    lastReportEchoes = echoes;
+  }
+
+  /**
+   * <p>Record an echo.
+   */
+  private void recordEcho(long sendTime, long now)
+  {
+    long latency = now - sendTime;
+    echoes++;
+    interval.record(latency);
+    if(now >= measureStart)
+    {
+      total.record(latency);
+      messages++;
+    }
+  }
+
+  private int intOption(String name, int defaultValue)
+  {
+    return Integer.parseInt(options.getOrDefault(name, Integer.toString(defaultValue)));
+  }
+
+  private static long allocatedBytes(ThreadMXBean threads, long threadId)
+  {
+    if(threads instanceof com.sun.management.ThreadMXBean)
+    {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+    }
+    return 0;
+  }
+
+  private static long gcCount()
+  {
+    long count = 0;
+    for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+    {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  private static long gcMillis()
+  {
+    long millis = 0;
+    for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+    {
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return millis;
+  }
+
+  /**
+   * <p>Creates a client for each connection.
+   */
+  private class Connector implements ClientSocketChannelListener
+  {
+    @Override
+    public SocketChannelListener handleConnectionSuccess(SocketAddress saRemote)
+    {
+      pendingConnects--;
+      openConnections();
+      return new LoadClient();
+    }
+
+    @Override
+    public void handleConnectionFailure(String failReason)
+    {
+      failures++;
+      pendingConnects--;
+      openConnections();
+    }
+  }
+
+  /**
+   * <p>One connection.
+   */
+  private class LoadClient extends SimpleSocketChannelListener implements FrameListener
+  {
+    private final PipelineBuffer in = new PipelineBuffer(factory);
+    private final PipelineBuffer out = new PipelineBuffer(factory);
+    private final FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(messageSize);
+
+    //Open loop: time the next message is due, and the interval between messages.
+    private long nextSend;
+    private final long sendInterval = (rate > 0) ? 1_000_000_000L / rate : 0;
+
+    @Override
+    protected void initialised()
+    {
+      clients.add(this);
+      if(rate > 0)
+      {
+        //Spread the connections over the send interval.
+        nextSend = System.nanoTime() + (long) (Math.random() * sendInterval);
+      }
+      else
+      {
+        for(int i = 0; i < inFlight; i++)
+        {
+          produceMessage(System.nanoTime());
+        }
+        channelController.writeOutgoingData(out);
+      }
+    }
+
+    @Override
+    public void handleDataRead()
+    {
+      channelController.fillBufferFromChannel(in);
+      decoder.decodeFrames(in, this);
+      if(out.hasDataToConsume())
+      {
+        channelController.writeOutgoingData(out);
+      }
+    }
+
+    @Override
+    public void handleFrame(PipelineBuffer frame)
+    {
+      long now = System.nanoTime();
+      recordEcho(frame.consumeLong(), now);
+
+      //Closed loop - replace the message.
+      if(rate == 0)
+      {
+        produceMessage(now);
+      }
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+      channelController.writeOutgoingData(out);
+    }
+
+    @Override
+    public void hasShut()
+    {
+      clients.remove(this);
+    }
+
+    /**
+     * <p>Send the open loop messages that are due, stamped with the time each was due.
+     */
+    void sendDue(long now)
+    {
+      while(nextSend <= now)
+      {
+        if(out.hasSpaceFor(messageSize))
+        {
+          produceMessage(nextSend);
+        }
+        else
+        {
+          skipped++;
+        }
+        nextSend += sendInterval;
+      }
+      if(out.hasDataToConsume())
+      {
+        channelController.writeOutgoingData(out);
+      }
+    }
+
+    /**
+     * <p>Close the connection.
+     */
+    void close()
+    {
+      channelController.shut();
+    }
+
+    private void produceMessage(long stamp)
+    {
+      out.produceLong(stamp).produceFromBytes(padding, 0, padding.length);
+    }
+  }
+}
@@ -26,6 +26,16 @@ public class AccessBuffer extends BaseBuffer
     //internalBuffer = bufferFact.newBuffer();
   }
 
+  /**
+   * Create an instance of the access buffer which wraps the given buffer.
+   *
+   * @param buffer the buffer to wrap.
+   */
+  protected AccessBuffer(ByteBuffer buffer)
+  {
+    super(buffer);
+  }
+
   /**
    * Transfer the available contents of the given BaseBuffer instance to this {@link AccessBuffer}.  The contents of the
    * buffer passed in the argument will replace any data in this {@link AccessBuffer} instance.
@@ -330,5 +340,199 @@ public class AccessBuffer extends BaseBuffer
     this.internalBuffer.order(order);
     return this;
   }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //VARIABLE LENGTH DATA
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  //The encodings are the same as the PipelineBuffer variable length produce and consume methods.  Set methods return the
+  //number of bytes set so that the following field position is known.
+
+  /**
+   * <p>Return the encoded length of the given unsigned value as a varint.  This is the number of bytes read by
+   * {@link #readVarLong(int)} or {@link #readVarInt(int)} (with the int value taken as unsigned).
+   *
+   * @param value the value.
+   * @return the encoded length.
+   */
+  public static int varLongLength(long value)
+  {
+    return VariableLengthCodec.varLongLength(value);
+  }
+
+  /**
+   * <p>Return the encoded length of the given signed value as a zigzag varint.  This is the number of bytes read by
+   * {@link #readZigZagLong(int)} or {@link #readZigZagInt(int)}.
+   *
+   * @param value the value.
+   * @return the encoded length.
+   */
+  public static int zigZagLength(long value)
+  {
+    return VariableLengthCodec.varLongLength(VariableLengthCodec.zigZag(value));
+  }
+
+  /// VARINT DATA
+
+  public int setVarLongAt(int atPosition, long data)
+  {
+    int saved = internalBuffer.position();
+    try
+    {
+      //Put the encoding at the given position.
+      internalBuffer.position(atPosition);
+      return VariableLengthCodec.putVarLong(internalBuffer, data);
+    }
+    finally
+    {
+      internalBuffer.position(saved);
+    }
+  }
+
+  public int setVarIntAt(int atPosition, int data)
+  {
+    return setVarLongAt(atPosition, data & 0xffffffffL);
+  }
+
+  public int setZigZagLongAt(int atPosition, long data)
+  {
+    return setVarLongAt(atPosition, VariableLengthCodec.zigZag(data));
+  }
+
+  public int setZigZagIntAt(int atPosition, int data)
+  {
+    return setVarLongAt(atPosition, VariableLengthCodec.zigZag(data) & 0xffffffffL);
+  }
+
+  public long readVarLong(int atPosition)
+  {
+    return readVar(atPosition, VariableLengthCodec.MAX_VARLONG_LENGTH);
+  }
+
+  public int readVarInt(int atPosition)
+  {
+    return (int) readVar(atPosition, VariableLengthCodec.MAX_VARINT_LENGTH);
+  }
+
+  public long readZigZagLong(int atPosition)
+  {
+    return VariableLengthCodec.unZigZag(readVarLong(atPosition));
+  }
+
+  public int readZigZagInt(int atPosition)
+  {
+    return (int) VariableLengthCodec.unZigZag(readVarInt(atPosition) & 0xffffffffL);
+  }
+
+  /// STRING DATA
+
+  /**
+   * <p>Set the given characters as a length prefixed UTF-8 string.
+   *
+   * @param atPosition the position to set the string at.
+   * @param data the characters.
+   * @return the number of bytes set, including the length prefix.
+   */
+  public int setUtf8At(int atPosition, CharSequence data)
+  {
+    int saved = internalBuffer.position();
+    try
+    {
+      //Put the encoding at the given position.
+      internalBuffer.position(atPosition);
+      return VariableLengthCodec.putUtf8(internalBuffer, data);
+    }
+    finally
+    {
+      internalBuffer.position(saved);
+    }
+  }
+
+  /**
+   * <p>Set the given characters as a length prefixed ASCII string.  Characters outside the ASCII range are set as '?'.
+   *
+   * @param atPosition the position to set the string at.
+   * @param data the characters.
+   * @return the number of bytes set, including the length prefix.
+   */
+  public int setAsciiAt(int atPosition, CharSequence data)
+  {
+    int saved = internalBuffer.position();
+    try
+    {
+      //Put the encoding at the given position.
+      internalBuffer.position(atPosition);
+      return VariableLengthCodec.putAscii(internalBuffer, data);
+    }
+    finally
+    {
+      internalBuffer.position(saved);
+    }
+  }
+
+  /**
+   * <p>Read a length prefixed UTF-8 string, appending the characters to the given builder.
+   *
+   * @param atPosition the position to read the string from.
+   * @param target the builder to append to.
+   * @return the number of bytes read, including the length prefix.
+   */
+  public int readUtf8(int atPosition, StringBuilder target)
+  {
+    int saved = internalBuffer.position();
+    try
+    {
+      //Decode from the given position.
+      internalBuffer.position(atPosition);
+      return VariableLengthCodec.getUtf8(internalBuffer, target);
+    }
+    finally
+    {
+      internalBuffer.position(saved);
+    }
+  }
+
+  /**
+   * <p>Read a length prefixed ASCII string, appending the characters to the given builder.
+   *
+   * @param atPosition the position to read the string from.
+   * @param target the builder to append to.
+   * @return the number of bytes read, including the length prefix.
+   */
+  public int readAscii(int atPosition, StringBuilder target)
+  {
+    int saved = internalBuffer.position();
+    try
+    {
+      //Decode from the given position.
+      internalBuffer.position(atPosition);
+      return VariableLengthCodec.getAscii(internalBuffer, target);
+    }
+    finally
+    {
+      internalBuffer.position(saved);
+    }
+  }
+
+  /**
+   * <p>Read a varint at the given position without moving the buffer position.
+   *
+   * @param atPosition the position.
+   * @param maxLength the longest encoding allowed.
+   * @return the value.
+   */
+  private long readVar(int atPosition, int maxLength)
+  {
+    int saved = internalBuffer.position();
+    try
+    {
+      internalBuffer.position(atPosition);
+      return VariableLengthCodec.getVarLong(internalBuffer, maxLength);
+    }
+    finally
+    {
+      internalBuffer.position(saved);
+    }
+  }
   
 }
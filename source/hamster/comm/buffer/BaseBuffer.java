@@ -5,13 +5,108 @@ import java.nio.ByteBuffer;
 public abstract class BaseBuffer
 {
   /**
-   * <p>Buffer object that is wrapped by this utility class.
+   * <p>Buffer object that is wrapped by this utility class.  Only replaced by {@link #reallocateInternalBuffer(int, int, int)}.
    */
-  protected final ByteBuffer internalBuffer;
+  protected ByteBuffer internalBuffer;
+
+  /**
+   * <p>The pool that the internal buffer was taken from, or <code>null</code> if it was allocated.
+   */
+  private final BufferPool pool;
+
+  /**
+   * <p>True once the internal buffer has been released.
+   */
+  private boolean released = false;
 
   protected BaseBuffer(BufferFactory bufferFact)
   {
-    internalBuffer = bufferFact.newBuffer();
+    internalBuffer = bufferFact.newBuffer(this);
+    pool = bufferFact.getPool();
+  }
+
+  /**
+   * <p>Wrap a buffer which has been created elsewhere, for example a file mapping.  The buffer is not pooled.
+   *
+   * @param buffer the buffer to wrap.
+   */
+  protected BaseBuffer(ByteBuffer buffer)
+  {
+    if(buffer == null) throw new NullPointerException();
+    internalBuffer = buffer;
+    pool = null;
+  }
+
+  /**
+   * <p>Release the internal buffer.  If it was taken from a {@link BufferPool} then it is returned to the pool for reuse; otherwise
+   * it is left to the garbage collector.  This instance must not be used after it has been released.
+   *
+   * @throws IllegalStateException if the buffer has already been released.
+   */
+  public void release()
+  {
+    if(released)
+    {
+      throw new IllegalStateException("Buffer already released");
+    }
+    released = true;
+
+    if(pool != null)
+    {
+      pool.release(internalBuffer);
+    }
+  }
+
+  /**
+   * <p>Return true if the internal buffer has been released.
+   *
+   * @return true if released.
+   */
+  public boolean isReleased()
+  {
+    return released;
+  }
+
+  /**
+   * <p>Replace the internal buffer with one of the given capacity.  The bytes between the given positions of the old buffer are copied
+   * to the start of the new buffer, which is left positioned after them with its limit at its capacity.  The new buffer has the same
+   * byte order and directness as the old one, and is taken from the same pool if there is one; the old buffer is returned to the pool.
+   * 
+   * @param capacity the minimum capacity of the new buffer.  Must be at least <code>to - from</code>.
+   * @param from the position of the first byte to keep.
+   * @param to the position after the last byte to keep.
+   */
+  protected void reallocateInternalBuffer(int capacity, int from, int to)
+  {
+    if(released)
+    {
+      throw new IllegalStateException("Buffer already released");
+    }
+
+    //New buffer, set up like the old one.
+    ByteBuffer old = internalBuffer;
+    ByteBuffer replacement;
+    if(pool != null)
+    {
+      replacement = pool.acquire(capacity, old.isDirect(), this);
+    }
+    else
+    {
+      replacement = (old.isDirect()) ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+    replacement.order(old.order());
+
+    //Copy the data to keep.
+    old.limit(to);
+    old.position(from);
+    replacement.put(old);
+
+    //Swap.
+    internalBuffer = replacement;
+    if(pool != null)
+    {
+      pool.release(old);
+    }
   }
 
 }
@@ -17,6 +17,9 @@ public class BufferFactory
   //The directness to initialise buffer instances with.
   private boolean direct;
 
+  //The pool to take buffer instances from, or null to allocate a new buffer every time.
+  private BufferPool pool;
+
   /**
    * Private constructor - set a default value for the size and directness.
    *
@@ -59,10 +62,52 @@ public class BufferFactory
     return this;
   }
 
+  /**
+   * <p>Take buffer instances from the given pool instead of allocating a new buffer every time.  Pooled buffers have a capacity of
+   * at least the configured size, rounded up to the pool's size class.  Buffers should be returned to the pool with
+   * {@link BaseBuffer#release()} when they are no longer needed.
+   *
+   * @param pool the pool to take buffers from, or <code>null</code> to allocate a new buffer every time.
+   * @return this factory.
+   */
+  public BufferFactory setPool(BufferPool pool)
+  {
+    this.pool = pool;
+    return this;
+  }
+
+  /**
+   * <p>Return the pool that buffers are taken from.
+   *
+   * @return the pool, or <code>null</code> if buffers are not pooled.
+   */
+  public BufferPool getPool()
+  {
+    return pool;
+  }
+
   public ByteBuffer newBuffer()
   {
+    return newBuffer(null);
+  }
 
-    ByteBuffer ret = (direct) ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  /**
+   * <p>Create or acquire a buffer for the given owner.  The owner is used for leak detection when the buffer comes from a pool.
+   *
+   * @param owner the owner of the buffer, or <code>null</code>.
+   * @return the buffer.
+   */
+  ByteBuffer newBuffer(Object owner)
+  {
+    ByteBuffer ret;
+    if(pool != null)
+    {
+      ret = pool.acquire(size, direct, owner);
+    }
+    else
+    {
+      ret = (direct) ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
     ret.order(order);
     return ret;
   }
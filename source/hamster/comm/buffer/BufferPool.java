@@ -0,0 +1,494 @@
+package hamster.comm.buffer;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+/**
+ * <p>The buffer pool recycles the {@link ByteBuffer} instances used by {@link BaseBuffer} implementations so that buffers for
+ * short-lived connections do not have to be allocated each time.  This matters most for direct buffers, which are expensive
+ * to allocate and whose memory is only freed when the garbage collector gets round to it.
+ * <p>A {@link BufferFactory} uses a pool once it has been configured with {@link BufferFactory#setPool(BufferPool)}.  Buffers
+ * are returned to the pool by calling {@link BaseBuffer#release()}, or automatically when a channel shuts down if they have
+ * been registered with the channel's controller using
+ * {@link hamster.comm.itf.controller.BufferReleasingChannelController#releaseOnShutdown(BaseBuffer...)}.
+ * <p>Buffers are pooled in size classes.  A requested size is rounded up to the next power of two (with a minimum of
+ * {@value #MIN_CLASS_SIZE} bytes), so a pooled buffer's capacity may be larger than the size configured in the factory.  Heap and
+ * direct buffers are pooled separately.  Each thread keeps a small cache of free buffers for each size class, which is used
+ * without any synchronisation; buffers which do not fit in the releasing thread's cache go to a shared pool which all threads can
+ * take from.  Buffers which do not fit in the shared pool either are left to the garbage collector.
+ * <p>If leak detection is enabled then the pool keeps track of which {@link BaseBuffer} owns each buffer that it hands out.  If an
+ * owner is garbage collected without releasing its buffer then the leak is logged, with the stack trace of the allocation, and
+ * the buffer is recovered into the pool.  Leaks are checked for whenever a buffer is acquired.  Leak detection has a cost on every
+ * acquire and release, so it is intended for testing rather than production use.
+ * <p>This class is multithread safe.
+ *
+ * @author jdf19
+ *
+ */
+public final class BufferPool
+{
+  /**
+   * <p>Smallest size class in bytes.
+   */
+  public static final int MIN_CLASS_SIZE = 64;
+
+  /**
+   * <p>Smallest size class as a power of two.
+   */
+  private static final int MIN_CLASS_SHIFT = 6;
+
+  /**
+   * <p>Largest size class as a power of two.  Larger buffers are not pooled.
+   */
+  private static final int MAX_CLASS_SHIFT = 30;
+
+  /**
+   * <p>Number of size classes.
+   */
+  private static final int CLASS_COUNT = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+
+  /**
+   * <p>Shared free lists for heap buffers, by size class.
+   */
+  private final SharedFreeList[] sharedHeap = new SharedFreeList[CLASS_COUNT];
+
+  /**
+   * <p>Shared free lists for direct buffers, by size class.
+   */
+  private final SharedFreeList[] sharedDirect = new SharedFreeList[CLASS_COUNT];
+
+  /**
+   * <p>Per-thread free lists.
+   */
+  private final ThreadLocal<LocalFreeLists> localLists = ThreadLocal.withInitial(LocalFreeLists::new);
+
+  /**
+   * <p>Maximum number of free buffers in each shared size class.
+   */
+  private final int maxSharedPerClass;
+
+  /**
+   * <p>Maximum number of free buffers in each thread's cache for each size class.
+   */
+  private final int maxLocalPerClass;
+
+  /**
+   * <p>True if buffer owners are tracked for leaks.
+   */
+  private final boolean leakDetection;
+
+  /**
+   * <p>Logger for leak reports.
+   */
+  private final Logger logger;
+
+  /**
+   * <p>Owners which have been garbage collected.  Only used with leak detection.
+   */
+  private final ReferenceQueue<Object> collectedOwners = new ReferenceQueue<>();
+
+  /**
+   * <p>Outstanding buffers and their owner references.  Only used with leak detection.  Buffers are compared by identity,
+   * not content.
+   */
+  private final Map<ByteBuffer, OwnerReference> outstanding = new IdentityHashMap<>();
+
+  /**
+   * <p>Number of new buffers allocated by the pool.
+   */
+  private final AtomicLong allocatedCount = new AtomicLong();
+
+  /**
+   * <p>Number of buffers handed out from a free list.
+   */
+  private final AtomicLong reusedCount = new AtomicLong();
+
+  /**
+   * <p>Number of leaked buffers detected.
+   */
+  private final AtomicLong leakCount = new AtomicLong();
+
+  /**
+   * <p>Create the buffer pool.
+   *
+   * @param maxSharedPerClass the maximum number of free buffers to keep in the shared pool for each size class.
+   * @param maxLocalPerClass the maximum number of free buffers to keep in each thread's cache for each size class.
+   * @param leakDetection true to track buffer owners and report buffers which are not released.
+   * @param logger logger for leak reports.
+   */
+  public BufferPool(int maxSharedPerClass, int maxLocalPerClass, boolean leakDetection, Logger logger)
+  {
+    if(maxSharedPerClass < 0 || maxLocalPerClass < 0) throw new IllegalArgumentException();
+    if(leakDetection && logger == null) throw new NullPointerException();
+
+    this.maxSharedPerClass = maxSharedPerClass;
+    this.maxLocalPerClass = maxLocalPerClass;
+    this.leakDetection = leakDetection;
+    this.logger = logger;
+
+    for(int i = 0; i < CLASS_COUNT; i++)
+    {
+      sharedHeap[i] = new SharedFreeList();
+      sharedDirect[i] = new SharedFreeList();
+    }
+  }
+
+  /**
+   * <p>Acquire a buffer with at least the given capacity.  The buffer is cleared but its contents are not zeroed.
+   *
+   * @param size the minimum capacity.
+   * @param direct true for a direct buffer.
+   * @param owner the object which will own the buffer, for leak detection.  May be <code>null</code>, in which case the buffer
+   *              is not tracked.
+   * @return the buffer.
+   */
+  ByteBuffer acquire(int size, boolean direct, Object owner)
+  {
+    if(leakDetection)
+    {
+      recoverLeaks();
+    }
+
+    ByteBuffer buffer = null;
+    int sizeClass = sizeClass(size);
+    if(sizeClass < 0)
+    {
+      //Too big to pool.
+      buffer = allocate(size, direct);
+    }
+    else
+    {
+      //Local cache first, then the shared pool.
+      buffer = localLists.get().poll(sizeClass, direct);
+      if(buffer == null)
+      {
+        buffer = (direct ? sharedDirect : sharedHeap)[sizeClass].poll();
+      }
+
+      if(buffer != null)
+      {
+        reusedCount.incrementAndGet();
+        buffer.clear();
+      }
+      else
+      {
+        buffer = allocate(1 << (sizeClass + MIN_CLASS_SHIFT), direct);
+      }
+    }
+
+    if(leakDetection && owner != null)
+    {
+      track(buffer, owner);
+    }
+
+    return buffer;
+  }
+
+  /**
+   * <p>Return a buffer to the pool.  The caller must not use the buffer afterwards.
+   *
+   * @param buffer the buffer to return.
+   */
+  void release(ByteBuffer buffer)
+  {
+    if(leakDetection)
+    {
+      untrack(buffer);
+    }
+
+    recycle(buffer);
+  }
+
+  /**
+   * <p>Return the number of new buffers that the pool has allocated.
+   *
+   * @return the number of buffers allocated.
+   */
+  public long getAllocatedCount()
+  {
+    return allocatedCount.get();
+  }
+
+  /**
+   * <p>Return the number of times a free buffer has been reused instead of allocating a new one.
+   *
+   * @return the number of buffers reused.
+   */
+  public long getReusedCount()
+  {
+    return reusedCount.get();
+  }
+
+  /**
+   * <p>Return the number of leaked buffers that have been detected.  Always 0 if leak detection is not enabled.
+   *
+   * @return the number of leaks detected.
+   */
+  public long getLeakCount()
+  {
+    return leakCount.get();
+  }
+
+  /**
+   * <p>Return the number of buffers held by tracked owners which have not been released.  Always 0 if leak detection is not enabled.
+   *
+   * @return the number of outstanding tracked buffers.
+   */
+  public int getOutstandingCount()
+  {
+    synchronized (outstanding)
+    {
+      return outstanding.size();
+    }
+  }
+
+  /**
+   * <p>Return the number of free buffers in the shared pool, heap and direct.
+   *
+   * @return the number of shared free buffers.
+   */
+  public int getSharedFreeCount()
+  {
+    int count = 0;
+    for(int i = 0; i < CLASS_COUNT; i++)
+    {
+      count += sharedHeap[i].size.get() + sharedDirect[i].size.get();
+    }
+    return count;
+  }
+
+  /**
+   * <p>Return the number of free buffers in the calling thread's cache, heap and direct.  Other threads' caches can't be examined.
+   *
+   * @return the number of free buffers cached by the calling thread.
+   */
+  public int getLocalFreeCount()
+  {
+    return localLists.get().size();
+  }
+
+  /**
+   * <p>Check for owners which have been garbage collected without releasing their buffers.  Each leak is logged and the buffer is
+   * returned to the pool.  This is called automatically on every acquire when leak detection is enabled, but can also be called
+   * directly, for example at the end of a test.
+   *
+   * @return the number of leaks found by this call.
+   */
+  public int recoverLeaks()
+  {
+    int leaks = 0;
+    Reference<?> ref;
+    while ((ref = collectedOwners.poll()) != null)
+    {
+      OwnerReference ownerRef = (OwnerReference) ref;
+      boolean leaked;
+      synchronized (outstanding)
+      {
+        leaked = (outstanding.get(ownerRef.buffer) == ownerRef);
+        if(leaked)
+        {
+          outstanding.remove(ownerRef.buffer);
+        }
+      }
+
+      if(leaked)
+      {
+        leaks++;
+        leakCount.incrementAndGet();
+        logger.warn("Buffer of capacity " + ownerRef.buffer.capacity() + " was not released before its owner was garbage collected.  It has been recovered.", ownerRef.allocationSite);
+        recycle(ownerRef.buffer);
+      }
+    }
+    return leaks;
+  }
+
+  /**
+   * <p>Put a buffer in the releasing thread's cache, or the shared pool if the cache is full.
+   */
+  private void recycle(ByteBuffer buffer)
+  {
+    int sizeClass = exactSizeClass(buffer.capacity());
+    if(sizeClass < 0)
+    {
+      //Not a pooled size.  Leave to the garbage collector.
+      return;
+    }
+
+    boolean direct = buffer.isDirect();
+    if(!localLists.get().offer(sizeClass, direct, buffer))
+    {
+      (direct ? sharedDirect : sharedHeap)[sizeClass].offer(buffer, maxSharedPerClass);
+    }
+  }
+
+  /**
+   * <p>Allocate a new buffer.
+   */
+  private ByteBuffer allocate(int capacity, boolean direct)
+  {
+    allocatedCount.incrementAndGet();
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  /**
+   * <p>Start tracking the owner of a buffer.
+   */
+  private void track(ByteBuffer buffer, Object owner)
+  {
+    OwnerReference ref = new OwnerReference(owner, buffer, collectedOwners);
+    synchronized (outstanding)
+    {
+      outstanding.put(buffer, ref);
+    }
+  }
+
+  /**
+   * <p>Stop tracking the owner of a buffer.
+   */
+  private void untrack(ByteBuffer buffer)
+  {
+    OwnerReference ref;
+    synchronized (outstanding)
+    {
+      ref = outstanding.remove(buffer);
+    }
+    if(ref != null)
+    {
+      ref.clear();
+    }
+  }
+
+  /**
+   * <p>Return the size class index for a requested size, or -1 if the size is too large to pool.
+   */
+  private static int sizeClass(int size)
+  {
+    if(size <= MIN_CLASS_SIZE)
+    {
+      return 0;
+    }
+    int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+    return (shift > MAX_CLASS_SHIFT) ? -1 : shift - MIN_CLASS_SHIFT;
+  }
+
+  /**
+   * <p>Return the size class index for a buffer capacity, or -1 if the capacity is not exactly a size class.
+   */
+  private static int exactSizeClass(int capacity)
+  {
+    if(capacity < MIN_CLASS_SIZE || Integer.bitCount(capacity) != 1)
+    {
+      return -1;
+    }
+    int shift = Integer.numberOfTrailingZeros(capacity);
+    return (shift > MAX_CLASS_SHIFT) ? -1 : shift - MIN_CLASS_SHIFT;
+  }
+
+  /**
+   * <p>Shared free list for one size class.
+   */
+  private static final class SharedFreeList
+  {
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    ByteBuffer poll()
+    {
+      ByteBuffer buffer = buffers.poll();
+      if(buffer != null)
+      {
+        size.decrementAndGet();
+      }
+      return buffer;
+    }
+
+    void offer(ByteBuffer buffer, int max)
+    {
+      //Reserve a place first so that the list can't grow past the maximum.
+      if(size.incrementAndGet() <= max)
+      {
+        buffers.offer(buffer);
+      }
+      else
+      {
+        size.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * <p>A thread's free lists for all size classes.  Lists are created when first used.
+   */
+  private final class LocalFreeLists
+  {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] heap = new ArrayDeque[CLASS_COUNT];
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] direct = new ArrayDeque[CLASS_COUNT];
+
+    ByteBuffer poll(int sizeClass, boolean isDirect)
+    {
+      ArrayDeque<ByteBuffer> list = (isDirect ? direct : heap)[sizeClass];
+      return (list == null) ? null : list.poll();
+    }
+
+    boolean offer(int sizeClass, boolean isDirect, ByteBuffer buffer)
+    {
+      ArrayDeque<ByteBuffer>[] lists = isDirect ? direct : heap;
+      ArrayDeque<ByteBuffer> list = lists[sizeClass];
+      if(list == null)
+      {
+        if(maxLocalPerClass == 0)
+        {
+          return false;
+        }
+        list = lists[sizeClass] = new ArrayDeque<>();
+      }
+      if(list.size() >= maxLocalPerClass)
+      {
+        return false;
+      }
+      list.push(buffer);
+      return true;
+    }
+
+    int size()
+    {
+      int count = 0;
+      for(int i = 0; i < CLASS_COUNT; i++)
+      {
+        count += ((heap[i] == null) ? 0 : heap[i].size()) + ((direct[i] == null) ? 0 : direct[i].size());
+      }
+      return count;
+    }
+  }
+
+  /**
+   * <p>Phantom reference to a buffer's owner.  Holds the buffer strongly so that it can be recovered if the owner is collected.
+   */
+  private static final class OwnerReference extends PhantomReference<Object>
+  {
+    private final ByteBuffer buffer;
+
+    private final Throwable allocationSite = new Throwable("Buffer allocation site");
+
+    OwnerReference(Object owner, ByteBuffer buffer, ReferenceQueue<Object> queue)
+    {
+      super(owner, queue);
+      this.buffer = buffer;
+    }
+  }
+}
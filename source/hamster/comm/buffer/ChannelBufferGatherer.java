@@ -0,0 +1,140 @@
+package hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * <p>The channel buffer gatherer drains several {@link DrainableChannelBuffer} instances to a channel in order.  Consecutive
+ * {@link PipelineBuffer} and {@link RingPipelineBuffer} instances are drained together with a single 
+ * {@link GatheringByteChannel#write(ByteBuffer[], int, int)} call, so the underlying OS sees one gathering write instead of one write
+ * per buffer.  Other buffer implementations are drained with their own
+ * {@link DrainableChannelBuffer#drainBufferToChannel(java.nio.channels.WritableByteChannel)} method.
+ * <p>The buffers are drained strictly in order.  If the channel does not accept all of the data in a buffer then the buffers after it
+ * are not drained at all, so data never reach the channel out of order.  Each buffer's consume position is advanced by the
+ * number of its own bytes that the channel accepted.
+ * <p>The same buffer instance must not appear more than once in a single drain operation.
+ * <p>Instances hold reusable working storage, so draining does not allocate once the gatherer has seen the largest number
+ * of buffers it will be asked to drain.  This class is not multithread safe; instances are intended to be owned by a single channel
+ * handler inside the communication loop thread.
+ * 
+ * @author jdf19
+ *
+ */
+public final class ChannelBufferGatherer
+{
+  /**
+   * <p>Reusable array of buffer views for the gathering write.
+   */
+  private ByteBuffer[] views = new ByteBuffer[4 * SegmentedChannelBuffer.MAX_SEGMENTS];
+  
+  /**
+   * <p>Reusable array of the buffers being drained.
+   */
+  private SegmentedChannelBuffer[] segmented = new SegmentedChannelBuffer[4];
+  
+  /**
+   * <p>Drain the given buffers to the channel, in order, until the channel stops accepting data or all of the buffers are empty.
+   * 
+   * @param channel the channel to drain buffer data to.
+   * @param buffers the buffers to drain.
+   * @return the total number of bytes drained.
+   * @throws IOException if an IOException occurred while the given channel was attempting to transfer buffer data.
+   */
+  public long drainBuffersToChannel(GatheringByteChannel channel, DrainableChannelBuffer... buffers) throws IOException
+  {
+    long total = 0;
+    int runStart = 0;
+    
+    for(int i = 0; i <= buffers.length; i++)
+    {
+      //Extend the current run of segmented buffers.
+      if(i < buffers.length && buffers[i] instanceof SegmentedChannelBuffer)
+      {
+        continue;
+      }
+      
+      //Drain the run of segmented buffers before this point in one operation.
+      if(i > runStart)
+      {
+        total += drainSegmented(channel, buffers, runStart, i);
+        for(int j = runStart; j < i; j++)
+        {
+          if(buffers[j].hasDataToConsume())
+          {
+            //The channel didn't accept everything.  Don't drain anything later.
+            return total;
+          }
+        }
+      }
+      
+      //Drain the buffer at this point on its own.
+      if(i < buffers.length)
+      {
+        total += Math.max(0, buffers[i].drainBufferToChannel(channel));
+        if(buffers[i].hasDataToConsume())
+        {
+          //The channel didn't accept everything.  Don't drain anything later.
+          return total;
+        }
+      }
+      
+      runStart = i + 1;
+    }
+    
+    return total;
+  }
+  
+  /**
+   * <p>Drain the segmented buffers in the given range of the buffer array with a single gathering write.
+   * 
+   * @param channel the channel to drain buffer data to.
+   * @param buffers the buffer array.
+   * @param from the first segmented buffer in the range.
+   * @param to the index after the last segmented buffer in the range.
+   * @return the number of bytes drained.
+   * @throws IOException if an IOException occurred while the given channel was attempting to transfer buffer data.
+   */
+  private long drainSegmented(GatheringByteChannel channel, DrainableChannelBuffer[] buffers, int from, int to) throws IOException
+  {
+    int count = to - from;
+    if(count > segmented.length)
+    {
+      segmented = new SegmentedChannelBuffer[Math.max(count, segmented.length * 2)];
+    }
+    if(count * SegmentedChannelBuffer.MAX_SEGMENTS > views.length)
+    {
+      views = new ByteBuffer[segmented.length * SegmentedChannelBuffer.MAX_SEGMENTS];
+    }
+    
+    //Collect the consumable segments of each buffer.
+    int viewCount = 0;
+    int started = 0;
+    long drained = 0;
+    try
+    {
+      for(; started < count; started++)
+      {
+        segmented[started] = (SegmentedChannelBuffer) buffers[from + started];
+        viewCount += segmented[started].startGatheringDrain(views, viewCount);
+      }
+      
+      drained = channel.write(views, 0, viewCount);
+    }
+    finally
+    {
+      //Account for the bytes consumed from each buffer, even if the write failed part way through.
+      for(int i = 0; i < started; i++)
+      {
+        segmented[i].completeGatheringDrain();
+        segmented[i] = null;
+      }
+      for(int i = 0; i < viewCount; i++)
+      {
+        views[i] = null;
+      }
+    }
+    
+    return Math.max(0, drained);
+  }
+}
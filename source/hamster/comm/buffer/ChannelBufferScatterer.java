@@ -0,0 +1,178 @@
+package hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * <p>The channel buffer scatterer fills several {@link FillableChannelBuffer} instances from a channel in order.  Consecutive
+ * {@link PipelineBuffer} and {@link RingPipelineBuffer} instances are filled together with a single 
+ * {@link ScatteringByteChannel#read(ByteBuffer[], int, int)} call, so the underlying OS sees one scattering read instead of one read
+ * per buffer.  Other buffer implementations are filled
+ * with their own {@link FillableChannelBuffer#fillBufferFromChannel(java.nio.channels.ReadableByteChannel, int)} method.
+ * <p>Each buffer is filled up to its limit before any data are placed in the next buffer.  A buffer's limit is either the free space
+ * in the buffer or, if a maximum number of bytes is given for the buffer, the smaller of that and the free space.  This allows a
+ * fixed size header to be read into one buffer and the data following it into another buffer without copying.
+ * <p>The same buffer instance must not appear more than once in a single fill operation.
+ * <p>Instances hold reusable working storage, so filling does not allocate once the scatterer has seen the largest number
+ * of buffers it will be asked to fill.  This class is not multithread safe; instances are intended to be owned by a single channel
+ * handler inside the communication loop thread.
+ * 
+ * @author jdf19
+ *
+ */
+public final class ChannelBufferScatterer
+{
+  /**
+   * <p>Reusable array of buffer views for the scattering read.
+   */
+  private ByteBuffer[] views = new ByteBuffer[4 * SegmentedChannelBuffer.MAX_SEGMENTS];
+  
+  /**
+   * <p>Reusable array of the buffers being filled.
+   */
+  private SegmentedChannelBuffer[] segmented = new SegmentedChannelBuffer[4];
+  
+  /**
+   * <p>Set by {@link #fillSegmented(ScatteringByteChannel, FillableChannelBuffer[], int[], int, int)}: true if every buffer in the run
+   * was filled to its limit.
+   */
+  private boolean runFilled;
+  
+  /**
+   * <p>Fill the given buffers from the channel, in order, until the channel has no more data available or all of the buffers are full.
+   * 
+   * @param channel the channel to transfer the bytes from.
+   * @param buffers the buffers to fill.
+   * @return the total number of bytes filled, or -1 if the channel reached end of stream before any bytes were filled.
+   * @throws IOException if the transfer operation raised a lower-level exception.
+   */
+  public long fillBuffersFromChannel(ScatteringByteChannel channel, FillableChannelBuffer... buffers) throws IOException
+  {
+    return fillBuffersFromChannel(channel, buffers, null);
+  }
+  
+  /**
+   * <p>Fill the given buffers from the channel, in order, until the channel has no more data available or each buffer has been
+   * filled with its maximum number of bytes.
+   * 
+   * @param channel the channel to transfer the bytes from.
+   * @param buffers the buffers to fill.
+   * @param maxBytes the maximum number of bytes to fill each buffer with, or <code>null</code> to fill each buffer to capacity.
+   *                 Must be the same length as the buffers array if given.
+   * @return the total number of bytes filled, or -1 if the channel reached end of stream before any bytes were filled.
+   * @throws IOException if the transfer operation raised a lower-level exception.
+   */
+  public long fillBuffersFromChannel(ScatteringByteChannel channel, FillableChannelBuffer[] buffers, int[] maxBytes) throws IOException
+  {
+    if(maxBytes != null && maxBytes.length != buffers.length) throw new IllegalArgumentException();
+    
+    long total = 0;
+    int runStart = 0;
+    
+    for(int i = 0; i <= buffers.length; i++)
+    {
+      //Extend the current run of segmented buffers.
+      if(i < buffers.length && buffers[i] instanceof SegmentedChannelBuffer)
+      {
+        continue;
+      }
+      
+      //Fill the run of segmented buffers before this point in one operation.
+      if(i > runStart)
+      {
+        long filled = fillSegmented(channel, buffers, maxBytes, runStart, i);
+        if(filled < 0)
+        {
+          //End of stream.
+          return (total > 0) ? total : -1;
+        }
+        total += filled;
+        if(!runFilled)
+        {
+          //The channel had no more data.  Don't fill anything later.
+          return total;
+        }
+      }
+      
+      //Fill the buffer at this point on its own.
+      if(i < buffers.length)
+      {
+        int filled = (maxBytes != null) ? buffers[i].fillBufferFromChannel(channel, maxBytes[i]) : buffers[i].fillBufferFromChannel(channel);
+        if(filled < 0)
+        {
+          //End of stream.
+          return (total > 0) ? total : -1;
+        }
+        total += filled;
+        if((maxBytes == null || filled < maxBytes[i]) && buffers[i].canAcceptTransfer())
+        {
+          //The channel had no more data.  Don't fill anything later.
+          return total;
+        }
+      }
+      
+      runStart = i + 1;
+    }
+    
+    return total;
+  }
+  
+  /**
+   * <p>Fill the segmented buffers in the given range of the buffer array with a single scattering read.
+   * 
+   * @param channel the channel to transfer the bytes from.
+   * @param buffers the buffer array.
+   * @param maxBytes the maximum number of bytes to fill each buffer with, or <code>null</code>.
+   * @param from the first segmented buffer in the range.
+   * @param to the index after the last segmented buffer in the range.
+   * @return the number of bytes filled, or -1 at end of stream.
+   * @throws IOException if the transfer operation raised a lower-level exception.
+   */
+  private long fillSegmented(ScatteringByteChannel channel, FillableChannelBuffer[] buffers, int[] maxBytes, int from, int to) throws IOException
+  {
+    int count = to - from;
+    if(count > segmented.length)
+    {
+      segmented = new SegmentedChannelBuffer[Math.max(count, segmented.length * 2)];
+    }
+    if(count * SegmentedChannelBuffer.MAX_SEGMENTS > views.length)
+    {
+      views = new ByteBuffer[segmented.length * SegmentedChannelBuffer.MAX_SEGMENTS];
+    }
+    
+    //Collect the free segments of each buffer.
+    int viewCount = 0;
+    int started = 0;
+    long filled = 0;
+    try
+    {
+      for(; started < count; started++)
+      {
+        segmented[started] = (SegmentedChannelBuffer) buffers[from + started];
+        viewCount += segmented[started].startScatteringFill(views, viewCount, (maxBytes != null) ? maxBytes[from + started] : Integer.MAX_VALUE);
+      }
+      
+      filled = channel.read(views, 0, viewCount);
+    }
+    finally
+    {
+      //Every buffer in the run is full if every segment is full.
+      runFilled = true;
+      for(int i = 0; i < viewCount; i++)
+      {
+        runFilled &= !views[i].hasRemaining();
+        views[i] = null;
+      }
+      
+      //Account for the bytes filled into each buffer, even if the read failed part way through.
+      for(int i = 0; i < started; i++)
+      {
+        segmented[i].completeScatteringFill();
+        segmented[i] = null;
+      }
+    }
+    
+    return filled;
+  }
+}
@@ -0,0 +1,1203 @@
+package hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>The composite pipeline buffer holds its data in a chain of fixed size segments, so that it can hold messages much larger than a
+ * single buffer without one large contiguous allocation.  Each segment has the capacity given by the {@link BufferFactory}; segments
+ * are added to the end of the chain as data are produced, up to a configured maximum number, and removed from the front as data are
+ * consumed.  When the factory has a {@link BufferPool}, segments are taken from the pool and returned to it.  One empty segment is
+ * kept back to avoid churning the pool.
+ * <p>The buffer offers the same producer, consumer and message block operations as the {@link PipelineBuffer}.  Scalar values which
+ * straddle a segment boundary are assembled byte by byte in the buffer's byte order.  The whole chain is drained with one
+ * {@link GatheringByteChannel} write, and filled with one {@link ScatteringByteChannel} read of up to a configured number of segments.
+ * <p>Consumed segments are kept while a read message is active, so that the message can be rewound.
+ * <p>Call {@link #release()} when the buffer is no longer needed to return all of its segments to the pool.
+ *
+ * @author jdf19
+ */
+public class CompositePipelineBuffer extends BaseBuffer implements FillableChannelBuffer, DrainableChannelBuffer
+{
+  /**
+   * <p>The default maximum number of segments filled by one channel read.
+   */
+  public static final int DEFAULT_FILL_SEGMENTS = 4;
+
+  //The segment chain.  Every segment is held ready to consume: the position is the next byte to consume and the limit is the end of
+  //the produced data.  Segments before the head index have been consumed but are kept for an active read message.
+  private final List<ByteBuffer> segments = new ArrayList<>();
+
+  //Index of the segment holding the next byte to consume.
+  private int head = 0;
+
+  //Index of the segment that the next byte will be produced to.  Any segments after it are empty.
+  private int tail = 0;
+
+  //Number of consumable bytes.
+  private int size = 0;
+
+  //Capacity of every segment.
+  private final int segmentSize;
+
+  //Maximum number of segments in the chain.
+  private final int maxSegments;
+
+  //Maximum number of segments filled by one channel read.
+  private int fillSegments = DEFAULT_FILL_SEGMENTS;
+
+  //Pool that segments are taken from, or null.
+  private final BufferPool segmentPool;
+
+  //Empty segment kept back for reuse.
+  private ByteBuffer spare;
+
+  //Reusable arrays for channel transfers.
+  private ByteBuffer[] transferViews = new ByteBuffer[DEFAULT_FILL_SEGMENTS];
+
+  private int[] transferPositions = new int[DEFAULT_FILL_SEGMENTS];
+
+  //This is true if there is currently an operation lock for a read block operation.
+  private boolean readBlockActive = false;
+
+  //Number of bytes of the currently processed read message which have not been consumed.
+  private int readMessageRemaining = 0;
+
+  //Head segment, its position and the size at the start of the currently processed read message.
+  private int readMessageStartSegment = 0;
+
+  private int readMessageStartPosition = 0;
+
+  private int readMessageStartSize = 0;
+
+  //This is true if there is currently an operation lock for a write block operation.
+  private boolean writeBlockActive = false;
+
+  //Tail segment, its limit and the size at the start of the currently processed write message.
+  private int writeMessageStartSegment = 0;
+
+  private int writeMessageStartPosition = 0;
+
+  private int writeMessageStartSize = 0;
+
+  /**
+   * Create an instance of the composite pipeline buffer.  The segment size is set by the factory.
+   *
+   * @param bufferFact the buffer factory to use when creating the first segment.
+   * @param maxSegments the maximum number of segments.  Must be at least 1.
+   * @throws IllegalArgumentException if the maximum number of segments is less than 1 or the total capacity is more than
+   *         {@link Integer#MAX_VALUE}.
+   */
+  public CompositePipelineBuffer(BufferFactory bufferFact, int maxSegments)
+  {
+    super(bufferFact);
+
+    this.segmentSize = internalBuffer.capacity();
+    this.maxSegments = maxSegments;
+    this.segmentPool = bufferFact.getPool();
+    if(maxSegments < 1 || ((long) maxSegments * segmentSize) > Integer.MAX_VALUE)
+    {
+      throw new IllegalArgumentException();
+    }
+
+    //The internal buffer is the first segment.
+    internalBuffer.limit(0);
+    segments.add(internalBuffer);
+  }
+
+  /**
+   * <p>Set the maximum number of segments filled by one channel read.
+   *
+   * @param count the number of segments.  Must be at least 1.
+   * @return this buffer.
+   */
+  public CompositePipelineBuffer setFillSegments(int count)
+  {
+    if(count < 1) throw new IllegalArgumentException();
+    this.fillSegments = count;
+    return this;
+  }
+
+  /**
+   * <p>Return the number of segments in the chain.
+   *
+   * @return the segment count.
+   */
+  public int segmentCount()
+  {
+    return segments.size();
+  }
+
+  /**
+   * <p>Return the capacity of each segment.
+   *
+   * @return the segment size.
+   */
+  public int segmentSize()
+  {
+    return segmentSize;
+  }
+
+  /**
+   * <p>Release the segments.  Segments taken from a pool are returned to it.  This instance must not be used after it has been released.
+   */
+  @Override
+  public void release()
+  {
+    //The internal buffer is released by the base class.
+    for(int i = 0; i < segments.size(); i++)
+    {
+      discardSegment(segments.get(i));
+    }
+    if(spare != null)
+    {
+      discardSegment(spare);
+    }
+    segments.clear();
+    spare = null;
+
+    super.release();
+  }
+
+  /**
+   * Return the number of consumable bytes in the buffer.
+   *
+   * @return the number of consumable bytes.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * True if there are no consumable data in the buffer.
+   *
+   * @return true if the buffer is empty.
+   */
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  public CompositePipelineBuffer setOrder(ByteOrder order)
+  {
+    internalBuffer.order(order);
+    for(int i = 0; i < segments.size(); i++)
+    {
+      segments.get(i).order(order);
+    }
+    if(spare != null)
+    {
+      spare.order(order);
+    }
+    return this;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //BYTE ARRAY AND BUFFER TRANSFERS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public CompositePipelineBuffer produceFromBytes(byte[] bytesToTransferToThisBuffer)
+  {
+    return produceFromBytes(bytesToTransferToThisBuffer, 0, bytesToTransferToThisBuffer.length);
+  }
+
+  /**
+   * Transfer the raw byte data from the source array into this buffer instance.  There must be enough space in the
+   * buffer to be able to transfer all bytes from the source array.
+   *
+   * @param bytesToTransferToThisBuffer the source array.
+   * @param startIx the index of the first byte to transfer.
+   * @param length the number of bytes to transfer.
+   * @return this buffer.
+   */
+  public CompositePipelineBuffer produceFromBytes(byte[] bytesToTransferToThisBuffer, int startIx, int length)
+  {
+    checkProducable(length);
+
+    //Copy segment by segment.
+    int done = 0;
+    while(done < length)
+    {
+      ByteBuffer segment = produceSegment();
+      int position = segment.position();
+      int limit = segment.limit();
+      int n = Math.min(length - done, segment.capacity() - limit);
+      segment.limit(limit + n);
+      segment.position(limit);
+      segment.put(bytesToTransferToThisBuffer, startIx + done, n);
+      segment.position(position);
+      done += n;
+    }
+
+    size += length;
+    return this;
+  }
+
+  public CompositePipelineBuffer produceFromByteBuffer(ByteBuffer producer)
+  {
+    int length = producer.remaining();
+    checkProducable(length);
+
+    //Copy segment by segment.
+    int producerLimit = producer.limit();
+    while(producer.hasRemaining())
+    {
+      ByteBuffer segment = produceSegment();
+      int position = segment.position();
+      int limit = segment.limit();
+      int n = Math.min(producer.remaining(), segment.capacity() - limit);
+      producer.limit(producer.position() + n);
+      segment.limit(limit + n);
+      segment.position(limit);
+      segment.put(producer);
+      segment.position(position);
+      producer.limit(producerLimit);
+    }
+
+    size += length;
+    return this;
+  }
+
+  public CompositePipelineBuffer consumeBytes(byte[] bytesToTransferToThisBuffer, int startIx, int length)
+  {
+    checkConsumable(length);
+
+    //Copy segment by segment.
+    int done = 0;
+    while(done < length)
+    {
+      ByteBuffer segment = consumeSegment();
+      int n = Math.min(length - done, segment.remaining());
+      segment.get(bytesToTransferToThisBuffer, startIx + done, n);
+      done += n;
+    }
+
+    consumed(length);
+    return this;
+  }
+
+  public CompositePipelineBuffer consumeBytes(byte[] bytesToTransferToThisBuffer)
+  {
+    return consumeBytes(bytesToTransferToThisBuffer, 0, bytesToTransferToThisBuffer.length);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //MOVE DATA TO AND FROM COMMUNICATION CHANNELS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public int drainBufferToChannel(WritableByteChannel channel) throws IOException
+  {
+    return drainBufferToChannel(channel, Integer.MAX_VALUE);
+  }
+
+  @Override
+  @Deprecated
+  public int drainBufferToChannel(WritableByteChannel channel, int maxBytesToSend) throws IOException
+  {
+    //Check we can consume data - no message is in progress.
+    if(writeBlockActive)
+    {
+      throw new IllegalStateException("Write message active");
+    }
+    if(readBlockActive)
+    {
+      throw new IllegalStateException("Read message active");
+    }
+
+    //Collect the segments holding the data to send.  The last one may be cut short.
+    int toSend = Math.min(size, Math.max(0, maxBytesToSend));
+    int count = 0;
+    int cutLimit = -1;
+    for(int i = head; toSend > 0; i++)
+    {
+      ByteBuffer segment = segments.get(i);
+      if(segment.remaining() > toSend)
+      {
+        cutLimit = segment.limit();
+        segment.limit(segment.position() + toSend);
+      }
+      toSend -= segment.remaining();
+      addTransferView(count++, segment, segment.position());
+    }
+
+    long i = 0;
+    try
+    {
+      if(count == 1)
+      {
+        i = channel.write(transferViews[0]);
+      }
+      else if(count > 1 && channel instanceof GatheringByteChannel)
+      {
+        //All segments in one operation.
+        i = ((GatheringByteChannel) channel).write(transferViews, 0, count);
+      }
+      else
+      {
+        //Each segment in turn until the channel doesn't accept a whole one.
+        for(int j = 0; j < count; j++)
+        {
+          i += channel.write(transferViews[j]);
+          if(transferViews[j].hasRemaining())
+          {
+            break;
+          }
+        }
+      }
+    }
+    finally
+    {
+      //Restore the cut segment.
+      if(cutLimit >= 0)
+      {
+        transferViews[count - 1].limit(cutLimit);
+      }
+      clearTransferViews(count);
+
+      //The channel has advanced the segment positions.
+      int drained = (int) Math.max(0, i);
+      size -= drained;
+      trimHead();
+    }
+
+    //Return the number of bytes drained.
+    return (int) i;
+  }
+
+  @Override
+  public boolean hasDataToConsume()
+  {
+    return size > 0;
+  }
+
+  @Override
+  public int fillBufferFromChannel(ReadableByteChannel channel) throws IOException
+  {
+    return fillBufferFromChannel(channel, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int fillBufferFromChannel(ReadableByteChannel channel, int maxBytesToReceive) throws IOException
+  {
+    checkProducable(0);
+
+    //Expose free space from the tail segment onwards, adding segments as required.
+    int toReceive = Math.min(freeSpace(), Math.max(0, maxBytesToReceive));
+    int count = 0;
+    for(int s = tail; toReceive > 0 && count < fillSegments; s++)
+    {
+      if(s == segments.size())
+      {
+        segments.add(newSegment());
+      }
+      ByteBuffer segment = segments.get(s);
+      int limit = segment.limit();
+      int n = Math.min(toReceive, segment.capacity() - limit);
+      if(n > 0)
+      {
+        addTransferView(count++, segment, segment.position());
+        segment.limit(limit + n);
+        segment.position(limit);
+        toReceive -= n;
+      }
+    }
+
+    long i = 0;
+    try
+    {
+      if(count == 1)
+      {
+        i = channel.read(transferViews[0]);
+      }
+      else if(count > 1 && channel instanceof ScatteringByteChannel)
+      {
+        //All segments in one operation.
+        i = ((ScatteringByteChannel) channel).read(transferViews, 0, count);
+      }
+      else
+      {
+        //Each segment in turn until one isn't filled.
+        for(int j = 0; j < count; j++)
+        {
+          int r = channel.read(transferViews[j]);
+          if(r < 0)
+          {
+            i = (j == 0) ? r : i;
+            break;
+          }
+          i += r;
+          if(transferViews[j].hasRemaining())
+          {
+            break;
+          }
+        }
+      }
+    }
+    finally
+    {
+      //The produced data end at each segment's position.
+      for(int j = 0; j < count; j++)
+      {
+        ByteBuffer segment = transferViews[j];
+        segment.limit(segment.position());
+        segment.position(transferPositions[j]);
+      }
+      clearTransferViews(count);
+
+      if(i > 0)
+      {
+        size += (int) i;
+      }
+      while(tail + 1 < segments.size() && !hasSpace(segments.get(tail)))
+      {
+        tail++;
+      }
+    }
+
+    //Return the number of bytes filled.
+    return (int) i;
+  }
+
+  @Override
+  public boolean canAcceptTransfer()
+  {
+    return freeSpace() > 0;
+  }
+
+  @Override
+  public boolean hasSpaceFor(int requiredBufferLen)
+  {
+    return requiredBufferLen <= freeSpace();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //CONSUME SCALAR DATA FROM THE BUFFER
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public byte consumeByte()
+  {
+    checkConsumable(1);
+    byte ret = consumeSegment().get();
+    consumed(1);
+    return ret;
+  }
+
+  public byte peekByte(int atPosition)
+  {
+    return (byte) peek(atPosition, 1);
+  }
+
+  public char consumeChar()
+  {
+    return (char) consume(2);
+  }
+
+  public char peekChar(int atPosition)
+  {
+    return (char) peek(atPosition, 2);
+  }
+
+  public short consumeShort()
+  {
+    return (short) consume(2);
+  }
+
+  public short peekShort(int atPosition)
+  {
+    return (short) peek(atPosition, 2);
+  }
+
+  public int consumeInt()
+  {
+    return (int) consume(4);
+  }
+
+  public int peekInt(int atPosition)
+  {
+    return (int) peek(atPosition, 4);
+  }
+
+  public long consumeLong()
+  {
+    return consume(8);
+  }
+
+  public long peekLong(int atPosition)
+  {
+    return peek(atPosition, 8);
+  }
+
+  public float consumeFloat()
+  {
+    return Float.intBitsToFloat(consumeInt());
+  }
+
+  public float peekFloat(int atPosition)
+  {
+    return Float.intBitsToFloat(peekInt(atPosition));
+  }
+
+  public double consumeDouble()
+  {
+    return Double.longBitsToDouble(consumeLong());
+  }
+
+  public double peekDouble(int atPosition)
+  {
+    return Double.longBitsToDouble(peekLong(atPosition));
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //PRODUCE SCALAR DATA TO THE BUFFER
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public CompositePipelineBuffer produceByte(byte data)
+  {
+    return produce(data, 1);
+  }
+
+  public CompositePipelineBuffer produceChar(char data)
+  {
+    return produce(data, 2);
+  }
+
+  public CompositePipelineBuffer produceShort(short data)
+  {
+    return produce(data, 2);
+  }
+
+  public CompositePipelineBuffer produceInt(int data)
+  {
+    return produce(data, 4);
+  }
+
+  public CompositePipelineBuffer produceLong(long data)
+  {
+    return produce(data, 8);
+  }
+
+  public CompositePipelineBuffer produceFloat(float data)
+  {
+    return produce(Float.floatToRawIntBits(data), 4);
+  }
+
+  public CompositePipelineBuffer produceDouble(double data)
+  {
+    return produce(Double.doubleToRawLongBits(data), 8);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //PRODUCE SCALAR DATA TO THE BUFFER AT A POSITION IN THE CURRENT WRITE MESSAGE
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public CompositePipelineBuffer produceByteAt(int atPosition, byte data)
+  {
+    return produceAt(atPosition, data, 1);
+  }
+
+  public CompositePipelineBuffer produceCharAt(int atPosition, char data)
+  {
+    return produceAt(atPosition, data, 2);
+  }
+
+  public CompositePipelineBuffer produceShortAt(int atPosition, short data)
+  {
+    return produceAt(atPosition, data, 2);
+  }
+
+  public CompositePipelineBuffer produceIntAt(int atPosition, int data)
+  {
+    return produceAt(atPosition, data, 4);
+  }
+
+  public CompositePipelineBuffer produceLongAt(int atPosition, long data)
+  {
+    return produceAt(atPosition, data, 8);
+  }
+
+  public CompositePipelineBuffer produceFloatAt(int atPosition, float data)
+  {
+    return produceAt(atPosition, Float.floatToRawIntBits(data), 4);
+  }
+
+  public CompositePipelineBuffer produceDoubleAt(int atPosition, double data)
+  {
+    return produceAt(atPosition, Double.doubleToRawLongBits(data), 8);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //FIXED MESSAGE SIZE DELIMITING
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  ///*** READ BLOCK
+
+  /**
+   * Try to start a message if there is enough data to satisfy it in the buffer.  If not then return false.
+   *
+   * @param length the message length.
+   * @return true if the message was started.
+   */
+  public boolean tryStartReadMessage(int length)
+  {
+    //Make sure we are consuming.
+    checkConsumable(0);
+
+    //Do we have enough data to satisfy the entire message?
+    if(size < length) return false;
+
+    //Store the message block start.
+    this.readMessageStartSegment = head;
+    this.readMessageStartPosition = segments.get(head).position();
+    this.readMessageStartSize = size;
+    this.readMessageRemaining = length;
+
+    //Set the read block active flag.
+    this.readBlockActive = true;
+
+    //Return this.
+    return true;
+  }
+
+  public CompositePipelineBuffer startReadMessage(int length)
+  {
+    if(!tryStartReadMessage(length)) throw new BufferUnderflowException();
+    return this;
+  }
+
+  /**
+   * Return true if there are consumable data remaining in the current read message.
+   *
+   * @return true if there are unconsumed message data.
+   */
+  public boolean hasReadMessageDataRemaining()
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!readBlockActive) throw new IllegalStateException();
+
+    return readMessageRemaining > 0;
+  }
+
+  /**
+   * Complete the message block.  All message data are consumed regardless if there are unconsumed data at the end of the message.
+   *
+   * @return this buffer.
+   */
+  public CompositePipelineBuffer completeReadMessage()
+  {
+    //Skip the rest of the message.
+    int skip = readMessageRemaining;
+    while(skip > 0)
+    {
+      ByteBuffer segment = consumeSegment();
+      int n = Math.min(skip, segment.remaining());
+      segment.position(segment.position() + n);
+      skip -= n;
+    }
+    size -= readMessageRemaining;
+    readMessageRemaining = 0;
+
+    //Release the consumed segments.
+    this.readBlockActive = false;
+    trimHead();
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * Rewind the message block.  The message data will be consumed again.
+   *
+   * @return this buffer.
+   */
+  public CompositePipelineBuffer rewindReadMessage()
+  {
+    //Restore the consume positions.  Only the first segment had been partly consumed at the start of the message.
+    for(int i = readMessageStartSegment; i <= head; i++)
+    {
+      segments.get(i).position((i == readMessageStartSegment) ? readMessageStartPosition : 0);
+    }
+    this.head = readMessageStartSegment;
+    this.size = readMessageStartSize;
+    this.readMessageRemaining = 0;
+    this.readBlockActive = false;
+
+    //Return this.
+    return this;
+  }
+
+  ///*** WRITE BLOCK
+
+  public CompositePipelineBuffer startWriteMessage()
+  {
+    //Make sure we are producing.
+    checkProducable(0);
+
+    //Set the write block active flag.
+    this.writeBlockActive = true;
+
+    //Store the message block start.
+    this.writeMessageStartSegment = tail;
+    this.writeMessageStartPosition = segments.get(tail).limit();
+    this.writeMessageStartSize = size;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * Return true if there is space to produce more message data.
+   *
+   * @return true if there is space remaining.
+   */
+  public boolean hasWriteMessageSpaceRemaining()
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!writeBlockActive) throw new IllegalStateException();
+
+    return freeSpace() > 0;
+  }
+
+  public int messageBlockWritePosition()
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!writeBlockActive) throw new IllegalStateException();
+
+    return size - writeMessageStartSize;
+  }
+
+  /**
+   * Complete the message block.  The produced message data can then be consumed.
+   *
+   * @return this buffer.
+   */
+  public CompositePipelineBuffer completeWriteMessage()
+  {
+    //Reset the write block active flag.
+    this.writeBlockActive = false;
+
+    //Return this.
+    return this;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //SEGMENT MANAGEMENT
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Return the number of bytes that can be produced.  Consumed segments at the front of the chain are not counted.
+   */
+  private int freeSpace()
+  {
+    ByteBuffer segment = segments.get(tail);
+    return (segment.capacity() - segment.limit()) + ((maxSegments - tail - 1) * segmentSize);
+  }
+
+  /**
+   * <p>Return the segment that the next byte will be produced to, moving to the next segment or adding one if the tail is full.
+   * The caller has already checked that there is space.
+   */
+  private ByteBuffer produceSegment()
+  {
+    ByteBuffer segment = segments.get(tail);
+    if(!hasSpace(segment))
+    {
+      tail++;
+      if(tail == segments.size())
+      {
+        segments.add(newSegment());
+      }
+      segment = segments.get(tail);
+    }
+    return segment;
+  }
+
+  /**
+   * <p>Return the segment holding the next byte to consume.  The caller has already checked that there are data.
+   */
+  private ByteBuffer consumeSegment()
+  {
+    ByteBuffer segment = segments.get(head);
+    while(!segment.hasRemaining())
+    {
+      segment = segments.get(++head);
+    }
+    return segment;
+  }
+
+  /**
+   * <p>Account for consumed bytes.
+   */
+  private void consumed(int length)
+  {
+    size -= length;
+    if(readBlockActive)
+    {
+      readMessageRemaining -= length;
+    }
+    trimHead();
+  }
+
+  /**
+   * <p>Remove fully consumed segments from the front of the chain, unless a read message needs them.  If the buffer is empty then the
+   * remaining segment is reset so that it can be produced to from the start.
+   */
+  private void trimHead()
+  {
+    if(readBlockActive || writeBlockActive)
+    {
+      return;
+    }
+
+    //Move the head past consumed segments.
+    while(head < tail && !segments.get(head).hasRemaining())
+    {
+      head++;
+    }
+
+    //Remove them.
+    if(head > 0)
+    {
+      for(int i = 0; i < head; i++)
+      {
+        recycleSegment(segments.get(i));
+      }
+      segments.subList(0, head).clear();
+      tail -= head;
+      head = 0;
+    }
+
+    //Empty.  Start the first segment again and give back any empty segments left after a fill.
+    if(size == 0)
+    {
+      ByteBuffer segment = segments.get(0);
+      segment.limit(0);
+      segment.position(0);
+      for(int i = segments.size() - 1; i > 0; i--)
+      {
+        recycleSegment(segments.remove(i));
+      }
+      tail = 0;
+    }
+  }
+
+  /**
+   * <p>Return a new empty segment, ready to produce to.
+   */
+  private ByteBuffer newSegment()
+  {
+    ByteBuffer segment = spare;
+    if(segment != null)
+    {
+      spare = null;
+    }
+    else if(segmentPool != null)
+    {
+      segment = segmentPool.acquire(segmentSize, internalBuffer.isDirect(), this);
+    }
+    else
+    {
+      segment = (internalBuffer.isDirect()) ? ByteBuffer.allocateDirect(segmentSize) : ByteBuffer.allocate(segmentSize);
+    }
+    segment.order(internalBuffer.order());
+    segment.limit(0);
+    segment.position(0);
+    return segment;
+  }
+
+  /**
+   * <p>Keep a consumed segment back for reuse, or discard it if a segment has already been kept back.  The internal buffer is always
+   * kept because it is released by the base class.
+   */
+  private void recycleSegment(ByteBuffer segment)
+  {
+    if(spare == null || segment == internalBuffer)
+    {
+      if(spare != null)
+      {
+        discardSegment(spare);
+      }
+      spare = segment;
+    }
+    else
+    {
+      discardSegment(segment);
+    }
+  }
+
+  /**
+   * <p>Return a segment to the pool.  The internal buffer is left to the base class.
+   */
+  private void discardSegment(ByteBuffer segment)
+  {
+    if(segmentPool != null && segment != internalBuffer)
+    {
+      segmentPool.release(segment);
+    }
+  }
+
+  private static boolean hasSpace(ByteBuffer segment)
+  {
+    return segment.limit() < segment.capacity();
+  }
+
+  private void addTransferView(int index, ByteBuffer segment, int consumeStart)
+  {
+    if(index == transferViews.length)
+    {
+      ByteBuffer[] views = new ByteBuffer[index * 2];
+      System.arraycopy(transferViews, 0, views, 0, index);
+      transferViews = views;
+      int[] positions = new int[index * 2];
+      System.arraycopy(transferPositions, 0, positions, 0, index);
+      transferPositions = positions;
+    }
+    transferViews[index] = segment;
+    transferPositions[index] = consumeStart;
+  }
+
+  private void clearTransferViews(int count)
+  {
+    for(int j = 0; j < count; j++)
+    {
+      transferViews[j] = null;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //SCALAR ACCESS ACROSS SEGMENTS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Consume a value of the given number of bytes.
+   */
+  private long consume(int length)
+  {
+    checkConsumable(length);
+
+    ByteBuffer segment = consumeSegment();
+    long value;
+    if(segment.remaining() >= length)
+    {
+      //In one segment.
+      value = read(segment, segment.position(), length);
+      segment.position(segment.position() + length);
+    }
+    else
+    {
+      //Across segments.
+      boolean big = internalBuffer.order() == ByteOrder.BIG_ENDIAN;
+      value = 0;
+      for(int i = 0; i < length; i++)
+      {
+        long b = consumeSegment().get() & 0xFFL;
+        value |= (big) ? (b << (8 * (length - 1 - i))) : (b << (8 * i));
+      }
+    }
+
+    consumed(length);
+    return value;
+  }
+
+  /**
+   * <p>Peek at a value of the given number of bytes at the given position relative to the next byte to consume.
+   */
+  private long peek(int atPosition, int length)
+  {
+    if(writeBlockActive)
+    {
+      throw new IllegalStateException("Write message active");
+    }
+    if(atPosition < 0 || atPosition + length > size)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+
+    //Find the segment.
+    int s = head;
+    int offset = segments.get(head).position() + atPosition;
+    while(offset >= segments.get(s).limit())
+    {
+      offset -= segments.get(s).limit();
+      s++;
+    }
+
+    //In one segment.
+    ByteBuffer segment = segments.get(s);
+    if(offset + length <= segment.limit())
+    {
+      return read(segment, offset, length);
+    }
+
+    //Across segments.
+    boolean big = internalBuffer.order() == ByteOrder.BIG_ENDIAN;
+    long value = 0;
+    for(int i = 0; i < length; i++)
+    {
+      if(offset == segment.limit())
+      {
+        segment = segments.get(++s);
+        offset = 0;
+      }
+      long b = segment.get(offset++) & 0xFFL;
+      value |= (big) ? (b << (8 * (length - 1 - i))) : (b << (8 * i));
+    }
+    return value;
+  }
+
+  /**
+   * <p>Produce a value of the given number of bytes.
+   */
+  private CompositePipelineBuffer produce(long value, int length)
+  {
+    checkProducable(length);
+
+    ByteBuffer segment = produceSegment();
+    int limit = segment.limit();
+    if(segment.capacity() - limit >= length)
+    {
+      //In one segment.
+      segment.limit(limit + length);
+      write(segment, limit, value, length);
+    }
+    else
+    {
+      //Across segments.
+      boolean big = internalBuffer.order() == ByteOrder.BIG_ENDIAN;
+      for(int i = 0; i < length; i++)
+      {
+        segment = produceSegment();
+        limit = segment.limit();
+        segment.limit(limit + 1);
+        segment.put(limit, (byte) (value >>> (8 * ((big) ? length - 1 - i : i))));
+      }
+    }
+
+    size += length;
+    return this;
+  }
+
+  /**
+   * <p>Overwrite a value of the given number of bytes at the given position in the current write message.
+   */
+  private CompositePipelineBuffer produceAt(int atPosition, long value, int length)
+  {
+    if(!writeBlockActive)
+    {
+      throw new IllegalStateException("Write message block operation not active");
+    }
+    if(atPosition < 0 || atPosition + length > size - writeMessageStartSize)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+
+    //Find the segment.
+    int s = writeMessageStartSegment;
+    int offset = writeMessageStartPosition + atPosition;
+    while(offset >= segments.get(s).capacity())
+    {
+      offset -= segments.get(s).capacity();
+      s++;
+    }
+
+    //In one segment.
+    ByteBuffer segment = segments.get(s);
+    if(offset + length <= segment.limit())
+    {
+      write(segment, offset, value, length);
+      return this;
+    }
+
+    //Across segments.
+    boolean big = internalBuffer.order() == ByteOrder.BIG_ENDIAN;
+    for(int i = 0; i < length; i++)
+    {
+      if(offset == segment.limit())
+      {
+        segment = segments.get(++s);
+        offset = 0;
+      }
+      segment.put(offset++, (byte) (value >>> (8 * ((big) ? length - 1 - i : i))));
+    }
+    return this;
+  }
+
+  private static long read(ByteBuffer segment, int index, int length)
+  {
+    switch (length)
+    {
+      case 1:
+        return segment.get(index);
+      case 2:
+        return segment.getShort(index);
+      case 4:
+        return segment.getInt(index);
+      default:
+        return segment.getLong(index);
+    }
+  }
+
+  private static void write(ByteBuffer segment, int index, long value, int length)
+  {
+    switch (length)
+    {
+      case 1:
+        segment.put(index, (byte) value);
+        break;
+      case 2:
+        segment.putShort(index, (short) value);
+        break;
+      case 4:
+        segment.putInt(index, (int) value);
+        break;
+      default:
+        segment.putLong(index, value);
+        break;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //OPERATION CHECKS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Check that the given number of bytes can be produced.  Data can't be produced while a read message is active.
+   */
+  private void checkProducable(int length)
+  {
+    if(readBlockActive)
+    {
+      throw new IllegalStateException("Read message active");
+    }
+    if(length > freeSpace())
+    {
+      throw new BufferOverflowException();
+    }
+  }
+
+  /**
+   * <p>Check that the given number of bytes can be consumed.  Data can't be consumed while a write message is active, and can't be
+   * consumed beyond the end of an active read message.
+   */
+  private void checkConsumable(int length)
+  {
+    if(writeBlockActive)
+    {
+      throw new IllegalStateException("Write message active");
+    }
+    if(length > (readBlockActive ? readMessageRemaining : size))
+    {
+      throw new BufferUnderflowException();
+    }
+  }
+}
@@ -0,0 +1,475 @@
+package hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>The elastic pipeline buffer is a {@link PipelineBuffer} whose capacity follows the amount of data it holds.  It starts at the
+ * capacity given by the {@link BufferFactory} and, when there is not enough space to produce data, grows by doubling up to a
+ * configured maximum capacity.  Once the buffer has been found empty at a number of consecutive idle checks, without holding more than
+ * its initial capacity in the meantime, it shrinks back to the initial capacity.
+ * <p>The buffer only grows when data are produced to it: by the produce methods, by transfers from an {@link AccessBuffer} and before
+ * a channel fill.  The {@link #hasSpaceFor(int)}
+ * and {@link #canAcceptTransfer()} methods report whether there is space once the buffer has grown, but do not change it.  Idle checks are made after each channel drain and before each channel fill, and can also be made by the owner with
+ * {@link #trimIfIdle()}.  Growing or shrinking copies the held data to a new internal buffer; when the factory has a {@link BufferPool},
+ * the new buffer is taken from the pool and the old one returned to it.
+ * <p>Data produced with the produceXXXAt() methods must fall inside data already produced in the current write message.
+ *
+ * @author jdf19
+ */
+public class ElasticPipelineBuffer extends PipelineBuffer
+{
+  /**
+   * <p>The default number of consecutive idle checks before the buffer shrinks.
+   */
+  public static final int DEFAULT_IDLE_CHECKS = 8;
+
+  //Capacity at construction.  The buffer shrinks back to this.
+  private final int initialCapacity;
+
+  //Capacity that the buffer will not grow beyond.
+  private final int maxCapacity;
+
+  //Consecutive idle checks required before shrinking.
+  private int idleChecksToShrink = DEFAULT_IDLE_CHECKS;
+
+  //Consecutive idle checks so far.
+  private int idleChecks = 0;
+
+  //Set when the held data exceed the initial capacity.  Cleared by the next idle check.
+  private boolean busy = false;
+
+  /**
+   * Create an instance of the elastic pipeline buffer.  The initial capacity is set by the factory.
+   *
+   * @param bufferFact the buffer factory to use when creating the internal buffer.
+   * @param maxCapacity the capacity that the buffer will not grow beyond.
+   * @throws IllegalArgumentException if the maximum capacity is less than the initial capacity.
+   */
+  public ElasticPipelineBuffer(BufferFactory bufferFact, int maxCapacity)
+  {
+    super(bufferFact);
+
+    this.initialCapacity = internalBuffer.capacity();
+    this.maxCapacity = maxCapacity;
+    if(maxCapacity < initialCapacity)
+    {
+      throw new IllegalArgumentException("Maximum capacity less than initial capacity");
+    }
+  }
+
+  /**
+   * <p>Set the number of consecutive idle checks at which the buffer is empty before it shrinks back to its initial capacity.
+   *
+   * @param checks the number of idle checks.  Must be at least 1.
+   * @return this buffer.
+   */
+  public ElasticPipelineBuffer setIdleChecksToShrink(int checks)
+  {
+    if(checks < 1) throw new IllegalArgumentException();
+    this.idleChecksToShrink = checks;
+    return this;
+  }
+
+  /**
+   * <p>Return the current capacity of the internal buffer.
+   *
+   * @return the capacity.
+   */
+  public int capacity()
+  {
+    return internalBuffer.capacity();
+  }
+
+  /**
+   * <p>Return the capacity that the buffer will not grow beyond.
+   *
+   * @return the maximum capacity.
+   */
+  public int maxCapacity()
+  {
+    return maxCapacity;
+  }
+
+  /**
+   * <p>Make an idle check.  If the buffer is empty, and has been empty at the given number of consecutive idle checks without holding
+   * more than its initial capacity in the meantime, then it shrinks back to its initial capacity.
+   *
+   * @return true if the buffer shrank.
+   */
+  public boolean trimIfIdle()
+  {
+    //Not idle.  The buffer is also not idle if it has needed more than its initial capacity since the last check.
+    if(busy || heldBytes() > 0)
+    {
+      busy = false;
+      idleChecks = 0;
+      return false;
+    }
+
+    //Idle but nothing to give back.
+    if(internalBuffer.capacity() <= initialCapacity)
+    {
+      return false;
+    }
+
+    //Idle for long enough?
+    if(++idleChecks < idleChecksToShrink)
+    {
+      return false;
+    }
+
+    idleChecks = 0;
+    resizeInternalBuffer(initialCapacity);
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //SPACE CHECKS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean hasSpaceFor(int requiredBufferLen)
+  {
+    return super.hasSpaceFor(requiredBufferLen) || ((long) heldBytes() + requiredBufferLen <= maxCapacity);
+  }
+
+  @Override
+  public boolean canAcceptTransfer()
+  {
+    return super.canAcceptTransfer() || (heldBytes() < maxCapacity);
+  }
+
+  @Override
+  public boolean hasWriteMessageSpaceRemaining()
+  {
+    return super.hasWriteMessageSpaceRemaining() || (heldBytes() < maxCapacity);
+  }
+
+  /**
+   * <p>Grow the buffer if there is not enough space after the held data for the given number of bytes.  The capacity is doubled until
+   * there is enough space, up to the maximum capacity.
+   *
+   * @param bytes the number of bytes to be produced.
+   * @return true if there is enough space.
+   */
+  private boolean ensureSpace(int bytes)
+  {
+    int held = heldBytes();
+    long required = (long) held + bytes;
+
+    //A message bigger than the initial capacity means the buffer isn't idle.
+    if(required > initialCapacity)
+    {
+      busy = true;
+    }
+
+    //Enough space already?
+    if(super.hasSpaceFor(bytes))
+    {
+      return true;
+    }
+
+    //Can't grow far enough.
+    if(required > maxCapacity)
+    {
+      return false;
+    }
+
+    //Enough space once the consumed data have been reclaimed?  Producing reclaims them.
+    int capacity = internalBuffer.capacity();
+    if(required <= capacity)
+    {
+      return true;
+    }
+
+    //Double up to the maximum.
+    long newCapacity = capacity;
+    while(newCapacity < required)
+    {
+      newCapacity *= 2;
+    }
+    resizeInternalBuffer((int) Math.min(newCapacity, maxCapacity));
+    return true;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //CHANNEL TRANSFERS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public int drainBufferToChannel(WritableByteChannel channel) throws IOException
+  {
+    int i = super.drainBufferToChannel(channel);
+    trimIfIdle();
+    return i;
+  }
+
+  @Override
+  public int fillBufferFromChannel(ReadableByteChannel channel) throws IOException
+  {
+    prepareFill();
+    int i = super.fillBufferFromChannel(channel);
+    checkBusy();
+    return i;
+  }
+
+  @Override
+  public int fillBufferFromChannel(ReadableByteChannel channel, int maxBytesToReceive) throws IOException
+  {
+    prepareFill();
+    int i = super.fillBufferFromChannel(channel, maxBytesToReceive);
+    checkBusy();
+    return i;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void completeGatheringDrain()
+  {
+    super.completeGatheringDrain();
+    trimIfIdle();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int startScatteringFill(ByteBuffer[] views, int offset, int maxBytesToReceive)
+  {
+    prepareFill();
+    return super.startScatteringFill(views, offset, maxBytesToReceive);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void completeScatteringFill()
+  {
+    super.completeScatteringFill();
+    checkBusy();
+  }
+
+  /**
+   * <p>Make an idle check before a fill, and grow the buffer if it is full.
+   */
+  private void prepareFill()
+  {
+    trimIfIdle();
+    ensureSpace(1);
+  }
+
+  /**
+   * <p>Record if a fill has left more than the initial capacity in the buffer.
+   */
+  private void checkBusy()
+  {
+    if(heldBytes() > initialCapacity)
+    {
+      busy = true;
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //PRODUCE DATA TO THE BUFFER
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public ElasticPipelineBuffer produceFromBytes(byte[] bytesToTransferToThisBuffer)
+  {
+    ensureSpace(bytesToTransferToThisBuffer.length);
+    super.produceFromBytes(bytesToTransferToThisBuffer);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceFromBytes(byte[] bytesToTransferToThisBuffer, int startIx, int length)
+  {
+    ensureSpace(length);
+    super.produceFromBytes(bytesToTransferToThisBuffer, startIx, length);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceFromByteBuffer(ByteBuffer producer)
+  {
+    ensureSpace(producer.remaining());
+    super.produceFromByteBuffer(producer);
+    return this;
+  }
+
+  @Override
+  void doTransferFrom(ByteBuffer sourceBuffer)
+  {
+    //Access buffer transfers to this buffer.
+    ensureSpace(sourceBuffer.remaining());
+    super.doTransferFrom(sourceBuffer);
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceDataFromPipelineBuffer(PipelineBuffer producer)
+  {
+    ensureSpace(producer.size());
+    super.produceDataFromPipelineBuffer(producer);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceByte(byte data)
+  {
+    ensureSpace(1);
+    super.produceByte(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceChar(char data)
+  {
+    ensureSpace(2);
+    super.produceChar(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceShort(short data)
+  {
+    ensureSpace(2);
+    super.produceShort(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceInt(int data)
+  {
+    ensureSpace(4);
+    super.produceInt(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceLong(long data)
+  {
+    ensureSpace(8);
+    super.produceLong(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceFloat(float data)
+  {
+    ensureSpace(4);
+    super.produceFloat(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceDouble(double data)
+  {
+    ensureSpace(8);
+    super.produceDouble(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceShorts(short[] data, int startIx, int length)
+  {
+    ensureSpace(length * 2);
+    super.produceShorts(data, startIx, length);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceChars(char[] data, int startIx, int length)
+  {
+    ensureSpace(length * 2);
+    super.produceChars(data, startIx, length);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceInts(int[] data, int startIx, int length)
+  {
+    ensureSpace(length * 4);
+    super.produceInts(data, startIx, length);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceLongs(long[] data, int startIx, int length)
+  {
+    ensureSpace(length * 8);
+    super.produceLongs(data, startIx, length);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceFloats(float[] data, int startIx, int length)
+  {
+    ensureSpace(length * 4);
+    super.produceFloats(data, startIx, length);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceDoubles(double[] data, int startIx, int length)
+  {
+    ensureSpace(length * 8);
+    super.produceDoubles(data, startIx, length);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceVarLong(long data)
+  {
+    ensureSpace(VariableLengthCodec.varLongLength(data));
+    super.produceVarLong(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceVarInt(int data)
+  {
+    ensureSpace(VariableLengthCodec.varLongLength(data & 0xffffffffL));
+    super.produceVarInt(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceZigZagLong(long data)
+  {
+    ensureSpace(VariableLengthCodec.varLongLength(VariableLengthCodec.zigZag(data)));
+    super.produceZigZagLong(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceZigZagInt(int data)
+  {
+    ensureSpace(VariableLengthCodec.varLongLength(VariableLengthCodec.zigZag(data) & 0xffffffffL));
+    super.produceZigZagInt(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceUtf8(CharSequence data)
+  {
+    int length = VariableLengthCodec.utf8Length(data);
+    ensureSpace(VariableLengthCodec.varLongLength(length) + length);
+    super.produceUtf8(data);
+    return this;
+  }
+
+  @Override
+  public ElasticPipelineBuffer produceAscii(CharSequence data)
+  {
+    int length = data.length();
+    ensureSpace(VariableLengthCodec.varLongLength(length) + length);
+    super.produceAscii(data);
+    return this;
+  }
+}
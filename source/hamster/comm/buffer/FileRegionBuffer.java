@@ -0,0 +1,126 @@
+package hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>The file region buffer drains a region of a file to a channel with {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * When the target is a socket channel, the operating system can move the file data straight from the page cache to the socket
+ * without copying them through a user space buffer.
+ * <p>The buffer is drained in the same way as any other {@link DrainableChannelBuffer}, typically with
+ * {@link hamster.comm.itf.controller.WritableChannelController#writeOutgoingData(DrainableChannelBuffer)}.  If the channel can't take
+ * the whole region then the buffer still has data to consume, so the channel's OP_WRITE interest is set and the owner is called
+ * back when the channel becomes writable again to continue the transfer.  A header in a {@link PipelineBuffer} can be sent ahead
+ * of the file region by passing both to {@link hamster.comm.itf.controller.WritableChannelController#writeOutgoingData(DrainableChannelBuffer...)}.
+ * <p>The file channel is owned by the caller, which must keep it open until the region has been drained and close it afterwards.
+ * The buffer can be reused for a different region with {@link #setRegion(FileChannel, long, long)}.
+ *
+ * @author jdf19
+ */
+public class FileRegionBuffer implements DrainableChannelBuffer
+{
+  //The file to transfer from.
+  private FileChannel file;
+
+  //File position of the next byte to transfer.
+  private long position;
+
+  //Number of bytes left to transfer.
+  private long remaining;
+
+  /**
+   * <p>Create a file region buffer for the whole of the given file, from its start to its current size.
+   *
+   * @param file the file to transfer from.
+   * @throws IOException if the size of the file couldn't be read.
+   */
+  public FileRegionBuffer(FileChannel file) throws IOException
+  {
+    setRegion(file, 0, file.size());
+  }
+
+  /**
+   * <p>Create a file region buffer for a region of the given file.
+   *
+   * @param file the file to transfer from.
+   * @param position the file position of the start of the region.
+   * @param count the number of bytes in the region.
+   */
+  public FileRegionBuffer(FileChannel file, long position, long count)
+  {
+    setRegion(file, position, count);
+  }
+
+  /**
+   * <p>Set the region to transfer.  Any untransferred data in the previous region are discarded.
+   *
+   * @param file the file to transfer from.
+   * @param position the file position of the start of the region.
+   * @param count the number of bytes in the region.
+   * @return this buffer.
+   */
+  public FileRegionBuffer setRegion(FileChannel file, long position, long count)
+  {
+    if(file == null) throw new NullPointerException();
+    if(position < 0 || count < 0) throw new IllegalArgumentException();
+
+    this.file = file;
+    this.position = position;
+    this.remaining = count;
+    return this;
+  }
+
+  /**
+   * <p>Return the file position of the next byte to transfer.
+   *
+   * @return the file position.
+   */
+  public long position()
+  {
+    return position;
+  }
+
+  /**
+   * <p>Return the number of bytes left to transfer.
+   *
+   * @return the number of bytes remaining.
+   */
+  public long remaining()
+  {
+    return remaining;
+  }
+
+  @Override
+  public int drainBufferToChannel(WritableByteChannel channel) throws IOException
+  {
+    return drainBufferToChannel(channel, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainBufferToChannel(WritableByteChannel channel, int maxBytesToSend) throws IOException
+  {
+    //Transfer as much as the channel will take.
+    long count = Math.min(remaining, Math.max(0, maxBytesToSend));
+    long i = (count > 0) ? file.transferTo(position, count, channel) : 0;
+
+    //The file may have been truncated.  There is nothing more to send.
+    if(i == 0 && count > 0 && position >= file.size())
+    {
+      remaining = 0;
+    }
+
+    //Update the region.
+    position += i;
+    remaining -= i;
+
+    //Return the number of bytes drained.
+    return (int) i;
+  }
+
+  @Override
+  public boolean hasDataToConsume()
+  {
+    return remaining > 0;
+  }
+}
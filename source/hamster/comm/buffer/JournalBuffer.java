@@ -0,0 +1,424 @@
+package hamster.comm.buffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>The journal buffer is a {@link DrainableChannelBuffer} which keeps every byte that is appended to it in memory-mapped segment
+ * files until the peer acknowledges it.  Outgoing messages are appended to the journal before they are drained to the channel, so if the
+ * peer disconnects the unacknowledged data can be replayed to the new connection with {@link #replay(long)} rather than being rebuilt
+ * by the application.  This gives at-least-once delivery; the peer must discard any data it has already seen.
+ * <p>Data are addressed by journal offset, which counts every byte ever appended.  There are three offsets:
+ * <ul>
+ * <li>the <b>append offset</b>, where the next appended byte goes;</li>
+ * <li>the <b>send offset</b>, the next byte to drain to the channel;</li>
+ * <li>the <b>acknowledged offset</b>, below which the peer has confirmed receipt.  Data below it are no longer kept.</li>
+ * </ul>
+ * <p>The journal is held in a directory as a series of segment files, each of a fixed size.  A new segment is started when the current
+ * one is full, and segments which only hold acknowledged data are deleted.  Each segment records how many bytes it holds and the
+ * acknowledged offset is recorded in its own file, so the journal can be reopened after a restart: the send offset then starts at the
+ * acknowledged offset so that everything unacknowledged is sent again.
+ * <p>Changes are written to the files by the operating system in its own time.  Call {@link #force()} to write them straight away,
+ * for example before acknowledging the application's own upstream.
+ *
+ * @author jdf19
+ */
+public class JournalBuffer implements DrainableChannelBuffer, Closeable
+{
+  //Segment header: the number of data bytes held in the segment.
+  private static final int HEADER = 8;
+
+  //Segment file name suffix.
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  //Acknowledged offset file name.
+  private static final String ACK_FILE = "journal.ack";
+
+  //Directory holding the journal files.
+  private final Path directory;
+
+  //Size of each segment file.
+  private final int segmentSize;
+
+  //Number of data bytes each segment can hold.
+  private final int segmentCapacity;
+
+  //The segments, oldest first.  Their journal offsets are consecutive.
+  private final List<Segment> segments = new ArrayList<>();
+
+  //Mapping of the acknowledged offset file.
+  private final MappedByteBuffer ackMap;
+
+  //Views on the consumable data of a pipeline buffer being appended.
+  private final ByteBuffer[] sourceViews = new ByteBuffer[SegmentedChannelBuffer.MAX_SEGMENTS];
+
+  private long appendOffset;
+
+  private long sendOffset;
+
+  private long ackOffset;
+
+  /**
+   * <p>Open the journal in the given directory, creating it if there are no journal files.  An existing journal is recovered with
+   * its send offset at the acknowledged offset.
+   *
+   * @param directory the journal directory.  Created if it doesn't exist.
+   * @param segmentSize the size of each segment file in bytes.  An existing journal must have been created with the same size.
+   * @throws IOException if the journal files couldn't be opened or created.
+   */
+  public JournalBuffer(Path directory, int segmentSize) throws IOException
+  {
+    if(segmentSize <= HEADER) throw new IllegalArgumentException();
+
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.segmentCapacity = segmentSize - HEADER;
+    Files.createDirectories(directory);
+
+    //Acknowledged offset.
+    try (FileChannel file = FileChannel.open(directory.resolve(ACK_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+    {
+      ackMap = file.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+    }
+    ackOffset = ackMap.getLong(0);
+
+    //Existing segments, in offset order.
+    List<Long> bases = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX))
+    {
+      for(Path segmentPath : stream)
+      {
+        String name = segmentPath.getFileName().toString();
+        bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+      }
+    }
+    bases.sort(null);
+    for(long base : bases)
+    {
+      segments.add(new Segment(base));
+    }
+
+    if(segments.isEmpty())
+    {
+      //New journal, or all data had been acknowledged.
+      segments.add(new Segment(ackOffset));
+    }
+    else
+    {
+      //The acknowledged offset can't be before the oldest data kept.
+      ackOffset = Math.max(ackOffset, segments.get(0).base);
+    }
+
+    Segment last = segments.get(segments.size() - 1);
+    appendOffset = last.base + last.used();
+    sendOffset = ackOffset;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //APPEND
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Append all of the consumable data in the given pipeline buffer to the journal.  The data are copied straight from the pipeline
+   * buffer to the mapped segments.
+   *
+   * @param source the buffer to consume the data from.
+   * @return the append offset after the data.
+   * @throws IOException if a new segment couldn't be created.
+   */
+  public long append(PipelineBuffer source) throws IOException
+  {
+    //Copy from views on the consumable data, so that each copy can be cut to fit the space left in the segment.
+    int count = source.startGatheringDrain(sourceViews, 0);
+    try
+    {
+      for(int i = 0; i < count; i++)
+      {
+        append(sourceViews[i]);
+      }
+    }
+    finally
+    {
+      //Consume what was copied.
+      source.completeGatheringDrain();
+      Arrays.fill(sourceViews, null);
+    }
+    return appendOffset;
+  }
+
+  /**
+   * <p>Append the remaining bytes of the given buffer to the journal.
+   *
+   * @param source the buffer to append.
+   * @return the append offset after the data.
+   * @throws IOException if a new segment couldn't be created.
+   */
+  public long append(ByteBuffer source) throws IOException
+  {
+    int sourceLimit = source.limit();
+    while(source.hasRemaining())
+    {
+      ByteBuffer window = appendWindow(source.remaining());
+      int n = window.remaining();
+      source.limit(source.position() + n);
+      window.put(source);
+      source.limit(sourceLimit);
+      appended(n);
+    }
+    return appendOffset;
+  }
+
+  /**
+   * <p>Append bytes from the given array to the journal.
+   *
+   * @param source the source array.
+   * @param startIx the index of the first byte to append.
+   * @param length the number of bytes to append.
+   * @return the append offset after the data.
+   * @throws IOException if a new segment couldn't be created.
+   */
+  public long append(byte[] source, int startIx, int length) throws IOException
+  {
+    int done = 0;
+    while(done < length)
+    {
+      ByteBuffer window = appendWindow(length - done);
+      int n = window.remaining();
+      window.put(source, startIx + done, n);
+      done += n;
+      appended(n);
+    }
+    return appendOffset;
+  }
+
+  /**
+   * <p>Return a window on the free space of the current segment, starting a new segment if it is full.
+   */
+  private ByteBuffer appendWindow(int length) throws IOException
+  {
+    Segment segment = segments.get(segments.size() - 1);
+    if(segment.used() == segmentCapacity)
+    {
+      segment = new Segment(segment.base + segmentCapacity);
+      segments.add(segment);
+    }
+
+    int used = segment.used();
+    ByteBuffer window = segment.appendView;
+    window.limit(HEADER + used + Math.min(length, segmentCapacity - used));
+    window.position(HEADER + used);
+    return window;
+  }
+
+  /**
+   * <p>Record the bytes just appended to the current segment.
+   */
+  private void appended(int length)
+  {
+    Segment segment = segments.get(segments.size() - 1);
+    segment.map.putLong(0, segment.used() + length);
+    appendOffset += length;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //DRAIN
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public int drainBufferToChannel(WritableByteChannel channel) throws IOException
+  {
+    return drainBufferToChannel(channel, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainBufferToChannel(WritableByteChannel channel, int maxBytesToSend) throws IOException
+  {
+    long toSend = Math.min(appendOffset - sendOffset, Math.max(0, maxBytesToSend));
+    int total = 0;
+    while(toSend > 0)
+    {
+      //Window on the unsent data in the segment holding the send offset.
+      Segment segment = segments.get((int) ((sendOffset - segments.get(0).base) / segmentCapacity));
+      int from = (int) (sendOffset - segment.base);
+      int n = (int) Math.min(toSend, segment.used() - from);
+      ByteBuffer window = segment.drainView;
+      window.limit(HEADER + from + n);
+      window.position(HEADER + from);
+
+      int i = channel.write(window);
+      sendOffset += i;
+      total += i;
+      toSend -= i;
+
+      //The channel is full.
+      if(window.hasRemaining())
+      {
+        break;
+      }
+    }
+
+    return total;
+  }
+
+  @Override
+  public boolean hasDataToConsume()
+  {
+    return sendOffset < appendOffset;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //ACKNOWLEDGE AND REPLAY
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Record that the peer has received all data below the given offset.  Segments which only hold acknowledged data are deleted.
+   * Offsets below the current acknowledged offset are ignored.
+   *
+   * @param offset the journal offset acknowledged by the peer.
+   * @throws IllegalArgumentException if the offset is beyond the data that have been sent.
+   * @throws IOException if a segment file couldn't be deleted.
+   */
+  public void acknowledge(long offset) throws IOException
+  {
+    if(offset > sendOffset) throw new IllegalArgumentException("Acknowledged offset beyond sent data");
+    if(offset <= ackOffset) return;
+
+    ackOffset = offset;
+    ackMap.putLong(0, ackOffset);
+
+    //Truncate.  The current segment is always kept.
+    while(segments.size() > 1 && segments.get(0).base + segmentCapacity <= ackOffset)
+    {
+      segments.remove(0).delete();
+    }
+  }
+
+  /**
+   * <p>Send the journal again from the given offset, for example to a new connection after the peer has reported the offset it had
+   * received up to.  Offsets below the acknowledged offset are acknowledged first.
+   *
+   * @param offset the journal offset to send from.
+   * @throws IllegalArgumentException if the offset is below the oldest data kept or beyond the append offset.
+   * @throws IOException if a segment file couldn't be deleted.
+   */
+  public void replay(long offset) throws IOException
+  {
+    if(offset < ackOffset || offset > appendOffset) throw new IllegalArgumentException("Offset not in journal");
+    sendOffset = offset;
+    acknowledge(offset);
+  }
+
+  /**
+   * <p>Send all unacknowledged data again.
+   */
+  public void replayUnacknowledged()
+  {
+    sendOffset = ackOffset;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //STATE
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public long appendOffset()
+  {
+    return appendOffset;
+  }
+
+  public long sendOffset()
+  {
+    return sendOffset;
+  }
+
+  public long acknowledgedOffset()
+  {
+    return ackOffset;
+  }
+
+  /**
+   * <p>Return the number of segment files in the journal.
+   *
+   * @return the segment count.
+   */
+  public int segmentCount()
+  {
+    return segments.size();
+  }
+
+  /**
+   * <p>Write all changes to the journal files straight away.
+   */
+  public void force()
+  {
+    for(int i = 0; i < segments.size(); i++)
+    {
+      segments.get(i).map.force();
+    }
+    ackMap.force();
+  }
+
+  /**
+   * <p>Write all changes to the journal files.  The journal must not be used afterwards; the mappings are released when it is garbage
+   * collected.
+   */
+  @Override
+  public void close()
+  {
+    force();
+    segments.clear();
+  }
+
+  /**
+   * <p>Segment file, mapped in full.
+   */
+  private class Segment
+  {
+    //Journal offset of the first data byte.
+    private final long base;
+
+    private final Path path;
+
+    private final MappedByteBuffer map;
+
+    //Views for appending and draining, so that the two don't disturb each other.
+    private final ByteBuffer appendView;
+
+    private final ByteBuffer drainView;
+
+    /**
+     * <p>Open or create the segment starting at the given journal offset.
+     */
+    private Segment(long base) throws IOException
+    {
+      this.base = base;
+      this.path = directory.resolve(String.format("%020d", base) + SEGMENT_SUFFIX);
+      try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+        this.map = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      }
+      this.appendView = map.duplicate();
+      this.drainView = map.duplicate();
+    }
+
+    private int used()
+    {
+      return (int) map.getLong(0);
+    }
+
+    private void delete() throws IOException
+    {
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>The mapped access buffer is an {@link AccessBuffer} over a memory-mapped region of a file.  Large lookup tables or journaled
+ * state can be kept in a file and read and edited in place with the usual readXXX() and setXXXAt() methods; changes made through a
+ * read-write mapping are written back to the file by the operating system, or straight away with {@link #force()}.
+ * <p>Data can be transferred between a region of the mapping and a {@link PipelineBuffer} with
+ * {@link #transferFrom(PipelineBuffer, int, int)} and {@link #transferTo(PipelineBuffer, int, int)}.  These copy directly between
+ * the two buffers without going through a heap array.
+ * <p>The size of the buffer is always the size of the mapped region.  The mapping stays valid after the file channel has been closed,
+ * until the buffer is garbage collected.
+ *
+ * @author jdf19
+ */
+public class MappedAccessBuffer extends AccessBuffer
+{
+  /**
+   * <p>Map a region of the given file.  A read-write mapping beyond the end of the file extends the file.
+   *
+   * @param file the file to map.
+   * @param mode the mapping mode.
+   * @param position the file position of the start of the region.
+   * @param size the size of the region in bytes.
+   * @param order the byte order to read and write scalar values in, or <code>null</code> for the same default as the {@link BufferFactory}.
+   * @throws IOException if the region couldn't be mapped.
+   */
+  public MappedAccessBuffer(FileChannel file, FileChannel.MapMode mode, long position, int size, ByteOrder order) throws IOException
+  {
+    super(file.map(mode, position, size).order(order));
+  }
+
+  /**
+   * <p>Write any changes to the mapped region back to the file.
+   *
+   * @return this buffer.
+   */
+  public MappedAccessBuffer force()
+  {
+    ((MappedByteBuffer) internalBuffer).force();
+    return this;
+  }
+
+  /**
+   * <p>Load the mapped region into physical memory, so that the first accesses to it don't page fault.
+   *
+   * @return this buffer.
+   */
+  public MappedAccessBuffer load()
+  {
+    ((MappedByteBuffer) internalBuffer).load();
+    return this;
+  }
+
+  /**
+   * <p>Return true if the mapped region is likely to be resident in physical memory.
+   *
+   * @return true if loaded.
+   */
+  public boolean isLoaded()
+  {
+    return ((MappedByteBuffer) internalBuffer).isLoaded();
+  }
+
+  /**
+   * <p>Transfer data from the given pipeline buffer into the mapped region starting at the given position.  As many data as are
+   * available in the pipeline buffer are consumed, up to the given length.
+   *
+   * @param buffer the buffer to consume data from.
+   * @param atPosition the position in the mapped region to transfer to.
+   * @param length the maximum number of bytes to transfer.
+   * @return the number of bytes transferred.
+   */
+  public int transferFrom(PipelineBuffer buffer, int atPosition, int length)
+  {
+    try
+    {
+      //Window on the target region.
+      internalBuffer.limit(atPosition + length);
+      internalBuffer.position(atPosition);
+
+      //Transfer as much data as possible from the pipeline buffer.
+      buffer.doTransferTo(internalBuffer);
+
+      //Return the number transferred.
+      return internalBuffer.position() - atPosition;
+    }
+    finally
+    {
+      internalBuffer.clear();
+    }
+  }
+
+  /**
+   * <p>Transfer the given region of the mapping to the given pipeline buffer.  The pipeline buffer must have space for the whole region.
+   *
+   * @param buffer the buffer to produce data to.
+   * @param atPosition the position in the mapped region to transfer from.
+   * @param length the number of bytes to transfer.
+   */
+  public void transferTo(PipelineBuffer buffer, int atPosition, int length)
+  {
+    try
+    {
+      //Window on the source region.
+      internalBuffer.limit(atPosition + length);
+      internalBuffer.position(atPosition);
+
+      //Transfer out to the target buffer.
+      buffer.doTransferFrom(internalBuffer);
+    }
+    finally
+    {
+      internalBuffer.clear();
+    }
+  }
+
+  /**
+   * <p>Transfer data from the given pipeline buffer to the start of the mapped region.
+   *
+   * @param buffer the buffer to consume data from.
+   */
+  @Override
+  public void transferFrom(PipelineBuffer buffer)
+  {
+    transferFrom(buffer, 0, internalBuffer.capacity());
+  }
+
+  /**
+   * <p>Transfer the whole mapped region to the given pipeline buffer, which must have space for it.
+   *
+   * @param buffer the buffer to produce data to.
+   */
+  @Override
+  public void transferTo(PipelineBuffer buffer)
+  {
+    transferTo(buffer, 0, internalBuffer.capacity());
+  }
+
+  /**
+   * <p>Zero the given length of the mapped region from its start.
+   *
+   * @param length the number of bytes to zero.
+   */
+  @Override
+  public void init(int length)
+  {
+    super.init(length);
+    internalBuffer.clear();
+  }
+
+  /**
+   * <p>Return the size of the mapped region.
+   *
+   * @return the size in bytes.
+   */
+  @Override
+  public int size()
+  {
+    return internalBuffer.capacity();
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return internalBuffer.capacity() == 0;
+  }
+}
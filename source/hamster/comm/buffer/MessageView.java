@@ -0,0 +1,168 @@
+package hamster.comm.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>The message view is a flyweight over a {@link PipelineBuffer} read message.  It is wrapped around the active read message with
+ * {@link PipelineBuffer#wrapReadMessage(MessageView)} and gives random access to the message fields by offset from the start of
+ * the view, reading straight from the pipeline buffer's internal buffer.  Nothing is copied and nothing is consumed; the read message
+ * is completed in the usual way with {@link PipelineBuffer#completeReadMessage()}.
+ * <p>A view is intended to be created once and rewrapped for every message.  Part of a view can be wrapped by another view with
+ * {@link #slice(int, int, MessageView)}, again without copying.  A view is only valid until the read message it wraps is completed
+ * or rewound; after that any access throws an {@link IllegalStateException}.
+ * <p>Scalar values are read in the byte order of the pipeline buffer.  This class is not multithread safe.
+ *
+ * @author jdf19
+ */
+public final class MessageView
+{
+  //Buffer owning the read message.
+  private PipelineBuffer owner;
+
+  //Internal buffer of the owner.
+  private ByteBuffer buffer;
+
+  //Read message sequence number when wrapped.
+  private int sequence;
+
+  //Internal buffer position of offset 0.
+  private int start;
+
+  //Length of the view.
+  private int length;
+
+  /**
+   * <p>Wrap the view around a region of a read message.
+   *
+   * @param owner the pipeline buffer.
+   * @param buffer the internal buffer of the pipeline buffer.
+   * @param start the internal buffer position of the region.
+   * @param length the length of the region.
+   */
+  void wrap(PipelineBuffer owner, ByteBuffer buffer, int start, int length)
+  {
+    this.owner = owner;
+    this.buffer = buffer;
+    this.sequence = owner.readMessageSequence();
+    this.start = start;
+    this.length = length;
+  }
+
+  /**
+   * <p>Return the length of the view in bytes.
+   *
+   * @return the length.
+   */
+  public int length()
+  {
+    return length;
+  }
+
+  /**
+   * <p>Wrap the given view around part of this one.
+   *
+   * @param offset the offset of the part in this view.
+   * @param sliceLength the length of the part.
+   * @param target the view to wrap around the part.
+   * @return the target view.
+   */
+  public MessageView slice(int offset, int sliceLength, MessageView target)
+  {
+    check(offset, sliceLength);
+    target.owner = owner;
+    target.buffer = buffer;
+    target.sequence = sequence;
+    target.start = start + offset;
+    target.length = sliceLength;
+    return target;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //READ DATA FROM THE VIEW
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /// BYTE DATA
+
+  public byte getByte(int offset)
+  {
+    check(offset, 1);
+    return buffer.get(start + offset);
+  }
+
+  /**
+   * <p>Copy bytes from the view to the given array.
+   *
+   * @param offset the offset of the first byte in the view.
+   * @param target the array to copy to.
+   * @param startIx the index of the first byte in the array.
+   * @param count the number of bytes to copy.
+   */
+  public void getBytes(int offset, byte[] target, int startIx, int count)
+  {
+    check(offset, count);
+    for(int i = 0; i < count; i++)
+    {
+      target[startIx + i] = buffer.get(start + offset + i);
+    }
+  }
+
+  /// CHAR DATA
+
+  public char getChar(int offset)
+  {
+    check(offset, 2);
+    return buffer.getChar(start + offset);
+  }
+
+  /// SHORT DATA
+
+  public short getShort(int offset)
+  {
+    check(offset, 2);
+    return buffer.getShort(start + offset);
+  }
+
+  /// INT DATA
+
+  public int getInt(int offset)
+  {
+    check(offset, 4);
+    return buffer.getInt(start + offset);
+  }
+
+  /// LONG DATA
+
+  public long getLong(int offset)
+  {
+    check(offset, 8);
+    return buffer.getLong(start + offset);
+  }
+
+  /// FLOAT DATA
+
+  public float getFloat(int offset)
+  {
+    check(offset, 4);
+    return buffer.getFloat(start + offset);
+  }
+
+  /// DOUBLE DATA
+
+  public double getDouble(int offset)
+  {
+    check(offset, 8);
+    return buffer.getDouble(start + offset);
+  }
+
+  /**
+   * <p>Check that the view is still valid and that the given region is inside it.
+   *
+   * @param offset the region offset.
+   * @param count the region length.
+   */
+  private void check(int offset, int count)
+  {
+    if(owner == null || !owner.isReadMessageCurrent(sequence)) throw new IllegalStateException("Message view not valid");
+    if(offset < 0 || count < 0 || offset + count > length) throw new IndexOutOfBoundsException();
+  }
+}
@@ -1,6 +1,7 @@
 package hamster.comm.buffer;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -12,7 +13,7 @@ import java.nio.channels.WritableByteChannel;
  *
  * @author jdf19
  */
-public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer, DrainableChannelBuffer
+public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer, DrainableChannelBuffer, SegmentedChannelBuffer
 {
   //If the produce flag is true then the buffer is to be filled.
   //If the flag is false, the buffer is to be consumed.
@@ -43,6 +44,9 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
   //This is true if there is currently an operation lock for a write block operation.
   private boolean writeBlockActive = false;
 
+  //Incremented each time a read message is completed or rewound, so that message views of it can tell they are stale.
+  private int readMessageSequence = 0;
+
   //Only one operation can take place at once.  Re-entrant calls are not permitted.
   //Otherwise the complexity gets very difficult to manage and this library wants to
   //keep things simple.
@@ -346,6 +350,41 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
     produceIndex = internalBuffer.position();
   }
 
+  /**
+   * <p>Return the number of bytes held in the internal buffer, including any bytes produced in an incomplete write message.
+   *
+   * @return the number of bytes held.
+   */
+  protected int heldBytes()
+  {
+    return ((produce) ? internalBuffer.position() : produceIndex) - consumeIndex;
+  }
+
+  /**
+   * <p>Replace the internal buffer with one of the given capacity, keeping the held data.  The data are moved to the start of the new
+   * buffer.  This can be done while a write message is active, but not while a read message is active.
+   *
+   * @param newCapacity the new capacity.  Must be at least {@link #heldBytes()}.
+   */
+  protected void resizeInternalBuffer(int newCapacity)
+  {
+    //The read message positions would be lost.
+    if(readBlockActive)
+    {
+      throw new IllegalStateException("Read message active");
+    }
+
+    //Move the held data to the start of a new buffer.
+    int end = (produce) ? internalBuffer.position() : produceIndex;
+    reallocateInternalBuffer(newCapacity, consumeIndex, end);
+
+    //Shift the indices.  The new buffer is in produce mode, positioned after the held data.
+    writeMessageStartPosition -= consumeIndex;
+    produceIndex -= consumeIndex;
+    consumeIndex = 0;
+    produce = true;
+  }
+
   /**
    * Return the number of consumable bytes in the buffer.
    *
@@ -426,6 +465,29 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int startGatheringDrain(ByteBuffer[] views, int offset)
+  {
+    //Check we can consume data - no write message is in construction.
+    setConsumeMode();
+
+    //The consumable data are in one segment.
+    views[offset] = internalBuffer;
+    return 1;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void completeGatheringDrain()
+  {
+    consumeIndex = internalBuffer.position();
+  }
+
   @Override
   public boolean hasDataToConsume()
   {
@@ -496,6 +558,35 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int startScatteringFill(ByteBuffer[] views, int offset, int maxBytesToReceive)
+  {
+    //Check we can produce data - no read message is in construction.
+    setProduceMode();
+
+    //Limit the fill.
+    internalBuffer.limit((int) Math.min(internalBuffer.capacity(), (long) produceIndex + maxBytesToReceive));
+
+    //The free space is in one segment.
+    views[offset] = internalBuffer;
+    return 1;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void completeScatteringFill()
+  {
+    produceIndex = internalBuffer.position();
+
+    //Set the limit back to the capacity.
+    internalBuffer.limit(internalBuffer.capacity());
+  }
+
   @Override
   public boolean canAcceptTransfer()
   {
@@ -1008,6 +1099,567 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
     return this;
   }
 
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //BULK ARRAY DATA
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  //Arrays are copied through a view buffer of the internal buffer, in the buffer's byte order, with a single bounds check for the
+  //whole array rather than one per element.  Nothing is produced or consumed if the whole array doesn't fit or hasn't been received.
+
+  /// SHORT DATA
+
+  /**
+   * <p>Produce the given short values.
+   *
+   * @param data the array holding the values.
+   * @param startIx the index of the first value to produce.
+   * @param length the number of values to produce.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceShorts(short[] data, int startIx, int length)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Check the space for the whole array.
+    int bytes = length * 2;
+    if(internalBuffer.remaining() < bytes) throw new BufferOverflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asShortBuffer().put(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the produce pointer.
+    this.produceIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Consume short values into the given array.
+   *
+   * @param data the array to consume the values into.
+   * @param startIx the index to consume the first value into.
+   * @param length the number of values to consume.
+   * @return this buffer.
+   */
+  public PipelineBuffer consumeShorts(short[] data, int startIx, int length)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Check the data for the whole array.
+    int bytes = length * 2;
+    if(internalBuffer.remaining() < bytes) throw new BufferUnderflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asShortBuffer().get(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the consume pointer.
+    this.consumeIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /// CHAR DATA
+
+  /**
+   * <p>Produce the given char values.
+   *
+   * @param data the array holding the values.
+   * @param startIx the index of the first value to produce.
+   * @param length the number of values to produce.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceChars(char[] data, int startIx, int length)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Check the space for the whole array.
+    int bytes = length * 2;
+    if(internalBuffer.remaining() < bytes) throw new BufferOverflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asCharBuffer().put(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the produce pointer.
+    this.produceIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Consume char values into the given array.
+   *
+   * @param data the array to consume the values into.
+   * @param startIx the index to consume the first value into.
+   * @param length the number of values to consume.
+   * @return this buffer.
+   */
+  public PipelineBuffer consumeChars(char[] data, int startIx, int length)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Check the data for the whole array.
+    int bytes = length * 2;
+    if(internalBuffer.remaining() < bytes) throw new BufferUnderflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asCharBuffer().get(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the consume pointer.
+    this.consumeIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /// INT DATA
+
+  /**
+   * <p>Produce the given int values.
+   *
+   * @param data the array holding the values.
+   * @param startIx the index of the first value to produce.
+   * @param length the number of values to produce.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceInts(int[] data, int startIx, int length)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Check the space for the whole array.
+    int bytes = length * 4;
+    if(internalBuffer.remaining() < bytes) throw new BufferOverflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asIntBuffer().put(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the produce pointer.
+    this.produceIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Consume int values into the given array.
+   *
+   * @param data the array to consume the values into.
+   * @param startIx the index to consume the first value into.
+   * @param length the number of values to consume.
+   * @return this buffer.
+   */
+  public PipelineBuffer consumeInts(int[] data, int startIx, int length)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Check the data for the whole array.
+    int bytes = length * 4;
+    if(internalBuffer.remaining() < bytes) throw new BufferUnderflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asIntBuffer().get(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the consume pointer.
+    this.consumeIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /// LONG DATA
+
+  /**
+   * <p>Produce the given long values.
+   *
+   * @param data the array holding the values.
+   * @param startIx the index of the first value to produce.
+   * @param length the number of values to produce.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceLongs(long[] data, int startIx, int length)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Check the space for the whole array.
+    int bytes = length * 8;
+    if(internalBuffer.remaining() < bytes) throw new BufferOverflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asLongBuffer().put(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the produce pointer.
+    this.produceIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Consume long values into the given array.
+   *
+   * @param data the array to consume the values into.
+   * @param startIx the index to consume the first value into.
+   * @param length the number of values to consume.
+   * @return this buffer.
+   */
+  public PipelineBuffer consumeLongs(long[] data, int startIx, int length)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Check the data for the whole array.
+    int bytes = length * 8;
+    if(internalBuffer.remaining() < bytes) throw new BufferUnderflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asLongBuffer().get(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the consume pointer.
+    this.consumeIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /// FLOAT DATA
+
+  /**
+   * <p>Produce the given float values.
+   *
+   * @param data the array holding the values.
+   * @param startIx the index of the first value to produce.
+   * @param length the number of values to produce.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceFloats(float[] data, int startIx, int length)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Check the space for the whole array.
+    int bytes = length * 4;
+    if(internalBuffer.remaining() < bytes) throw new BufferOverflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asFloatBuffer().put(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the produce pointer.
+    this.produceIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Consume float values into the given array.
+   *
+   * @param data the array to consume the values into.
+   * @param startIx the index to consume the first value into.
+   * @param length the number of values to consume.
+   * @return this buffer.
+   */
+  public PipelineBuffer consumeFloats(float[] data, int startIx, int length)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Check the data for the whole array.
+    int bytes = length * 4;
+    if(internalBuffer.remaining() < bytes) throw new BufferUnderflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asFloatBuffer().get(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the consume pointer.
+    this.consumeIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /// DOUBLE DATA
+
+  /**
+   * <p>Produce the given double values.
+   *
+   * @param data the array holding the values.
+   * @param startIx the index of the first value to produce.
+   * @param length the number of values to produce.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceDoubles(double[] data, int startIx, int length)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Check the space for the whole array.
+    int bytes = length * 8;
+    if(internalBuffer.remaining() < bytes) throw new BufferOverflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asDoubleBuffer().put(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the produce pointer.
+    this.produceIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Consume double values into the given array.
+   *
+   * @param data the array to consume the values into.
+   * @param startIx the index to consume the first value into.
+   * @param length the number of values to consume.
+   * @return this buffer.
+   */
+  public PipelineBuffer consumeDoubles(double[] data, int startIx, int length)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Check the data for the whole array.
+    int bytes = length * 8;
+    if(internalBuffer.remaining() < bytes) throw new BufferUnderflowException();
+
+    //Copy through a view and step over the data.
+    internalBuffer.asDoubleBuffer().get(data, startIx, length);
+    internalBuffer.position(internalBuffer.position() + bytes);
+
+    //Update the consume pointer.
+    this.consumeIndex += bytes;
+
+    //Return this.
+    return this;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //VARIABLE LENGTH DATA
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  //Integers are LEB128 varints, signed integers are zigzag mapped first.  Strings are a varint byte count followed by the
+  //encoded characters.  Produce methods put nothing if there isn't space for the whole encoding; consume methods consume
+  //nothing if the whole encoding hasn't been received.
+
+  /// VARINT DATA
+
+  /**
+   * <p>Produce the given value as an unsigned varint of 1 to 10 bytes.
+   *
+   * @param data the value.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceVarLong(long data)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Put the encoding and update the produce pointer.
+    this.produceIndex += VariableLengthCodec.putVarLong(internalBuffer, data);
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Produce the given value as an unsigned varint of 1 to 5 bytes.
+   *
+   * @param data the value.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceVarInt(int data)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Put the encoding and update the produce pointer.
+    this.produceIndex += VariableLengthCodec.putVarLong(internalBuffer, data & 0xffffffffL);
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Produce the given signed value as a zigzag varint of 1 to 10 bytes.
+   *
+   * @param data the value.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceZigZagLong(long data)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Put the encoding and update the produce pointer.
+    this.produceIndex += VariableLengthCodec.putVarLong(internalBuffer, VariableLengthCodec.zigZag(data));
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Produce the given signed value as a zigzag varint of 1 to 5 bytes.
+   *
+   * @param data the value.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceZigZagInt(int data)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Put the encoding and update the produce pointer.
+    this.produceIndex += VariableLengthCodec.putVarLong(internalBuffer, VariableLengthCodec.zigZag(data) & 0xffffffffL);
+
+    //Return this.
+    return this;
+  }
+
+  public long consumeVarLong()
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Get the value and update the consume pointer.
+    int start = internalBuffer.position();
+    long ret = VariableLengthCodec.getVarLong(internalBuffer, VariableLengthCodec.MAX_VARLONG_LENGTH);
+    this.consumeIndex += internalBuffer.position() - start;
+
+    //Return the data.
+    return ret;
+  }
+
+  public int consumeVarInt()
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Get the value and update the consume pointer.
+    int start = internalBuffer.position();
+    int ret = (int) VariableLengthCodec.getVarLong(internalBuffer, VariableLengthCodec.MAX_VARINT_LENGTH);
+    this.consumeIndex += internalBuffer.position() - start;
+
+    //Return the data.
+    return ret;
+  }
+
+  public long consumeZigZagLong()
+  {
+    return VariableLengthCodec.unZigZag(consumeVarLong());
+  }
+
+  public int consumeZigZagInt()
+  {
+    return (int) VariableLengthCodec.unZigZag(consumeVarInt() & 0xffffffffL);
+  }
+
+  /// STRING DATA
+
+  /**
+   * <p>Produce the given characters as a length prefixed UTF-8 string.
+   *
+   * @param data the characters.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceUtf8(CharSequence data)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Put the encoding and update the produce pointer.
+    this.produceIndex += VariableLengthCodec.putUtf8(internalBuffer, data);
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Produce the given characters as a length prefixed ASCII string.  Characters outside the ASCII range are produced as '?'.
+   *
+   * @param data the characters.
+   * @return this buffer.
+   */
+  public PipelineBuffer produceAscii(CharSequence data)
+  {
+    //Set to produce mode.
+    setProduceMode();
+
+    //Put the encoding and update the produce pointer.
+    this.produceIndex += VariableLengthCodec.putAscii(internalBuffer, data);
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * <p>Consume a length prefixed UTF-8 string, appending the characters to the given builder.  Reusing the builder avoids
+   * creating a string for every field.
+   *
+   * @param target the builder to append to.
+   * @return the builder.
+   */
+  public StringBuilder consumeUtf8(StringBuilder target)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Decode and update the consume pointer.
+    this.consumeIndex += VariableLengthCodec.getUtf8(internalBuffer, target);
+
+    //Return the builder.
+    return target;
+  }
+
+  public String consumeUtf8()
+  {
+    return consumeUtf8(new StringBuilder()).toString();
+  }
+
+  /**
+   * <p>Consume a length prefixed ASCII string, appending the characters to the given builder.  Reusing the builder avoids
+   * creating a string for every field.
+   *
+   * @param target the builder to append to.
+   * @return the builder.
+   */
+  public StringBuilder consumeAscii(StringBuilder target)
+  {
+    //Set to consume mode.
+    setConsumeMode();
+
+    //Decode and update the consume pointer.
+    this.consumeIndex += VariableLengthCodec.getAscii(internalBuffer, target);
+
+    //Return the builder.
+    return target;
+  }
+
+  public String consumeAscii()
+  {
+    return consumeAscii(new StringBuilder()).toString();
+  }
+
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
   //FIXED MESSAGE SIZE DELIMITING
   ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -1104,6 +1756,9 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
     //Make the consume index the read message end position.
     this.consumeIndex = this.readMessageEndPosition;
 
+    //Invalidate any message views.
+    this.readMessageSequence++;
+
     //Return this.
     return this;
   }
@@ -1129,10 +1784,55 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
     //Make the consume index the read message end position.
     this.consumeIndex = this.readMessageStartPosition;
 
+    //Invalidate any message views.
+    this.readMessageSequence++;
+
     //Return this.
     return this;
   }
 
+  /**
+   * <p>Wrap the given message view around the active read message, from the current consume position to the end of the message.
+   * The message data can then be read in place at any offset through the view, without copying and without consuming them.  The
+   * view is valid until the read message is completed or rewound.
+   *
+   * @param view the view to wrap.
+   * @return the view.
+   * @throws IllegalStateException if there is no read message active.
+   */
+  public MessageView wrapReadMessage(MessageView view)
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!readBlockActive) throw new IllegalStateException("Read message not active");
+
+    //Wrap from the consume position to the message end.
+    view.wrap(this, internalBuffer, this.internalBuffer.position(), this.readMessageEndPosition - this.internalBuffer.position());
+
+    //Return the view.
+    return view;
+  }
+
+  /**
+   * <p>Return true if a message view wrapped with the given read message sequence number is still valid.
+   *
+   * @param sequence the sequence number when the view was wrapped.
+   * @return true if the read message is still active.
+   */
+  boolean isReadMessageCurrent(int sequence)
+  {
+    return readBlockActive && sequence == readMessageSequence;
+  }
+
+  /**
+   * <p>Return the read message sequence number, which changes each time a read message is completed or rewound.
+   *
+   * @return the sequence number.
+   */
+  int readMessageSequence()
+  {
+    return readMessageSequence;
+  }
+
   ///*** WRITE BLOCK
 
   public PipelineBuffer startWriteMessage()
@@ -1192,4 +1892,26 @@ public class PipelineBuffer extends BaseBuffer implements FillableChannelBuffer,
     return this;
   }
 
+  /**
+   * Abandon the message block.  All data produced since the message was started are discarded, and the buffer can be used as if
+   * the message had never been started.
+   *
+   * @return this buffer.
+   */
+  public PipelineBuffer rewindWriteMessage()
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!writeBlockActive) throw new IllegalStateException();
+
+    //Reset the write block active flag.
+    this.writeBlockActive = false;
+
+    //Move the position and the produce index back to the message start.
+    this.internalBuffer.position(this.writeMessageStartPosition);
+    this.produceIndex = this.writeMessageStartPosition;
+
+    //Return this.
+    return this;
+  }
+
 }
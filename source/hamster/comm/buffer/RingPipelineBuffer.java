@@ -0,0 +1,904 @@
+package hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>The ring pipeline buffer buffers data bytes in a circular arrangement.  It offers the same producer and consumer operations
+ * as the {@link PipelineBuffer}, but data bytes are never moved once they have been produced: there is no compaction when the
+ * buffer switches from consuming to producing, so switching costs nothing.
+ * <p>Consumable data, and free space, can wrap around the end of the internal buffer.  Channel transfers use two segments when
+ * this happens; a {@link ScatteringByteChannel} or {@link GatheringByteChannel} transfers both segments in one operation, and other
+ * channels have the segments transferred one after the other.  Multi-byte scalar values which straddle the end of the internal buffer
+ * are assembled byte by byte in the buffer's byte order.
+ * <p>Positions given to the peek and produceAt methods are relative to the consume position and write message start position
+ * respectively, exactly as they are for the {@link PipelineBuffer}.
+ *
+ * @author jdf19
+ */
+public class RingPipelineBuffer extends BaseBuffer implements FillableChannelBuffer, DrainableChannelBuffer, SegmentedChannelBuffer
+{
+  //Internal buffer position of the first consumable byte.
+  private int consumePos = 0;
+
+  //Number of consumable bytes.
+  private int size = 0;
+
+  //Internal buffer capacity.
+  private final int capacity;
+
+  //Views of the internal buffer used for segmented transfers.  Only their position and limit are used, so the byte order
+  //doesn't matter.
+  private final ByteBuffer headView;
+
+  private final ByteBuffer tailView;
+
+  //Reusable view array for transfers with a single channel.
+  private final ByteBuffer[] transferViews = new ByteBuffer[MAX_SEGMENTS];
+
+  //Number of segments in the current segmented transfer, and the head view position at its start.
+  private int transferSegments = 0;
+
+  private int transferStart = 0;
+
+  //This is true if there is currently an operation lock for a read block operation.
+  private boolean readBlockActive = false;
+
+  //Number of bytes of the currently processed read message which have not been consumed.
+  private int readMessageRemaining = 0;
+
+  //Consume position and size at the start of the currently processed read message.
+  private int readMessageStartPosition = 0;
+
+  private int readMessageStartSize = 0;
+
+  //This is true if there is currently an operation lock for a write block operation.
+  private boolean writeBlockActive = false;
+
+  //Offset from the consume position of the start of the currently processed write message.
+  private int writeMessageStartOffset = 0;
+
+  /**
+   * Create an instance of the ring pipeline buffer with the given factory.
+   *
+   * @param bufferFact the buffer factory to use when creating the internal buffer.
+   */
+  public RingPipelineBuffer(BufferFactory bufferFact)
+  {
+    super(bufferFact);
+
+    capacity = internalBuffer.capacity();
+    headView = internalBuffer.duplicate();
+    tailView = internalBuffer.duplicate();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //BYTE ARRAY AND BUFFER TRANSFERS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public RingPipelineBuffer produceFromBytes(byte[] bytesToTransferToThisBuffer)
+  {
+    return produceFromBytes(bytesToTransferToThisBuffer, 0, bytesToTransferToThisBuffer.length);
+  }
+
+  /**
+   * Transfer the raw byte data from the source array into this buffer instance.  There must be enough space in the
+   * buffer to be able to transfer all bytes from the source array.
+   *
+   * @param bytesToTransferToThisBuffer the source array.
+   * @param startIx the index of the first byte to transfer.
+   * @param length the number of bytes to transfer.
+   * @return this buffer.
+   */
+  public RingPipelineBuffer produceFromBytes(byte[] bytesToTransferToThisBuffer, int startIx, int length)
+  {
+    //Check the space.
+    checkProducable(length);
+
+    //Copy in up to two parts.
+    int pos = wrap(consumePos + size);
+    int first = Math.min(length, capacity - pos);
+    segment(headView, pos, pos + first).put(bytesToTransferToThisBuffer, startIx, first);
+    if(first < length)
+    {
+      segment(tailView, 0, length - first).put(bytesToTransferToThisBuffer, startIx + first, length - first);
+    }
+
+    //Update the size.
+    size += length;
+
+    //Return this.
+    return this;
+  }
+
+  public RingPipelineBuffer produceFromByteBuffer(ByteBuffer producer)
+  {
+    //Check the space.
+    int length = producer.remaining();
+    checkProducable(length);
+
+    //Copy in up to two parts.
+    int pos = wrap(consumePos + size);
+    int first = Math.min(length, capacity - pos);
+    int producerLimit = producer.limit();
+    producer.limit(producer.position() + first);
+    segment(headView, pos, pos + first).put(producer);
+    producer.limit(producerLimit);
+    if(first < length)
+    {
+      segment(tailView, 0, length - first).put(producer);
+    }
+
+    //Update the size.
+    size += length;
+
+    //Return this.
+    return this;
+  }
+
+  public RingPipelineBuffer consumeBytes(byte[] bytesToTransferToThisBuffer, int startIx, int length)
+  {
+    //Check the data.
+    checkConsumable(length);
+
+    //Copy out in up to two parts.
+    int first = Math.min(length, capacity - consumePos);
+    segment(headView, consumePos, consumePos + first).get(bytesToTransferToThisBuffer, startIx, first);
+    if(first < length)
+    {
+      segment(tailView, 0, length - first).get(bytesToTransferToThisBuffer, startIx + first, length - first);
+    }
+
+    //Update the consume position.
+    advance(length);
+
+    //Return this.
+    return this;
+  }
+
+  public RingPipelineBuffer consumeBytes(byte[] bytesToTransferToThisBuffer)
+  {
+    return consumeBytes(bytesToTransferToThisBuffer, 0, bytesToTransferToThisBuffer.length);
+  }
+
+  /**
+   * Return the number of consumable bytes in the buffer.
+   *
+   * @return the number of consumable bytes.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * True if there are no consumable data in the buffer.
+   *
+   * @return true if the buffer is empty.
+   */
+  public boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  public RingPipelineBuffer setOrder(ByteOrder order)
+  {
+    this.internalBuffer.order(order);
+    return this;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //MOVE DATA TO AND FROM COMMUNICATION CHANNELS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public int drainBufferToChannel(WritableByteChannel channel) throws IOException
+  {
+    return drainBufferToChannel(channel, Integer.MAX_VALUE);
+  }
+
+  @Override
+  @Deprecated
+  public int drainBufferToChannel(WritableByteChannel channel, int maxBytesToSend) throws IOException
+  {
+    int segments = startDrain(transferViews, 0, maxBytesToSend);
+    long i = 0;
+    try
+    {
+      if(segments == 1)
+      {
+        i = channel.write(transferViews[0]);
+      }
+      else if(channel instanceof GatheringByteChannel)
+      {
+        //Both segments in one operation.
+        i = ((GatheringByteChannel) channel).write(transferViews, 0, segments);
+      }
+      else
+      {
+        //Second segment only if the first was accepted in full.
+        i = channel.write(transferViews[0]);
+        if(!transferViews[0].hasRemaining())
+        {
+          i += channel.write(transferViews[1]);
+        }
+      }
+    }
+    finally
+    {
+      completeGatheringDrain();
+    }
+
+    //Return the number of bytes drained.
+    return (int) i;
+  }
+
+  @Override
+  public boolean hasDataToConsume()
+  {
+    return size > 0;
+  }
+
+  @Override
+  public int fillBufferFromChannel(ReadableByteChannel channel) throws IOException
+  {
+    return fillBufferFromChannel(channel, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int fillBufferFromChannel(ReadableByteChannel channel, int maxBytesToReceive) throws IOException
+  {
+    int segments = startScatteringFill(transferViews, 0, maxBytesToReceive);
+    long i = 0;
+    try
+    {
+      if(segments == 1)
+      {
+        i = channel.read(transferViews[0]);
+      }
+      else if(channel instanceof ScatteringByteChannel)
+      {
+        //Both segments in one operation.
+        i = ((ScatteringByteChannel) channel).read(transferViews, 0, segments);
+      }
+      else
+      {
+        //Second segment only if the first was filled.
+        i = channel.read(transferViews[0]);
+        if(!transferViews[0].hasRemaining())
+        {
+          int j = channel.read(transferViews[1]);
+          if(j > 0)
+          {
+            i += j;
+          }
+        }
+      }
+    }
+    finally
+    {
+      completeScatteringFill();
+    }
+
+    //Return the number of bytes filled.
+    return (int) i;
+  }
+
+  @Override
+  public boolean canAcceptTransfer()
+  {
+    return size < capacity;
+  }
+
+  @Override
+  public boolean hasSpaceFor(int requiredBufferLen)
+  {
+    return requiredBufferLen <= (capacity - size);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int startGatheringDrain(ByteBuffer[] views, int offset)
+  {
+    return startDrain(views, offset, Integer.MAX_VALUE);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void completeGatheringDrain()
+  {
+    //Consume the bytes taken from both segments.
+    int drained = headView.position() - transferStart;
+    if(transferSegments > 1)
+    {
+      drained += tailView.position();
+    }
+    transferSegments = 0;
+    advance(drained);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int startScatteringFill(ByteBuffer[] views, int offset, int maxBytesToReceive)
+  {
+    //Check we can produce data - no read message is in construction.
+    checkProducable(0);
+
+    //Free space starts after the last consumable byte, and may wrap.
+    int free = Math.min(capacity - size, Math.max(0, maxBytesToReceive));
+    int pos = wrap(consumePos + size);
+    return exposeSegments(views, offset, pos, free);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void completeScatteringFill()
+  {
+    //Produce the bytes placed in both segments.
+    int filled = headView.position() - transferStart;
+    if(transferSegments > 1)
+    {
+      filled += tailView.position();
+    }
+    transferSegments = 0;
+    size += filled;
+  }
+
+  /**
+   * <p>Expose the consumable data, up to the given maximum number of bytes, as segments.
+   */
+  private int startDrain(ByteBuffer[] views, int offset, int maxBytesToSend)
+  {
+    //Check we can consume data - no message is in progress.
+    if(writeBlockActive)
+    {
+      throw new IllegalStateException("Write message active");
+    }
+    if(readBlockActive)
+    {
+      throw new IllegalStateException("Read message active");
+    }
+
+    return exposeSegments(views, offset, consumePos, Math.min(size, Math.max(0, maxBytesToSend)));
+  }
+
+  /**
+   * <p>Expose the given length of the internal buffer starting at the given position as one or two segments.
+   */
+  private int exposeSegments(ByteBuffer[] views, int offset, int pos, int length)
+  {
+    int first = Math.min(length, capacity - pos);
+    views[offset] = segment(headView, pos, pos + first);
+    transferStart = pos;
+    transferSegments = 1;
+
+    //Wrapped.
+    if(first < length)
+    {
+      views[offset + 1] = segment(tailView, 0, length - first);
+      transferSegments = 2;
+    }
+
+    return transferSegments;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //CONSUME SCALAR DATA FROM THE BUFFER
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public byte consumeByte()
+  {
+    checkConsumable(1);
+    byte ret = internalBuffer.get(consumePos);
+    advance(1);
+    return ret;
+  }
+
+  public byte peekByte(int atPosition)
+  {
+    checkPeekable(atPosition, 1);
+    return internalBuffer.get(wrap(consumePos + atPosition));
+  }
+
+  public char consumeChar()
+  {
+    checkConsumable(2);
+    char ret = (char) read(consumePos, 2);
+    advance(2);
+    return ret;
+  }
+
+  public char peekChar(int atPosition)
+  {
+    checkPeekable(atPosition, 2);
+    return (char) read(wrap(consumePos + atPosition), 2);
+  }
+
+  public short consumeShort()
+  {
+    checkConsumable(2);
+    short ret = (short) read(consumePos, 2);
+    advance(2);
+    return ret;
+  }
+
+  public short peekShort(int atPosition)
+  {
+    checkPeekable(atPosition, 2);
+    return (short) read(wrap(consumePos + atPosition), 2);
+  }
+
+  public int consumeInt()
+  {
+    checkConsumable(4);
+    int ret = (int) read(consumePos, 4);
+    advance(4);
+    return ret;
+  }
+
+  public int peekInt(int atPosition)
+  {
+    checkPeekable(atPosition, 4);
+    return (int) read(wrap(consumePos + atPosition), 4);
+  }
+
+  public long consumeLong()
+  {
+    checkConsumable(8);
+    long ret = read(consumePos, 8);
+    advance(8);
+    return ret;
+  }
+
+  public long peekLong(int atPosition)
+  {
+    checkPeekable(atPosition, 8);
+    return read(wrap(consumePos + atPosition), 8);
+  }
+
+  public float consumeFloat()
+  {
+    return Float.intBitsToFloat(consumeInt());
+  }
+
+  public float peekFloat(int atPosition)
+  {
+    return Float.intBitsToFloat(peekInt(atPosition));
+  }
+
+  public double consumeDouble()
+  {
+    return Double.longBitsToDouble(consumeLong());
+  }
+
+  public double peekDouble(int atPosition)
+  {
+    return Double.longBitsToDouble(peekLong(atPosition));
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //PRODUCE SCALAR DATA TO THE BUFFER
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public RingPipelineBuffer produceByte(byte data)
+  {
+    checkProducable(1);
+    internalBuffer.put(wrap(consumePos + size), data);
+    size += 1;
+    return this;
+  }
+
+  public RingPipelineBuffer produceChar(char data)
+  {
+    return produce(data, 2);
+  }
+
+  public RingPipelineBuffer produceShort(short data)
+  {
+    return produce(data, 2);
+  }
+
+  public RingPipelineBuffer produceInt(int data)
+  {
+    return produce(data, 4);
+  }
+
+  public RingPipelineBuffer produceLong(long data)
+  {
+    return produce(data, 8);
+  }
+
+  public RingPipelineBuffer produceFloat(float data)
+  {
+    return produce(Float.floatToRawIntBits(data), 4);
+  }
+
+  public RingPipelineBuffer produceDouble(double data)
+  {
+    return produce(Double.doubleToRawLongBits(data), 8);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //PRODUCE SCALAR DATA TO THE BUFFER AT A POSITION IN THE CURRENT WRITE MESSAGE
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  public RingPipelineBuffer produceByteAt(int atPosition, byte data)
+  {
+    internalBuffer.put(writeIndex(atPosition, 1), data);
+    return this;
+  }
+
+  public RingPipelineBuffer produceCharAt(int atPosition, char data)
+  {
+    write(writeIndex(atPosition, 2), data, 2);
+    return this;
+  }
+
+  public RingPipelineBuffer produceShortAt(int atPosition, short data)
+  {
+    write(writeIndex(atPosition, 2), data, 2);
+    return this;
+  }
+
+  public RingPipelineBuffer produceIntAt(int atPosition, int data)
+  {
+    write(writeIndex(atPosition, 4), data, 4);
+    return this;
+  }
+
+  public RingPipelineBuffer produceLongAt(int atPosition, long data)
+  {
+    write(writeIndex(atPosition, 8), data, 8);
+    return this;
+  }
+
+  public RingPipelineBuffer produceFloatAt(int atPosition, float data)
+  {
+    write(writeIndex(atPosition, 4), Float.floatToRawIntBits(data), 4);
+    return this;
+  }
+
+  public RingPipelineBuffer produceDoubleAt(int atPosition, double data)
+  {
+    write(writeIndex(atPosition, 8), Double.doubleToRawLongBits(data), 8);
+    return this;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //FIXED MESSAGE SIZE DELIMITING
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  ///*** READ BLOCK
+
+  /**
+   * Try to start a message if there is enough data to satisfy it in the buffer.  If not then return false.
+   *
+   * @param length the message length.
+   * @return true if the message was started.
+   */
+  public boolean tryStartReadMessage(int length)
+  {
+    //Make sure we are consuming.
+    checkConsumable(0);
+
+    //Do we have enough data to satisfy the entire message?
+    if(size < length) return false;
+
+    //Store the message block start.
+    this.readMessageStartPosition = consumePos;
+    this.readMessageStartSize = size;
+    this.readMessageRemaining = length;
+
+    //Set the read block active flag.
+    this.readBlockActive = true;
+
+    //Return this.
+    return true;
+  }
+
+  public RingPipelineBuffer startReadMessage(int length)
+  {
+    if(!tryStartReadMessage(length)) throw new BufferUnderflowException();
+    return this;
+  }
+
+  /**
+   * Return true if there are consumable data remaining in the current read message.
+   *
+   * @return true if there are unconsumed message data.
+   */
+  public boolean hasReadMessageDataRemaining()
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!readBlockActive) throw new IllegalStateException();
+
+    return readMessageRemaining > 0;
+  }
+
+  /**
+   * Complete the message block.  All message data are consumed regardless if there are unconsumed data at the end of the message.
+   *
+   * @return this buffer.
+   */
+  public RingPipelineBuffer completeReadMessage()
+  {
+    //Skip the rest of the message.
+    this.readBlockActive = false;
+    advance(readMessageRemaining);
+    readMessageRemaining = 0;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * Rewind the message block.  The message data will be consumed again.
+   *
+   * @return this buffer.
+   */
+  public RingPipelineBuffer rewindReadMessage()
+  {
+    //Restore the consume position - nothing can be produced while the message is active.
+    this.readBlockActive = false;
+    this.consumePos = readMessageStartPosition;
+    this.size = readMessageStartSize;
+    readMessageRemaining = 0;
+
+    //Return this.
+    return this;
+  }
+
+  ///*** WRITE BLOCK
+
+  public RingPipelineBuffer startWriteMessage()
+  {
+    //Make sure we are producing.
+    checkProducable(0);
+
+    //Set the write block active flag.
+    this.writeBlockActive = true;
+
+    //Store the message block start.
+    this.writeMessageStartOffset = size;
+
+    //Return this.
+    return this;
+  }
+
+  /**
+   * Return true if there is space to produce more message data.
+   *
+   * @return true if there is space remaining.
+   */
+  public boolean hasWriteMessageSpaceRemaining()
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!writeBlockActive) throw new IllegalStateException();
+
+    return size < capacity;
+  }
+
+  public int messageBlockWritePosition()
+  {
+    //Throw an exception if we aren't processing a message and this method is called.
+    if(!writeBlockActive) throw new IllegalStateException();
+
+    return size - writeMessageStartOffset;
+  }
+
+  /**
+   * Complete the message block.  The produced message data can then be consumed.
+   *
+   * @return this buffer.
+   */
+  public RingPipelineBuffer completeWriteMessage()
+  {
+    //Reset the write block active flag.
+    this.writeBlockActive = false;
+
+    //Return this.
+    return this;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //RING ARITHMETIC
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Wrap a position which is less than twice the capacity into the internal buffer.
+   */
+  private int wrap(int position)
+  {
+    return (position >= capacity) ? position - capacity : position;
+  }
+
+  /**
+   * <p>Set up a view to cover the given range of the internal buffer.
+   */
+  private static ByteBuffer segment(ByteBuffer view, int from, int to)
+  {
+    view.limit(to);
+    view.position(from);
+    return view;
+  }
+
+  /**
+   * <p>Consume the given number of bytes.  The consume position goes back to the start of the internal buffer when it is empty so that
+   * following data are less likely to wrap.
+   */
+  private void advance(int length)
+  {
+    size -= length;
+    if(size == 0 && !readBlockActive && !writeBlockActive)
+    {
+      consumePos = 0;
+    }
+    else
+    {
+      consumePos = wrap(consumePos + length);
+    }
+
+    if(readBlockActive)
+    {
+      readMessageRemaining -= length;
+    }
+  }
+
+  /**
+   * <p>Produce a value of the given number of bytes.
+   */
+  private RingPipelineBuffer produce(long value, int length)
+  {
+    checkProducable(length);
+    write(wrap(consumePos + size), value, length);
+    size += length;
+    return this;
+  }
+
+  /**
+   * <p>Read a value of the given number of bytes from the given internal buffer position, in the buffer's byte order.
+   */
+  private long read(int pos, int length)
+  {
+    //Contiguous.
+    if(pos + length <= capacity)
+    {
+      switch (length)
+      {
+        case 2:
+          return internalBuffer.getShort(pos);
+        case 4:
+          return internalBuffer.getInt(pos);
+        default:
+          return internalBuffer.getLong(pos);
+      }
+    }
+
+    //Wrapped.  Assemble the bytes in big endian order and sign extend.
+    boolean big = internalBuffer.order() == ByteOrder.BIG_ENDIAN;
+    long value = 0;
+    for(int i = 0; i < length; i++)
+    {
+      int b = internalBuffer.get(wrap(pos + (big ? i : length - 1 - i))) & 0xFF;
+      value = (value << 8) | b;
+    }
+    int shift = 64 - (length * 8);
+    return (value << shift) >> shift;
+  }
+
+  /**
+   * <p>Write a value of the given number of bytes to the given internal buffer position, in the buffer's byte order.
+   */
+  private void write(int pos, long value, int length)
+  {
+    //Contiguous.
+    if(pos + length <= capacity)
+    {
+      switch (length)
+      {
+        case 2:
+          internalBuffer.putShort(pos, (short) value);
+          return;
+        case 4:
+          internalBuffer.putInt(pos, (int) value);
+          return;
+        default:
+          internalBuffer.putLong(pos, value);
+          return;
+      }
+    }
+
+    //Wrapped.
+    boolean big = internalBuffer.order() == ByteOrder.BIG_ENDIAN;
+    for(int i = 0; i < length; i++)
+    {
+      int shift = 8 * (big ? length - 1 - i : i);
+      internalBuffer.put(wrap(pos + i), (byte) (value >>> shift));
+    }
+  }
+
+  /**
+   * <p>Return the internal buffer position for a value written at a position in the current write message.
+   */
+  private int writeIndex(int atPosition, int length)
+  {
+    checkWriteLock();
+    if(atPosition < 0 || writeMessageStartOffset + atPosition + length > capacity)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+    return wrap(consumePos + writeMessageStartOffset + atPosition);
+  }
+
+  /**
+   * <p>Check that the given number of bytes can be produced.  Data can't be produced while a read message is active.
+   */
+  private void checkProducable(int length)
+  {
+    if(readBlockActive)
+    {
+      throw new IllegalStateException("Read message active");
+    }
+    if(length > capacity - size)
+    {
+      throw new BufferOverflowException();
+    }
+  }
+
+  /**
+   * <p>Check that the given number of bytes can be consumed.  Data can't be consumed while a write message is active, and can't be
+   * consumed beyond the end of an active read message.
+   */
+  private void checkConsumable(int length)
+  {
+    if(writeBlockActive)
+    {
+      throw new IllegalStateException("Write message active");
+    }
+    if(length > (readBlockActive ? readMessageRemaining : size))
+    {
+      throw new BufferUnderflowException();
+    }
+  }
+
+  /**
+   * <p>Check that the given number of bytes can be peeked at the given position.
+   */
+  private void checkPeekable(int atPosition, int length)
+  {
+    if(writeBlockActive)
+    {
+      throw new IllegalStateException("Write message active");
+    }
+    if(atPosition < 0 || atPosition + length > size)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+  }
+
+  /**
+   * Check that a write message is in progress.
+   */
+  private void checkWriteLock()
+  {
+    if(!writeBlockActive)
+    {
+      throw new IllegalStateException("Write message block operation not active");
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package hamster.comm.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Implemented by buffers which can take part in a gathering write or a scattering read.  The buffer exposes its consumable data or
+ * its free space as up to {@link #MAX_SEGMENTS} segments of its internal buffer, which {@link ChannelBufferGatherer} and
+ * {@link ChannelBufferScatterer} pass to the channel with those of the other buffers in one operation.
+ * <p>Each start call must be followed by the matching complete call before the buffer is used again.
+ * 
+ * @author jdf19
+ *
+ */
+interface SegmentedChannelBuffer
+{
+  /**
+   * <p>The largest number of segments that a buffer can expose.
+   */
+  static final int MAX_SEGMENTS = 2;
+
+  /**
+   * <p>Prepare the buffer for a gathering drain.  The consumable data are exposed as segments, in order, each positioned at its first
+   * byte and limited after its last byte.
+   *
+   * @param views the array to put the segments in.
+   * @param offset the index in the array of the first segment.
+   * @return the number of segments exposed, no more than {@link #MAX_SEGMENTS}.
+   */
+  public int startGatheringDrain(ByteBuffer[] views, int offset);
+
+  /**
+   * <p>Update the buffer after a gathering drain.  The channel has advanced the segment positions by the number of bytes it accepted.
+   */
+  public void completeGatheringDrain();
+
+  /**
+   * <p>Prepare the buffer for a scattering fill.  The free space, up to the given maximum number of bytes, is exposed as segments,
+   * in order, each positioned at its first free byte and limited after its last.
+   *
+   * @param views the array to put the segments in.
+   * @param offset the index in the array of the first segment.
+   * @param maxBytesToReceive the maximum number of bytes to fill.
+   * @return the number of segments exposed, no more than {@link #MAX_SEGMENTS}.
+   */
+  public int startScatteringFill(ByteBuffer[] views, int offset, int maxBytesToReceive);
+
+  /**
+   * <p>Update the buffer after a scattering fill.  The channel has advanced the segment positions by the number of bytes it placed in them.
+   */
+  public void completeScatteringFill();
+}
@@ -0,0 +1,381 @@
+package hamster.comm.buffer;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Encoding and decoding of variable length data in a byte buffer, shared by the {@link PipelineBuffer} and {@link AccessBuffer}
+ * variable length produce, consume, set and read methods.
+ * <p>Integers are encoded as unsigned LEB128 varints: 7 bits per byte, least significant group first, with the top bit set on every
+ * byte except the last.  Signed values are zigzag mapped first so that values near zero are short whatever their sign.
+ * <p>Strings are encoded as a varint byte count followed by the encoded characters.  UTF-8 strings encode any character; unpaired
+ * surrogates are encoded as '?' and malformed input decodes to U+FFFD.  ASCII strings encode one byte per character; characters
+ * outside the ASCII range are encoded as '?'.
+ * <p>All operations are relative to the buffer position and allocate nothing.
+ *
+ * @author jdf19
+ */
+final class VariableLengthCodec
+{
+  /**
+   * <p>Longest varint encoding of a long value.
+   */
+  static final int MAX_VARLONG_LENGTH = 10;
+
+  /**
+   * <p>Longest varint encoding of an int value.
+   */
+  static final int MAX_VARINT_LENGTH = 5;
+
+  /**
+   * <p>Smallest code point for each number of continuation bytes, to reject overlong encodings.
+   */
+  private static final int[] MIN_CODE_POINT = {0, 0x80, 0x800, 0x10000};
+
+  /**
+   * <p>Static methods only.
+   */
+  private VariableLengthCodec()
+  {
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //INTEGERS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Return the number of bytes in the varint encoding of the given unsigned value.
+   *
+   * @param value the value.
+   * @return the encoded length.
+   */
+  static int varLongLength(long value)
+  {
+    //One byte per 7 significant bits, at least one byte.
+    int bits = 64 - Long.numberOfLeadingZeros(value | 1);
+    return (bits + 6) / 7;
+  }
+
+  /**
+   * <p>Map a signed value so that small negative values are small unsigned values.
+   *
+   * @param value the signed value.
+   * @return the zigzag value.
+   */
+  static long zigZag(long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * <p>Reverse {@link #zigZag(long)}.
+   *
+   * @param value the zigzag value.
+   * @return the signed value.
+   */
+  static long unZigZag(long value)
+  {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * <p>Put the varint encoding of the given unsigned value.
+   *
+   * @param buffer the buffer to put to.
+   * @param value the value.
+   * @return the number of bytes put.
+   * @throws BufferOverflowException if there isn't space for the encoding.  Nothing is put.
+   */
+  static int putVarLong(ByteBuffer buffer, long value)
+  {
+    //Check the space first so that nothing is put on failure.
+    int length = varLongLength(value);
+    if(buffer.remaining() < length) throw new BufferOverflowException();
+
+    //7 bits at a time.
+    while((value & ~0x7fL) != 0)
+    {
+      buffer.put((byte) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+
+    //Return the length.
+    return length;
+  }
+
+  /**
+   * <p>Get a varint encoded unsigned value.
+   *
+   * @param buffer the buffer to get from.
+   * @param maxLength the longest encoding allowed.
+   * @return the value.
+   * @throws BufferUnderflowException if the encoding is incomplete.  The buffer position is not changed.
+   * @throws IllegalStateException if the encoding is longer than the maximum length.  The buffer position is not changed.
+   */
+  static long getVarLong(ByteBuffer buffer, int maxLength)
+  {
+    int start = buffer.position();
+    int limit = buffer.limit();
+    long value = 0;
+    for(int i = 0; i < maxLength; i++)
+    {
+      //Don't move the position if the value is incomplete.
+      if(start + i >= limit) throw new BufferUnderflowException();
+
+      byte b = buffer.get(start + i);
+      value |= (long) (b & 0x7f) << (7 * i);
+      if(b >= 0)
+      {
+        buffer.position(start + i + 1);
+        return value;
+      }
+    }
+    throw new IllegalStateException("Malformed varint");
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  //STRINGS
+  ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * <p>Return the number of bytes in the UTF-8 encoding of the given characters, not including the length prefix.
+   *
+   * @param chars the characters.
+   * @return the encoded length.
+   */
+  static int utf8Length(CharSequence chars)
+  {
+    int length = 0;
+    int count = chars.length();
+    for(int i = 0; i < count; i++)
+    {
+      char c = chars.charAt(i);
+      if(c < 0x80)
+      {
+        length += 1;
+      }
+      else if(c < 0x800)
+      {
+        length += 2;
+      }
+      else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(chars.charAt(i + 1)))
+      {
+        length += 4;
+        i++;
+      }
+      else if(Character.isSurrogate(c))
+      {
+        //Unpaired - encoded as '?'.
+        length += 1;
+      }
+      else
+      {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * <p>Put the length prefixed UTF-8 encoding of the given characters.
+   *
+   * @param buffer the buffer to put to.
+   * @param chars the characters.
+   * @return the number of bytes put, including the length prefix.
+   * @throws BufferOverflowException if there isn't space for the encoding.  Nothing is put.
+   */
+  static int putUtf8(ByteBuffer buffer, CharSequence chars)
+  {
+    //Check the space first so that nothing is put on failure.
+    int length = utf8Length(chars);
+    int total = varLongLength(length) + length;
+    if(buffer.remaining() < total) throw new BufferOverflowException();
+
+    //Length then the characters.
+    putVarLong(buffer, length);
+    int count = chars.length();
+    for(int i = 0; i < count; i++)
+    {
+      char c = chars.charAt(i);
+      if(c < 0x80)
+      {
+        buffer.put((byte) c);
+      }
+      else if(c < 0x800)
+      {
+        buffer.put((byte) (0xc0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+      else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(chars.charAt(i + 1)))
+      {
+        int cp = Character.toCodePoint(c, chars.charAt(++i));
+        buffer.put((byte) (0xf0 | (cp >> 18)));
+        buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+        buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (cp & 0x3f)));
+      }
+      else if(Character.isSurrogate(c))
+      {
+        buffer.put((byte) '?');
+      }
+      else
+      {
+        buffer.put((byte) (0xe0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+
+    //Return the length.
+    return total;
+  }
+
+  /**
+   * <p>Get a length prefixed UTF-8 string and append the characters to the given builder.
+   *
+   * @param buffer the buffer to get from.
+   * @param target the builder to append to.
+   * @return the number of bytes got, including the length prefix.
+   * @throws BufferUnderflowException if the string is incomplete.  The buffer position is not changed.
+   */
+  static int getUtf8(ByteBuffer buffer, StringBuilder target)
+  {
+    //Get the length and check the whole string is there.
+    int start = buffer.position();
+    int length = getStringLength(buffer);
+    int end = buffer.position() + length;
+
+    //Decode.
+    while(buffer.position() < end)
+    {
+      int b = buffer.get() & 0xff;
+      if(b < 0x80)
+      {
+        target.append((char) b);
+        continue;
+      }
+
+      //Multibyte sequence - number of continuation bytes and the initial bits.
+      int extra;
+      int cp;
+      if(b >= 0xc2 && b < 0xe0)
+      {
+        extra = 1;
+        cp = b & 0x1f;
+      }
+      else if(b >= 0xe0 && b < 0xf0)
+      {
+        extra = 2;
+        cp = b & 0x0f;
+      }
+      else if(b >= 0xf0 && b < 0xf5)
+      {
+        extra = 3;
+        cp = b & 0x07;
+      }
+      else
+      {
+        target.append('\uFFFD');
+        continue;
+      }
+
+      //Continuation bytes.  A malformed sequence is replaced and decoding resumes at the offending byte.
+      boolean valid = true;
+      for(int i = 0; i < extra; i++)
+      {
+        int p = buffer.position();
+        if(p == end || (buffer.get(p) & 0xc0) != 0x80)
+        {
+          valid = false;
+          break;
+        }
+        cp = (cp << 6) | (buffer.get() & 0x3f);
+      }
+      if(valid && Character.isValidCodePoint(cp) && !(cp >= 0xd800 && cp <= 0xdfff) && cp >= MIN_CODE_POINT[extra])
+      {
+        target.appendCodePoint(cp);
+      }
+      else
+      {
+        target.append('\uFFFD');
+      }
+    }
+
+    //Return the length.
+    return end - start;
+  }
+
+  /**
+   * <p>Put the length prefixed ASCII encoding of the given characters.
+   *
+   * @param buffer the buffer to put to.
+   * @param chars the characters.
+   * @return the number of bytes put, including the length prefix.
+   * @throws BufferOverflowException if there isn't space for the encoding.  Nothing is put.
+   */
+  static int putAscii(ByteBuffer buffer, CharSequence chars)
+  {
+    //Check the space first so that nothing is put on failure.
+    int length = chars.length();
+    int total = varLongLength(length) + length;
+    if(buffer.remaining() < total) throw new BufferOverflowException();
+
+    //Length then the characters.
+    putVarLong(buffer, length);
+    for(int i = 0; i < length; i++)
+    {
+      char c = chars.charAt(i);
+      buffer.put((byte) ((c < 0x80) ? c : '?'));
+    }
+
+    //Return the length.
+    return total;
+  }
+
+  /**
+   * <p>Get a length prefixed ASCII string and append the characters to the given builder.  Bytes outside the ASCII range decode to
+   * U+FFFD.
+   *
+   * @param buffer the buffer to get from.
+   * @param target the builder to append to.
+   * @return the number of bytes got, including the length prefix.
+   * @throws BufferUnderflowException if the string is incomplete.  The buffer position is not changed.
+   */
+  static int getAscii(ByteBuffer buffer, StringBuilder target)
+  {
+    //Get the length and check the whole string is there.
+    int start = buffer.position();
+    int length = getStringLength(buffer);
+
+    //Decode.
+    for(int i = 0; i < length; i++)
+    {
+      byte b = buffer.get();
+      target.append((b >= 0) ? (char) b : '\uFFFD');
+    }
+
+    //Return the length.
+    return buffer.position() - start;
+  }
+
+  /**
+   * <p>Get a string length prefix and check that the whole string follows it.
+   *
+   * @param buffer the buffer to get from.
+   * @return the string length.
+   * @throws BufferUnderflowException if the string is incomplete.  The buffer position is not changed.
+   */
+  private static int getStringLength(ByteBuffer buffer)
+  {
+    int start = buffer.position();
+    long length = getVarLong(buffer, MAX_VARINT_LENGTH);
+    if(length > buffer.remaining())
+    {
+      buffer.position(start);
+      throw new BufferUnderflowException();
+    }
+    return (int) length;
+  }
+}
@@ -0,0 +1,85 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>Decoder for frames which end with a delimiter byte sequence, such as a line feed or carriage return and line feed.  The frame
+ * handed to the listener doesn't include the delimiter, which is consumed after the frame.
+ * <p>The decoder remembers how far it has searched an incomplete frame, so the data already received aren't searched again when more
+ * arrive.
+ *
+ * @author jdf19
+ *
+ */
+public class DelimiterFrameDecoder extends FrameDecoder
+{
+  //Delimiter sequence.
+  private final byte[] delimiter;
+
+  //Offset from the consume position that the delimiter search resumes from.
+  private int searchFrom = 0;
+
+  /**
+   * <p>Create the decoder.
+   *
+   * @param delimiter the delimiter sequence, at least one byte.
+   * @param maxFrameLength the largest frame data length that will be accepted, not including the delimiter.
+   */
+  public DelimiterFrameDecoder(byte[] delimiter, int maxFrameLength)
+  {
+    super(maxFrameLength);
+    if(delimiter.length == 0) throw new IllegalArgumentException();
+    this.delimiter = delimiter.clone();
+  }
+
+  @Override
+  protected boolean startFrame(PipelineBuffer buffer)
+  {
+    int available = buffer.size();
+    int last = available - delimiter.length;
+
+    //Search for the delimiter.
+    for(int i = searchFrom; i <= last; i++)
+    {
+      if(matchAt(buffer, i))
+      {
+        checkFrameLength(i);
+        searchFrom = 0;
+        buffer.startReadMessage(i);
+        return true;
+      }
+    }
+
+    //Not found.  Resume the search where a delimiter could still start.
+    searchFrom = Math.max(0, last + 1);
+    checkFrameLength(searchFrom);
+    return false;
+  }
+
+  @Override
+  protected void endFrame(PipelineBuffer buffer)
+  {
+    //Complete the frame then consume the delimiter.
+    super.endFrame(buffer);
+    for(int i = 0; i < delimiter.length; i++)
+    {
+      buffer.consumeByte();
+    }
+  }
+
+  /**
+   * <p>Return true if the delimiter starts at the given offset from the consume position.
+   *
+   * @param buffer the buffer.
+   * @param offset the offset.
+   * @return true if matched.
+   */
+  private boolean matchAt(PipelineBuffer buffer, int offset)
+  {
+    for(int j = 0; j < delimiter.length; j++)
+    {
+      if(buffer.peekByte(offset + j) != delimiter[j]) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,28 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>Decoder for frames which are all the same length, with no header or delimiter.
+ *
+ * @author jdf19
+ *
+ */
+public class FixedLengthFrameDecoder extends FrameDecoder
+{
+  /**
+   * <p>Create the decoder.
+   *
+   * @param frameLength the length of every frame.
+   */
+  public FixedLengthFrameDecoder(int frameLength)
+  {
+    super(frameLength);
+  }
+
+  @Override
+  protected boolean startFrame(PipelineBuffer buffer)
+  {
+    return buffer.tryStartReadMessage(maxFrameLength());
+  }
+}
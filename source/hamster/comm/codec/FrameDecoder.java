@@ -0,0 +1,105 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>Base class for frame decoders.  A frame decoder finds complete frames in a {@link PipelineBuffer} and hands each one to a
+ * {@link FrameListener} in turn.  Each frame is presented in place as an active read message on the buffer so no frame data are
+ * copied and nothing is allocated while decoding.
+ * <p>Incomplete frames are left in the buffer until more data have arrived.  Some decoders keep state about a partially received
+ * frame between calls, so a decoder instance must only be used with one buffer.  This class is not multithread safe.
+ *
+ * @author jdf19
+ *
+ */
+public abstract class FrameDecoder
+{
+  //Largest frame that will be accepted.
+  private final int maxFrameLength;
+
+  /**
+   * <p>Create the decoder with the given maximum frame length.
+   *
+   * @param maxFrameLength the largest frame data length that will be accepted.  This should not be more than the space available in
+   * the buffers that the decoder will be used with, or a frame may never be completed.
+   */
+  protected FrameDecoder(int maxFrameLength)
+  {
+    if(maxFrameLength <= 0) throw new IllegalArgumentException();
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  /**
+   * <p>Return the largest frame data length that will be accepted.
+   *
+   * @return the maximum frame length.
+   */
+  public int maxFrameLength()
+  {
+    return maxFrameLength;
+  }
+
+  /**
+   * <p>Hand every complete frame in the buffer to the listener, in order.  The consumed frames are removed from the buffer and
+   * any incomplete frame at the end is left in it.
+   *
+   * @param buffer the buffer to decode frames from.
+   * @param listener the listener to hand the frames to.
+   * @return the number of frames handed to the listener.
+   * @throws FrameFormatException if the buffer data aren't a valid frame.
+   */
+  public int decodeFrames(PipelineBuffer buffer, FrameListener listener)
+  {
+    int frames = 0;
+
+    //Process frames until there isn't a complete one left.
+    while(startFrame(buffer))
+    {
+      try
+      {
+        listener.handleFrame(buffer);
+      }
+      finally
+      {
+        endFrame(buffer);
+      }
+      frames++;
+    }
+
+    //Return the count.
+    return frames;
+  }
+
+  /**
+   * <p>Check the frame data length against the maximum.
+   *
+   * @param length the frame data length.
+   * @throws FrameFormatException if the length is negative or larger than the maximum.
+   */
+  protected void checkFrameLength(long length)
+  {
+    if(length < 0 || length > maxFrameLength)
+    {
+      throw new FrameFormatException("Frame length " + length + " out of range, maximum " + maxFrameLength);
+    }
+  }
+
+  /**
+   * <p>If the buffer holds a complete frame at its consume position then start a read message over it, positioned at the
+   * frame data, and return true.  Otherwise leave the buffer alone and return false.
+   *
+   * @param buffer the buffer to decode the frame from.
+   * @return true if a frame was started.
+   */
+  protected abstract boolean startFrame(PipelineBuffer buffer);
+
+  /**
+   * <p>Complete the frame started by {@link #startFrame(PipelineBuffer)}.  By default this completes the read message.
+   *
+   * @param buffer the buffer the frame was decoded from.
+   */
+  protected void endFrame(PipelineBuffer buffer)
+  {
+    buffer.completeReadMessage();
+  }
+}
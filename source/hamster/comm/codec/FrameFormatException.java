@@ -0,0 +1,26 @@
+package hamster.comm.codec;
+
+/**
+ * <p>Thrown by a {@link FrameDecoder} when the data in the buffer can't be a valid frame, for example when a length prefix is larger
+ * than the maximum frame length.  The stream can't be decoded any further and the channel should be closed.
+ *
+ * @author jdf19
+ *
+ */
+public class FrameFormatException extends RuntimeException
+{
+  /**
+   * 
+   */
+  private static final long serialVersionUID = -2287459140665121875L;
+
+  /**
+   * <p>Create the exception with the given detail message.
+   *
+   * @param message the detail message.
+   */
+  public FrameFormatException(String message)
+  {
+    super(message);
+  }
+}
@@ -0,0 +1,25 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>Implementations of this interface receive the frames found by a {@link FrameDecoder}.
+ *
+ * @author jdf19
+ *
+ */
+public interface FrameListener
+{
+  /**
+   * <p>A complete frame has been found.  The given buffer has a read message active over the frame data, positioned at the start
+   * of the frame data after any length prefix; the frame data can be consumed with the consumeXXX() methods and peeked with the
+   * peekXXX() methods, relative to the current consume position.  {@link PipelineBuffer#hasReadMessageDataRemaining()} returns
+   * false at the end of the frame.  The frame fields can also be read at any offset without consuming them by wrapping a
+   * {@link hamster.comm.buffer.MessageView} around the frame with {@link PipelineBuffer#wrapReadMessage(hamster.comm.buffer.MessageView)}.
+   * <p>The read message is completed by the decoder when this method returns, so the buffer must not be kept and the read message
+   * must not be completed or rewound by the implementation.  Frame data which aren't consumed are skipped.
+   *
+   * @param frame the buffer holding the frame.
+   */
+  public void handleFrame(PipelineBuffer frame);
+}
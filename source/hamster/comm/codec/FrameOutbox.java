@@ -0,0 +1,257 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.SocketChannelController;
+import hamster.comm.itf.listener.OutgoingChannelListener;
+import hamster.comm.wakeupschedule.SchedulerClock;
+
+/**
+ * <p>The frame outbox batches outgoing frames so that the frames produced during a communication loop iteration are written to the
+ * channel in one operation at the end of the loop, rather than one write per frame.  This gives the effect of Nagle batching without
+ * the kernel Nagle delay.
+ * <p>Frames are produced with {@link #startFrame()} and {@link #completeFrame()}.  Completed frames are held in the outbox buffer
+ * until one of the following happens:
+ * <ul>
+ * <li>{@link #handleLoopEnd()} is called, from the owner's {@link OutgoingChannelListener#handleServerLoopEnd()} method, and the oldest
+ * held frame has been held for at least the maximum latency.  With the default maximum latency of zero, frames are flushed at every
+ * loop end.</li>
+ * <li>the held data reach the maximum byte count, in which case they are flushed straight away from {@link #completeFrame()}.</li>
+ * <li>the owner calls {@link #flush()}.</li>
+ * </ul>
+ * <p>Data which the channel can't accept straight away stay in the buffer.  The owner calls {@link #handleWriteContinue()} from its
+ * {@link OutgoingChannelListener#handleChannelWriteContinue()} method to send them on.
+ * <p>While frames are held, the outbox subscribes the channel to loop end notifications so that {@link #handleLoopEnd()} is called even
+ * if there is no other activity on the channel; the subscription is dropped when the frames have been flushed.  With a non-zero
+ * maximum latency, the frames are flushed at the first loop end after the latency has passed, so the loop must be woken up (by
+ * activity, a scheduled wakeup or a spinning loop interactor) for the latency to be kept to.
+ * <p>This class is not multithread safe and must only be used in the communication loop thread.
+ *
+ * @author jdf19
+ *
+ */
+public class FrameOutbox
+{
+  //Channel to write to.
+  private final SocketChannelController controller;
+
+  //Buffer holding outgoing data.
+  private final PipelineBuffer buffer;
+
+  //Length field size written at the start of each frame, or 0 for none.
+  private final int fieldLength;
+
+  //Clock for the maximum latency.
+  private final SchedulerClock clock;
+
+  //Maximum time to hold a frame before flushing at loop end.
+  private long maxLatencyNanos = 0;
+
+  //Held data count at which the frames are flushed straight away.
+  private int maxBytes = Integer.MAX_VALUE;
+
+  //True while there are completed frames which haven't been flushed.
+  private boolean holding = false;
+
+  //Time the oldest held frame was completed.
+  private long holdingSince;
+
+  //Number of flushes.
+  private long flushCount = 0;
+
+  /**
+   * <p>Create the outbox.
+   *
+   * @param controller the channel controller to write with.
+   * @param buffer the buffer to hold outgoing frames in.  This must not be used for anything else.
+   * @param fieldLength the size of the length field to write at the start of each frame: 1, 2 or 4 bytes, or 0 for no length field.
+   * The length is written in the byte order of the buffer and counts the frame data only, as decoded by a
+   * {@link LengthFieldFrameDecoder}.
+   * @param clock the clock to measure the maximum latency with.
+   */
+  public FrameOutbox(SocketChannelController controller, PipelineBuffer buffer, int fieldLength, SchedulerClock clock)
+  {
+    //Check the field size.
+    if(fieldLength != 0 && fieldLength != 1 && fieldLength != 2 && fieldLength != 4) throw new IllegalArgumentException();
+
+    this.controller = controller;
+    this.buffer = buffer;
+    this.fieldLength = fieldLength;
+    this.clock = clock;
+  }
+
+  /**
+   * <p>Set the maximum time that a completed frame is held before it is flushed at the end of a loop.  The default is zero, which
+   * flushes the frames at the end of every loop in which they were produced.
+   *
+   * @param maxLatencyNanos the maximum latency in nanoseconds.
+   * @return this outbox.
+   */
+  public FrameOutbox setMaxLatencyNanos(long maxLatencyNanos)
+  {
+    if(maxLatencyNanos < 0) throw new IllegalArgumentException();
+    this.maxLatencyNanos = maxLatencyNanos;
+    return this;
+  }
+
+  /**
+   * <p>Set the number of held bytes at which the frames are flushed as soon as a frame is completed.  The default is no limit other
+   * than the space in the buffer.
+   *
+   * @param maxBytes the maximum held byte count.
+   * @return this outbox.
+   */
+  public FrameOutbox setMaxBytes(int maxBytes)
+  {
+    if(maxBytes <= 0) throw new IllegalArgumentException();
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * <p>Start a frame.  The frame data are produced to the returned buffer with the produceXXX() methods, then the frame is finished
+   * with {@link #completeFrame()}.  Each frame is one write message which starts with the length field, so positions given to the
+   * produceXXXAt() methods are relative to the start of the length field; the frame data start at the field length.
+   *
+   * @return the buffer to produce the frame data to.
+   */
+  public PipelineBuffer startFrame()
+  {
+    //Start the message and reserve the length field.
+    buffer.startWriteMessage();
+    switch(fieldLength)
+    {
+      case 1:
+        buffer.produceByte((byte) 0);
+        break;
+      case 2:
+        buffer.produceChar((char) 0);
+        break;
+      case 4:
+        buffer.produceInt(0);
+        break;
+      default:
+        break;
+    }
+    return buffer;
+  }
+
+  /**
+   * <p>Complete the frame started with {@link #startFrame()}.  The length field is written and the frame is held for flushing.  If the
+   * held data have reached the maximum byte count then they are flushed now.
+   *
+   * @throws FrameFormatException if the frame is too long for the length field.  The frame is discarded.
+   */
+  public void completeFrame()
+  {
+    //Write the length field at the start of the message.  It counts the frame data only.
+    int length = buffer.messageBlockWritePosition() - fieldLength;
+    switch(fieldLength)
+    {
+      case 1:
+        if(length > 0xff) discardFrame(length);
+        buffer.produceByteAt(0, (byte) length);
+        break;
+      case 2:
+        if(length > 0xffff) discardFrame(length);
+        buffer.produceCharAt(0, (char) length);
+        break;
+      case 4:
+        buffer.produceIntAt(0, length);
+        break;
+      default:
+        break;
+    }
+    buffer.completeWriteMessage();
+
+    //Hold the frame.
+    if(!holding)
+    {
+      holding = true;
+      holdingSince = clock.nanoTime();
+      controller.activateCommLoopEndNotification(true);
+    }
+
+    //Flush now if there are enough data.
+    if(buffer.size() >= maxBytes)
+    {
+      flush();
+    }
+  }
+
+  /**
+   * <p>Throw away a frame which is too long for the length field, so that the frames after it aren't corrupted, and report it.
+   */
+  private void discardFrame(int length)
+  {
+    buffer.rewindWriteMessage();
+    throw new FrameFormatException("Frame length " + length + " too long for the length field");
+  }
+
+  /**
+   * <p>Flush the held frames if the oldest has been held for at least the maximum latency.  Called from the owner's
+   * {@link OutgoingChannelListener#handleServerLoopEnd()} method.
+   */
+  public void handleLoopEnd()
+  {
+    if(holding && (clock.nanoTime() - holdingSince) >= maxLatencyNanos)
+    {
+      flush();
+    }
+  }
+
+  /**
+   * <p>Send on data which the channel couldn't accept when they were flushed.  Called from the owner's
+   * {@link OutgoingChannelListener#handleChannelWriteContinue()} method.
+   */
+  public void handleWriteContinue()
+  {
+    //Held frames behind the unsent data are sent as well.
+    if(buffer.hasDataToConsume())
+    {
+      flush();
+    }
+  }
+
+  /**
+   * <p>Write all of the data in the outbox to the channel now.  Any data the channel can't accept are sent when the channel is
+   * ready for writing again.
+   *
+   * @return the number of bytes written.
+   */
+  public int flush()
+  {
+    //Write.
+    int written = controller.writeOutgoingData(buffer);
+    flushCount++;
+
+    //No longer holding.
+    if(holding)
+    {
+      holding = false;
+      controller.activateCommLoopEndNotification(false);
+    }
+
+    //Return the count.
+    return written;
+  }
+
+  /**
+   * <p>Return true if there are completed frames which haven't been flushed.
+   *
+   * @return true if holding frames.
+   */
+  public boolean isHolding()
+  {
+    return holding;
+  }
+
+  /**
+   * <p>Return the number of times the outbox has been flushed.
+   *
+   * @return the flush count.
+   */
+  public long flushCount()
+  {
+    return flushCount;
+  }
+}
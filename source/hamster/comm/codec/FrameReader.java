@@ -0,0 +1,69 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.ReadableChannelController;
+
+/**
+ * <p>The frame reader joins a channel, a read buffer, a {@link FrameDecoder} and a {@link FrameListener}.  A listener calls
+ * {@link #readFrames()} from its <code>handleDataRead()</code> method; the channel data are read into the buffer and every complete
+ * frame is handed to the frame listener.
+ * <p>This class is not multithread safe; it is intended to be owned by a single channel listener.
+ *
+ * @author jdf19
+ *
+ */
+public class FrameReader
+{
+  //Channel to read from.
+  private final ReadableChannelController controller;
+
+  //Buffer holding received data.
+  private final PipelineBuffer buffer;
+
+  //Frame decoder.
+  private final FrameDecoder decoder;
+
+  //Frame consumer.
+  private final FrameListener listener;
+
+  /**
+   * <p>Create the frame reader.
+   *
+   * @param controller the channel controller to read with.
+   * @param buffer the buffer to read into.  This must not be used for anything else.
+   * @param decoder the decoder to find frames with.
+   * @param listener the listener to hand the frames to.
+   */
+  public FrameReader(ReadableChannelController controller, PipelineBuffer buffer, FrameDecoder decoder, FrameListener listener)
+  {
+    this.controller = controller;
+    this.buffer = buffer;
+    this.decoder = decoder;
+    this.listener = listener;
+  }
+
+  /**
+   * <p>Read the available channel data into the buffer and hand every complete frame to the listener.
+   *
+   * @return the number of frames handed to the listener.
+   * @throws FrameFormatException if the channel data aren't a valid frame.
+   */
+  public int readFrames()
+  {
+    //Read.
+    controller.fillBufferFromChannel(buffer);
+
+    //Decode everything that has arrived.
+    return decoder.decodeFrames(buffer, listener);
+  }
+
+  /**
+   * <p>Return the buffer the reader reads into.
+   *
+   * @return the buffer.
+   */
+  public PipelineBuffer buffer()
+  {
+    return buffer;
+  }
+}
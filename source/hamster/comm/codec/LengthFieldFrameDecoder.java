@@ -0,0 +1,88 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>Decoder for frames which start with a 1, 2 or 4 byte length field in the byte order of the buffer.  1 and 2 byte lengths are
+ * unsigned; a 4 byte length must not be negative.  The length can either count the frame data only or the length field as well.
+ * <p>The length field is consumed before the frame is handed to the listener.
+ *
+ * @author jdf19
+ *
+ */
+public class LengthFieldFrameDecoder extends FrameDecoder
+{
+  //Length field size in bytes.
+  private final int fieldLength;
+
+  //True if the length value includes the length field itself.
+  private final boolean lengthIncludesField;
+
+  /**
+   * <p>Create the decoder.
+   *
+   * @param fieldLength the size of the length field: 1, 2 or 4.
+   * @param lengthIncludesField true if the length value counts the length field as well as the frame data.
+   * @param maxFrameLength the largest frame data length that will be accepted.
+   */
+  public LengthFieldFrameDecoder(int fieldLength, boolean lengthIncludesField, int maxFrameLength)
+  {
+    super(maxFrameLength);
+
+    //Check the field size.
+    if(fieldLength != 1 && fieldLength != 2 && fieldLength != 4) throw new IllegalArgumentException();
+
+    this.fieldLength = fieldLength;
+    this.lengthIncludesField = lengthIncludesField;
+  }
+
+  @Override
+  protected boolean startFrame(PipelineBuffer buffer)
+  {
+    //Need the whole length field.
+    if(buffer.size() < fieldLength) return false;
+
+    //Get the frame data length.
+    long length;
+    switch(fieldLength)
+    {
+      case 1:
+        length = buffer.peekByte(0) & 0xff;
+        break;
+      case 2:
+        length = buffer.peekChar(0);
+        break;
+      default:
+        length = buffer.peekInt(0);
+        break;
+    }
+    if(lengthIncludesField) length -= fieldLength;
+    checkFrameLength(length);
+
+    //Start the message over the field and the data if it is all here, then step over the field.
+    if(!buffer.tryStartReadMessage(fieldLength + (int) length)) return false;
+    skipField(buffer);
+    return true;
+  }
+
+  /**
+   * <p>Consume the length field inside the read message.
+   *
+   * @param buffer the buffer.
+   */
+  private void skipField(PipelineBuffer buffer)
+  {
+    switch(fieldLength)
+    {
+      case 1:
+        buffer.consumeByte();
+        break;
+      case 2:
+        buffer.consumeChar();
+        break;
+      default:
+        buffer.consumeInt();
+        break;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package hamster.comm.codec;
+
+import hamster.comm.buffer.PipelineBuffer;
+
+/**
+ * <p>Decoder for frames which start with an unsigned LEB128 varint length field: 7 bits of the length per byte, least significant
+ * group first, with the top bit set on every byte except the last.  The length counts the frame data only.  The length field is
+ * consumed before the frame is handed to the listener.
+ *
+ * @author jdf19
+ *
+ */
+public class VarintLengthFrameDecoder extends FrameDecoder
+{
+  //Longest varint field for an int length.
+  private static final int MAX_FIELD_LENGTH = 5;
+
+  /**
+   * <p>Create the decoder.
+   *
+   * @param maxFrameLength the largest frame data length that will be accepted.
+   */
+  public VarintLengthFrameDecoder(int maxFrameLength)
+  {
+    super(maxFrameLength);
+  }
+
+  @Override
+  protected boolean startFrame(PipelineBuffer buffer)
+  {
+    int available = buffer.size();
+
+    //Decode the length field as far as it has arrived.
+    long length = 0;
+    int fieldLength = 0;
+    while(true)
+    {
+      if(fieldLength == available) return false;
+      if(fieldLength == MAX_FIELD_LENGTH) throw new FrameFormatException("Varint frame length too long");
+
+      byte b = buffer.peekByte(fieldLength);
+      length |= (long) (b & 0x7f) << (7 * fieldLength);
+      fieldLength++;
+      if(b >= 0) break;
+    }
+    checkFrameLength(length);
+
+    //Start the message over the field and the data if it is all here, then step over the field.
+    if(!buffer.tryStartReadMessage(fieldLength + (int) length)) return false;
+    for(int i = 0; i < fieldLength; i++)
+    {
+      buffer.consumeByte();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,7 @@
+/**
+ * <p>The codec package provides framing for byte streams carried in a {@link hamster.comm.buffer.PipelineBuffer}.  Frame decoders
+ * find the complete frames in the buffer and present each one to a {@link hamster.comm.codec.FrameListener} as an active read message,
+ * without copying the frame data.
+ */
+
+package hamster.comm.codec;
@@ -0,0 +1,24 @@
+package hamster.comm.itf.controller;
+
+import hamster.comm.buffer.BaseBuffer;
+
+/**
+ * <p>The buffer releasing channel controller allows the owner of a channel to hand responsibility for releasing its buffers to the
+ * channel.  This is useful when buffers are taken from a {@link hamster.comm.buffer.BufferPool}: buffers registered with the
+ * controller are released back to the pool when the channel shuts down, after the listener has been told that the channel has
+ * shut, so the owner does not have to track them through every shutdown path.
+ *  
+ * @author jdf19
+ *
+ */
+public interface BufferReleasingChannelController
+{
+  /**
+   * <p>Release the given buffers when the channel shuts down.  The buffers must not be used after the channel has shut.  Buffers which
+   * have already been released by that point are ignored.
+   * <p>Buffers are not released if the channel is liberated from the communication server rather than shut.
+   * 
+   * @param buffers the buffers to release on shutdown.
+   */
+  public void releaseOnShutdown(BaseBuffer... buffers);
+}
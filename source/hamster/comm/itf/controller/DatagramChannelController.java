@@ -9,7 +9,7 @@ package hamster.comm.itf.controller;
  * @author jdf19
  *
  */
-public interface DatagramChannelController extends ReadableChannelController, WritableChannelController
+public interface DatagramChannelController extends ReadableChannelController, WritableChannelController, BufferReleasingChannelController
 {
   /**
    * <p>Shut down the channel.  The channel closes immediately and cannot be used again.
@@ -48,4 +48,26 @@ public interface ReadableChannelController
    * @return the number of bytes read, if any.
    */
   public int fillBufferFromChannel(FillableChannelBuffer targetBuffer, int maxBytesToFill);
+  
+  /**
+   * <p>This method functions as the {@link #fillBufferFromChannel(FillableChannelBuffer)} method above but fills several buffers from the
+   * channel in order.  Each buffer is filled to capacity before any data are placed in the next buffer.  Consecutive 
+   * {@link hamster.comm.buffer.PipelineBuffer} and {@link hamster.comm.buffer.RingPipelineBuffer} instances are filled with a single scattering read operation.  For datagram channels,
+   * one datagram is read and split across the buffers.
+   *    
+   * @param targetBuffers the fillable buffers to transfer the incoming channel data into, in order.  The same buffer must not appear more than once.
+   * @return the number of bytes read, if any.
+   */
+  public long fillBufferFromChannel(FillableChannelBuffer... targetBuffers);
+  
+  /**
+   * <p>This method functions as the {@link #fillBufferFromChannel(FillableChannelBuffer...)} method above but each buffer is filled with no
+   * more than the corresponding number of bytes before data are placed in the next buffer.  For example, a fixed length header can be
+   * read into one buffer and the data following it into another.
+   *    
+   * @param targetBuffers the fillable buffers to transfer the incoming channel data into, in order.  The same buffer must not appear more than once.
+   * @param maxBytesToFill the maximum number of bytes to fill each buffer with.  Must be the same length as the targetBuffers array.
+   * @return the number of bytes read, if any.
+   */
+  public long fillBufferFromChannel(FillableChannelBuffer[] targetBuffers, int[] maxBytesToFill);
 }
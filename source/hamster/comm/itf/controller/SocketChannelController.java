@@ -2,6 +2,8 @@ package hamster.comm.itf.controller;
 
 import java.nio.channels.SocketChannel;
 
+import hamster.comm.metrics.ChannelMetrics;
+
 /**
  * <p>The {@link SocketChannelController} interface allows control of an unerlying communication channel
  * by adding the ability to execute a graceful shutdown using {@link SocketChannelController#closeOutput()},
@@ -11,7 +13,7 @@ import java.nio.channels.SocketChannel;
  * @author jdf19
  *
  */
-public interface SocketChannelController extends BiDirectionalChannelController
+public interface SocketChannelController extends BiDirectionalChannelController, BufferReleasingChannelController
 {
   /**
    * <p>Initiate a graceful shutdown of the channel.  This will shut the write end down.  Data can still be
@@ -36,4 +38,23 @@ public interface SocketChannelController extends BiDirectionalChannelController
    */
   public void nudge();
 
+  /**
+   * <p>Set or unset the comm loop end notification callback to the client.  By default, the client is called with an end-of-loop
+   * notification only at the end of comm loops in which there has been activity on the channel (a read or write event, or a call to
+   * one of the read or write methods of this controller) or in which the controller was nudged.  If <code>true</code>, the client will
+   * be called with an end-of-loop notification at the end of every comm loop.  This is useful for doing bulk writes at the end of loop
+   * processing from data which are produced outside of the channel callbacks, for example in wakeup callbacks.
+   * 
+   * @param notify true to be notified at the end of every comm loop, false to be notified only at the end of comm loops with channel activity.
+   */
+  public void activateCommLoopEndNotification(boolean notify);
+
+  /**
+   * <p>Return the traffic counters for the channel: bytes read and written, read pauses and write interest changes.  The counters
+   * are updated by the comm loop thread and can be read from any thread.
+   * 
+   * @return the channel metrics.
+   */
+  public ChannelMetrics getChannelMetrics();
+
 }
@@ -30,6 +30,8 @@ public interface WritableChannelController
    * call the {@link OutgoingChannelListener#handleChannelWriteContinue()} method of the associated channel listener when the channel 
    * can accept more data.
    * 
+   * <p>To send a file to a socket channel without copying it through a user space buffer, write a {@link hamster.comm.buffer.FileRegionBuffer}.
+   * 
    * @param writer the writer to write data for. 
    * @return the number of bytes written.
    */
@@ -45,14 +47,18 @@ public interface WritableChannelController
    * @return the number of bytes written.
    */
   public int writeOutgoingData(DrainableChannelBuffer writer, int maxBytesToSend);
-
-  //TODO REMOVE
+  
   /**
-   * <p>Set or unset the comm loop end notification callback to the client.  If <code>true</code>, the client will be called
-   * with an end-of-loop notification at the end of every comm loop.  This is useful for doing bulk writes at the end of loop
-   * processing.
+   * <p>This method functions as the {@link #writeOutgoingData(DrainableChannelBuffer)} method above but drains several buffers to the channel
+   * in order.  Consecutive {@link hamster.comm.buffer.PipelineBuffer} and {@link hamster.comm.buffer.RingPipelineBuffer} instances are written with a single gathering write operation, so for 
+   * example a header buffer and a payload buffer can be sent with one call to the OS.  For datagram channels, the buffers are sent as a 
+   * single datagram.
+   * <p>If the channel does not accept all of the data in a buffer then the buffers after it are not written.  Each buffer keeps the data that
+   * could not be sent, and the {@link OutgoingChannelListener#handleChannelWriteContinue()} method will be called when the channel can accept
+   * more data.
    * 
-   * @param notify update the comm loop end notification for the comm server that this channel is registered to.  A value of true will mean that the corresponding 
+   * @param writers the writers to write data for, in order.  The same writer must not appear more than once.
+   * @return the number of bytes written.
    */
-  //public void activateCommLoopEndNotification(boolean notify);
+  public long writeOutgoingData(DrainableChannelBuffer... writers);
 }
@@ -21,6 +21,8 @@ public interface OutgoingChannelListener
   
   /**
    * <p>Client-requested callback that the comm loop is at the end of scan.  Can be used to send data in one go.
+   * <p>Called at the end of every comm loop in which there has been activity on the channel, or at the end of every comm loop
+   * if the notification has been activated with {@link hamster.comm.itf.controller.SocketChannelController#activateCommLoopEndNotification(boolean)}.
    * <p>Default implementation is no-op.
    */
   public void handleServerLoopEnd();
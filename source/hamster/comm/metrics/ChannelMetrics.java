@@ -0,0 +1,136 @@
+package hamster.comm.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Traffic counters for a socket channel, or the totals for all of the socket channels in a communication loop.
+ * <p>The counters are updated by the communication loop thread only, without locking or allocation, and can be read from any
+ * thread.  Each update to a channel's counters is also made to the totals of the loop the channel is registered with.
+ *
+ * @author jdf19
+ */
+public final class ChannelMetrics
+{
+  //Counter indices.
+  private static final int BYTES_READ = 0;
+  private static final int BYTES_WRITTEN = 1;
+  private static final int READ_PAUSES = 2;
+  private static final int WRITE_INTEREST_TOGGLES = 3;
+
+  /**
+   * <p>The counters.
+   */
+  private final AtomicLongArray counters = new AtomicLongArray(4);
+
+  /**
+   * <p>Counters which receive every update made to these, or <code>null</code>.
+   */
+  private final ChannelMetrics totals;
+
+  /**
+   * <p>Create a set of counters.
+   *
+   * @param totals counters which receive every update made to these, or <code>null</code>.
+   */
+  public ChannelMetrics(ChannelMetrics totals)
+  {
+    this.totals = totals;
+  }
+
+  /**
+   * <p>Add bytes read from the channel.  Called by the communication loop thread only.
+   *
+   * @param bytes the number of bytes read.
+   */
+  public void addBytesRead(long bytes)
+  {
+    add(BYTES_READ, bytes);
+  }
+
+  /**
+   * <p>Add bytes written to the channel.  Called by the communication loop thread only.
+   *
+   * @param bytes the number of bytes written.
+   */
+  public void addBytesWritten(long bytes)
+  {
+    add(BYTES_WRITTEN, bytes);
+  }
+
+  /**
+   * <p>Count the channel being put into read pause mode.  Called by the communication loop thread only.
+   */
+  public void readPaused()
+  {
+    add(READ_PAUSES, 1);
+  }
+
+  /**
+   * <p>Count the OP_WRITE interest of the channel being set or cleared.  Called by the communication loop thread only.
+   */
+  public void writeInterestToggled()
+  {
+    add(WRITE_INTEREST_TOGGLES, 1);
+  }
+
+  /**
+   * <p>Return the number of bytes read from the channel.
+   *
+   * @return the bytes read.
+   */
+  public long bytesRead()
+  {
+    return counters.get(BYTES_READ);
+  }
+
+  /**
+   * <p>Return the number of bytes written to the channel.
+   *
+   * @return the bytes written.
+   */
+  public long bytesWritten()
+  {
+    return counters.get(BYTES_WRITTEN);
+  }
+
+  /**
+   * <p>Return the number of times the channel has been put into read pause mode because its owner did not read when data were
+   * available.
+   *
+   * @return the number of read pauses.
+   */
+  public long readPauses()
+  {
+    return counters.get(READ_PAUSES);
+  }
+
+  /**
+   * <p>Return the number of times the OP_WRITE interest of the channel has been set or cleared.  A high rate means that writes
+   * often can't be completed straight away and the channel waits for the network.
+   *
+   * @return the number of write interest changes.
+   */
+  public long writeInterestToggles()
+  {
+    return counters.get(WRITE_INTEREST_TOGGLES);
+  }
+
+  /**
+   * <p>Add to a counter and the matching total.
+   */
+  private void add(int index, long value)
+  {
+    //Single writer, so an ordered store of the new value is enough.
+    counters.lazySet(index, counters.get(index) + value);
+    if(totals != null)
+    {
+      totals.add(index, value);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "read=" + bytesRead() + " written=" + bytesWritten() + " readPauses=" + readPauses() + " writeInterestToggles=" + writeInterestToggles();
+  }
+}
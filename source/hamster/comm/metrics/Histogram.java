@@ -0,0 +1,226 @@
+package hamster.comm.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Log-linear histogram of non-negative long values, in the style of an HDR histogram.  Values below 32 are counted exactly; above
+ * that each power of two range is split into 32 equal buckets, so a recorded value is known to within about 3%.  Recording is a
+ * few arithmetic operations and ordered stores, and allocates nothing.
+ * <p>Values must be recorded by one thread only, normally the communication loop thread.  The read methods can be called from any
+ * thread while values are being recorded.  A reader sees each bucket as it was at some recent point, so the results of a read
+ * taken during recording are approximate; {@link #copyInto(Histogram)} gives a private copy which can be examined at leisure.
+ *
+ * @author jdf19
+ */
+public final class Histogram
+{
+  //Sub-bucket bits per power of two.
+  private static final int SUB_BITS = 5;
+
+  //Sub-buckets per power of two.
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  //Total number of buckets.
+  private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+  //Bucket counts.
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  //Total count.
+  private final AtomicLong count = new AtomicLong();
+
+  //Sum of the values recorded.
+  private final AtomicLong sum = new AtomicLong();
+
+  //Largest value recorded.
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * <p>Record a value.  Negative values are recorded as zero.  Must only be called by the recording thread.
+   *
+   * @param value the value.
+   */
+  public void record(long value)
+  {
+    if(value < 0) value = 0;
+
+    //Single writer, so an ordered store of the incremented value is enough.
+    int index = index(value);
+    counts.lazySet(index, counts.get(index) + 1);
+    count.lazySet(count.get() + 1);
+    sum.lazySet(sum.get() + value);
+    if(value > max.get()) max.lazySet(value);
+  }
+
+  /**
+   * <p>Add the counts of another histogram to this one.  Must only be called by the recording thread.
+   *
+   * @param other the histogram to add.
+   */
+  public void add(Histogram other)
+  {
+    for(int i = 0; i < BUCKET_COUNT; i++)
+    {
+      long c = other.counts.get(i);
+      if(c != 0) counts.lazySet(i, counts.get(i) + c);
+    }
+    count.lazySet(count.get() + other.count.get());
+    sum.lazySet(sum.get() + other.sum.get());
+    max.lazySet(Math.max(max.get(), other.max.get()));
+  }
+
+  /**
+   * <p>Remove the counts of an earlier copy of this histogram, leaving the values recorded since the copy was taken.  This is used
+   * to work out the values recorded in an interval from two copies.  The largest value becomes the highest value in the highest
+   * remaining bucket.  Must only be called by the thread which owns this histogram.
+   *
+   * @param earlier an earlier copy of this histogram.
+   * @return this histogram.
+   */
+  public Histogram subtract(Histogram earlier)
+  {
+    long highest = 0;
+    for(int i = 0; i < BUCKET_COUNT; i++)
+    {
+      long c = counts.get(i) - earlier.counts.get(i);
+      counts.lazySet(i, c);
+      if(c > 0) highest = highestValue(i);
+    }
+    count.lazySet(count.get() - earlier.count.get());
+    sum.lazySet(sum.get() - earlier.sum.get());
+    max.lazySet(Math.min(max.get(), highest));
+    return this;
+  }
+
+  /**
+   * <p>Copy the current state of this histogram into the given histogram, which must not be shared with a recording thread.  This
+   * can be called from any thread.  The count of the copy is the sum of the bucket counts copied, so that it is consistent even if
+   * values were recorded during the copy.
+   *
+   * @param target the histogram to copy into.
+   * @return the target histogram.
+   */
+  public Histogram copyInto(Histogram target)
+  {
+    long total = 0;
+    for(int i = 0; i < BUCKET_COUNT; i++)
+    {
+      long c = counts.get(i);
+      target.counts.lazySet(i, c);
+      total += c;
+    }
+    target.count.lazySet(total);
+    target.sum.lazySet(sum.get());
+    target.max.lazySet(max.get());
+    return target;
+  }
+
+  /**
+   * <p>Clear all counts.  Must only be called by the recording thread.
+   */
+  public void reset()
+  {
+    for(int i = 0; i < BUCKET_COUNT; i++)
+    {
+      counts.lazySet(i, 0);
+    }
+    count.lazySet(0);
+    sum.lazySet(0);
+    max.lazySet(0);
+  }
+
+  /**
+   * <p>Return the number of values recorded.
+   *
+   * @return the count.
+   */
+  public long count()
+  {
+    return count.get();
+  }
+
+  /**
+   * <p>Return the sum of the values recorded.
+   *
+   * @return the sum.
+   */
+  public long sum()
+  {
+    return sum.get();
+  }
+
+  /**
+   * <p>Return the largest value recorded.
+   *
+   * @return the maximum.
+   */
+  public long max()
+  {
+    return max.get();
+  }
+
+  /**
+   * <p>Return the mean of the values recorded.
+   *
+   * @return the mean, or zero if there are no values.
+   */
+  public double mean()
+  {
+    long c = count.get();
+    return (c == 0) ? 0 : (double) sum.get() / c;
+  }
+
+  /**
+   * <p>Return the value at the given percentile.  This is the highest value in the bucket holding the percentile, but no more than
+   * the largest value recorded.
+   *
+   * @param percentile the percentile, 0 to 100.
+   * @return the value, or zero if there are no values.
+   */
+  public long valueAtPercentile(double percentile)
+  {
+    //Rank against the bucket counts rather than the total count, which may be ahead of or behind them while recording.
+    long total = 0;
+    for(int i = 0; i < BUCKET_COUNT; i++)
+    {
+      total += counts.get(i);
+    }
+    if(total <= 0) return 0;
+
+    //The rank of the value, at least 1.
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+    long seen = 0;
+    for(int i = 0; i < BUCKET_COUNT; i++)
+    {
+      seen += counts.get(i);
+      if(seen >= rank)
+      {
+        return Math.min(max.get(), highestValue(i));
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * <p>Return the bucket index of a value.
+   */
+  private static int index(long value)
+  {
+    if(value < SUB_COUNT) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BITS;
+    return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+  }
+
+  /**
+   * <p>Return the highest value that falls in the given bucket.
+   */
+  private static long highestValue(int index)
+  {
+    if(index < SUB_COUNT) return index;
+    int shift = index / SUB_COUNT - 1;
+    long mantissa = SUB_COUNT + (index % SUB_COUNT);
+    return ((mantissa + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,148 @@
+package hamster.comm.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Instrumentation for a communication loop.  Each loop iteration is split into four phases, each of which is timed into its own
+ * histogram in nanoseconds:
+ * <ul>
+ * <li><b>select</b> - waiting in the selector for network events or the next scheduled wakeup.
+ * <li><b>dispatch</b> - calling the handlers of the ready selection keys, including the listener callbacks.
+ * <li><b>loop end</b> - notifying the channels which need an end of loop callback.
+ * <li><b>service</b> - calling the wakeup callbacks which are due.
+ * </ul>
+ * <p>The number of ready keys returned by each select is also recorded, and the traffic on all of the loop's socket channels is
+ * totalled in {@link #channelTotals()}.
+ * <p>The metrics are recorded by the communication loop thread without locking or allocation, and can be sampled from any thread.
+ * Rates such as loop iterations per second are worked out by the sampler from two samples of {@link #iterations()} and the time
+ * between them.  The share of the loop spent in each phase is given by the sums of the phase histograms.
+ *
+ * @author jdf19
+ */
+public final class LoopMetrics
+{
+  /**
+   * <p>Number of loop iterations.
+   */
+  private final AtomicLong iterations = new AtomicLong();
+
+  /**
+   * <p>Time spent in the selector.
+   */
+  private final Histogram selectNanos = new Histogram();
+
+  /**
+   * <p>Time spent dispatching ready keys.
+   */
+  private final Histogram dispatchNanos = new Histogram();
+
+  /**
+   * <p>Time spent notifying channels at the end of the loop.
+   */
+  private final Histogram loopEndNanos = new Histogram();
+
+  /**
+   * <p>Time spent servicing the wakeup schedulers.
+   */
+  private final Histogram serviceNanos = new Histogram();
+
+  /**
+   * <p>Ready keys per select.
+   */
+  private final Histogram readyKeys = new Histogram();
+
+  /**
+   * <p>Traffic totals for all of the socket channels in the loop.
+   */
+  private final ChannelMetrics channelTotals = new ChannelMetrics(null);
+
+  /**
+   * <p>Record a loop iteration from the times at which each phase ended.  Called by the communication loop thread only.
+   *
+   * @param readyKeyCount the number of ready keys returned by the select.
+   * @param loopStart the time that the iteration started, in nanoseconds.
+   * @param selectEnd the time that the select returned.
+   * @param dispatchEnd the time that the ready keys had been dispatched.
+   * @param loopEndEnd the time that the end of loop notifications had been made.
+   * @param serviceEnd the time that the wakeup schedulers had been serviced.
+   */
+  public void recordLoop(int readyKeyCount, long loopStart, long selectEnd, long dispatchEnd, long loopEndEnd, long serviceEnd)
+  {
+    iterations.lazySet(iterations.get() + 1);
+    readyKeys.record(readyKeyCount);
+    selectNanos.record(selectEnd - loopStart);
+    dispatchNanos.record(dispatchEnd - selectEnd);
+    loopEndNanos.record(loopEndEnd - dispatchEnd);
+    serviceNanos.record(serviceEnd - loopEndEnd);
+  }
+
+  /**
+   * <p>Return the number of loop iterations.
+   *
+   * @return the iteration count.
+   */
+  public long iterations()
+  {
+    return iterations.get();
+  }
+
+  /**
+   * <p>Return the histogram of the time spent in the selector per iteration, in nanoseconds.
+   *
+   * @return the select time histogram.
+   */
+  public Histogram selectNanos()
+  {
+    return selectNanos;
+  }
+
+  /**
+   * <p>Return the histogram of the time spent dispatching ready keys per iteration, in nanoseconds.
+   *
+   * @return the dispatch time histogram.
+   */
+  public Histogram dispatchNanos()
+  {
+    return dispatchNanos;
+  }
+
+  /**
+   * <p>Return the histogram of the time spent making end of loop notifications per iteration, in nanoseconds.
+   *
+   * @return the loop end time histogram.
+   */
+  public Histogram loopEndNanos()
+  {
+    return loopEndNanos;
+  }
+
+  /**
+   * <p>Return the histogram of the time spent servicing the wakeup schedulers per iteration, in nanoseconds.
+   *
+   * @return the service time histogram.
+   */
+  public Histogram serviceNanos()
+  {
+    return serviceNanos;
+  }
+
+  /**
+   * <p>Return the histogram of the number of ready keys per select.
+   *
+   * @return the ready key histogram.
+   */
+  public Histogram readyKeys()
+  {
+    return readyKeys;
+  }
+
+  /**
+   * <p>Return the traffic totals for all of the socket channels in the loop.
+   *
+   * @return the channel totals.
+   */
+  public ChannelMetrics channelTotals()
+  {
+    return channelTotals;
+  }
+}
@@ -0,0 +1,7 @@
+/**
+ * <p>The metrics package provides allocation free counters and histograms for instrumenting communication loops and their channels.
+ * They are recorded by the communication loop thread and can be sampled from any other thread.  See
+ * {@link hamster.comm.server.NonBlockingCommunicationApplicationServer#getLoopMetrics()}.
+ */
+
+package hamster.comm.metrics;
@@ -0,0 +1,25 @@
+package hamster.comm.server;
+
+import java.nio.channels.SocketChannel;
+
+import hamster.comm.itf.listener.SocketChannelListener;
+
+/**
+ * <p>An accepted channel distributor takes socket channels which have been accepted by a listening (boss) communication loop and
+ * passes them on to another communication loop for registration.  The listener for the channel has already been supplied by
+ * the user's {@link hamster.comm.itf.listener.InitialisedServerSocketChannelListener} at the point of distribution, so the
+ * receiving loop only has to register the channel and initialise the listener's controller inside its own thread.
+ *
+ * @author jdf19
+ *
+ */
+interface AcceptedChannelDistributor
+{
+  /**
+   * <p>Distribute the newly accepted channel.  This is called inside the accepting communication loop's thread.
+   *
+   * @param acceptedChannel the accepted channel.  It is still in blocking mode and is not registered with any selector.
+   * @param listener the listener to register with the channel.
+   */
+  public void distributeAcceptedChannel(SocketChannel acceptedChannel, SocketChannelListener listener);
+}
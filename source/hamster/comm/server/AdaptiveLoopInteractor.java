@@ -0,0 +1,143 @@
+package hamster.comm.server;
+
+import hamster.comm.wakeupschedule.SchedulerClock;
+import hamster.comm.wakeupschedule.SystemSchedulerClock;
+
+/**
+ * <p>Idle strategy which busy-spins while network events are arriving frequently and sleeps in the selector as normal when they
+ * are not.
+ * <p>The strategy keeps a moving average of the gap between loop iterations which found ready channels.  While the average gap is
+ * within the spin gap, and the loop has not been idle for longer than the spin gap, the loop polls the selector.  Otherwise it
+ * waits for the next network event or scheduled wakeup.  A burst of traffic therefore switches the loop to spinning, and the loop
+ * returns to sleeping soon after the traffic stops.
+ * 
+ * @author jdf19
+ *
+ */
+public class AdaptiveLoopInteractor implements CommLoopInteractor
+{
+  /**
+   * <p>Weight of a new sample in the moving average, as a right shift (1/8).
+   */
+  private static final int AVERAGE_SHIFT = 3;
+  
+  /**
+   * <p>Gaps are capped at this multiple of the spin gap, as a left shift (4x), so that a long quiet period does not stop the loop
+   * responding to the next burst.
+   */
+  private static final int GAP_CAP_SHIFT = 2;
+  
+  /**
+   * <p>Clock for measuring gaps between events.
+   */
+  private final SchedulerClock clock;
+  
+  /**
+   * <p>Spin while events arrive at least this often, in nanoseconds.
+   */
+  private final long spinGapNanos;
+  
+  /**
+   * <p>Time of the last loop iteration which found ready channels.
+   */
+  private long lastEventTime;
+  
+  /**
+   * <p>Moving average of the gap between loop iterations which found ready channels.
+   */
+  private long averageGapNanos;
+  
+  /**
+   * <p>True if the loop is currently spinning.
+   */
+  private boolean spinning = false;
+  
+  /**
+   * <p>Create the strategy with the system monotonic clock.
+   * 
+   * @param spinGapNanos spin while events arrive at least this often, in nanoseconds.
+   */
+  public AdaptiveLoopInteractor(long spinGapNanos)
+  {
+    this(spinGapNanos, SystemSchedulerClock.INSTANCE);
+  }
+  
+  /**
+   * <p>Create the strategy.
+   * 
+   * @param spinGapNanos spin while events arrive at least this often, in nanoseconds.
+   * @param clock clock for measuring gaps between events.
+   */
+  public AdaptiveLoopInteractor(long spinGapNanos, SchedulerClock clock)
+  {
+    if(spinGapNanos < 1) throw new IllegalArgumentException();
+    if(clock == null) throw new NullPointerException();
+    this.spinGapNanos = spinGapNanos;
+    this.clock = clock;
+    
+    //Start off sleeping.
+    this.lastEventTime = clock.nanoTime();
+    this.averageGapNanos = gapCap();
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean shouldWaitForNetworkEvent()
+  {
+    spinning = (averageGapNanos <= spinGapNanos) && (clock.nanoTime() - lastEventTime <= spinGapNanos);
+    return !spinning;
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleSelectResult(int readyKeys)
+  {
+    if(readyKeys > 0)
+    {
+      long now = clock.nanoTime();
+      long gap = Math.min(now - lastEventTime, gapCap());
+      averageGapNanos += (gap - averageGapNanos) >> AVERAGE_SHIFT;
+      lastEventTime = now;
+    }
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleLoopStart()
+  {
+  }
+  
+  /**
+   * <p>Return the largest gap sample.
+   */
+  private long gapCap()
+  {
+    return (spinGapNanos > (Long.MAX_VALUE >> GAP_CAP_SHIFT)) ? Long.MAX_VALUE : spinGapNanos << GAP_CAP_SHIFT;
+  }
+  
+  /**
+   * <p>Return true if the loop is currently spinning rather than sleeping in the selector.
+   * 
+   * @return true if spinning.
+   */
+  public boolean isSpinning()
+  {
+    return spinning;
+  }
+  
+  /**
+   * <p>Return the moving average of the gap between loop iterations which found ready channels.
+   * 
+   * @return the average gap in nanoseconds.
+   */
+  public long getAverageGapNanos()
+  {
+    return averageGapNanos;
+  }
+}
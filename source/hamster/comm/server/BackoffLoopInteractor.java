@@ -0,0 +1,132 @@
+package hamster.comm.server;
+
+/**
+ * <p>Idle strategy which backs off in stages as the communication loop stays idle:
+ * <ol>
+ * <li>busy-spin for a number of idle iterations;</li>
+ * <li>yield the processor for a number of idle iterations;</li>
+ * <li>park in the selector, starting at the minimum park time and doubling on every idle iteration up to the maximum park time.</li>
+ * </ol>
+ * <p>Any loop iteration with a ready channel resets the strategy to spinning.
+ * <p>The park stage waits in the selector for at most the park time (see {@link #maxNetworkWaitNanos()}), so a parked
+ * communication loop is still woken by network events, nudges and scheduled wakeups.  The selector waits in whole milliseconds, so
+ * park times below a millisecond are rounded up to one; an event which arrives during the park still wakes the loop at once.
+ * 
+ * @author jdf19
+ *
+ */
+public class BackoffLoopInteractor implements CommLoopInteractor
+{
+  /**
+   * <p>Number of idle iterations to spin for.
+   */
+  private final int maxSpins;
+  
+  /**
+   * <p>Number of idle iterations to yield for after spinning.
+   */
+  private final int maxYields;
+  
+  /**
+   * <p>First park time in nanoseconds.
+   */
+  private final long minParkNanos;
+  
+  /**
+   * <p>Longest park time in nanoseconds.
+   */
+  private final long maxParkNanos;
+  
+  /**
+   * <p>Number of consecutive idle iterations so far, up to the start of the park stage.
+   */
+  private int idleCount = 0;
+  
+  /**
+   * <p>Next park time in nanoseconds.
+   */
+  private long parkNanos;
+  
+  /**
+   * <p>Create the strategy.
+   * 
+   * @param maxSpins the number of consecutive idle iterations to spin for.
+   * @param maxYields the number of consecutive idle iterations to yield for after spinning.
+   * @param minParkNanos the first park time in nanoseconds.
+   * @param maxParkNanos the longest park time in nanoseconds.
+   */
+  public BackoffLoopInteractor(int maxSpins, int maxYields, long minParkNanos, long maxParkNanos)
+  {
+    if(maxSpins < 0 || maxYields < 0 || minParkNanos < 1 || maxParkNanos < minParkNanos) throw new IllegalArgumentException();
+    this.maxSpins = maxSpins;
+    this.maxYields = maxYields;
+    this.minParkNanos = minParkNanos;
+    this.maxParkNanos = maxParkNanos;
+    this.parkNanos = minParkNanos;
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean shouldWaitForNetworkEvent()
+  {
+    if(idleCount > maxSpins + maxYields)
+    {
+      //Park stage - wait in the selector.
+      return true;
+    }
+    else if(idleCount > maxSpins)
+    {
+      //Yield stage.
+      Thread.yield();
+    }
+    else if(idleCount > 0)
+    {
+      //Spin stage.
+      Thread.onSpinWait();
+    }
+    return false;
+  }
+  
+  /**
+   * <p>Return the current park time.
+   * 
+   * @return the current park time in nanoseconds.
+   */
+  @Override
+  public long maxNetworkWaitNanos()
+  {
+    return parkNanos;
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleSelectResult(int readyKeys)
+  {
+    if(readyKeys > 0)
+    {
+      idleCount = 0;
+      parkNanos = minParkNanos;
+    }
+    else if(idleCount <= maxSpins + maxYields)
+    {
+      idleCount++;
+    }
+    else
+    {
+      //Idle after a park.  Park for longer next time.
+      parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+    }
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleLoopStart()
+  {
+  }
+}
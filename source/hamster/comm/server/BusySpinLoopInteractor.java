@@ -0,0 +1,49 @@
+package hamster.comm.server;
+
+/**
+ * <p>Idle strategy which never lets the communication loop sleep.  Every loop iteration polls the selector with
+ * <code>selectNow()</code>, so network events and scheduled wakeups are picked up as soon as possible at the cost of keeping
+ * one CPU core fully busy.
+ * <p>This should only be used when the communication loop thread has a core to itself.
+ * 
+ * @author jdf19
+ *
+ */
+public class BusySpinLoopInteractor implements CommLoopInteractor
+{
+  /**
+   * <p>True if the last select operation found no ready channels.
+   */
+  private boolean idle = false;
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean shouldWaitForNetworkEvent()
+  {
+    if(idle)
+    {
+      //Hint to the processor that this is a spin loop.
+      Thread.onSpinWait();
+    }
+    return false;
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleSelectResult(int readyKeys)
+  {
+    idle = (readyKeys == 0);
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleLoopStart()
+  {
+  }
+}
@@ -2,6 +2,9 @@ package hamster.comm.server;
 
 /**
  * <p>Allows interaction with the non-blocking communication server thread loop.
+ * <p>Ready-made idle strategies for latency-critical deployments are provided by {@link BusySpinLoopInteractor}, 
+ * {@link SpinYieldLoopInteractor}, {@link BackoffLoopInteractor} and {@link AdaptiveLoopInteractor}.  These trade CPU usage for
+ * lower and more predictable latency by polling the selector instead of sleeping in it.
  * 
  * @author jdf19
  *
@@ -16,6 +19,28 @@ public interface CommLoopInteractor
    */
   public boolean shouldWaitForNetworkEvent();
   
+  /**
+   * <p>Called when {@link #shouldWaitForNetworkEvent()} has returned <code>true</code>, to limit the time that the selector waits
+   * for.  The selector is still woken early by network events and scheduled wakeups.  The selector waits in whole milliseconds, so
+   * the limit is rounded up to a millisecond.  The default implementation returns {@link Long#MAX_VALUE} for no limit.
+   * 
+   * @return the longest time to wait for in nanoseconds, or {@link Long#MAX_VALUE} for no limit.
+   */
+  public default long maxNetworkWaitNanos()
+  {
+    return Long.MAX_VALUE;
+  }
+  
+  /**
+   * <p>Called every loop with the number of channels that the select operation found ready, before {@link #handleLoopStart()}.
+   * Idle strategies use this to tell busy loop iterations from idle ones.  The default implementation does nothing.
+   * 
+   * @param readyKeys the number of ready channels returned by the select operation.  0 if the select found nothing to do.
+   */
+  public default void handleSelectResult(int readyKeys)
+  {
+  }
+  
   /**
    * <p>Called every start of loop.  Implementation can do anything with this information.
    */
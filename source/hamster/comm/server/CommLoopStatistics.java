@@ -0,0 +1,210 @@
+package hamster.comm.server;
+
+import hamster.comm.metrics.ChannelMetrics;
+import hamster.comm.metrics.LoopMetrics;
+
+/**
+ * <p>Exposes the health of a {@link NonBlockingCommunicationApplicationServer} loop as a JMX MXBean, so that it can be watched from
+ * a JMX console without attaching a profiler.  Register it with the platform MBean server:
+ * <pre>
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(new CommLoopStatistics(server, 1000), new ObjectName("hamster.comm:type=CommLoop,name=main"));
+ * </pre>
+ * <p>Attributes which come from the loop state are read from a {@link LoopSnapshot}.  A new snapshot is taken when an attribute is
+ * read and the latest one is older than the maximum age, so that a console reading every attribute in turn asks the loop for one
+ * snapshot only.  The traffic and timing attributes are read directly from the loop's {@link LoopMetrics}.
+ * <p>This class is multithread safe.
+ *
+ * @author jdf19
+ *
+ */
+public class CommLoopStatistics implements CommLoopStatisticsMXBean
+{
+  /**
+   * <p>Maximum time to wait for the loop to hand a snapshot over.
+   */
+  private static final long SNAPSHOT_TIMEOUT_MILLIS = 1000;
+
+  /**
+   * <p>The loop being watched.
+   */
+  private final NonBlockingCommunicationApplicationServer server;
+
+  /**
+   * <p>The maximum age of a snapshot before a new one is taken, in nanoseconds.
+   */
+  private final long maxAgeNanos;
+
+  /**
+   * <p>The latest snapshot taken for this view.
+   */
+  private LoopSnapshot current;
+
+  /**
+   * <p>The snapshot before the latest.
+   */
+  private LoopSnapshot previous;
+
+  /**
+   * <p>Create the view.  This turns on the recording of the slowest callbacks in the loop, which are reported by
+   * {@link #getSlowestCallbacks()}.
+   *
+   * @param server the loop to watch.
+   * @param maxAgeMillis the maximum age of a snapshot before a new one is taken, in milliseconds.
+   */
+  public CommLoopStatistics(NonBlockingCommunicationApplicationServer server, long maxAgeMillis)
+  {
+    if(server == null) throw new NullPointerException();
+    this.server = server;
+    this.maxAgeNanos = maxAgeMillis * 1_000_000L;
+    server.setSlowestCallbackRecording(true);
+  }
+
+  /**
+   * <p>Return a snapshot no older than the maximum age if the loop hands one over in time.
+   *
+   * @return the snapshot.
+   */
+  private synchronized LoopSnapshot snapshot()
+  {
+    if(current == null || System.nanoTime() - current.getNanoTime() > maxAgeNanos)
+    {
+      try
+      {
+        LoopSnapshot taken = server.takeSnapshot(SNAPSHOT_TIMEOUT_MILLIS);
+        if(taken != null && taken != current)
+        {
+          previous = current;
+          current = taken;
+        }
+      }
+      catch (InterruptedException e)
+      {
+        //Preserve the interrupt and report the latest snapshot.
+        Thread.currentThread().interrupt();
+      }
+    }
+    if(current == null)
+    {
+      throw new IllegalStateException("The communication loop has not handed over a snapshot.");
+    }
+    return current;
+  }
+
+  @Override
+  public long getIterations()
+  {
+    return snapshot().getIterations();
+  }
+
+  @Override
+  public synchronized double getIterationsPerSecond()
+  {
+    LoopSnapshot latest = snapshot();
+    if(previous == null) return 0;
+    return (latest.getIterations() - previous.getIterations()) * 1e9 / Math.max(1, latest.getNanoTime() - previous.getNanoTime());
+  }
+
+  @Override
+  public int getAcceptKeys()
+  {
+    return snapshot().getAcceptKeys();
+  }
+
+  @Override
+  public int getConnectKeys()
+  {
+    return snapshot().getConnectKeys();
+  }
+
+  @Override
+  public int getReadWriteKeys()
+  {
+    return snapshot().getReadWriteKeys();
+  }
+
+  @Override
+  public int getDatagramKeys()
+  {
+    return snapshot().getDatagramKeys();
+  }
+
+  @Override
+  public int getPendingAsyncWakeups()
+  {
+    return snapshot().getPendingAsyncWakeups();
+  }
+
+  @Override
+  public int getPendingSyncWakeups()
+  {
+    return snapshot().getPendingSyncWakeups();
+  }
+
+  @Override
+  public String[] getBufferPools()
+  {
+    LoopSnapshot.PoolOccupancy[] pools = snapshot().getBufferPools();
+    String[] descriptions = new String[pools.length];
+    for(int i = 0; i < pools.length; i++)
+    {
+      descriptions[i] = pools[i].toString();
+    }
+    return descriptions;
+  }
+
+  @Override
+  public String[] getSlowestCallbacks()
+  {
+    LoopSnapshot.SlowCallback[] slowest = snapshot().getSlowestCallbacks();
+    String[] descriptions = new String[slowest.length];
+    for(int i = 0; i < slowest.length; i++)
+    {
+      descriptions[i] = slowest[i].toString();
+    }
+    return descriptions;
+  }
+
+  @Override
+  public long getBytesRead()
+  {
+    return channels().bytesRead();
+  }
+
+  @Override
+  public long getBytesWritten()
+  {
+    return channels().bytesWritten();
+  }
+
+  @Override
+  public long getReadPauses()
+  {
+    return channels().readPauses();
+  }
+
+  @Override
+  public long getWriteInterestToggles()
+  {
+    return channels().writeInterestToggles();
+  }
+
+  @Override
+  public double getDispatchMicros99()
+  {
+    return server.getLoopMetrics().dispatchNanos().valueAtPercentile(99) / 1000.0;
+  }
+
+  @Override
+  public double getSelectMicros99()
+  {
+    return server.getLoopMetrics().selectNanos().valueAtPercentile(99) / 1000.0;
+  }
+
+  /**
+   * <p>Return the loop's channel traffic totals.
+   */
+  private ChannelMetrics channels()
+  {
+    return server.getLoopMetrics().channelTotals();
+  }
+}
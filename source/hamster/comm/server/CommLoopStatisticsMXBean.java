@@ -0,0 +1,90 @@
+package hamster.comm.server;
+
+/**
+ * <p>JMX view of the health of a communication loop.  See {@link CommLoopStatistics}.
+ *
+ * @author jdf19
+ *
+ */
+public interface CommLoopStatisticsMXBean
+{
+  /**
+   * @return the number of loop iterations.
+   */
+  public long getIterations();
+
+  /**
+   * @return the loop iterations per second between the two latest snapshots.
+   */
+  public double getIterationsPerSecond();
+
+  /**
+   * @return the number of listening socket keys.
+   */
+  public int getAcceptKeys();
+
+  /**
+   * @return the number of client socket keys which have not finished connecting.
+   */
+  public int getConnectKeys();
+
+  /**
+   * @return the number of connected socket keys.
+   */
+  public int getReadWriteKeys();
+
+  /**
+   * @return the number of datagram socket keys.
+   */
+  public int getDatagramKeys();
+
+  /**
+   * @return the number of asynchronous wakeup calls scheduled.
+   */
+  public int getPendingAsyncWakeups();
+
+  /**
+   * @return the number of synchronous wakeup calls scheduled.
+   */
+  public int getPendingSyncWakeups();
+
+  /**
+   * @return a description of the occupancy of each monitored buffer pool.
+   */
+  public String[] getBufferPools();
+
+  /**
+   * @return a description of the slowest ready key dispatches between the two latest snapshots, slowest first.
+   */
+  public String[] getSlowestCallbacks();
+
+  /**
+   * @return the total bytes read by the loop's socket channels.
+   */
+  public long getBytesRead();
+
+  /**
+   * @return the total bytes written by the loop's socket channels.
+   */
+  public long getBytesWritten();
+
+  /**
+   * @return the total number of read pauses on the loop's socket channels.
+   */
+  public long getReadPauses();
+
+  /**
+   * @return the total number of write interest changes on the loop's socket channels.
+   */
+  public long getWriteInterestToggles();
+
+  /**
+   * @return the 99th percentile time spent dispatching ready keys per iteration, in microseconds.
+   */
+  public double getDispatchMicros99();
+
+  /**
+   * @return the 99th percentile time spent in the selector per iteration, in microseconds.
+   */
+  public double getSelectMicros99();
+}
@@ -4,7 +4,12 @@ import java.io.IOException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
 import hamster.comm.KeyHelper;
+import hamster.comm.buffer.BaseBuffer;
+import hamster.comm.buffer.ChannelBufferGatherer;
+import hamster.comm.buffer.ChannelBufferScatterer;
 import hamster.comm.buffer.DrainableChannelBuffer;
 import hamster.comm.buffer.FillableChannelBuffer;
 import hamster.comm.communication.sockopts.SocketChannelOptionAccessor;
@@ -44,7 +49,7 @@ import hamster.comm.server.listener.WriteChannelHandler;
  * @author jdf19
  *
  */
-class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChannelHandler, DatagramChannelController, BaseChannelOptionController
+class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChannelHandler, DatagramChannelController, BaseChannelOptionController, ListenerAttachment
 {
   /**
    * The user-defined listener callback interface. It will be called with socket
@@ -77,6 +82,21 @@ class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChanne
    */
   private boolean drainOpRequired;
     
+  /**
+   * <p>Drains several outgoing buffers with a single gathering write.
+   */
+  private final ChannelBufferGatherer gatherer = new ChannelBufferGatherer();
+  
+  /**
+   * <p>Fills several incoming buffers with a single scattering read.
+   */
+  private final ChannelBufferScatterer scatterer = new ChannelBufferScatterer();
+  
+  /**
+   * <p>Buffers to release when the channel shuts down.  Created when first needed.
+   */
+  private List<BaseBuffer> shutdownReleaseBuffers;
+  
   /**
    * Descriptor for logging. Useful to identify the channel's operations in the
    * log.
@@ -168,6 +188,9 @@ class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChanne
     
     // Make sure the registered key is cancelled.
     selKey.cancel();
+    
+    // Release the owner's buffers.
+    releaseShutdownBuffers();
   }
   
   private void setToReadPauseMode()
@@ -233,6 +256,40 @@ class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChanne
     return i;
   }
   
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void releaseOnShutdown(BaseBuffer... buffers)
+  {
+    if(shutdownReleaseBuffers == null)
+    {
+      shutdownReleaseBuffers = new ArrayList<>();
+    }
+    for (BaseBuffer buffer : buffers)
+    {
+      shutdownReleaseBuffers.add(buffer);
+    }
+  }
+  
+  /**
+   * <p>Release the buffers registered with {@link #releaseOnShutdown(BaseBuffer...)}.  Each buffer is released once only.
+   */
+  private void releaseShutdownBuffers()
+  {
+    if(shutdownReleaseBuffers != null)
+    {
+      for (BaseBuffer buffer : shutdownReleaseBuffers)
+      {
+        if(!buffer.isReleased())
+        {
+          buffer.release();
+        }
+      }
+      shutdownReleaseBuffers = null;
+    }
+  }
+  
   /**
    * Descriptive string for this attachment key target instance.
    */
@@ -285,6 +342,33 @@ class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChanne
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long writeOutgoingData(DrainableChannelBuffer... writers)
+  {
+    try
+    {
+      // Drain the buffers in one gathering write.
+      long i = gatherer.drainBuffersToChannel(channel, writers);
+      
+      // Check for outstanding data. If so, turn ON channel writable notifications.
+      boolean outstanding = false;
+      for (DrainableChannelBuffer writer : writers)
+      {
+        outstanding |= writer.hasDataToConsume();
+      }
+      KeyHelper.updateWriteability(selKey, outstanding);
+      
+      return i;
+    }
+    catch (IOException e)
+    {
+      return handleWriteIOException(e);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -391,6 +475,78 @@ class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChanne
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long fillBufferFromChannel(FillableChannelBuffer... targetBuffers)
+  {
+    try
+    {
+      //Fill the buffers from the incoming channel buffer.
+      long res = scatterer.fillBuffersFromChannel(channel, targetBuffers);
+
+      //Handle the read data.
+      if(res < 0)
+      {
+        res = handleReadData(-1);
+      }
+
+      //We have read some data into the target buffers.  Set OP_READ.
+      if(res > 0)
+      {
+        //Reset drain op required.
+        drainOpRequired = false;
+        
+        //Set channel to readable.
+        readRestart();
+      }
+      
+      //Return the number of bytes resulting from the fill operation.
+      return res;
+    }
+    catch(IOException e)
+    {
+      return handleReadIOException(e);      
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long fillBufferFromChannel(FillableChannelBuffer[] targetBuffers, int[] maxBytesToFill)
+  {
+    try
+    {
+      //Fill the buffers from the incoming channel buffer.
+      long res = scatterer.fillBuffersFromChannel(channel, targetBuffers, maxBytesToFill);
+
+      //Handle the read data.
+      if(res < 0)
+      {
+        res = handleReadData(-1);
+      }
+
+      //We have read some data into the target buffers.  Set OP_READ.
+      if(res > 0)
+      {
+        //Reset drain op required.
+        drainOpRequired = false;
+        
+        //Set channel to readable.
+        readRestart();
+      }
+      
+      //Return the number of bytes resulting from the fill operation.
+      return res;
+    }
+    catch(IOException e)
+    {
+      return handleReadIOException(e);      
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -409,4 +565,13 @@ class DatagramChannelReadWriteHandler implements ReadTargetListener, WriteChanne
     // TODO Auto-generated method stub
     
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getListener()
+  {
+    return channelListener;
+  }
 }
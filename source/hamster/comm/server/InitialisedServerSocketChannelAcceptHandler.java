@@ -13,8 +13,9 @@ import hamster.comm.communication.ChannelCreateException;
 import hamster.comm.itf.controller.ServerSocketChannelController;
 import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
 import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.metrics.ChannelMetrics;
 
-class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannelController
+class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannelController, ListenerAttachment
 {
   private final InitialisedServerSocketChannelListener channelListener;
   
@@ -24,7 +25,33 @@ class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannel
   
   private final SocketAddress localAddress;
   
-  InitialisedServerSocketChannelAcceptHandler(SocketAddress localAddress, SelectionKey registeredKey, InitialisedServerSocketChannelListener channelListener, Logger logger)
+  /**
+   * <p>If not <code>null</code>, accepted channels are handed to this distributor to be registered in a different communication loop
+   * instead of being registered with the selector that this listening channel is registered with.
+   */
+  private final AcceptedChannelDistributor channelDistributor;
+  
+  /**
+   * <p>The loop end notifier of the communication loop that accepted channels are registered with.
+   */
+  private final LoopEndNotifier loopEndNotifier;
+  
+  /**
+   * <p>The traffic totals of the communication loop that accepted channels are registered with.
+   */
+  private final ChannelMetrics channelTotals;
+  
+  /**
+   * <p>Times the listener callbacks.
+   */
+  private final SlowCallbackDetector slowCallbackDetector;
+  
+  InitialisedServerSocketChannelAcceptHandler(SocketAddress localAddress, SelectionKey registeredKey, InitialisedServerSocketChannelListener channelListener, LoopEndNotifier loopEndNotifier, ChannelMetrics channelTotals, SlowCallbackDetector slowCallbackDetector, Logger logger)
+  {
+    this(localAddress, registeredKey, channelListener, loopEndNotifier, channelTotals, slowCallbackDetector, null, logger);
+  }
+  
+  InitialisedServerSocketChannelAcceptHandler(SocketAddress localAddress, SelectionKey registeredKey, InitialisedServerSocketChannelListener channelListener, LoopEndNotifier loopEndNotifier, ChannelMetrics channelTotals, SlowCallbackDetector slowCallbackDetector, AcceptedChannelDistributor channelDistributor, Logger logger)
   {
     this.localAddress = localAddress;
     this.registeredKey = registeredKey;
@@ -32,6 +59,10 @@ class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannel
     
     //this.endListener = endListener;
     this.channelListener = channelListener;
+    this.channelDistributor = channelDistributor;
+    this.loopEndNotifier = loopEndNotifier;
+    this.channelTotals = channelTotals;
+    this.slowCallbackDetector = slowCallbackDetector;
     this.logger = logger;
   }
   
@@ -52,6 +83,21 @@ class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannel
       return;
     }
     
+    //Spurious accept event - nothing to accept.
+    if(sc == null)
+    {
+      return;
+    }
+    
+    //Hand the channel over to a different communication loop if a distributor has been set.
+    if(channelDistributor != null)
+    {
+      distributeChannel(sc);
+      
+      //End.
+      return;
+    }
+    
     SelectionKey acceptedChannelKey = null;
     
     try
@@ -63,12 +109,17 @@ class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannel
       acceptedChannelKey = sc.register(registeredKey.selector(), SelectionKey.OP_READ);
       
       //Create a selection key attachment handler for the new channel.
+      long start = slowCallbackDetector.start();
       SocketChannelListener handleIncomingConnection = channelListener.handleIncomingConnection(sc.getRemoteAddress());
-      SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(acceptedChannelKey, sc, handleIncomingConnection, logger);
+      slowCallbackDetector.end(start, SlowCallbackDetector.CallbackType.ACCEPT, channelListener, sc);
+      SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(acceptedChannelKey, sc, handleIncomingConnection, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
       
       //Attach the event handler to the channel selection key.
       acceptedChannelKey.attach(srwch);
       
+      //Notify the owner at the end of the loop that the channel is registered in.
+      loopEndNotifier.requestLoopEnd(srwch);
+      
       //Finished setting up the channel.  Call the listener init controller method.
       handleIncomingConnection.initController(srwch);
     } 
@@ -100,6 +151,40 @@ class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannel
     
   }
   
+  /**
+   * <p>Get the listener for the accepted channel and pass both to the channel distributor.  The channel is left in blocking
+   * mode and unregistered; the receiving communication loop will set it up.
+   * 
+   * @param sc the accepted channel.
+   */
+  private void distributeChannel(SocketChannel sc)
+  {
+    try
+    {
+      //Get the user handler for the new channel.
+      long start = slowCallbackDetector.start();
+      SocketChannelListener handleIncomingConnection = channelListener.handleIncomingConnection(sc.getRemoteAddress());
+      slowCallbackDetector.end(start, SlowCallbackDetector.CallbackType.ACCEPT, channelListener, sc);
+      
+      //Pass it on.
+      channelDistributor.distributeAcceptedChannel(sc, handleIncomingConnection);
+    }
+    catch (ChannelCreateException | IOException e)
+    {
+      //Log this.
+      logger.error(BundleHelper.retrieveBundleFromClassPackage(NonBlockingCommunicationApplicationServer.class, "strings").getString("commbase.0010_0000.accepterr"), e.getMessage());
+      
+      //The client socket is unusable.  Close.
+      try
+      {
+        sc.close();
+      } catch (IOException e1)
+      {
+        // Annoying.  
+      }
+    }
+  }
+  
   private ServerSocketChannel getSocketChannel()
   {
     return ((ServerSocketChannel) registeredKey.channel());
@@ -166,4 +251,13 @@ class InitialisedServerSocketChannelAcceptHandler implements ServerSocketChannel
     //Set OP_ACCEPT.
     KeyHelper.setAcceptability(registeredKey);
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getListener()
+  {
+    return channelListener;
+  }
 }
@@ -0,0 +1,18 @@
+package hamster.comm.server;
+
+/**
+ * <p>Implemented by the selection key attachments which call a user listener, so that loop diagnostics can name the listener
+ * responsible for a slow callback.
+ *
+ * @author jdf19
+ *
+ */
+interface ListenerAttachment
+{
+  /**
+   * <p>Return the user listener that this attachment calls.
+   *
+   * @return the listener.
+   */
+  Object getListener();
+}
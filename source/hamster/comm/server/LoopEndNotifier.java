@@ -0,0 +1,187 @@
+package hamster.comm.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.LoggerFactory;
+
+import hamster.comm.server.listener.WriteChannelHandler;
+
+/**
+ * <p>The loop end notifier keeps track of which channel handlers need a {@link WriteChannelHandler#doLoopEnd()} call at the end of
+ * the current communication loop iteration.  Rather than scanning every registered selection key at the end of every loop, handlers
+ * mark themselves as requiring a loop end notification when there has been activity on their channel (a read or write event, or
+ * a read or write operation from the owner) or when they have been nudged from a different thread.  Handlers can also subscribe
+ * to be notified at the end of every loop.
+ * <p>The work done at the end of the loop is therefore proportional to the number of active channels, not the number of
+ * registered channels.
+ * <p>All methods apart from {@link #requestLoopEndFromAnyThread(LoopEndParticipant)} must be called from inside the communication
+ * loop thread.
+ *
+ * @author jdf19
+ *
+ */
+final class LoopEndNotifier
+{
+  /**
+   * <p>Handlers which require a loop end notification at the end of the current loop iteration.
+   */
+  private final List<LoopEndParticipant> pendingParticipants = new ArrayList<>();
+
+  /**
+   * <p>Handlers which require a loop end notification at the end of every loop iteration.
+   */
+  private final List<LoopEndParticipant> subscribedParticipants = new ArrayList<>();
+
+  /**
+   * <p>Handlers which have requested a loop end notification from outside the communication loop thread.
+   */
+  private final Queue<LoopEndParticipant> nudgedParticipants = new ConcurrentLinkedQueue<>();
+
+  /**
+   * <p>Request a loop end notification for the given handler at the end of the current loop iteration.  Requesting more than once
+   * in the same loop iteration has no further effect.
+   *
+   * @param participant the handler requiring the notification.
+   */
+  void requestLoopEnd(LoopEndParticipant participant)
+  {
+    if(!participant.isLoopEndPending())
+    {
+      participant.setLoopEndPending(true);
+      pendingParticipants.add(participant);
+    }
+  }
+
+  /**
+   * <p>Request a loop end notification for the given handler from a thread other than the communication loop thread.  The request
+   * will be actioned at the end of the next loop iteration.  The caller is responsible for waking the selector up.
+   *
+   * @param participant the handler requiring the notification.
+   */
+  void requestLoopEndFromAnyThread(LoopEndParticipant participant)
+  {
+    nudgedParticipants.add(participant);
+  }
+
+  /**
+   * <p>Subscribe or unsubscribe the given handler to loop end notifications at the end of every loop iteration.
+   *
+   * @param participant the handler.
+   * @param subscribe true to subscribe, false to unsubscribe.
+   */
+  void updateSubscription(LoopEndParticipant participant, boolean subscribe)
+  {
+    if(subscribe)
+    {
+      if(!subscribedParticipants.contains(participant))
+      {
+        subscribedParticipants.add(participant);
+      }
+    }
+    else
+    {
+      subscribedParticipants.remove(participant);
+    }
+  }
+
+  /**
+   * <p>Notify all handlers which require a loop end notification.  Handlers which request a notification while this method is running
+   * (for example, a handler whose owner writes to a different channel in its loop end callback) are notified in the same pass.  A handler
+   * which requests a notification from inside its own loop end callback is not notified again.  An exception thrown by one handler is
+   * logged, and the remaining handlers are still notified.
+   */
+  void notifyLoopEnd()
+  {
+    //Collect the requests from other threads.
+    LoopEndParticipant nudged;
+    while ((nudged = nudgedParticipants.poll()) != null)
+    {
+      requestLoopEnd(nudged);
+    }
+
+    //Add the subscribers.
+    for (int i = 0; i < subscribedParticipants.size(); i++)
+    {
+      requestLoopEnd(subscribedParticipants.get(i));
+    }
+
+    //Notify.  The list may grow while it is being processed.
+    int i = 0;
+    try
+    {
+      for (; i < pendingParticipants.size(); i++)
+      {
+        LoopEndParticipant participant = pendingParticipants.get(i);
+        try
+        {
+          if(participant.isLoopEndActive())
+          {
+            participant.doLoopEnd();
+          }
+        }
+        catch (RuntimeException e)
+        {
+          //An owner's failure must not stop the other handlers being notified.
+          LoggerFactory.getLogger("LOG_GENERAL").error("There has been an uncaught exception in a loop end notification.  The exception given was: " + e.getMessage(), e);
+        }
+        finally
+        {
+          //Clear after the notification so that requests from inside the callback are ignored.
+          participant.setLoopEndPending(false);
+        }
+      }
+    }
+    finally
+    {
+      //Never carry requests over to the next loop, even if the pass was abandoned.
+      for (; i < pendingParticipants.size(); i++)
+      {
+        pendingParticipants.get(i).setLoopEndPending(false);
+      }
+      pendingParticipants.clear();
+    }
+  }
+
+  /**
+   * <p>Return the number of handlers subscribed to notifications at the end of every loop iteration.
+   *
+   * @return the number of subscribed handlers.
+   */
+  int getSubscriptionCount()
+  {
+    return subscribedParticipants.size();
+  }
+
+  /**
+   * <p>Implemented by handlers which can receive loop end notifications from a {@link LoopEndNotifier}.
+   *
+   * @author jdf19
+   *
+   */
+  interface LoopEndParticipant extends WriteChannelHandler
+  {
+    /**
+     * <p>Return true if a loop end notification has been requested for this handler in the current loop iteration.
+     *
+     * @return true if a notification is pending.
+     */
+    boolean isLoopEndPending();
+
+    /**
+     * <p>Set or clear the notification pending state.  Only called by the {@link LoopEndNotifier}.
+     *
+     * @param pending the new pending state.
+     */
+    void setLoopEndPending(boolean pending);
+
+    /**
+     * <p>Return true if the handler can still be notified, i.e. its channel is still registered.
+     *
+     * @return true if the handler should be notified.
+     */
+    boolean isLoopEndActive();
+  }
+}
@@ -0,0 +1,325 @@
+package hamster.comm.server;
+
+/**
+ * <p>A snapshot of the state of a communication loop, taken by the loop thread at the end of a loop iteration and handed to other
+ * threads by {@link NonBlockingCommunicationApplicationServer#takeSnapshot(long)}.  Snapshots are immutable, so they can be read
+ * from any thread.
+ * <p>A snapshot gives the registered selection keys by type, the scheduled wakeup calls, the occupancy of the buffer pools being
+ * monitored by the loop and the slowest ready key dispatches since the previous snapshot.  Timings and traffic are kept in the
+ * loop's {@link hamster.comm.metrics.LoopMetrics}.
+ *
+ * @author jdf19
+ *
+ */
+public final class LoopSnapshot
+{
+  private final long sequence;
+
+  private final long nanoTime;
+
+  private final long iterations;
+
+  private final int acceptKeys;
+
+  private final int connectKeys;
+
+  private final int readWriteKeys;
+
+  private final int datagramKeys;
+
+  private final int pendingAsyncWakeups;
+
+  private final int pendingSyncWakeups;
+
+  private final PoolOccupancy[] bufferPools;
+
+  private final SlowCallback[] slowestCallbacks;
+
+  LoopSnapshot(long sequence, long nanoTime, long iterations, int acceptKeys, int connectKeys, int readWriteKeys, int datagramKeys,
+               int pendingAsyncWakeups, int pendingSyncWakeups, PoolOccupancy[] bufferPools, SlowCallback[] slowestCallbacks)
+  {
+    this.sequence = sequence;
+    this.nanoTime = nanoTime;
+    this.iterations = iterations;
+    this.acceptKeys = acceptKeys;
+    this.connectKeys = connectKeys;
+    this.readWriteKeys = readWriteKeys;
+    this.datagramKeys = datagramKeys;
+    this.pendingAsyncWakeups = pendingAsyncWakeups;
+    this.pendingSyncWakeups = pendingSyncWakeups;
+    this.bufferPools = bufferPools;
+    this.slowestCallbacks = slowestCallbacks;
+  }
+
+  /**
+   * <p>Return the sequence number of the snapshot.  Each snapshot taken by a loop has a higher number than the one before.
+   *
+   * @return the sequence number.
+   */
+  public long getSequence()
+  {
+    return sequence;
+  }
+
+  /**
+   * <p>Return the time that the snapshot was taken, from {@link System#nanoTime()}.
+   *
+   * @return the snapshot time in nanoseconds.
+   */
+  public long getNanoTime()
+  {
+    return nanoTime;
+  }
+
+  /**
+   * <p>Return the number of loop iterations when the snapshot was taken.
+   *
+   * @return the iteration count.
+   */
+  public long getIterations()
+  {
+    return iterations;
+  }
+
+  /**
+   * <p>Return the number of listening socket keys.
+   *
+   * @return the accept key count.
+   */
+  public int getAcceptKeys()
+  {
+    return acceptKeys;
+  }
+
+  /**
+   * <p>Return the number of client socket keys which have not finished connecting.
+   *
+   * @return the connect key count.
+   */
+  public int getConnectKeys()
+  {
+    return connectKeys;
+  }
+
+  /**
+   * <p>Return the number of connected socket keys.
+   *
+   * @return the read/write key count.
+   */
+  public int getReadWriteKeys()
+  {
+    return readWriteKeys;
+  }
+
+  /**
+   * <p>Return the number of datagram socket keys.
+   *
+   * @return the datagram key count.
+   */
+  public int getDatagramKeys()
+  {
+    return datagramKeys;
+  }
+
+  /**
+   * <p>Return the number of asynchronous (one shot) wakeup calls scheduled.
+   *
+   * @return the scheduled async wakeups.
+   */
+  public int getPendingAsyncWakeups()
+  {
+    return pendingAsyncWakeups;
+  }
+
+  /**
+   * <p>Return the number of synchronous (periodic) wakeup calls scheduled.
+   *
+   * @return the scheduled sync wakeups.
+   */
+  public int getPendingSyncWakeups()
+  {
+    return pendingSyncWakeups;
+  }
+
+  /**
+   * <p>Return the occupancy of each buffer pool monitored by the loop, in the order that they were added.
+   *
+   * @return the buffer pool occupancy.
+   */
+  public PoolOccupancy[] getBufferPools()
+  {
+    return bufferPools.clone();
+  }
+
+  /**
+   * <p>Return the slowest ready key dispatches since the previous snapshot, slowest first.  Dispatches are only recorded while
+   * {@link NonBlockingCommunicationApplicationServer#setSlowestCallbackRecording(boolean)} is on, and dispatches of channels which
+   * have since closed are not reported.
+   *
+   * @return the slowest callbacks.
+   */
+  public SlowCallback[] getSlowestCallbacks()
+  {
+    return slowestCallbacks.clone();
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append("iterations=").append(iterations);
+    sb.append(" keys(accept=").append(acceptKeys).append(" connect=").append(connectKeys).append(" readWrite=").append(readWriteKeys).append(" datagram=").append(datagramKeys).append(')');
+    sb.append(" wakeups(async=").append(pendingAsyncWakeups).append(" sync=").append(pendingSyncWakeups).append(')');
+    for(PoolOccupancy pool : bufferPools)
+    {
+      sb.append(" pool(").append(pool).append(')');
+    }
+    if(slowestCallbacks.length > 0)
+    {
+      sb.append(" slowest(").append(slowestCallbacks[0]).append(')');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * <p>The occupancy of a {@link hamster.comm.buffer.BufferPool}.
+   *
+   * @author jdf19
+   *
+   */
+  public static final class PoolOccupancy
+  {
+    private final int sharedFree;
+
+    private final int loopFree;
+
+    private final int outstanding;
+
+    private final long allocated;
+
+    private final long reused;
+
+    PoolOccupancy(int sharedFree, int loopFree, int outstanding, long allocated, long reused)
+    {
+      this.sharedFree = sharedFree;
+      this.loopFree = loopFree;
+      this.outstanding = outstanding;
+      this.allocated = allocated;
+      this.reused = reused;
+    }
+
+    /**
+     * <p>Return the number of free buffers in the pool shared by all threads.
+     *
+     * @return the shared free buffers.
+     */
+    public int getSharedFree()
+    {
+      return sharedFree;
+    }
+
+    /**
+     * <p>Return the number of free buffers cached by the loop thread.
+     *
+     * @return the loop thread's free buffers.
+     */
+    public int getLoopFree()
+    {
+      return loopFree;
+    }
+
+    /**
+     * <p>Return the number of buffers in use by tracked owners.  Always 0 if the pool doesn't have leak detection enabled.
+     *
+     * @return the outstanding buffers.
+     */
+    public int getOutstanding()
+    {
+      return outstanding;
+    }
+
+    /**
+     * <p>Return the number of buffers the pool has allocated.
+     *
+     * @return the allocated buffers.
+     */
+    public long getAllocated()
+    {
+      return allocated;
+    }
+
+    /**
+     * <p>Return the number of times a free buffer has been reused.
+     *
+     * @return the reused buffers.
+     */
+    public long getReused()
+    {
+      return reused;
+    }
+
+    @Override
+    public String toString()
+    {
+      return "sharedFree=" + sharedFree + " loopFree=" + loopFree + " outstanding=" + outstanding + " allocated=" + allocated + " reused=" + reused;
+    }
+  }
+
+  /**
+   * <p>A slow ready key dispatch: the listener called, its channel and the time the dispatch took.
+   *
+   * @author jdf19
+   *
+   */
+  public static final class SlowCallback
+  {
+    private final String listenerClass;
+
+    private final String channel;
+
+    private final long nanos;
+
+    SlowCallback(String listenerClass, String channel, long nanos)
+    {
+      this.listenerClass = listenerClass;
+      this.channel = channel;
+      this.nanos = nanos;
+    }
+
+    /**
+     * <p>Return the class name of the listener called.
+     *
+     * @return the listener class name.
+     */
+    public String getListenerClass()
+    {
+      return listenerClass;
+    }
+
+    /**
+     * <p>Return a description of the channel.
+     *
+     * @return the channel description.
+     */
+    public String getChannel()
+    {
+      return channel;
+    }
+
+    /**
+     * <p>Return the time the dispatch took.
+     *
+     * @return the duration in nanoseconds.
+     */
+    public long getNanos()
+    {
+      return nanos;
+    }
+
+    @Override
+    public String toString()
+    {
+      return listenerClass + " " + channel + " " + (nanos / 1000) + "us";
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package hamster.comm.server;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.metrics.LoopMetrics;
+
+/**
+ * <p>The {@link MultiReactorCommunicationApplicationServer} runs one <b>boss</b> communication loop and a number of <b>worker</b>
+ * communication loops, each of which is a {@link NonBlockingCommunicationApplicationServer} with its own selector, thread and wakeup
+ * schedulers.
+ * <p>The boss loop runs the boss communication application, which opens listening sockets in the usual way.  When a listening socket
+ * opened with an {@link hamster.comm.itf.listener.InitialisedServerSocketChannelListener} accepts an incoming connection, the listener
+ * supplies the channel listener in the boss thread as normal.  The accepted channel is then handed to a worker loop chosen by the
+ * {@link ReactorBalancePolicy} and registered there.  From then on all events for the channel, including the listener's
+ * <code>initController(...)</code> call, happen inside the worker thread.
+ * <p>Each worker loop has its own communication application, supplied by a {@link WorkerApplicationFactory}.  The application receives
+ * the worker loop's {@link hamster.comm.server.listener.CommunicationApplicationController} and can use it exactly as it would in a
+ * single loop server.  Listening sockets opened with an {@link hamster.comm.itf.listener.UninitialisedServerSocketChannelListener} are
+ * not distributed; the channel is returned to the listener unregistered.
+ * <p>The run() method starts the worker threads and then runs the boss loop in the calling thread.  When the boss loop exits, each
+ * worker loop is sent an external shutdown command and the run() method waits for the worker threads to finish.
+ *
+ * @author jdf19
+ *
+ */
+public final class MultiReactorCommunicationApplicationServer implements Runnable
+{
+  /**
+   * <p>The boss loop.  Owns the listening sockets.
+   */
+  private final NonBlockingCommunicationApplicationServer bossServer;
+
+  /**
+   * <p>The worker loops.  Accepted channels are registered in these.
+   */
+  private final NonBlockingCommunicationApplicationServer[] workerServers;
+
+  /**
+   * <p>The policy for choosing which worker loop to hand an accepted channel to.
+   */
+  private final ReactorBalancePolicy balancePolicy;
+
+  /**
+   * <p>Next worker loop for round robin distribution.  Only accessed in the boss thread.
+   */
+  private int nextWorker = 0;
+
+  /**
+   * <p>Create the boss and worker communication loops.
+   *
+   * @param bossApplication the communication application to run in the boss loop.
+   * @param workerFactory the factory supplying the application for each worker loop, or <code>null</code> for worker loops which only
+   *                      service channels handed over by the boss loop.
+   * @param workerCount the number of worker loops.  Must be at least 1.
+   * @param balancePolicy the policy for choosing which worker loop to hand an accepted channel to.
+   * @param logger logger for debug statements.
+   * @throws IOException if there was an underlying communications exception when setting up the servers.
+   */
+  public MultiReactorCommunicationApplicationServer(NonBlockingCommunicationApplicationImpl bossApplication, WorkerApplicationFactory workerFactory, int workerCount, ReactorBalancePolicy balancePolicy, Logger logger) throws IOException
+  {
+    if(workerCount < 1) throw new IllegalArgumentException();
+    if(balancePolicy == null) throw new NullPointerException();
+
+    this.balancePolicy = balancePolicy;
+
+    //Create the worker loops.
+    this.workerServers = new NonBlockingCommunicationApplicationServer[workerCount];
+    for(int i = 0; i < workerCount; i++)
+    {
+      NonBlockingCommunicationApplicationImpl workerApplication = (workerFactory != null) ? workerFactory.createWorkerApplication(i) : new WorkerLoopApplication();
+      workerServers[i] = new NonBlockingCommunicationApplicationServer(workerApplication, logger);
+    }
+
+    //Create the boss loop.  Accepted channels are distributed to the workers.
+    this.bossServer = new NonBlockingCommunicationApplicationServer(bossApplication, new WorkerDistributor(), logger);
+  }
+
+  /**
+   * <p>Start the worker loop threads and run the boss loop in the calling thread.  Returns when the boss loop and all worker loops have finished.
+   */
+  @Override
+  public void run()
+  {
+    //Start the workers.
+    Thread[] workerThreads = new Thread[workerServers.length];
+    for(int i = 0; i < workerServers.length; i++)
+    {
+      workerThreads[i] = new Thread(workerServers[i]);
+      workerThreads[i].setDaemon(true);               //Automatically close on system exit.
+      workerThreads[i].setName(getClass().getSimpleName().toUpperCase() + "_WORKER_" + i);
+      workerThreads[i].start();
+    }
+
+    try
+    {
+      //Run the boss loop.
+      bossServer.run();
+    }
+    finally
+    {
+      //Boss has finished.  Shut the workers down.
+      for(NonBlockingCommunicationApplicationServer worker : workerServers)
+      {
+        worker.externalApplicationShutdownRequired();
+      }
+
+      //Wait for them to finish.
+      for(Thread workerThread : workerThreads)
+      {
+        try
+        {
+          workerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+          //Preserve the interrupt and stop waiting.
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * <p>Notify the boss communication application that an external shutdown is required.  When the boss application closes its
+   * loop, the worker loops will be shut down.
+   */
+  public void externalApplicationShutdownRequired()
+  {
+    bossServer.externalApplicationShutdownRequired();
+  }
+
+  /**
+   * <p>Get the number of worker loops.
+   *
+   * @return the number of worker loops.
+   */
+  public int getWorkerCount()
+  {
+    return workerServers.length;
+  }
+
+  /**
+   * <p>Get the metrics of the boss loop.
+   *
+   * @return the boss loop metrics.
+   */
+  public LoopMetrics getBossLoopMetrics()
+  {
+    return bossServer.getLoopMetrics();
+  }
+
+  /**
+   * <p>Get the metrics of a worker loop.
+   *
+   * @param worker the worker loop index, from 0 to one less than {@link #getWorkerCount()}.
+   * @return the worker loop metrics.
+   */
+  public LoopMetrics getWorkerLoopMetrics(int worker)
+  {
+    return workerServers[worker].getLoopMetrics();
+  }
+
+  /**
+   * <p>Select the worker loop to hand the next accepted channel to.
+   *
+   * @return the selected worker loop.
+   */
+  private NonBlockingCommunicationApplicationServer selectWorker()
+  {
+    switch (balancePolicy)
+    {
+      case LEAST_LOADED:
+        NonBlockingCommunicationApplicationServer leastLoaded = workerServers[0];
+        int lowestLoad = leastLoaded.getChannelLoad();
+        for(int i = 1; i < workerServers.length; i++)
+        {
+          int load = workerServers[i].getChannelLoad();
+          if(load < lowestLoad)
+          {
+            lowestLoad = load;
+            leastLoaded = workerServers[i];
+          }
+        }
+        return leastLoaded;
+      case ROUND_ROBIN:
+      default:
+        NonBlockingCommunicationApplicationServer next = workerServers[nextWorker];
+        nextWorker = (nextWorker + 1) % workerServers.length;
+        return next;
+    }
+  }
+
+  /**
+   * <p>Hands channels accepted in the boss loop to a worker loop.
+   *
+   * @author jdf19
+   *
+   */
+  private class WorkerDistributor implements AcceptedChannelDistributor
+  {
+    @Override
+    public void distributeAcceptedChannel(SocketChannel acceptedChannel, SocketChannelListener listener)
+    {
+      selectWorker().handOverOpenSocket(acceptedChannel, listener);
+    }
+  }
+}
@@ -2,13 +2,16 @@ package hamster.comm.server;
 
 import hamster.comm.communication.sockopts.SocketChannelOptionAccessor;
 import hamster.comm.itf.listener.*;
+import hamster.comm.metrics.ChannelMetrics;
 import hamster.comm.server.exception.ChannelRegistrationException;
 import hamster.comm.server.listener.CommunicationApplicationController;
 import hamster.comm.server.listener.ReadTargetListener;
 import hamster.comm.server.listener.WriteChannelHandler;
 import hamster.comm.wakeupschedule.AsyncWakeupScheduler;
 import hamster.comm.wakeupschedule.ProcessCallbackScheduler;
+import hamster.comm.wakeupschedule.SchedulerClock;
 import hamster.comm.wakeupschedule.SyncWakeupScheduler;
+import hamster.comm.wakeupschedule.SystemSchedulerClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,7 +19,6 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.*;
 import java.util.Set;
-import java.util.function.Consumer;
 
 /**
  * <p>The {@link NonBlockingCommunicationApplication} class wraps a Java NIO selector loop in a {@link Runnable} object.  The user
@@ -54,6 +56,11 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
    * future.
    */
   private final SyncWakeupScheduler syncScheduler;
+  
+  /**
+   * <p>Monotonic clock for the wakeup schedulers.  Sampled once per loop iteration.
+   */
+  private final SchedulerClock clock;
 
   /**
    * <p>Logger which logs communication events.
@@ -68,10 +75,19 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
   private CommLoopInteractor commLoopInteractor = new DummyInteractor();
 
   /**
-   * <p>This consumer receives the contents of the channel selection key map values.  For each attachment that
-   * implements {@link ReadTargetListener} it will call the {@link ReadTargetListener#handleCommLoopEnd()} callback method.
+   * <p>Keeps track of the channel handlers which need to be notified at the end of the current loop iteration.
+   */
+  private final LoopEndNotifier loopEndNotifier = new LoopEndNotifier();
+
+  /**
+   * <p>Traffic totals for all of the socket channels in this loop.
    */
-  private LoopEndConsumer loopEndConsumer = new LoopEndConsumer();
+  private final ChannelMetrics channelTotals = new ChannelMetrics(null);
+
+  /**
+   * <p>Slow listener callback detector.  Never enabled for this loop.
+   */
+  private final SlowCallbackDetector slowCallbackDetector = new SlowCallbackDetector(1);
 
   /**
    * CLOSES THE THREAD LOOP WHEN TRUE.  Called from inside the application thread.
@@ -87,6 +103,11 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
    * Skip remaining reads on the current loop.
    */
   private boolean skipReads = false;
+  
+  /**
+   * <p>Poll rather than sleep when the next scheduled wakeup is due within this number of nanoseconds.  0 to always sleep.
+   */
+  private long timerSpinThresholdNanos = 0;
 
   //Application controller - can be used to control listening sockets etc.
   private CommunicationApplicationController controller = new InternalComm();
@@ -106,8 +127,9 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
     this.selector = Selector.open();
     
     // Create the future process helpers.
-    this.asyncScheduler = new AsyncWakeupScheduler();
-    this.syncScheduler = new SyncWakeupScheduler();
+    this.clock = SystemSchedulerClock.INSTANCE;
+    this.asyncScheduler = new AsyncWakeupScheduler(clock);
+    this.syncScheduler = new SyncWakeupScheduler(clock);
     
     // Logger.
     this.logger = logger;
@@ -174,7 +196,8 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
       {
         if (commLoopInteractor.shouldWaitForNetworkEvent())
         {
-          readyKeys = nextWakeup > 0 ? selector.select(nextWakeup) : selector.selectNow();
+          long selectTimeout = selectTimeout(nextWakeup);
+          readyKeys = selectTimeout > 0 ? selector.select(selectTimeout) : selector.selectNow();
         }
         else
         {
@@ -188,7 +211,13 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
         ex.printStackTrace();
       }
       
+      // Sample the clock once for this iteration.  Wakeups requested during the iteration are measured from this time.
+      long loopTime = clock.nanoTime();
+      asyncScheduler.setLoopTime(loopTime);
+      syncScheduler.setLoopTime(loopTime);
+      
       // Tell the interactor to handle loop start.
+      commLoopInteractor.handleSelectResult(readyKeys);
       commLoopInteractor.handleLoopStart();
       
       // Retrieve the selected key set.
@@ -244,22 +273,13 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
       try
       {
         // Calculate the next wakeup time depending on the schedulers.
-        nextWakeup = Math.min(asyncScheduler.serviceObjects(), syncScheduler.serviceObjects());
+        nextWakeup = Math.min(asyncScheduler.serviceObjects(loopTime), syncScheduler.serviceObjects(loopTime));
         
       }
       catch (Throwable t)
       {
         LoggerFactory.getLogger("LOG_GENERAL").error("There has been an uncaught exception while processing future processing tasks.  The exception given was: " + t.getMessage());
       }
-      
-      // Loop end.  Call all of the channel attachments with the loop end notification.  The loop end notification can be useful for handlers which gather data to send over the course of
-      //a comms loop iteration.  These data can be coalesced into a larger block before sending, which requires only one call to the underlying channel's write mechanism rather than
-      //multiple calls.
-      //Handlers can decide whether to implement the loop end notification or not.  If they do implement the notification then they can perform any once per loop tasks which may 
-      //streamline their operation.
-      this.selector.keys().forEach(loopEndConsumer);
-
-
     }
     try
     {
@@ -292,23 +312,52 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
   }
 
   /**
-   * Scan the selector selection key attachments for outgoing channel handlers. If
-   * any of these handlers has a buffer with outgoing data, then set the writable
-   * operation on that handler.
+   * <p>Work out how long the selector should wait for.  If timer spinning is enabled and the next scheduled wakeup is within the
+   * spin threshold then don't wait at all; otherwise wait until the threshold is reached so that the remainder can be polled.  The
+   * wait is also limited by the loop interactor's {@link CommLoopInteractor#maxNetworkWaitNanos()}.
+   * 
+   * @param nextWakeup the number of milliseconds until the next wakeup, as returned by the schedulers.
+   * @return the number of milliseconds to wait for, or 0 to poll.
    */
-  private void setWritableChannels()
+  private long selectTimeout(long nextWakeup)
   {
-    // All selector keys. If the attachment supports the OutgoingChannelHandler
-    // interface, then tell it to set
-    // its OP_WRITE interest if there are outgoing data to send.
-    for (SelectionKey key : selector.keys())
+    if(nextWakeup <= 0)
     {
-      // Set writable operation if the attachment supports this operation.
-      if (key.isValid() && (key.attachment() instanceof WriteChannelHandler))
-      {
-        ((WriteChannelHandler) key.attachment()).doLoopEnd();
-      }
+      return 0;
+    }
+    
+    //Interactor limit, rounded up to a millisecond so that it never turns into a poll.
+    long maxWaitNanos = commLoopInteractor.maxNetworkWaitNanos();
+    if(maxWaitNanos < Long.MAX_VALUE)
+    {
+      nextWakeup = Math.min(nextWakeup, Math.max(1, (maxWaitNanos + 999_999L) / 1_000_000L));
     }
+    
+    if(timerSpinThresholdNanos <= 0)
+    {
+      return nextWakeup;
+    }
+    
+    long now = clock.nanoTime();
+    long nanosToGo = Math.min(asyncScheduler.nanosToNextWakeup(now), syncScheduler.nanosToNextWakeup(now));
+    if(nanosToGo <= timerSpinThresholdNanos)
+    {
+      //Spin.
+      return 0;
+    }
+    
+    //Sleep until the spin threshold.  This rounds down, and will poll if it is less than a millisecond away.
+    return Math.min(nextWakeup, (nanosToGo - timerSpinThresholdNanos) / 1_000_000L);
+  }
+  
+  /**
+   * Notify the outgoing channel handlers which have had activity during this loop
+   * iteration (or which have subscribed to every loop end) so that they can write
+   * any collected buffer data.  Idle channels are not visited.
+   */
+  private void setWritableChannels()
+  {
+    loopEndNotifier.notifyLoopEnd();
   }
   
   /**
@@ -448,7 +497,7 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
         sc.connect(address);
         
         //
-        SocketChannelConnectHandler cch = new SocketChannelConnectHandler(sk, sc, connectionListener, logger);
+        SocketChannelConnectHandler cch = new SocketChannelConnectHandler(sk, sc, connectionListener, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
         
         // Attach the connect handler to the selection key.
         sk.attach(cch);
@@ -472,11 +521,14 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
         
         // Create the selection key attachment handler for handling read and write
         // events.
-        SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(sk, openChannel, listener, logger);
+        SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(sk, openChannel, listener, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
         
         // Attach the connect handler to the selection key.
         sk.attach(srwch);
         
+        //Notify the owner at the end of the loop that the channel is registered in.
+        loopEndNotifier.requestLoopEnd(srwch);
+        
         // Ready to communicate. Call init method of listener.
         listener.initController(srwch);
         
@@ -510,7 +562,7 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
         SelectionKey sk = ssc.register(selector, SelectionKey.OP_ACCEPT);
         
         // Selection key attachment / controller.
-        InitialisedServerSocketChannelAcceptHandler sscah = new InitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, logger);
+        InitialisedServerSocketChannelAcceptHandler sscah = new InitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
         
         // Register the handler as the sk attachment.
         sk.attach(sscah);
@@ -552,7 +604,7 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
         SelectionKey sk = ssc.register(selector, SelectionKey.OP_ACCEPT);
         
         // Selection key attachment / controller.
-        UninitialisedServerSocketChannelAcceptHandler sscah = new UninitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, logger);
+        UninitialisedServerSocketChannelAcceptHandler sscah = new UninitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, slowCallbackDetector, logger);
         
         // Register the handler as the sk attachment.
         sk.attach(sscah);
@@ -611,6 +663,16 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
       skipReads = true;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimerSpinThreshold(long thresholdNanos)
+    {
+      if(thresholdNanos < 0) throw new IllegalArgumentException();
+      timerSpinThresholdNanos = thresholdNanos;
+    }
+
     /**
      * <p>Wake up the comm loop selector.  This is a multithread safe operation so it can be called by a thread outside the main comm loop.  This is useful
      * for external threads which wish to pass commands to a connection handler instance and wake the selector up through the connection instance so that
@@ -623,25 +685,4 @@ public abstract class NonBlockingCommunicationApplication implements Runnable
     }
   }
 
-  /**
-   * <p>
-   * Call each {@link ReadTargetListener}'s {@link ReadTargetListener#handleCommLoopEnd()} method.
-   * 
-   * @author jdf19
-   *
-   */
-  class LoopEndConsumer implements Consumer<SelectionKey>
-  {
-    
-    @Override
-    public void accept(SelectionKey t)
-    {
-      if (t instanceof ReadTargetListener)
-      {
-        ((ReadTargetListener) t).handleCommLoopEnd();
-      }
-    }
-    
-  }
-  
 }
@@ -7,25 +7,34 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.List;
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import hamster.comm.buffer.BufferPool;
 import hamster.comm.communication.sockopts.SocketChannelOptionAccessor;
 import hamster.comm.itf.listener.ClientSocketChannelListener;
 import hamster.comm.itf.listener.DatagramChannelListener;
 import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
 import hamster.comm.itf.listener.SocketChannelListener;
 import hamster.comm.itf.listener.UninitialisedServerSocketChannelListener;
+import hamster.comm.metrics.LoopMetrics;
 import hamster.comm.server.exception.ChannelRegistrationException;
 import hamster.comm.server.listener.CommunicationApplicationController;
 import hamster.comm.server.listener.ReadTargetListener;
 import hamster.comm.server.listener.WriteChannelHandler;
 import hamster.comm.wakeupschedule.AsyncWakeupScheduler;
 import hamster.comm.wakeupschedule.ProcessCallbackScheduler;
+import hamster.comm.wakeupschedule.SchedulerClock;
 import hamster.comm.wakeupschedule.SyncWakeupScheduler;
+import hamster.comm.wakeupschedule.SystemSchedulerClock;
 
 /**
  * <p>The {@link NonBlockingCommunicationApplicationServer} class wraps a Java NIO selector loop in a {@link Runnable} object.  The user
@@ -37,6 +46,12 @@ import hamster.comm.wakeupschedule.SyncWakeupScheduler;
  * with the server, and shut the server communication loop down.
  * <p>The communication application is called inside the comm server thread.  Any access to the implementation outside of the server
  * thread <b>must</b> be <code>synchronized</code>.
+ * <p>The server records the time spent in each phase of its loop and the traffic on its socket channels.  These can be sampled from
+ * any thread through {@link #getLoopMetrics()}.  Other loop state, such as the registered keys and scheduled wakeups, can only be
+ * examined in the loop thread; {@link #takeSnapshot(long)} asks the loop to take a {@link LoopSnapshot} of it at the end of an
+ * iteration and hand it over.
+ * <p>Listener callbacks which take longer than a threshold can be recorded by {@link #getSlowCallbackDetector()}.  It is disabled
+ * until a threshold is set.
  * 
  * @author jdf19
  *
@@ -64,6 +79,11 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
    */
   private final SyncWakeupScheduler syncScheduler;
   
+  /**
+   * <p>Monotonic clock for the wakeup schedulers.  Sampled once per loop iteration.
+   */
+  private final SchedulerClock clock;
+  
   /**
    * <p>Logger which logs communication events.
    */
@@ -77,10 +97,49 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
   private CommLoopInteractor commLoopInteractor = new DummyInteractor();
   
   /**
-   * <p>This consumer receives the contents of the channel selection key map values.  For each attachment that
-   * implements {@link ReadTargetListener} it will call the {@link ReadTargetListener#handleCommLoopEnd()} callback method.
+   * <p>Keeps track of the channel handlers which need to be notified at the end of the current loop iteration.
+   */
+  private final LoopEndNotifier loopEndNotifier = new LoopEndNotifier();
+  
+  /**
+   * <p>Loop phase timings and channel traffic totals.  Recorded in the loop thread, can be sampled from any thread.
+   */
+  private final LoopMetrics loopMetrics = new LoopMetrics();
+  
+  /**
+   * <p>The slowest ready key dispatches since the last snapshot.  Only recorded while {@link #slowestCallbackRecording} is set.
+   */
+  private final SlowestCallbacks slowestCallbacks = new SlowestCallbacks();
+  
+  /**
+   * <p>True to time each ready key dispatch for the slowest callbacks in the snapshots.
+   */
+  private volatile boolean slowestCallbackRecording = false;
+  
+  /**
+   * <p>Records listener callbacks which take longer than its threshold.  Disabled until a threshold is set.
    */
-  private LoopEndConsumer loopEndConsumer = new LoopEndConsumer();
+  private final SlowCallbackDetector slowCallbackDetector = new SlowCallbackDetector(64);
+  
+  /**
+   * <p>Buffer pools whose occupancy is included in snapshots.
+   */
+  private final List<BufferPool> monitoredPools = new CopyOnWriteArrayList<>();
+  
+  /**
+   * <p>Set by another thread to ask the loop for a snapshot at the end of the current iteration.
+   */
+  private volatile boolean snapshotRequested = false;
+  
+  /**
+   * <p>The latest snapshot handed over by the loop thread, or <code>null</code>.
+   */
+  private volatile LoopSnapshot latestSnapshot;
+  
+  /**
+   * <p>Sequence number of the latest snapshot.  Only accessed in the loop thread.
+   */
+  private long snapshotSequence = 0;
   
   /**
    * CLOSES THE THREAD LOOP WHEN TRUE.  Called from inside the application thread.
@@ -101,6 +160,48 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
    * Skip remaining reads on the current loop.
    */
   private boolean skipReads = false;
+  
+  /**
+   * <p>Poll rather than sleep when the next scheduled wakeup is due within this number of nanoseconds.  0 to always sleep.
+   */
+  private long timerSpinThresholdNanos = 0;
+
+  /**
+   * <p>Application controller for this communication loop.
+   */
+  private final InternalComm controller = new InternalComm();
+
+  /**
+   * <p>If not <code>null</code>, channels accepted by listening sockets opened in this loop are passed to this distributor
+   * rather than being registered with this loop's selector.  Used by the boss loop in a {@link MultiReactorCommunicationApplicationServer}.
+   */
+  private final AcceptedChannelDistributor channelDistributor;
+
+  /**
+   * <p>Channels which have been handed over to this loop by a different thread, waiting to be registered with the selector
+   * at the top of the next loop iteration.
+   */
+  private final Queue<HandedOverChannel> handedOverChannels = new ConcurrentLinkedQueue<>();
+
+  /**
+   * <p>Number of channels handed over but not yet registered.
+   */
+  private final AtomicInteger pendingHandoverCount = new AtomicInteger();
+
+  /**
+   * <p>Number of keys registered with the selector, updated once per loop iteration.  Can be read from any thread.
+   */
+  private volatile int registeredKeyCount = 0;
+
+  /**
+   * <p>Set when the loop has finished and will no longer register handed over channels.
+   */
+  private volatile boolean loopFinished = false;
+
+  /**
+   * <p>Interval at which a thread waiting for a snapshot checks whether it has been handed over.
+   */
+  private static final long SNAPSHOT_POLL_NANOS = 50_000L;
 
   /**
    * <p>Create an instance of the non blocking communication application server.  The communication application server uses a Selector which is passed into the constructor.
@@ -113,6 +214,20 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
    * 
    */
   public NonBlockingCommunicationApplicationServer(NonBlockingCommunicationApplicationImpl application, Logger logger) throws IOException
+  {
+    this(application, null, logger);
+  }
+  
+  /**
+   * <p>Create an instance of the non blocking communication application server which passes channels accepted by its listening sockets
+   * to the given distributor.
+   * 
+   * @param application the application to use in the server operation.
+   * @param channelDistributor the distributor for accepted channels, or <code>null</code> to register them with this server.
+   * @param logger logger for debug statements.
+   * @throws IOException if there was an underlying communications exception when setting up the server.
+   */
+  NonBlockingCommunicationApplicationServer(NonBlockingCommunicationApplicationImpl application, AcceptedChannelDistributor channelDistributor, Logger logger) throws IOException
   {
     //Application instance.
     if(application == null) throw new NullPointerException();
@@ -122,11 +237,17 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
     this.selector = Selector.open();
     
     // Create the future process helpers.
-    this.asyncScheduler = new AsyncWakeupScheduler();
-    this.syncScheduler = new SyncWakeupScheduler();
+    this.clock = SystemSchedulerClock.INSTANCE;
+    this.asyncScheduler = new AsyncWakeupScheduler(clock);
+    this.syncScheduler = new SyncWakeupScheduler(clock);
+    this.asyncScheduler.setCallbackTimer(slowCallbackDetector);
+    this.syncScheduler.setCallbackTimer(slowCallbackDetector);
     
     // Logger.
     this.logger = logger;
+    
+    // Accepted channel distributor.
+    this.channelDistributor = channelDistributor;
   }
   
   /**
@@ -139,7 +260,7 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
     long nextWakeup = 0;
     
     //Create the application handler instance and initialise the application instance.
-    application.registerAppController(new InternalComm());
+    application.registerAppController(controller);
     
     // This is a daemon thread. It will close automatically when the system closes.
     while (!internalClose)
@@ -152,16 +273,27 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
         externalClose = false;
       }
 
+      //Skip on internal close.
+      if(internalClose)
+      {
+        continue;
+      }
+
       //Unset the skip reads flag at the top of this loop.
       skipReads = false;
 
+      //Register any channels that have been handed over from other threads.
+      registerHandedOverChannels();
+
       // Wait for the next wakeup time.
+      long loopStart = clock.nanoTime();
       int readyKeys = 0;
       try
       {
         if (commLoopInteractor.shouldWaitForNetworkEvent())
         {
-          readyKeys = nextWakeup > 0 ? selector.select(nextWakeup) : selector.selectNow();
+          long selectTimeout = selectTimeout(nextWakeup);
+          readyKeys = selectTimeout > 0 ? selector.select(selectTimeout) : selector.selectNow();
         }
         else
         {
@@ -175,18 +307,26 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
         ex.printStackTrace();
       }
       
+      // Sample the clock once for this iteration.  Wakeups requested during the iteration are measured from this time.
+      long loopTime = clock.nanoTime();
+      asyncScheduler.setLoopTime(loopTime);
+      syncScheduler.setLoopTime(loopTime);
+      
       // Tell the interactor to handle loop start.
+      commLoopInteractor.handleSelectResult(readyKeys);
       commLoopInteractor.handleLoopStart();
       
       // Retrieve the selected key set.
       Set<SelectionKey> selectedKeys = selector.selectedKeys();
+      long dispatchEnd = loopTime;
       
       try
       {
         // Check for ready keys.
         if (readyKeys > 0)
         {
-          
+          boolean recordSlowest = slowestCallbackRecording;
+          long keyStart = loopTime;
           for (SelectionKey key : selectedKeys)
           {
             // Only handle readable keys if we can process incoming data (i.e. the outgoing
@@ -211,11 +351,29 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
             {
               handleConnect(key);
             }
+            
+            //Keep the slowest dispatches for the next snapshot.
+            if (recordSlowest)
+            {
+              long keyEnd = clock.nanoTime();
+              slowestCallbacks.record(key, keyEnd - keyStart);
+              keyStart = keyEnd;
+            }
           }
           
+          //Forget the dispatches of channels which have closed, or all of them if recording has been turned off.
+          if (recordSlowest)
+          {
+            slowestCallbacks.dropCancelled();
+          }
+          else
+          {
+            slowestCallbacks.clear();
+          }
         }
         // SET UP ALL WRITABLE CHANNELS - I.E. CHANNELS WITH OUTGOING BUFFER DATA TO
         // SEND.
+        dispatchEnd = clock.nanoTime();
         setWritableChannels();
       }
       catch (Throwable t)
@@ -228,26 +386,38 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
         selectedKeys.clear();
       }
       
+      long loopEndEnd = clock.nanoTime();
+      
       try
       {
         // Calculate the next wakeup time depending on the schedulers.
-        nextWakeup = Math.min(asyncScheduler.serviceObjects(), syncScheduler.serviceObjects());
+        nextWakeup = Math.min(asyncScheduler.serviceObjects(loopTime), syncScheduler.serviceObjects(loopTime));
         
       }
       catch (Throwable t)
       {
         LoggerFactory.getLogger("LOG_GENERAL").error("There has been an uncaught exception while processing future processing tasks.  The exception given was: " + t.getMessage());
       }
-      
-      // Loop end.  Call all of the channel attachments with the loop end notification.  The loop end notification can be useful for handlers which gather data to send over the course of
-      //a comms loop iteration.  These data can be coalesced into a larger block before sending, which requires only one call to the underlying channel's write mechanism rather than
-      //multiple calls.
-      //Handlers can decide whether to implement the loop end notification or not.  If they do implement the notification then they can perform any once per loop tasks which may 
-      //streamline their operation.
-      this.selector.keys().forEach(loopEndConsumer);
-
 
+      //Record the loop phase timings.
+      long serviceEnd = clock.nanoTime();
+      loopMetrics.recordLoop(readyKeys, loopStart, loopTime, dispatchEnd, loopEndEnd, serviceEnd);
+      
+      //Hand over a snapshot if one has been asked for.
+      if(snapshotRequested)
+      {
+        snapshotRequested = false;
+        latestSnapshot = createSnapshot(serviceEnd);
+      }
+      
+      //Publish the registered key count for load balancing.
+      registeredKeyCount = this.selector.keys().size();
     }
+    
+    //Any channels handed over after the loop has closed will never be registered.  Close them and tell their listeners.
+    loopFinished = true;
+    closeHandedOverChannels(true);
+    
     try
     {
       // Finishing. Make sure we put in a final Selector.selectNow() operation so that
@@ -277,24 +447,298 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
   }
 
   /**
-   * Scan the selector selection key attachments for outgoing channel handlers. If
-   * any of these handlers has a buffer with outgoing data, then set the writable
-   * operation on that handler.
+   * <p>Return the metrics for this communication loop: iteration count, the time spent in each phase of the loop, ready keys per
+   * select and the traffic totals for all of the loop's socket channels.  The metrics are updated by the loop thread and can be
+   * sampled from any thread.
+   * 
+   * @return the loop metrics.
    */
-  private void setWritableChannels()
+  public LoopMetrics getLoopMetrics()
+  {
+    return loopMetrics;
+  }
+
+  /**
+   * <p>Return the slow callback detector for this communication loop.  Set its threshold to start recording listener callbacks,
+   * including wakeup callbacks, which hold up the loop for longer than the threshold.
+   * 
+   * @return the slow callback detector.
+   */
+  public SlowCallbackDetector getSlowCallbackDetector()
+  {
+    return slowCallbackDetector;
+  }
+
+  /**
+   * <p>Turn on or off the timing of each ready key dispatch for {@link LoopSnapshot#getSlowestCallbacks()}.  It is off by default,
+   * so that a loop which is never asked for snapshots doesn't pay for a clock read per dispatch.  While it is off, snapshots report
+   * no slowest callbacks.
+   * <p>This method is multithread safe.
+   * 
+   * @param record true to record the slowest dispatches.
+   */
+  public void setSlowestCallbackRecording(boolean record)
+  {
+    slowestCallbackRecording = record;
+  }
+  
+  /**
+   * <p>Return true if the slowest ready key dispatches are being recorded for the snapshots.
+   * 
+   * @return true if recording.
+   */
+  public boolean isSlowestCallbackRecording()
+  {
+    return slowestCallbackRecording;
+  }
+  
+  /**
+   * <p>Include the occupancy of the given buffer pool in the loop snapshots.  The pool's free buffer cache for the loop thread is
+   * reported as well as its shared free buffers.
+   * <p>This method is multithread safe.
+   * 
+   * @param pool the buffer pool to monitor.
+   */
+  public void monitorBufferPool(BufferPool pool)
+  {
+    if(pool == null) throw new NullPointerException();
+    monitoredPools.add(pool);
+  }
+  
+  /**
+   * <p>Ask the loop to take a snapshot at the end of the current or next loop iteration, waking the selector if necessary.  The
+   * snapshot can be collected with {@link #getLatestSnapshot()}.
+   * <p>This method is multithread safe.
+   */
+  public void requestSnapshot()
+  {
+    snapshotRequested = true;
+    selector.wakeup();
+  }
+  
+  /**
+   * <p>Return the latest snapshot taken by the loop.
+   * <p>This method is multithread safe.
+   * 
+   * @return the latest snapshot, or <code>null</code> if none has been taken.
+   */
+  public LoopSnapshot getLatestSnapshot()
   {
-    // All selector keys. If the attachment supports the OutgoingChannelHandler
-    // interface, then tell it to set
-    // its OP_WRITE interest if there are outgoing data to send.
+    return latestSnapshot;
+  }
+  
+  /**
+   * <p>Ask the loop for a snapshot and wait for it to be handed over.  The loop thread takes the snapshot at the end of a loop
+   * iteration and publishes it with a single volatile write; the calling thread polls for it and never blocks the loop.  If the
+   * loop doesn't hand a snapshot over in time, for example because a listener callback is blocking it or the loop has finished,
+   * the latest snapshot is returned.
+   * <p>This method is multithread safe.  It must not be called in the loop thread.
+   * 
+   * @param timeoutMillis the maximum time to wait in milliseconds.
+   * @return the new snapshot, or the latest snapshot if none was handed over in time, which may be <code>null</code>.
+   * @throws InterruptedException if the calling thread was interrupted while waiting.
+   */
+  public LoopSnapshot takeSnapshot(long timeoutMillis) throws InterruptedException
+  {
+    LoopSnapshot previous = latestSnapshot;
+    requestSnapshot();
+    
+    long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+    while (latestSnapshot == previous && !loopFinished && System.nanoTime() - deadline < 0)
+    {
+      LockSupport.parkNanos(SNAPSHOT_POLL_NANOS);
+      if(Thread.interrupted()) throw new InterruptedException();
+    }
+    return latestSnapshot;
+  }
+  
+  /**
+   * <p>Take a snapshot of the loop state.  Called in the loop thread only.
+   * 
+   * @param nanoTime the time of the snapshot.
+   * @return the snapshot.
+   */
+  private LoopSnapshot createSnapshot(long nanoTime)
+  {
+    //Registered keys by type.
+    int acceptKeys = 0;
+    int connectKeys = 0;
+    int readWriteKeys = 0;
+    int datagramKeys = 0;
     for (SelectionKey key : selector.keys())
     {
-      // Set writable operation if the attachment supports this operation.
-      if (key.isValid() && (key.attachment() instanceof WriteChannelHandler))
+      if(!key.isValid()) continue;
+      
+      Object attachment = key.attachment();
+      if(attachment instanceof SocketChannelReadWriteHandler)
+      {
+        readWriteKeys++;
+      }
+      else if(attachment instanceof SocketChannelConnectHandler)
+      {
+        connectKeys++;
+      }
+      else if(attachment instanceof InitialisedServerSocketChannelAcceptHandler || attachment instanceof UninitialisedServerSocketChannelAcceptHandler)
+      {
+        acceptKeys++;
+      }
+      else if(attachment instanceof DatagramChannelReadWriteHandler)
+      {
+        datagramKeys++;
+      }
+    }
+    
+    //Buffer pools.
+    LoopSnapshot.PoolOccupancy[] pools = new LoopSnapshot.PoolOccupancy[monitoredPools.size()];
+    int i = 0;
+    for (BufferPool pool : monitoredPools)
+    {
+      if(i == pools.length) break;
+      pools[i++] = new LoopSnapshot.PoolOccupancy(pool.getSharedFreeCount(), pool.getLocalFreeCount(), pool.getOutstandingCount(), pool.getAllocatedCount(), pool.getReusedCount());
+    }
+    
+    return new LoopSnapshot(++snapshotSequence, nanoTime, loopMetrics.iterations(), acceptKeys, connectKeys, readWriteKeys, datagramKeys,
+                            asyncScheduler.pendingCallCount(), syncScheduler.pendingCallCount(), pools, slowestCallbacks.drain());
+  }
+
+  /**
+   * <p>Hand an open, connected socket channel over to this communication loop from a different thread.  The channel will be
+   * registered with this loop's selector and the listener's controller initialised inside this loop's thread, exactly as if
+   * {@link CommunicationApplicationController#registerOpenSocket(SocketChannel, SocketChannelListener)} had been called by the
+   * communication application.
+   * <p>If this loop has already finished then the channel is closed.  Its listener is told that the channel has shut only if
+   * this loop's thread closes it while finishing; a channel closed in the calling thread is closed without calling the listener
+   * back.
+   * <p>This method is multithread safe.
+   * 
+   * @param openChannel the open and connected channel.
+   * @param listener the listener to catch communication events from the channel.
+   */
+  void handOverOpenSocket(SocketChannel openChannel, SocketChannelListener listener)
+  {
+    //Queue the channel.
+    pendingHandoverCount.incrementAndGet();
+    handedOverChannels.add(new HandedOverChannel(openChannel, listener));
+    
+    //If the loop has already finished then nothing will register the channel.  This is not the loop thread, so the listeners
+    //can't be called back.
+    if(loopFinished)
+    {
+      closeHandedOverChannels(false);
+      return;
+    }
+    
+    //Wake the selector so that the channel is registered promptly.
+    selector.wakeup();
+  }
+  
+  /**
+   * <p>Return the number of channels that this loop is handling or is about to handle.  This is a snapshot and may be read from
+   * any thread.
+   * 
+   * @return the number of registered selection keys plus the number of channels waiting to be registered.
+   */
+  int getChannelLoad()
+  {
+    //Read the pending count first.  A channel that has stopped pending is then always seen in the registered key count.
+    int pending = pendingHandoverCount.get();
+    return registeredKeyCount + pending;
+  }
+  
+  /**
+   * <p>Register all channels handed over by other threads since the last loop iteration.
+   */
+  private void registerHandedOverChannels()
+  {
+    HandedOverChannel hoc;
+    while ((hoc = handedOverChannels.poll()) != null)
+    {
+      controller.registerOpenSocket(hoc.channel, hoc.listener);
+      
+      //Publish the new key before the channel stops counting as pending, so that it is always in the load.
+      registeredKeyCount = this.selector.keys().size();
+      pendingHandoverCount.decrementAndGet();
+    }
+  }
+  
+  /**
+   * <p>Close all channels that have been handed over but will not be registered because the loop has finished.  Listeners are
+   * only told that their channel has shut when this is called in this loop's thread, as listener callbacks always happen in the
+   * thread of the loop which owns the channel.
+   * 
+   * @param notifyListeners true to call each listener's <code>hasShut()</code> method.  Only true in this loop's thread.
+   */
+  private void closeHandedOverChannels(boolean notifyListeners)
+  {
+    HandedOverChannel hoc;
+    while ((hoc = handedOverChannels.poll()) != null)
+    {
+      try
       {
-        ((WriteChannelHandler) key.attachment()).doLoopEnd();
+        hoc.channel.close();
+      }
+      catch (IOException e)
+      {
+        // Nothing further can be done with the channel.
+      }
+      pendingHandoverCount.decrementAndGet();
+      
+      //Tell the listener that the channel has shut.
+      if(notifyListeners)
+      {
+        hoc.listener.hasShut();
       }
     }
   }
+
+  /**
+   * <p>Work out how long the selector should wait for.  If timer spinning is enabled and the next scheduled wakeup is within the
+   * spin threshold then don't wait at all; otherwise wait until the threshold is reached so that the remainder can be polled.  The
+   * wait is also limited by the loop interactor's {@link CommLoopInteractor#maxNetworkWaitNanos()}.
+   * 
+   * @param nextWakeup the number of milliseconds until the next wakeup, as returned by the schedulers.
+   * @return the number of milliseconds to wait for, or 0 to poll.
+   */
+  private long selectTimeout(long nextWakeup)
+  {
+    if(nextWakeup <= 0)
+    {
+      return 0;
+    }
+    
+    //Interactor limit, rounded up to a millisecond so that it never turns into a poll.
+    long maxWaitNanos = commLoopInteractor.maxNetworkWaitNanos();
+    if(maxWaitNanos < Long.MAX_VALUE)
+    {
+      nextWakeup = Math.min(nextWakeup, Math.max(1, (maxWaitNanos + 999_999L) / 1_000_000L));
+    }
+    
+    if(timerSpinThresholdNanos <= 0)
+    {
+      return nextWakeup;
+    }
+    
+    long now = clock.nanoTime();
+    long nanosToGo = Math.min(asyncScheduler.nanosToNextWakeup(now), syncScheduler.nanosToNextWakeup(now));
+    if(nanosToGo <= timerSpinThresholdNanos)
+    {
+      //Spin.
+      return 0;
+    }
+    
+    //Sleep until the spin threshold.  This rounds down, and will poll if it is less than a millisecond away.
+    return Math.min(nextWakeup, (nanosToGo - timerSpinThresholdNanos) / 1_000_000L);
+  }
+  
+  /**
+   * Notify the outgoing channel handlers which have had activity during this loop
+   * iteration (or which have subscribed to every loop end) so that they can write
+   * any collected buffer data.  Idle channels are not visited.
+   */
+  private void setWritableChannels()
+  {
+    loopEndNotifier.notifyLoopEnd();
+  }
   
   /**
    * Handle a writable key.
@@ -427,7 +871,7 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
         sc.connect(address);
         
         //
-        SocketChannelConnectHandler cch = new SocketChannelConnectHandler(sk, sc, connectionListener, logger);
+        SocketChannelConnectHandler cch = new SocketChannelConnectHandler(sk, sc, connectionListener, loopEndNotifier, loopMetrics.channelTotals(), slowCallbackDetector, logger);
         
         // Attach the connect handler to the selection key.
         sk.attach(cch);
@@ -451,11 +895,14 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
         
         // Create the selection key attachment handler for handling read and write
         // events.
-        SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(sk, openChannel, listener, logger);
+        SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(sk, openChannel, listener, loopEndNotifier, loopMetrics.channelTotals(), slowCallbackDetector, logger);
         
         // Attach the connect handler to the selection key.
         sk.attach(srwch);
         
+        //Notify the owner at the end of the loop that the channel is registered in.
+        loopEndNotifier.requestLoopEnd(srwch);
+        
         // Ready to communicate. Call init method of listener.
         listener.initController(srwch);
         
@@ -489,7 +936,7 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
         SelectionKey sk = ssc.register(selector, SelectionKey.OP_ACCEPT);
         
         // Selection key attachment / controller.
-        InitialisedServerSocketChannelAcceptHandler sscah = new InitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, logger);
+        InitialisedServerSocketChannelAcceptHandler sscah = new InitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, loopEndNotifier, loopMetrics.channelTotals(), slowCallbackDetector, channelDistributor, logger);
         
         // Register the handler as the sk attachment.
         sk.attach(sscah);
@@ -531,7 +978,7 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
         SelectionKey sk = ssc.register(selector, SelectionKey.OP_ACCEPT);
         
         // Selection key attachment / controller.
-        UninitialisedServerSocketChannelAcceptHandler sscah = new UninitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, logger);
+        UninitialisedServerSocketChannelAcceptHandler sscah = new UninitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, slowCallbackDetector, logger);
         
         // Register the handler as the sk attachment.
         sk.attach(sscah);
@@ -590,6 +1037,16 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
       skipReads = true;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimerSpinThreshold(long thresholdNanos)
+    {
+      if(thresholdNanos < 0) throw new IllegalArgumentException();
+      timerSpinThresholdNanos = thresholdNanos;
+    }
+
     /**
      * <p>Wake up the comm loop selector.  This is a multithread safe operation so it can be called by a thread outside the main comm loop.  This is useful
      * for external threads which wish to pass commands to a connection handler instance and wake the selector up through the connection instance so that
@@ -603,24 +1060,22 @@ public final class NonBlockingCommunicationApplicationServer implements Runnable
   }
 
   /**
-   * <p>
-   * Call each {@link ReadTargetListener}'s {@link ReadTargetListener#handleCommLoopEnd()} method.
+   * <p>A channel handed over from a different thread, waiting to be registered.
    * 
    * @author jdf19
    *
    */
-  class LoopEndConsumer implements Consumer<SelectionKey>
+  private static class HandedOverChannel
   {
+    private final SocketChannel channel;
     
-    @Override
-    public void accept(SelectionKey t)
+    private final SocketChannelListener listener;
+    
+    private HandedOverChannel(SocketChannel channel, SocketChannelListener listener)
     {
-      if (t instanceof ReadTargetListener)
-      {
-        ((ReadTargetListener) t).handleCommLoopEnd();
-      }
+      this.channel = channel;
+      this.listener = listener;
     }
-    
   }
-  
+
 }
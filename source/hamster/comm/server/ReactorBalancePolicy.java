@@ -0,0 +1,20 @@
+package hamster.comm.server;
+
+/**
+ * <p>Determines which worker communication loop an accepted channel is handed to in a {@link MultiReactorCommunicationApplicationServer}.
+ * 
+ * @author jdf19
+ *
+ */
+public enum ReactorBalancePolicy
+{
+  /**
+   * <p>Hand accepted channels to each worker loop in turn.
+   */
+  ROUND_ROBIN,
+  
+  /**
+   * <p>Hand accepted channels to the worker loop with the fewest registered channels at the time of the accept.
+   */
+  LEAST_LOADED
+}
@@ -0,0 +1,363 @@
+package hamster.comm.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+
+import hamster.comm.wakeupschedule.WakeupCallback;
+import hamster.comm.wakeupschedule.WakeupCallbackTimer;
+
+/**
+ * <p>Detects listener callbacks which hold up a communication loop.  Every other channel on the loop waits while a callback runs,
+ * so a single <code>handleDataRead()</code> that blocks for 20ms adds 20ms to the latency of every connection.
+ * <p>When a threshold has been set with {@link #setThresholdNanos(long)}, the loop times each of the callbacks listed in
+ * {@link CallbackType}.  A callback which takes longer than the threshold is recorded, with the listener class, the channel and the
+ * time it took, in a ring buffer of the most recent slow calls which can be read from any thread with {@link #getRecentSlowCalls()}.
+ * If a warning log has been set with {@link #setWarningLog(Logger, long)} then slow calls are also logged, no more than once in the
+ * given interval; calls which are not logged are counted in the next warning.
+ * <p>The detector is disabled until a threshold is set.  While it is disabled, each callback costs the loop one volatile read and
+ * a branch.
+ * <p>The configuration and read methods are multithread safe.  Slow calls are recorded by the loop thread only.
+ *
+ * @author jdf19
+ *
+ */
+public final class SlowCallbackDetector implements WakeupCallbackTimer
+{
+  /**
+   * <p>The listener callbacks which are timed.
+   *
+   * @author jdf19
+   *
+   */
+  public enum CallbackType
+  {
+    /**
+     * <p>{@link hamster.comm.itf.listener.InitialisedServerSocketChannelListener#handleIncomingConnection(java.net.SocketAddress)} or
+     * {@link hamster.comm.itf.listener.UninitialisedServerSocketChannelListener#handleIncomingConnection(java.nio.channels.SocketChannel, java.net.SocketAddress)}.
+     */
+    ACCEPT,
+
+    /**
+     * <p>{@link hamster.comm.itf.listener.ClientSocketChannelListener#handleConnectionSuccess(java.net.SocketAddress)}.
+     */
+    CONNECT,
+
+    /**
+     * <p><code>handleDataRead()</code> of a socket channel listener.
+     */
+    DATA_READ,
+
+    /**
+     * <p><code>handleChannelWriteContinue()</code> of a socket channel listener.
+     */
+    WRITE_CONTINUE,
+
+    /**
+     * <p><code>handleServerLoopEnd()</code> of a socket channel listener.
+     */
+    LOOP_END,
+
+    /**
+     * <p>{@link WakeupCallback#wakeup(int, long)}.
+     */
+    WAKEUP
+  }
+
+  /**
+   * <p>The threshold in nanoseconds above which a callback is slow.  0 if the detector is disabled.
+   */
+  private volatile long thresholdNanos = 0;
+
+  /**
+   * <p>Logger for slow call warnings, or <code>null</code>.
+   */
+  private volatile Logger warningLogger;
+
+  /**
+   * <p>Minimum interval between warnings in nanoseconds.
+   */
+  private volatile long warningIntervalNanos;
+
+  /**
+   * <p>Time of the last warning.  Only accessed in the loop thread.
+   */
+  private long lastWarning;
+
+  /**
+   * <p>True once a warning has been logged.  Only accessed in the loop thread.
+   */
+  private boolean warned = false;
+
+  /**
+   * <p>Slow calls since the last warning which were not logged.  Only accessed in the loop thread.
+   */
+  private int suppressedWarnings = 0;
+
+  /**
+   * <p>The most recent slow calls.
+   */
+  private final AtomicReferenceArray<SlowCall> ring;
+
+  /**
+   * <p>The number of slow calls recorded.  The next one goes in the ring at this count modulo the ring size.
+   */
+  private final AtomicLong slowCallCount = new AtomicLong();
+
+  /**
+   * <p>Create a disabled detector.
+   *
+   * @param capacity the number of recent slow calls to keep.
+   */
+  public SlowCallbackDetector(int capacity)
+  {
+    if(capacity < 1) throw new IllegalArgumentException();
+    this.ring = new AtomicReferenceArray<>(capacity);
+  }
+
+  /**
+   * <p>Set the time above which a callback is slow, or 0 to disable the detector.
+   *
+   * @param thresholdNanos the threshold in nanoseconds.
+   */
+  public void setThresholdNanos(long thresholdNanos)
+  {
+    if(thresholdNanos < 0) throw new IllegalArgumentException();
+    this.thresholdNanos = thresholdNanos;
+  }
+
+  /**
+   * <p>Return the time above which a callback is slow.
+   *
+   * @return the threshold in nanoseconds, or 0 if the detector is disabled.
+   */
+  public long getThresholdNanos()
+  {
+    return thresholdNanos;
+  }
+
+  /**
+   * <p>Log a warning for slow calls, no more than once in the given interval.
+   *
+   * @param logger the logger to warn to, or <code>null</code> to stop warning.
+   * @param minIntervalMillis the minimum interval between warnings in milliseconds.
+   */
+  public void setWarningLog(Logger logger, long minIntervalMillis)
+  {
+    if(minIntervalMillis < 0) throw new IllegalArgumentException();
+    this.warningIntervalNanos = minIntervalMillis * 1_000_000L;
+    this.warningLogger = logger;
+  }
+
+  /**
+   * <p>Return the number of slow calls recorded.
+   *
+   * @return the slow call count.
+   */
+  public long getSlowCallCount()
+  {
+    return slowCallCount.get();
+  }
+
+  /**
+   * <p>Return the most recent slow calls, oldest first.  Calls recorded while this method runs may or may not be included.
+   *
+   * @return the recent slow calls.
+   */
+  public SlowCall[] getRecentSlowCalls()
+  {
+    long count = slowCallCount.get();
+    int n = (int) Math.min(count, ring.length());
+    SlowCall[] calls = new SlowCall[n];
+    for(int i = 0; i < n; i++)
+    {
+      calls[i] = ring.get((int) ((count - n + i) % ring.length()));
+    }
+    return calls;
+  }
+
+  /**
+   * <p>Called before a listener callback.
+   *
+   * @return the start time, or 0 if the detector is disabled.
+   */
+  long start()
+  {
+    return (thresholdNanos > 0) ? System.nanoTime() : 0;
+  }
+
+  /**
+   * <p>Called after a listener callback.  Records the call if it was slow.
+   *
+   * @param startTime the value returned by {@link #start()}.
+   * @param type the callback type.
+   * @param listener the listener called.
+   * @param channel the channel, or a description of it.
+   */
+  void end(long startTime, CallbackType type, Object listener, Object channel)
+  {
+    long duration = slowDuration(startTime);
+    if(duration > 0)
+    {
+      record(new SlowCall(type, className(listener), String.valueOf(channel), duration, System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long startWakeup()
+  {
+    return start();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void endWakeup(long startTime, WakeupCallback callback, int parameter)
+  {
+    //The channel description is only built for a slow call.
+    long duration = slowDuration(startTime);
+    if(duration > 0)
+    {
+      record(new SlowCall(CallbackType.WAKEUP, className(callback), "wakeup parameter " + parameter, duration, System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * <p>Return the time a callback took if it was slow.
+   *
+   * @param startTime the value returned by {@link #start()}.
+   * @return the duration in nanoseconds, or 0 if the detector was disabled at the start of the call or the call was not slow.
+   */
+  private long slowDuration(long startTime)
+  {
+    if(startTime == 0) return 0;
+
+    long duration = System.nanoTime() - startTime;
+    long threshold = thresholdNanos;
+    return (threshold > 0 && duration > threshold) ? duration : 0;
+  }
+
+  /**
+   * <p>Return the class name of a listener, or an empty string for none.
+   */
+  private static String className(Object listener)
+  {
+    return (listener == null) ? "" : listener.getClass().getName();
+  }
+
+  /**
+   * <p>Record a slow call and warn about it if a warning is due.
+   */
+  private void record(SlowCall call)
+  {
+    long count = slowCallCount.get();
+    ring.set((int) (count % ring.length()), call);
+    slowCallCount.set(count + 1);
+
+    Logger logger = warningLogger;
+    if(logger != null)
+    {
+      long now = System.nanoTime();
+      if(!warned || now - lastWarning >= warningIntervalNanos)
+      {
+        logger.warn("Slow " + call + " held up the communication loop" + ((suppressedWarnings > 0) ? " (" + suppressedWarnings + " more slow calls since the last warning)." : "."));
+        warned = true;
+        lastWarning = now;
+        suppressedWarnings = 0;
+      }
+      else
+      {
+        suppressedWarnings++;
+      }
+    }
+  }
+
+  /**
+   * <p>A slow listener callback.
+   *
+   * @author jdf19
+   *
+   */
+  public static final class SlowCall
+  {
+    private final CallbackType type;
+
+    private final String listenerClass;
+
+    private final String channel;
+
+    private final long nanos;
+
+    private final long timeMillis;
+
+    SlowCall(CallbackType type, String listenerClass, String channel, long nanos, long timeMillis)
+    {
+      this.type = type;
+      this.listenerClass = listenerClass;
+      this.channel = channel;
+      this.nanos = nanos;
+      this.timeMillis = timeMillis;
+    }
+
+    /**
+     * <p>Return the callback which was slow.
+     *
+     * @return the callback type.
+     */
+    public CallbackType getType()
+    {
+      return type;
+    }
+
+    /**
+     * <p>Return the class name of the listener called.
+     *
+     * @return the listener class name.
+     */
+    public String getListenerClass()
+    {
+      return listenerClass;
+    }
+
+    /**
+     * <p>Return a description of the channel.
+     *
+     * @return the channel description.
+     */
+    public String getChannel()
+    {
+      return channel;
+    }
+
+    /**
+     * <p>Return the time the callback took.
+     *
+     * @return the duration in nanoseconds.
+     */
+    public long getNanos()
+    {
+      return nanos;
+    }
+
+    /**
+     * <p>Return the wall clock time at which the slow call finished.
+     *
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getTimeMillis()
+    {
+      return timeMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+      return type + " callback " + listenerClass + " on " + channel + " took " + (nanos / 1000) + "us";
+    }
+  }
+}
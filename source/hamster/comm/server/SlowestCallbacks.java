@@ -0,0 +1,148 @@
+package hamster.comm.server;
+
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+
+/**
+ * <p>Keeps the slowest ready key dispatches since it was last drained.  A fixed number are kept in preallocated arrays, so recording
+ * allocates nothing and a dispatch faster than the slowest ones kept costs a single comparison.  Dispatches of keys which have
+ * been cancelled are dropped by {@link #dropCancelled()}.
+ * <p>This class is used by the communication loop thread only.
+ *
+ * @author jdf19
+ *
+ */
+final class SlowestCallbacks
+{
+  /**
+   * <p>The number of dispatches kept.
+   */
+  static final int CAPACITY = 8;
+
+  /**
+   * <p>Selection keys of the dispatches kept.
+   */
+  private final SelectionKey[] keys = new SelectionKey[CAPACITY];
+
+  /**
+   * <p>Key attachments at the time of the dispatches kept.
+   */
+  private final Object[] attachments = new Object[CAPACITY];
+
+  /**
+   * <p>Durations of the dispatches kept, in nanoseconds.
+   */
+  private final long[] nanos = new long[CAPACITY];
+
+  /**
+   * <p>Number of dispatches kept.
+   */
+  private int count = 0;
+
+  /**
+   * <p>Index of the fastest dispatch kept, which is the one replaced next.
+   */
+  private int fastestIndex = 0;
+
+  /**
+   * <p>Record the dispatch of a ready key.
+   *
+   * @param key the selection key.
+   * @param duration the duration of the dispatch in nanoseconds.
+   */
+  void record(SelectionKey key, long duration)
+  {
+    int index;
+    if(count < CAPACITY)
+    {
+      index = count++;
+    }
+    else if(duration > nanos[fastestIndex])
+    {
+      index = fastestIndex;
+    }
+    else
+    {
+      return;
+    }
+
+    keys[index] = key;
+    attachments[index] = key.attachment();
+    nanos[index] = duration;
+
+    //Find the new fastest dispatch.
+    if(count == CAPACITY)
+    {
+      fastestIndex = 0;
+      for(int i = 1; i < CAPACITY; i++)
+      {
+        if(nanos[i] < nanos[fastestIndex]) fastestIndex = i;
+      }
+    }
+  }
+
+  /**
+   * <p>Drop the dispatches kept for keys which have since been cancelled, so that closed channels and their listeners are not held on
+   * to.
+   */
+  void dropCancelled()
+  {
+    int kept = 0;
+    for(int i = 0; i < count; i++)
+    {
+      if(keys[i].isValid())
+      {
+        keys[kept] = keys[i];
+        attachments[kept] = attachments[i];
+        nanos[kept] = nanos[i];
+        kept++;
+      }
+    }
+    if(kept < count)
+    {
+      Arrays.fill(keys, kept, count, null);
+      Arrays.fill(attachments, kept, count, null);
+      count = kept;
+      fastestIndex = 0;
+      for(int i = 1; i < count; i++)
+      {
+        if(nanos[i] < nanos[fastestIndex]) fastestIndex = i;
+      }
+    }
+  }
+
+  /**
+   * <p>Drop all of the dispatches kept.
+   */
+  void clear()
+  {
+    if(count > 0)
+    {
+      Arrays.fill(keys, null);
+      Arrays.fill(attachments, null);
+      count = 0;
+      fastestIndex = 0;
+    }
+  }
+
+  /**
+   * <p>Describe the dispatches kept, slowest first, and start again.
+   *
+   * @return the slowest dispatches.
+   */
+  LoopSnapshot.SlowCallback[] drain()
+  {
+    LoopSnapshot.SlowCallback[] slowest = new LoopSnapshot.SlowCallback[count];
+    for(int i = 0; i < count; i++)
+    {
+      Object attachment = attachments[i];
+      Object listener = (attachment instanceof ListenerAttachment) ? ((ListenerAttachment) attachment).getListener() : attachment;
+      slowest[i] = new LoopSnapshot.SlowCallback((listener == null) ? "" : listener.getClass().getName(), keys[i].channel().toString(), nanos[i]);
+    }
+    Arrays.sort(slowest, (a, b) -> Long.compare(b.getNanos(), a.getNanos()));
+
+    //Don't hold on to closed channels.
+    clear();
+    return slowest;
+  }
+}
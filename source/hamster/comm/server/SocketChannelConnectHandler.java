@@ -9,8 +9,9 @@ import org.slf4j.Logger;
 import hamster.comm.communication.ChannelCreateException;
 import hamster.comm.itf.listener.ClientSocketChannelListener;
 import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.metrics.ChannelMetrics;
 
-class SocketChannelConnectHandler 
+class SocketChannelConnectHandler implements ListenerAttachment
 {  
   private final ClientSocketChannelListener channelListener;
 
@@ -20,12 +21,21 @@ class SocketChannelConnectHandler
   
   private final SocketChannel sc;
 
+  private final LoopEndNotifier loopEndNotifier;
+
+  private final ChannelMetrics channelTotals;
+
+  private final SlowCallbackDetector slowCallbackDetector;
+
 //  private boolean channelClosed = false;
   
-  SocketChannelConnectHandler(SelectionKey registeredKey, SocketChannel sc, ClientSocketChannelListener channelListener, Logger logger)
+  SocketChannelConnectHandler(SelectionKey registeredKey, SocketChannel sc, ClientSocketChannelListener channelListener, LoopEndNotifier loopEndNotifier, ChannelMetrics channelTotals, SlowCallbackDetector slowCallbackDetector, Logger logger)
   {
     this.registeredKey = registeredKey;
     this.sc = sc;
+    this.loopEndNotifier = loopEndNotifier;
+    this.channelTotals = channelTotals;
+    this.slowCallbackDetector = slowCallbackDetector;
     
     //this.bufferCreator = bufferCreator;
     
@@ -49,12 +59,17 @@ class SocketChannelConnectHandler
       registeredKey.interestOps(SelectionKey.OP_READ);
       
       //Create a selection key attachment handler for the new channel.
+      long start = slowCallbackDetector.start();
       SocketChannelListener handleIncomingConnection = channelListener.handleConnectionSuccess(sc.getRemoteAddress());
-      SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(registeredKey, sc, handleIncomingConnection, logger);
+      slowCallbackDetector.end(start, SlowCallbackDetector.CallbackType.CONNECT, channelListener, sc);
+      SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(registeredKey, sc, handleIncomingConnection, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
       
       //This connection object is finished.  Replace the attachment in the selection key with the read/write handler.
       registeredKey.attach(srwch);
       
+      //Notify the owner at the end of the loop that the channel is registered in.
+      loopEndNotifier.requestLoopEnd(srwch);
+      
       //Finished connecting.  Initialise the controller.
       handleIncomingConnection.initController(srwch);
       
@@ -69,5 +84,13 @@ class SocketChannelConnectHandler
       channelListener.handleConnectionFailure(e.getMessage());
     }
   }
-  
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getListener()
+  {
+    return channelListener;
+  }
 }
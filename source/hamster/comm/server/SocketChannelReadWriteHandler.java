@@ -5,16 +5,23 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 
 import hamster.comm.KeyHelper;
+import hamster.comm.buffer.BaseBuffer;
+import hamster.comm.buffer.ChannelBufferGatherer;
+import hamster.comm.buffer.ChannelBufferScatterer;
 import hamster.comm.buffer.DrainableChannelBuffer;
 import hamster.comm.buffer.FillableChannelBuffer;
 import hamster.comm.communication.sockopts.SocketChannelOptionAccessor;
 import hamster.comm.itf.controller.BaseChannelOptionController;
 import hamster.comm.itf.controller.SocketChannelController;
 import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.metrics.ChannelMetrics;
+import hamster.comm.server.LoopEndNotifier.LoopEndParticipant;
 import hamster.comm.server.listener.ReadTargetListener;
 import hamster.comm.server.listener.ReadTransferHandler;
 import hamster.comm.server.listener.WriteChannelHandler;
@@ -45,10 +52,17 @@ import hamster.comm.server.listener.WriteChannelHandler;
  * incoming channel data to be read without exposing the selector or channel
  * mechanism.
  * 
+ * <p>
+ * The listener's {@link SocketChannelListener#handleServerLoopEnd()} method is
+ * called at the end of any loop iteration in which there has been activity on
+ * the channel, or in which the controller was nudged.  The owner can ask for it
+ * to be called at the end of every loop iteration with
+ * {@link #activateCommLoopEndNotification(boolean)}.
+ * 
  * @author jdf19
  *
  */
-class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelHandler, SocketChannelController, BaseChannelOptionController
+class SocketChannelReadWriteHandler implements ReadTargetListener, LoopEndParticipant, SocketChannelController, BaseChannelOptionController, ListenerAttachment
 {
   /**
    * Allow the communication thread selector to be nudged awake.
@@ -99,12 +113,52 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
    */
   //private boolean isReadable = true;
   
+  /**
+   * <p>Drains several outgoing buffers with a single gathering write.
+   */
+  private final ChannelBufferGatherer gatherer = new ChannelBufferGatherer();
+  
+  /**
+   * <p>Fills several incoming buffers with a single scattering read.
+   */
+  private final ChannelBufferScatterer scatterer = new ChannelBufferScatterer();
+  
+  /**
+   * <p>Buffers to release when the channel shuts down.  Created when first needed.
+   */
+  private List<BaseBuffer> shutdownReleaseBuffers;
+  
   /**
    * Descriptor for logging. Useful to identify the channel's operations in the
    * log.
    */
   private final String desc;
   
+  /**
+   * <p>The loop end notifier of the communication loop that the channel is registered with.
+   */
+  private final LoopEndNotifier loopEndNotifier;
+  
+  /**
+   * <p>True if a loop end notification has been requested for the current loop iteration.
+   */
+  private boolean loopEndPending;
+  
+  /**
+   * <p>Traffic counters for this channel.  Updates are also made to the totals of the communication loop.
+   */
+  private final ChannelMetrics metrics;
+  
+  /**
+   * <p>Times the listener callbacks.
+   */
+  private final SlowCallbackDetector slowCallbackDetector;
+  
+  /**
+   * <p>True if the OP_WRITE interest is set on the selection key.
+   */
+  private boolean writeInterest;
+  
   /**
    * <p>
    * Construct an instance of {@link SocketChannelReadWriteHandler}.
@@ -113,9 +167,15 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
    * @param channel         the channel for reading and writing data.
    * @param channelListener the listener which provides user callbacks for
    *                        handling channel events.
+   * @param loopEndNotifier the loop end notifier of the communication loop
+   *                        that the channel is registered with.
+   * @param channelTotals   the traffic totals of the communication loop that
+   *                        the channel is registered with.
+   * @param slowCallbackDetector the slow callback detector of the communication
+   *                        loop that the channel is registered with.
    * @param logger          the logger to use.
    */
-  SocketChannelReadWriteHandler(SelectionKey selKey, SocketChannel channel, SocketChannelListener channelListener, Logger logger)
+  SocketChannelReadWriteHandler(SelectionKey selKey, SocketChannel channel, SocketChannelListener channelListener, LoopEndNotifier loopEndNotifier, ChannelMetrics channelTotals, SlowCallbackDetector slowCallbackDetector, Logger logger)
   {
     this.selKey = selKey;
     
@@ -123,6 +183,12 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
     
     this.channelListener = channelListener;
     
+    this.loopEndNotifier = loopEndNotifier;
+    
+    this.metrics = new ChannelMetrics(channelTotals);
+    
+    this.slowCallbackDetector = slowCallbackDetector;
+    
     this.desc = channel.toString();
   }
   
@@ -132,7 +198,12 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
   @Override
   public void handleChannelWriteableEvent()
   {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
+    long start = slowCallbackDetector.start();
     channelListener.handleChannelWriteContinue();
+    slowCallbackDetector.end(start, SlowCallbackDetector.CallbackType.WRITE_CONTINUE, channelListener, desc);
   }
   
   /**
@@ -162,8 +233,13 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
     //Set the drain op required flag.
     drainOpRequired = true;
     
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
     // Call the channel listener to handle the read.
+    long start = slowCallbackDetector.start();
     channelListener.handleDataRead();
+    slowCallbackDetector.end(start, SlowCallbackDetector.CallbackType.DATA_READ, channelListener, desc);
 
     //If drain op required not cleared then put channel into pause mode.  If the channel has closed then
     //the drainOpRequired flag will not have been reset so don't set the read mode to pause in this case.
@@ -210,8 +286,14 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
     // Make sure the registered key is cancelled.
     selKey.cancel();
     
+    // No more loop end notifications.
+    loopEndNotifier.updateSubscription(this, false);
+    
     // Tell the channel owner that the channel has finished.
     channelListener.hasShut();
+    
+    // Release the owner's buffers.
+    releaseShutdownBuffers();
   }
     
   private void setToReadPauseMode()
@@ -223,12 +305,28 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
     // interest until data have been consumed.
     // Clear OP_READ.
     KeyHelper.clearReadability(selKey);
+    metrics.readPaused();
     
     // Call the channel listener's readStop() method. The owner is responsible for
     // reading data from the channel to restart read events.
     channelListener.handleReadStop();
   }
   
+  /**
+   * <p>Set or clear the OP_WRITE interest on the channel, counting the changes.
+   * 
+   * @param outstanding true if there are outgoing data still to be written.
+   */
+  private void updateWriteInterest(boolean outstanding)
+  {
+    if(outstanding != writeInterest)
+    {
+      writeInterest = outstanding;
+      metrics.writeInterestToggled();
+    }
+    KeyHelper.updateWriteability(selKey, outstanding);
+  }
+  
   /**
    * <p>Set the OP_READ interest on the channel.
    */
@@ -296,6 +394,40 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
     return i;
   }
   
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void releaseOnShutdown(BaseBuffer... buffers)
+  {
+    if(shutdownReleaseBuffers == null)
+    {
+      shutdownReleaseBuffers = new ArrayList<>();
+    }
+    for (BaseBuffer buffer : buffers)
+    {
+      shutdownReleaseBuffers.add(buffer);
+    }
+  }
+  
+  /**
+   * <p>Release the buffers registered with {@link #releaseOnShutdown(BaseBuffer...)}.  Each buffer is released once only.
+   */
+  private void releaseShutdownBuffers()
+  {
+    if(shutdownReleaseBuffers != null)
+    {
+      for (BaseBuffer buffer : shutdownReleaseBuffers)
+      {
+        if(!buffer.isReleased())
+        {
+          buffer.release();
+        }
+      }
+      shutdownReleaseBuffers = null;
+    }
+  }
+  
   /**
    * Descriptive string for this attachment key target instance.
    */
@@ -350,13 +482,18 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
   @Override
   public int writeOutgoingData(DrainableChannelBuffer writer)
   {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
     try
     {
       // Take in the data from the channel.
       int i = writer.drainBufferToChannel(channel);
       
+      if(i > 0) metrics.addBytesWritten(i);
+      
       // Check for outstanding data. If so, turn ON channel writable notifications.
-      KeyHelper.updateWriteability(selKey, writer.hasDataToConsume());
+      updateWriteInterest(writer.hasDataToConsume());
       
       return i;
     }
@@ -372,13 +509,49 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
   @Override
   public int writeOutgoingData(DrainableChannelBuffer writer, int maxBytesToSend)
   {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
     try
     {
       // Take in the data from the channel.
       int i = writer.drainBufferToChannel(channel, maxBytesToSend);
       
+      if(i > 0) metrics.addBytesWritten(i);
+      
       // Check for outstanding data. If so, turn ON channel writable notifications.
-      KeyHelper.updateWriteability(selKey, writer.hasDataToConsume());
+      updateWriteInterest(writer.hasDataToConsume());
+      
+      return i;
+    }
+    catch (IOException e)
+    {
+      return handleWriteIOException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long writeOutgoingData(DrainableChannelBuffer... writers)
+  {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
+    try
+    {
+      // Drain the buffers in one gathering write.
+      long i = gatherer.drainBuffersToChannel(channel, writers);
+      
+      // Check for outstanding data. If so, turn ON channel writable notifications.
+      boolean outstanding = false;
+      for (DrainableChannelBuffer writer : writers)
+      {
+        outstanding |= writer.hasDataToConsume();
+      }
+      if(i > 0) metrics.addBytesWritten(i);
+      updateWriteInterest(outstanding);
       
       return i;
     }
@@ -397,6 +570,9 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
     // Cancel the selection key which removes the selection key from the selector.
     selKey.cancel();
     
+    // No more loop end notifications.
+    loopEndNotifier.updateSubscription(this, false);
+    
     // Return the channel object.
     return channel;
   }
@@ -407,19 +583,66 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
   @Override
   public void nudge()
   {
+    // The owner will be notified at the end of the woken loop.
+    loopEndNotifier.requestLoopEndFromAnyThread(this);
+    
     selKey.selector().wakeup();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public ChannelMetrics getChannelMetrics()
+  {
+    return metrics;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void activateCommLoopEndNotification(boolean notify)
+  {
+    loopEndNotifier.updateSubscription(this, notify);
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public void doLoopEnd()
   {
-    // if(isLoopEndNotifyEnabled)
-    {
-      this.channelListener.handleServerLoopEnd();
-    }
+    long start = slowCallbackDetector.start();
+    this.channelListener.handleServerLoopEnd();
+    slowCallbackDetector.end(start, SlowCallbackDetector.CallbackType.LOOP_END, channelListener, desc);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isLoopEndPending()
+  {
+    return loopEndPending;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void setLoopEndPending(boolean pending)
+  {
+    loopEndPending = pending;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isLoopEndActive()
+  {
+    return selKey.isValid();
   }
   
   /**
@@ -460,6 +683,9 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
   @Override
   public int fillBufferFromChannel(FillableChannelBuffer targetBuffer)
   {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
     try
     {
       //Fill the buffer from the incoming channel buffer.
@@ -473,6 +699,7 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
       {
         //Reset drain op required.
         drainOpRequired = false;
+        metrics.addBytesRead(res);
         
         //Set channel to readable.
         readRestart();
@@ -493,6 +720,9 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
   @Override
   public int fillBufferFromChannel(FillableChannelBuffer targetBuffer, int maxBytesToFill)
   {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
     try
     {
       //Fill the buffer from the incoming channel buffer.
@@ -506,6 +736,87 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
       {
         //Reset drain op required.
         drainOpRequired = false;
+        metrics.addBytesRead(res);
+        
+        //Set channel to readable.
+        readRestart();
+      }
+      
+      //Return the number of bytes resulting from the fill operation.
+      return res;
+    }
+    catch(IOException e)
+    {
+      return handleReadIOException(e);      
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long fillBufferFromChannel(FillableChannelBuffer... targetBuffers)
+  {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
+    try
+    {
+      //Fill the buffers from the incoming channel buffer.
+      long res = scatterer.fillBuffersFromChannel(channel, targetBuffers);
+
+      //Handle the read data.
+      if(res < 0)
+      {
+        res = handleReadData(-1);
+      }
+
+      //We have read some data into the target buffers.  Set OP_READ.
+      if(res > 0)
+      {
+        //Reset drain op required.
+        drainOpRequired = false;
+        metrics.addBytesRead(res);
+        
+        //Set channel to readable.
+        readRestart();
+      }
+      
+      //Return the number of bytes resulting from the fill operation.
+      return res;
+    }
+    catch(IOException e)
+    {
+      return handleReadIOException(e);      
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long fillBufferFromChannel(FillableChannelBuffer[] targetBuffers, int[] maxBytesToFill)
+  {
+    //Channel activity - notify at loop end.
+    loopEndNotifier.requestLoopEnd(this);
+    
+    try
+    {
+      //Fill the buffers from the incoming channel buffer.
+      long res = scatterer.fillBuffersFromChannel(channel, targetBuffers, maxBytesToFill);
+
+      //Handle the read data.
+      if(res < 0)
+      {
+        res = handleReadData(-1);
+      }
+
+      //We have read some data into the target buffers.  Set OP_READ.
+      if(res > 0)
+      {
+        //Reset drain op required.
+        drainOpRequired = false;
+        metrics.addBytesRead(res);
         
         //Set channel to readable.
         readRestart();
@@ -529,4 +840,13 @@ class SocketChannelReadWriteHandler implements ReadTargetListener, WriteChannelH
     // TODO Auto-generated method stub
     
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getListener()
+  {
+    return channelListener;
+  }
 }
@@ -0,0 +1,74 @@
+package hamster.comm.server;
+
+/**
+ * <p>Idle strategy which busy-spins for a number of idle loop iterations and then yields the processor on every further idle
+ * iteration.  The communication loop never sleeps in the selector, but other threads can run when it has been idle for a while.
+ * Any loop iteration with a ready channel resets the strategy to spinning.
+ * 
+ * @author jdf19
+ *
+ */
+public class SpinYieldLoopInteractor implements CommLoopInteractor
+{
+  /**
+   * <p>Number of consecutive idle iterations to spin for before yielding.
+   */
+  private final int maxSpins;
+  
+  /**
+   * <p>Number of consecutive idle iterations so far.
+   */
+  private int idleCount = 0;
+  
+  /**
+   * <p>Create the strategy.
+   * 
+   * @param maxSpins the number of consecutive idle iterations to spin for before yielding.
+   */
+  public SpinYieldLoopInteractor(int maxSpins)
+  {
+    if(maxSpins < 0) throw new IllegalArgumentException();
+    this.maxSpins = maxSpins;
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean shouldWaitForNetworkEvent()
+  {
+    if(idleCount > maxSpins)
+    {
+      Thread.yield();
+    }
+    else if(idleCount > 0)
+    {
+      Thread.onSpinWait();
+    }
+    return false;
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleSelectResult(int readyKeys)
+  {
+    if(readyKeys > 0)
+    {
+      idleCount = 0;
+    }
+    else if(idleCount <= maxSpins)
+    {
+      idleCount++;
+    }
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void handleLoopStart()
+  {
+  }
+}
@@ -12,7 +12,7 @@ import hamster.comm.KeyHelper;
 import hamster.comm.itf.controller.ServerSocketChannelController;
 import hamster.comm.itf.listener.UninitialisedServerSocketChannelListener;
 
-class UninitialisedServerSocketChannelAcceptHandler implements ServerSocketChannelController
+class UninitialisedServerSocketChannelAcceptHandler implements ServerSocketChannelController, ListenerAttachment
 {
   private final UninitialisedServerSocketChannelListener channelListener;
 
@@ -22,11 +22,14 @@ class UninitialisedServerSocketChannelAcceptHandler implements ServerSocketChann
 
   private final SocketAddress localAddress;
 
-  UninitialisedServerSocketChannelAcceptHandler(SocketAddress localAddress, SelectionKey registeredKey, UninitialisedServerSocketChannelListener channelListener, Logger logger)
+  private final SlowCallbackDetector slowCallbackDetector;
+
+  UninitialisedServerSocketChannelAcceptHandler(SocketAddress localAddress, SelectionKey registeredKey, UninitialisedServerSocketChannelListener channelListener, SlowCallbackDetector slowCallbackDetector, Logger logger)
   {
     this.localAddress = localAddress;
     this.registeredKey = registeredKey;
     this.channelListener = channelListener;
+    this.slowCallbackDetector = slowCallbackDetector;
     this.logger = logger;
   }
 
@@ -59,7 +62,9 @@ class UninitialisedServerSocketChannelAcceptHandler implements ServerSocketChann
       acceptedChannelKey = sc.register(registeredKey.selector(), SelectionKey.OP_READ);
 
       // Create a selection key attachment handler for the new channel.
+      long start = slowCallbackDetector.start();
       channelListener.handleIncomingConnection(sc, sc.getRemoteAddress());
+      slowCallbackDetector.end(start, SlowCallbackDetector.CallbackType.ACCEPT, channelListener, sc);
     }
     catch (IOException e)
     {
@@ -148,4 +153,13 @@ class UninitialisedServerSocketChannelAcceptHandler implements ServerSocketChann
     // Set OP_ACCEPT.
     KeyHelper.setAcceptability(registeredKey);
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Object getListener()
+  {
+    return channelListener;
+  }
 }
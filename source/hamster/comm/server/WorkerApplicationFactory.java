@@ -0,0 +1,23 @@
+package hamster.comm.server;
+
+/**
+ * <p>Supplies the communication application for each worker loop of a {@link MultiReactorCommunicationApplicationServer}.  Each worker
+ * loop calls its application's {@link NonBlockingCommunicationApplicationImpl#registerAppController(hamster.comm.server.listener.CommunicationApplicationController)}
+ * method from inside the worker thread, so the application has full access to the worker loop's scheduler, interactor and channel
+ * creation services.
+ * <p>The worker application <b>must</b> close its communication loop when its {@link NonBlockingCommunicationApplicationImpl#externalShutdownCommand()}
+ * method is called.
+ * 
+ * @author jdf19
+ *
+ */
+public interface WorkerApplicationFactory
+{
+  /**
+   * <p>Create the communication application for the worker loop with the given index.
+   * 
+   * @param workerIndex the index of the worker loop, from 0 to the number of worker loops - 1.
+   * @return the communication application for the worker loop.
+   */
+  public NonBlockingCommunicationApplicationImpl createWorkerApplication(int workerIndex);
+}
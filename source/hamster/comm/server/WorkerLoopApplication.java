@@ -0,0 +1,30 @@
+package hamster.comm.server;
+
+import hamster.comm.server.listener.CommunicationApplicationController;
+
+/**
+ * <p>Default worker loop application.  It does nothing other than close the worker communication loop when an external shutdown
+ * command is received.
+ * 
+ * @author jdf19
+ *
+ */
+class WorkerLoopApplication implements NonBlockingCommunicationApplicationImpl
+{
+  /**
+   * <p>The worker loop controller.
+   */
+  private CommunicationApplicationController controller;
+  
+  @Override
+  public void registerAppController(CommunicationApplicationController controller)
+  {
+    this.controller = controller;
+  }
+
+  @Override
+  public void externalShutdownCommand()
+  {
+    controller.getCommLoopCloser().closeCommLoop();
+  }
+}
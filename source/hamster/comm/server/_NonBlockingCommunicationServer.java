@@ -20,6 +20,7 @@ import hamster.comm.itf.listener.DatagramChannelListener;
 import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
 import hamster.comm.itf.listener.SocketChannelListener;
 import hamster.comm.itf.listener.UninitialisedServerSocketChannelListener;
+import hamster.comm.metrics.ChannelMetrics;
 import hamster.comm.server.exception.ChannelRegistrationException;
 import hamster.comm.server.listener.MainCommunicationController;
 import hamster.comm.server.listener.ReadTargetListener;
@@ -38,6 +39,7 @@ import hamster.comm.wakeupschedule.SyncWakeupScheduler;
  * @author jdf19
   @deprecated
  */
+@Deprecated
 final class _NonBlockingCommunicationServer implements Runnable, MainCommunicationController, ResendCommunicationController, CommLoopCloseProvider, CommLoopNudgeRequester
 {
   /////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -83,6 +85,21 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
    * this dummy instance and ignored.
    */
   private CommLoopInteractor commLoopInteractor = new DummyInteractor();
+
+  /**
+   * <p>Keeps track of the channel handlers which need to be notified at the end of the current loop iteration.
+   */
+  private final LoopEndNotifier loopEndNotifier = new LoopEndNotifier();
+
+  /**
+   * <p>Traffic totals for all of the socket channels in this loop.
+   */
+  private final ChannelMetrics channelTotals = new ChannelMetrics(null);
+
+  /**
+   * <p>Slow listener callback detector.  Never enabled for this loop.
+   */
+  private final SlowCallbackDetector slowCallbackDetector = new SlowCallbackDetector(1);
   
   /**
    * <p>
@@ -116,6 +133,7 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
    * @param selector the selector to use.
    * @param logger the logger to log communication events to.
    */
+  @Deprecated
   public _NonBlockingCommunicationServer(Selector selector, Logger logger)
   {
     // Open the selector for non-blocking communications.
@@ -205,6 +223,7 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
       }
       
       // Tell the interactor to handle loop start.
+      commLoopInteractor.handleSelectResult(readyKeys);
       commLoopInteractor.handleLoopStart();
       
       // Retrieve the selected key set.
@@ -300,23 +319,13 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
   }
   
   /**
-   * Scan the selector selection key attachments for outgoing channel handlers. If
-   * any of these handlers has a buffer with outgoing data, then set the writable
-   * operation on that handler.
+   * Notify the outgoing channel handlers which have had activity during this loop
+   * iteration (or which have subscribed to every loop end) so that they can write
+   * any collected buffer data.  Idle channels are not visited.
    */
   private void setWritableChannels()
   {
-    // All selector keys. If the attachment supports the OutgoingChannelHandler
-    // interface, then tell it to set
-    // its OP_WRITE interest if there are outgoing data to send.
-    for (SelectionKey key : selector.keys())
-    {
-      // Set writable operation if the attachment supports this operation.
-      if (key.isValid() && (key.attachment() instanceof WriteChannelHandler))
-      {
-        ((WriteChannelHandler) key.attachment()).doLoopEnd();
-      }
-    }
+    loopEndNotifier.notifyLoopEnd();
   }
   
   /**
@@ -437,7 +446,7 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
       sc.connect(address);
       
       //
-      SocketChannelConnectHandler cch = new SocketChannelConnectHandler(sk, sc, connectionListener, logger);
+      SocketChannelConnectHandler cch = new SocketChannelConnectHandler(sk, sc, connectionListener, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
       
       // Attach the connect handler to the selection key.
       sk.attach(cch);
@@ -467,11 +476,14 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
       
       // Create the selection key attachment handler for handling read and write
       // events.
-      SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(sk, openChannel, listener, logger);
+      SocketChannelReadWriteHandler srwch = new SocketChannelReadWriteHandler(sk, openChannel, listener, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
       
       // Attach the connect handler to the selection key.
       sk.attach(srwch);
       
+      //Notify the owner at the end of the loop that the channel is registered in.
+      loopEndNotifier.requestLoopEnd(srwch);
+      
       // Ready to communicate. Call init method of listener.
       listener.initController(srwch);
       
@@ -511,7 +523,7 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
       SelectionKey sk = ssc.register(selector, SelectionKey.OP_ACCEPT);
       
       // Selection key attachment / controller.
-      InitialisedServerSocketChannelAcceptHandler sscah = new InitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, logger);
+      InitialisedServerSocketChannelAcceptHandler sscah = new InitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, loopEndNotifier, channelTotals, slowCallbackDetector, logger);
       
       // Register the handler as the sk attachment.
       sk.attach(sscah);
@@ -559,7 +571,7 @@ final class _NonBlockingCommunicationServer implements Runnable, MainCommunicati
       SelectionKey sk = ssc.register(selector, SelectionKey.OP_ACCEPT);
       
       // Selection key attachment / controller.
-      UninitialisedServerSocketChannelAcceptHandler sscah = new UninitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, logger);
+      UninitialisedServerSocketChannelAcceptHandler sscah = new UninitialisedServerSocketChannelAcceptHandler(ssc.getLocalAddress(), sk, connectionListener, slowCallbackDetector, logger);
       
       // Register the handler as the sk attachment.
       sk.attach(sscah);
@@ -33,4 +33,15 @@ public interface CommunicationApplicationController extends MainCommunicationCon
    * Don't process any more incoming messages on this loop iteration.
    */
   public void skipRemainingIncomingThisLoop();
+  
+  /**
+   * <p>Set the timer spin threshold.  When the next scheduled wakeup is due within this number of nanoseconds, the comm loop
+   * polls for network events with <code>selectNow()</code> instead of sleeping in <code>select(...)</code>, so that wakeups
+   * requested with sub-millisecond delays are serviced close to their due time.  Longer waits sleep until the threshold is
+   * reached and then poll.  Polling keeps the comm loop thread busy, so the threshold should be kept small.
+   * <p>The default is 0, which disables polling: the comm loop sleeps until the next wakeup to millisecond resolution.
+   * 
+   * @param thresholdNanos the spin threshold in nanoseconds, or 0 to disable.
+   */
+  public void setTimerSpinThreshold(long thresholdNanos);
 }
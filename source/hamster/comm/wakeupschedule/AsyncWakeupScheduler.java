@@ -5,8 +5,7 @@
  */
 package hamster.comm.wakeupschedule;
 
-import java.util.ArrayList;
-import java.util.List;
+import hamster.comm.wakeupschedule.WakeupKeyQueue.WakeupKey;
 
 /**
  * <p>
@@ -20,6 +19,10 @@ import java.util.List;
  * If a periodic wakeup signal is required (for example, a wakeup absolutely
  * every 500ms) the consider using the {@link SyncWakeupScheduler} class instead
  * of this class.
+ * <p>
+ * Wakeups are held in an indexed priority queue so that requesting, restating
+ * and cancelling a wakeup does not require a search through all scheduled
+ * wakeups, and servicing only visits the wakeups which are due.
  * 
  * @author jdf19
  */
@@ -27,9 +30,86 @@ public class AsyncWakeupScheduler
 {
   /**
    * <p>
-   * Asynchronous wakeup list. This stores asynchronous wakeup keys.
+   * Asynchronous wakeup queue. This stores asynchronous wakeup keys ordered by
+   * wakeup time.
+   */
+  private final WakeupKeyQueue callbackQueue = new WakeupKeyQueue();
+
+  /**
+   * <p>The clock used to measure wakeup times.
+   */
+  private final SchedulerClock clock;
+
+  /**
+   * <p>The loop time, sampled once per iteration by the owning communication loop.  Wakeups requested during the iteration
+   * are measured from this time rather than reading the clock on every request.
+   */
+  private long loopTime;
+
+  /**
+   * <p>True once the owning communication loop has supplied a loop time.  Until then, wakeup requests read the clock directly.
+   */
+  private boolean loopTimeSampled = false;
+
+  /**
+   * <p>Times the wakeup callbacks, or <code>null</code>.
+   */
+  private WakeupCallbackTimer callbackTimer;
+
+  /**
+   * <p>Create the scheduler with the system monotonic clock.
    */
-  private final List<AsyncWakeupKey> callbackMap = new ArrayList<>();
+  public AsyncWakeupScheduler()
+  {
+    this(SystemSchedulerClock.INSTANCE);
+  }
+
+  /**
+   * <p>Create the scheduler with the given clock.
+   * 
+   * @param clock the clock used to measure wakeup times.
+   */
+  public AsyncWakeupScheduler(SchedulerClock clock)
+  {
+    if (clock == null)
+    {
+      throw new NullPointerException();
+    }
+
+    this.clock = clock;
+  }
+
+  /**
+   * <p>Return the clock used to measure wakeup times.
+   * 
+   * @return the scheduler clock.
+   */
+  public SchedulerClock getClock()
+  {
+    return clock;
+  }
+
+  /**
+   * <p>Set the loop time.  The owning communication loop samples its clock once per iteration and passes the time in here, so
+   * that wakeups requested during the iteration are measured from the same point without further clock reads.
+   * 
+   * @param nanoTime the loop time in scheduler clock nanoseconds.
+   */
+  public void setLoopTime(long nanoTime)
+  {
+    this.loopTime = nanoTime;
+    this.loopTimeSampled = true;
+  }
+
+  /**
+   * <p>Return the time to measure wakeup requests from: the loop time if one has been supplied, otherwise the clock time.
+   * 
+   * @return the current time in scheduler clock nanoseconds.
+   */
+  protected long currentNanoTime()
+  {
+    return loopTimeSampled ? loopTime : clock.nanoTime();
+  }
 
   /**
    * Request a wakeup call at a specified time in the future.
@@ -57,6 +137,30 @@ public class AsyncWakeupScheduler
     restateWakeup(parameter, callerID, nextPollTimeMs, callbackObject);
   }
 
+  /**
+   * Request a wakeup call at a specified time in the future, with nanosecond
+   * resolution.  The callback is serviced on the first service call at or after
+   * the requested time, so the achieved resolution depends on how often the
+   * owning communication loop services the scheduler.
+   * 
+   * @param parameter         the user-specified value to return to the requester
+   *                          in its WakeupCallback object.
+   * @param callerID          The caller ID associated with the wakeup call
+   * @param nextPollTimeNanos The number of nanoseconds in the future to execute the callback
+   * @param callbackObject    The object to call back with the given parameter at
+   *                          the requested wakeup time.
+   */
+  public void requestWakeupCallNanos(int parameter, int callerID, long nextPollTimeNanos, WakeupCallback callbackObject)
+  {
+    if (callbackObject == null)
+    {
+      throw new NullPointerException();
+    }
+
+    // Insert.
+    restateWakeupNanos(parameter, callerID, nextPollTimeNanos, callbackObject);
+  }
+
   /**
    * Restate the wakeup call if it has been set for the given parameter and
    * callerID combination. This will reinsert the existing wakeup request at a new
@@ -75,27 +179,42 @@ public class AsyncWakeupScheduler
    */
   protected void restateWakeup(int parameter, int callerID, int nextPollTimeMs, WakeupCallback callbackObject)
   {
-    // Calculate the actual system wakeup time.
-    long wakeupSysTime = System.currentTimeMillis() + nextPollTimeMs;
+    restateWakeupNanos(parameter, callerID, nextPollTimeMs * 1_000_000L, callbackObject);
+  }
 
-    // Cycle through the entries. If the parameter and caller id combination is
-    // found then replace it.
-    for (int i = 0; i < callbackMap.size(); i++)
-    {
-      AsyncWakeupKey awk = callbackMap.get(i);
-      if ((awk.callerID == callerID) && (awk.parameter == parameter))
-      {
-        // Update the key.
-        awk.nextWakeup = wakeupSysTime;
-        awk.callback = callbackObject;
+  /**
+   * Restate the wakeup call, with the delay given in nanoseconds.  See
+   * {@link #restateWakeup(int, int, int, WakeupCallback)}.
+   * 
+   * @param parameter         the user-specified value to return to the requester
+   *                          in its WakeupCallback object.
+   * @param callerID          The caller ID associated with the wakeup call
+   * @param nextPollTimeNanos The wakeup time in the future expressed in nanoseconds
+   *                          from the point that this method was called.
+   * @param callbackObject    The object to call back with the given parameter at
+   *                          the requested wakeup time.
+   */
+  protected void restateWakeupNanos(int parameter, int callerID, long nextPollTimeNanos, WakeupCallback callbackObject)
+  {
+    // Calculate the wakeup time on the scheduler clock.
+    long wakeupSysTime = currentNanoTime() + nextPollTimeNanos;
 
-        // Return.
-        return;
-      }
+    // If the parameter and caller id combination is found then update it.
+    WakeupKey awk = callbackQueue.find(callerID, parameter);
+    if (awk != null)
+    {
+      // Update the key.
+      awk.nextWakeup = wakeupSysTime;
+      awk.callback = callbackObject;
+    }
+    else
+    {
+      // Create a wakeup key.
+      awk = new WakeupKey(callbackObject, callerID, parameter, wakeupSysTime, 0);
     }
 
-    // Create a wakeup key.
-    callbackMap.add(new AsyncWakeupKey(callbackObject, callerID, parameter, wakeupSysTime));
+    // Put the key in its place in the queue.
+    callbackQueue.schedule(awk);
   }
 
   /**
@@ -109,20 +228,7 @@ public class AsyncWakeupScheduler
    */
   public void cancelWakeup(int parameter, int callerID)
   {
-    // Cycle through the entries. If the parameter and caller id combination is
-    // found then cancel it.
-    for (int i = 0; i < callbackMap.size(); i++)
-    {
-      AsyncWakeupKey awk = callbackMap.get(i);
-      if ((awk.callerID == callerID) && (awk.parameter == parameter))
-      {
-        // Remove the key.
-        callbackMap.remove(i);
-
-        // Return.
-        return;
-      }
-    }
+    callbackQueue.remove(callerID, parameter);
   }
 
   /**
@@ -132,63 +238,107 @@ public class AsyncWakeupScheduler
    */
   public void cancelWakeup(int callerID)
   {
-    // Cycle through the entries. If the caller id is found then cancel it.
-    for (int i = 0; i < callbackMap.size(); i++)
-    {
-      AsyncWakeupKey awk = callbackMap.get(i);
-      if ((awk.callerID == callerID))
-      {
-        // Remove the key.
-        callbackMap.remove(i);
-      }
-    }
+    callbackQueue.removeAll(callerID);
   }
 
   /**
    * <p>
    * Service all outstanding objects and return the number of milliseconds until
    * the next object(s) are due for servicing.
+   * <p>
+   * Wakeups requested by the callbacks during servicing are not serviced until
+   * the next call.
    * 
    * @return number of milliseconds until next service.
    */
   public long serviceObjects()
   {
-    // Get the next wakeup millisecond delay.
-    long nextWakeup = System.currentTimeMillis();
+    return service(clock.nanoTime());
+  }
+
+  /**
+   * <p>
+   * Service all outstanding objects at the given loop time and return the number
+   * of milliseconds until the next object(s) are due for servicing.  The loop
+   * time is also set as though {@link #setLoopTime(long)} had been called.
+   * 
+   * @param nanoTime the loop time in scheduler clock nanoseconds.
+   * @return number of milliseconds until next service.
+   */
+  public long serviceObjects(long nanoTime)
+  {
+    setLoopTime(nanoTime);
+    return service(nanoTime);
+  }
+
+  /**
+   * <p>Service all outstanding objects due at the given time.
+   */
+  private long service(long currentTime)
+  {
+    // Wakeups scheduled after this point are left for the next service call.
+    long sequenceLimit = callbackQueue.currentSequence();
 
     long lowestNextWakeup = 12000;
 
-    for (int i = 0; i < callbackMap.size(); i++)
+    WakeupKey awk;
+    while ((awk = callbackQueue.peek()) != null)
     {
-      AsyncWakeupKey awk = callbackMap.get(i);
-      long toGo;
-      if ((toGo = awk.msToGo(nextWakeup)) <= 0)
+      long toGo = awk.nanosToGo(currentTime);
+      if (toGo > 0)
       {
-        // Due - service the wakeup.
-        callbackMap.remove(i);
-        awk.callback.wakeup(awk.parameter, awk.nextWakeup);
-
-        // Set the lowest next wakeup to 0. If a wakeup callback has been actioned then
-        // there may be resulting comms requests to process.
-        lowestNextWakeup = 0;
+        // Set the lowest next wakeup.  Nothing else is due.
+        lowestNextWakeup = Math.min(lowestNextWakeup, toMillis(toGo));
+        break;
       }
-      else
+
+      if (awk.sequence() > sequenceLimit)
       {
-        // Set the lowest next wakeup.
-        lowestNextWakeup = Math.min(lowestNextWakeup, toGo);
+        // Due, but scheduled during this service call.  Service on the next loop.
+        lowestNextWakeup = 0;
+        break;
       }
+
+      // Due - service the wakeup.
+      callbackQueue.remove(awk);
+      wakeup(awk);
+
+      // Set the lowest next wakeup to 0. If a wakeup callback has been actioned then
+      // there may be resulting comms requests to process.
+      lowestNextWakeup = 0;
     }
 
     // Return lowest next wakeup.
     return Math.max(0, lowestNextWakeup);
   }
 
+  /**
+   * <p>Return the number of nanoseconds from the given time until the next wakeup is due.  This does not service any wakeups.
+   * 
+   * @param nanoTime the time to measure from in scheduler clock nanoseconds.
+   * @return nanoseconds until the next wakeup, 0 if a wakeup is already due, or {@link Long#MAX_VALUE} if no wakeups are scheduled.
+   */
+  public long nanosToNextWakeup(long nanoTime)
+  {
+    WakeupKey awk = callbackQueue.peek();
+    return (awk == null) ? Long.MAX_VALUE : Math.max(0, awk.nanosToGo(nanoTime));
+  }
+
+  /**
+   * <p>Convert a positive number of nanoseconds to go into milliseconds, rounding up so that the selector does not wake before the
+   * wakeup is due.
+   */
+  private static long toMillis(long nanosToGo)
+  {
+    return (nanosToGo + 999_999L) / 1_000_000L;
+  }
+
   /**
    * Delete all scheduled wakeups.
    */
   public void purge()
   {
-    callbackMap.clear();
+    callbackQueue.clear();
   }
 
   /**
@@ -199,31 +349,43 @@ public class AsyncWakeupScheduler
    */
   public boolean isNoCallsPending()
   {
-    return callbackMap.isEmpty();
+    return callbackQueue.isEmpty();
   }
 
-  private class AsyncWakeupKey
+  /**
+   * <p>Return the number of asynchronous wakeup calls scheduled.
+   * 
+   * @return the number of scheduled callbacks.
+   */
+  public int pendingCallCount()
   {
-    public WakeupCallback callback;
-
-    public final int callerID;
-
-    public final int parameter;
+    return callbackQueue.size();
+  }
 
-    public long nextWakeup;
+  /**
+   * <p>Set a timer to be called around each wakeup callback, or <code>null</code> for none.
+   * 
+   * @param timer the callback timer.
+   */
+  public void setCallbackTimer(WakeupCallbackTimer timer)
+  {
+    callbackTimer = timer;
+  }
 
-    private AsyncWakeupKey(WakeupCallback callback, int callerID, int parameter, long nextWakeup)
+  /**
+   * <p>Call a due wakeup, timing it if there is a callback timer.
+   */
+  private void wakeup(WakeupKey awk)
+  {
+    if(callbackTimer == null)
     {
-      this.callback = callback;
-      this.callerID = callerID;
-      this.parameter = parameter;
-      this.nextWakeup = nextWakeup;
+      awk.callback.wakeup(awk.parameter, awk.nextWakeup / 1_000_000L);
     }
-
-    public long msToGo(long currentTimeMs)
+    else
     {
-      return nextWakeup - currentTimeMs;
+      long start = callbackTimer.startWakeup();
+      awk.callback.wakeup(awk.parameter, awk.nextWakeup / 1_000_000L);
+      callbackTimer.endWakeup(start, awk.callback, awk.parameter);
     }
-
   }
 }
@@ -30,6 +30,18 @@ public interface CallbackScheduler
    */
   public void requestWakeupCall(int callbackParameter, int milliseconds, WakeupCallback callbackObject);
 
+  /**
+   * The interface owner requests that the callback object supplied will be called after the specified number of nanoseconds.
+   * This behaves in the same way as {@link #requestWakeupCall(int, int, WakeupCallback)} and shares its callback parameter
+   * space, so the request can be cancelled with {@link #cancelWakeupCall(int)}.  Sub-millisecond delays are only honoured
+   * if the communication loop is polling often enough; see the timer spin threshold on the communication application controller.
+   * 
+   * @param callbackParameter the parameter to call the callback object with at the requested time in the future
+   * @param nanoseconds the number of nanoseconds in the future to call the callbackObject back
+   * @param callbackObject object to call at the requested time in the future
+   */
+  public void requestWakeupCallNanos(int callbackParameter, long nanoseconds, WakeupCallback callbackObject);
+
   /**
    * Cancel a previously-requested wakeup call.  Useful if a timeout monitor has been set (for example) and the monitored
    * condition occurred before the timeout elapsed.  The monitor can then be cancelled using this method, referencing
@@ -47,6 +59,15 @@ public interface CallbackScheduler
    */
   public void registerSyncWakeup(int callbackParameter, int periodMS, WakeupCallback callbackObject);
   
+  /**
+   * <p>Register for a synchronous wakeup with the period given in nanoseconds.  This behaves in the same way as
+   * {@link #registerSyncWakeup(int, int, WakeupCallback)} and the wakeup is unregistered in the same way.
+   * @param callbackParameter the callback parameter that references the requestWakeupCall(...) method call.
+   * @param periodNanos the nanosecond period that the callback object will be called.
+   * @param callbackObject object to call at the requested time in the future
+   */
+  public void registerSyncWakeupNanos(int callbackParameter, long periodNanos, WakeupCallback callbackObject);
+  
   /**
    * <p>Unregister the synchronous wakeup with the parameter and period combination.
    * 
@@ -0,0 +1,79 @@
+package hamster.comm.wakeupschedule;
+
+/**
+ * <p>Scheduler clock whose time only changes when it is explicitly set or advanced.  This makes scheduler behaviour
+ * deterministic, which is useful for testing code that relies on wakeup callbacks.
+ * <p>This clock is not multithread safe.  It should be used in the same thread as the scheduler it is given to.
+ * 
+ * @author jdf19
+ *
+ */
+public final class ManualSchedulerClock implements SchedulerClock
+{
+  /**
+   * <p>The current clock time in nanoseconds.
+   */
+  private long nanoTime;
+  
+  /**
+   * <p>Create the clock with a time of 0.
+   */
+  public ManualSchedulerClock()
+  {
+    this(0);
+  }
+  
+  /**
+   * <p>Create the clock with the given start time.
+   * 
+   * @param startNanoTime the initial clock time in nanoseconds.
+   */
+  public ManualSchedulerClock(long startNanoTime)
+  {
+    this.nanoTime = startNanoTime;
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long nanoTime()
+  {
+    return nanoTime;
+  }
+  
+  /**
+   * <p>Set the clock time.
+   * 
+   * @param nanoTime the new clock time in nanoseconds.
+   * @return this clock.
+   */
+  public ManualSchedulerClock setNanoTime(long nanoTime)
+  {
+    this.nanoTime = nanoTime;
+    return this;
+  }
+  
+  /**
+   * <p>Advance the clock by the given number of nanoseconds.
+   * 
+   * @param nanos the number of nanoseconds to advance the clock by.
+   * @return this clock.
+   */
+  public ManualSchedulerClock advanceNanos(long nanos)
+  {
+    this.nanoTime += nanos;
+    return this;
+  }
+  
+  /**
+   * <p>Advance the clock by the given number of milliseconds.
+   * 
+   * @param millis the number of milliseconds to advance the clock by.
+   * @return this clock.
+   */
+  public ManualSchedulerClock advanceMillis(long millis)
+  {
+    return advanceNanos(millis * 1_000_000L);
+  }
+}
@@ -1,5 +1,7 @@
 package hamster.comm.wakeupschedule;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * <p>Implementation of a callback scheduler with a unique caller id.  These instances can be created and 
  * given to different callers so that a caller does not need to know its ID when calling through to the
@@ -11,9 +13,10 @@ package hamster.comm.wakeupschedule;
 public class ProcessCallbackScheduler implements CallbackScheduler
 {
   /**
-   * <p>Incrementing count of caller IDs.  The number space means that caller IDs will not be repeated in practice.
+   * <p>Incrementing count of caller IDs.  The number space means that caller IDs will not be repeated in practice.  Schedulers
+   * may be created in several communication loop threads at once so the count is atomic.
    */
-  private static int callerIDs = 0;
+  private static final AtomicInteger callerIDs = new AtomicInteger();
   
   /**
    * The async (one-off) future callback scheduler.
@@ -40,7 +43,7 @@ public class ProcessCallbackScheduler implements CallbackScheduler
   {
     this.asyncScheduler = asyncScheduler;
     this.syncScheduler = syncScheduler;
-    this.callerID = callerIDs++;
+    this.callerID = callerIDs.getAndIncrement();
   }
   
   /**
@@ -52,6 +55,15 @@ public class ProcessCallbackScheduler implements CallbackScheduler
     asyncScheduler.requestWakeupCall(callbackParameter, callerID, milliseconds, callbackObject);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void requestWakeupCallNanos(int callbackParameter, long nanoseconds, WakeupCallback callbackObject)
+  {
+    asyncScheduler.requestWakeupCallNanos(callbackParameter, callerID, nanoseconds, callbackObject);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -70,6 +82,15 @@ public class ProcessCallbackScheduler implements CallbackScheduler
     syncScheduler.requestWakeupCall(callbackParameter, callerID, periodMS, callbackObject);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void registerSyncWakeupNanos(int callbackParameter, long periodNanos, WakeupCallback callbackObject)
+  {
+    syncScheduler.requestWakeupCallNanos(callbackParameter, callerID, periodNanos, callbackObject);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -0,0 +1,21 @@
+package hamster.comm.wakeupschedule;
+
+/**
+ * <p>Time source for the wakeup schedulers.  The time is a monotonic count of nanoseconds from an arbitrary origin, in the
+ * same way as {@link System#nanoTime()}.  It is only meaningful when compared with other values from the same clock, and it
+ * does not jump when the system wall clock is changed.
+ * <p>The {@link SystemSchedulerClock} implementation is used by default.  A {@link ManualSchedulerClock} can be given to a
+ * scheduler so that the passing of time can be controlled, for example in tests.
+ * 
+ * @author jdf19
+ *
+ */
+public interface SchedulerClock
+{
+  /**
+   * <p>Return the current time in nanoseconds.
+   * 
+   * @return the current clock time in nanoseconds.
+   */
+  public long nanoTime();
+}
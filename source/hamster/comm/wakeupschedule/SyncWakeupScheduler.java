@@ -5,8 +5,7 @@
  */
 package hamster.comm.wakeupschedule;
 
-import java.util.ArrayList;
-import java.util.List;
+import hamster.comm.wakeupschedule.WakeupKeyQueue.WakeupKey;
 
 /**
  * <p>
@@ -16,15 +15,95 @@ import java.util.List;
  * The nextWakeupMS() method can be used to determine the duration in
  * milliseconds until the next instance needs to be "woken up" so that it can
  * process something.
+ * <p>
+ * Wakeups are held in an indexed priority queue so that requesting, restating
+ * and cancelling a wakeup does not require a search through all scheduled
+ * wakeups, and servicing only visits the wakeups which are due.
  * 
  * @author jdf19
  */
 public class SyncWakeupScheduler
 {
   /**
-   * <p>Synchronous wakeup list.  This stores asynchronous wakeup keys. 
+   * <p>Synchronous wakeup queue.  This stores synchronous wakeup keys ordered by next wakeup time. 
+   */
+  private final WakeupKeyQueue callbackQueue = new WakeupKeyQueue();
+
+  /**
+   * <p>The clock used to measure wakeup times.
+   */
+  private final SchedulerClock clock;
+
+  /**
+   * <p>The loop time, sampled once per iteration by the owning communication loop.  Wakeups requested during the iteration
+   * are measured from this time rather than reading the clock on every request.
+   */
+  private long loopTime;
+
+  /**
+   * <p>True once the owning communication loop has supplied a loop time.  Until then, wakeup requests read the clock directly.
+   */
+  private boolean loopTimeSampled = false;
+
+  /**
+   * <p>Times the wakeup callbacks, or <code>null</code>.
+   */
+  private WakeupCallbackTimer callbackTimer;
+
+  /**
+   * <p>Create the scheduler with the system monotonic clock.
+   */
+  public SyncWakeupScheduler()
+  {
+    this(SystemSchedulerClock.INSTANCE);
+  }
+
+  /**
+   * <p>Create the scheduler with the given clock.
+   * 
+   * @param clock the clock used to measure wakeup times.
+   */
+  public SyncWakeupScheduler(SchedulerClock clock)
+  {
+    if (clock == null)
+    {
+      throw new NullPointerException();
+    }
+
+    this.clock = clock;
+  }
+
+  /**
+   * <p>Return the clock used to measure wakeup times.
+   * 
+   * @return the scheduler clock.
+   */
+  public SchedulerClock getClock()
+  {
+    return clock;
+  }
+
+  /**
+   * <p>Set the loop time.  The owning communication loop samples its clock once per iteration and passes the time in here, so
+   * that wakeups requested during the iteration are measured from the same point without further clock reads.
+   * 
+   * @param nanoTime the loop time in scheduler clock nanoseconds.
    */
-  private final List<SyncWakeupKey> callbackMap = new ArrayList<>();
+  public void setLoopTime(long nanoTime)
+  {
+    this.loopTime = nanoTime;
+    this.loopTimeSampled = true;
+  }
+
+  /**
+   * <p>Return the time to measure wakeup requests from: the loop time if one has been supplied, otherwise the clock time.
+   * 
+   * @return the current time in scheduler clock nanoseconds.
+   */
+  protected long currentNanoTime()
+  {
+    return loopTimeSampled ? loopTime : clock.nanoTime();
+  }
   
   /**
    * Request a wakeup call at a specified time in the future.
@@ -51,6 +130,29 @@ public class SyncWakeupScheduler
     restateWakeup(parameter, callerID, wakeupPeriod, callbackObject);
   }
 
+  /**
+   * Request a periodic wakeup call with the period given in nanoseconds.  Each
+   * callback is serviced on the first service call at or after its due time, so
+   * the achieved resolution depends on how often the owning communication loop
+   * services the scheduler.
+   * 
+   * @param parameter      the user-specified value to return to the requester in
+   *                       its WakeupCallback object.
+   * @param callerID        The caller ID associated with the wakeup call.
+   * @param periodNanos     The callback will be called this number of nanoseconds apart.
+   * @param callbackObject  The object to call back with the given parameter at the requested wakeup time.
+   */
+  public void requestWakeupCallNanos(int parameter, int callerID, long periodNanos, WakeupCallback callbackObject)
+  {
+    if (callbackObject == null)
+    {
+      throw new NullPointerException();
+    }
+
+    // Insert.
+    restateWakeupNanos(parameter, callerID, periodNanos, callbackObject);
+  }
+
   /**
    * Restate the wakeup call if it has been set for the given parameter and
    * callerID combination. This will reinsert the existing wakeup request at a new
@@ -66,24 +168,41 @@ public class SyncWakeupScheduler
    */
   protected void restateWakeup(int parameter, int callerID, int wakeupPeriod, WakeupCallback callbackObject)
   {
-    //Cycle through the entries.  If the parameter and caller id combination is found then replace it.
-    for(int i = 0; i < callbackMap.size(); i++)
+    restateWakeupNanos(parameter, callerID, wakeupPeriod * 1_000_000L, callbackObject);
+  }
+
+  /**
+   * Restate the wakeup call, with the period given in nanoseconds.  See
+   * {@link #restateWakeup(int, int, int, WakeupCallback)}.
+   * 
+   * @param parameter      the user-specified value to return to the requester in
+   *                       its WakeupCallback object.
+   * @param callerID        The caller ID associated with the wakeup call.
+   * @param periodNanos     The callback will be called this number of nanoseconds apart.
+   * @param callbackObject  The object to call back with the given parameter at the requested wakeup time.
+   */
+  protected void restateWakeupNanos(int parameter, int callerID, long periodNanos, WakeupCallback callbackObject)
+  {
+    //Calculate the first wakeup time on the scheduler clock.
+    long wakeupTime = currentNanoTime() + periodNanos;
+    
+    //If the parameter and caller id combination is found then update it.
+    WakeupKey swk = callbackQueue.find(callerID, parameter);
+    if(swk != null)
     {
-      SyncWakeupKey swk = callbackMap.get(i);
-      if( (swk.callerID == callerID) && (swk.parameter == parameter) )
-      {
-        //Update the key.
-        swk.nextWakeup = System.currentTimeMillis() + wakeupPeriod;
-        swk.callback = callbackObject;
-        swk.periodMs = wakeupPeriod;
-        
-        //Return.
-        return;
-      }
+      //Update the key.
+      swk.nextWakeup = wakeupTime;
+      swk.callback = callbackObject;
+      swk.periodNanos = periodNanos;
+    }
+    else
+    {
+      //Create a wakeup key.
+      swk = new WakeupKey(callbackObject, callerID, parameter, wakeupTime, periodNanos);
     }
     
-    //Create a wakeup key.
-    callbackMap.add(new SyncWakeupKey(callbackObject, callerID, parameter, System.currentTimeMillis() + wakeupPeriod, wakeupPeriod));
+    //Put the key in its place in the queue.
+    callbackQueue.schedule(swk);
   }
 
   /**
@@ -97,19 +216,7 @@ public class SyncWakeupScheduler
    */
   public void cancelWakeup(int parameter, int callerID)
   {
-    //Cycle through the entries.  If the parameter and caller id combination is found then cancel it.
-    for(int i = 0; i < callbackMap.size(); i++)
-    {
-      SyncWakeupKey awk = callbackMap.get(i);
-      if( (awk.callerID == callerID) && (awk.parameter == parameter) )
-      {
-        //Remove the key.
-        callbackMap.remove(i);
-        
-        //Return.
-        return;
-      }
-    }
+    callbackQueue.remove(callerID, parameter);
   }
 
   /**
@@ -119,66 +226,114 @@ public class SyncWakeupScheduler
    */
   public void cancelWakeup(int callerID)
   {
-    //Cycle through the entries.  If the caller id is found then cancel it.
-    for(int i = 0; i < callbackMap.size(); i++)
-    {
-      SyncWakeupKey swk = callbackMap.get(i);
-      if( (swk.callerID == callerID) )
-      {
-        //Remove the key.
-        callbackMap.remove(i);        
-      }
-    }
+    callbackQueue.removeAll(callerID);
   }
 
   /**
    * <p>
    * Service all outstanding objects and return the number of milliseconds until
    * the next object(s) are due for servicing.
+   * <p>
+   * Each wakeup is serviced at most once per call, even if it is more than one
+   * period behind.
    * 
    * @return number of milliseconds until next service.
    */
   public long serviceObjects()
   {
-    // Get the next wakeup millisecond delay.
-    long nextWakeup = System.currentTimeMillis();
+    return service(clock.nanoTime());
+  }
+
+  /**
+   * <p>
+   * Service all outstanding objects at the given loop time and return the number
+   * of milliseconds until the next object(s) are due for servicing.  The loop
+   * time is also set as though {@link #setLoopTime(long)} had been called.
+   * 
+   * @param nanoTime the loop time in scheduler clock nanoseconds.
+   * @return number of milliseconds until next service.
+   */
+  public long serviceObjects(long nanoTime)
+  {
+    setLoopTime(nanoTime);
+    return service(nanoTime);
+  }
+
+  /**
+   * <p>Service all outstanding objects due at the given time.
+   */
+  private long service(long currentTime)
+  {
+    //Wakeups (re)scheduled after this point are left for the next service call.
+    long sequenceLimit = callbackQueue.currentSequence();
 
     long lowestNextWakeup = 12000;
     
-    for(int i = 0; i < callbackMap.size(); i++)
+    WakeupKey swk;
+    while((swk = callbackQueue.peek()) != null)
     {
-      SyncWakeupKey swk = callbackMap.get(i);
-      long toGo;
-      if((toGo = swk.msToGo(nextWakeup)) <= 0)
+      long toGo = swk.nanosToGo(currentTime);
+      if(toGo > 0)
+      {
+        //Set the lowest next wakeup.  Nothing else is due.
+        lowestNextWakeup = Math.min(lowestNextWakeup, toMillis(toGo));
+        break;
+      }
+      
+      long sequence = swk.sequence();
+      if(sequence > sequenceLimit)
       {
-        //Due - service the wakeup.
-        //callbackMap.remove(i);
-        swk.callback.wakeup(swk.parameter, swk.nextWakeup);
-        
-        //Set to next wakeup period.
-        swk.nextPeriod();
-        
-        //Set the lowest next wakeup to 0.  If a wakeup callback has been actioned then
-        //there may be resulting comms requests to process.
+        //Due, but already serviced or rescheduled during this service call.  Service on the next loop.
         lowestNextWakeup = 0;
+        break;
       }
-      else
+      
+      //Due - service the wakeup.
+      wakeup(swk);
+      
+      //Set to next wakeup period, unless the callback cancelled or restated the wakeup.
+      if(swk.isScheduled() && swk.sequence() == sequence)
       {
-        //Set the lowest next wakeup.
-        lowestNextWakeup = Math.min(lowestNextWakeup, toGo);
+        swk.nextWakeup += swk.periodNanos;
+        callbackQueue.schedule(swk);
       }
+      
+      //Set the lowest next wakeup to 0.  If a wakeup callback has been actioned then
+      //there may be resulting comms requests to process.
+      lowestNextWakeup = 0;
     }
     
     // Return lowest next wakeup.
     return Math.max(0, lowestNextWakeup);
   }
   
+  /**
+   * <p>Return the number of nanoseconds from the given time until the next wakeup is due.  This does not service any wakeups.
+   * 
+   * @param nanoTime the time to measure from in scheduler clock nanoseconds.
+   * @return nanoseconds until the next wakeup, 0 if a wakeup is already due, or {@link Long#MAX_VALUE} if no wakeups are scheduled.
+   */
+  public long nanosToNextWakeup(long nanoTime)
+  {
+    WakeupKey swk = callbackQueue.peek();
+    return (swk == null) ? Long.MAX_VALUE : Math.max(0, swk.nanosToGo(nanoTime));
+  }
+
+  /**
+   * <p>Convert a positive number of nanoseconds to go into milliseconds, rounding up so that the selector does not wake before the
+   * wakeup is due.
+   */
+  private static long toMillis(long nanosToGo)
+  {
+    return (nanosToGo + 999_999L) / 1_000_000L;
+  }
+
   /**
    * Delete all scheduled wakeups.
    */
   public void purge()
   {
-    callbackMap.clear();
+    callbackQueue.clear();
   }
 
   /**
@@ -188,39 +343,43 @@ public class SyncWakeupScheduler
    */
   public boolean isNoCallsPending()
   {
-    return callbackMap.isEmpty();
+    return callbackQueue.isEmpty();
   }
-  
-  private class SyncWakeupKey
-  {
-    public WakeupCallback callback;
-    
-    public final int callerID;
-    
-    public final int parameter;
 
-    public long nextWakeup;
+  /**
+   * <p>Return the number of synchronous wakeup calls scheduled.
+   * 
+   * @return the number of scheduled callbacks.
+   */
+  public int pendingCallCount()
+  {
+    return callbackQueue.size();
+  }
 
-    private int periodMs;
-    
-    private SyncWakeupKey(WakeupCallback callback, int callerID, int parameter, long initWakeup, int periodMs)
-    {
-      this.callback = callback;
-      this.callerID = callerID;
-      this.parameter = parameter;
-      this.nextWakeup = initWakeup;
-      this.periodMs = periodMs;
-    }
+  /**
+   * <p>Set a timer to be called around each wakeup callback, or <code>null</code> for none.
+   * 
+   * @param timer the callback timer.
+   */
+  public void setCallbackTimer(WakeupCallbackTimer timer)
+  {
+    callbackTimer = timer;
+  }
 
-    public long msToGo(long currentTimeMs)
+  /**
+   * <p>Call a due wakeup, timing it if there is a callback timer.
+   */
+  private void wakeup(WakeupKey swk)
+  {
+    if(callbackTimer == null)
     {
-      return nextWakeup - currentTimeMs;
+      swk.callback.wakeup(swk.parameter, swk.nextWakeup / 1_000_000L);
     }
-
-    public SyncWakeupKey nextPeriod()
+    else
     {
-      nextWakeup += periodMs;
-      return this;
+      long start = callbackTimer.startWakeup();
+      swk.callback.wakeup(swk.parameter, swk.nextWakeup / 1_000_000L);
+      callbackTimer.endWakeup(start, swk.callback, swk.parameter);
     }
   }
 }
@@ -0,0 +1,31 @@
+package hamster.comm.wakeupschedule;
+
+/**
+ * <p>Scheduler clock backed by {@link System#nanoTime()}.
+ * 
+ * @author jdf19
+ *
+ */
+public final class SystemSchedulerClock implements SchedulerClock
+{
+  /**
+   * <p>The clock is stateless so a single instance can be shared.
+   */
+  public static final SystemSchedulerClock INSTANCE = new SystemSchedulerClock();
+  
+  /**
+   * <p>Use the shared {@link #INSTANCE}.
+   */
+  private SystemSchedulerClock()
+  {
+  }
+  
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long nanoTime()
+  {
+    return System.nanoTime();
+  }
+}
@@ -16,7 +16,8 @@ public interface WakeupCallback
    * <p>Perform callback-specific actions in response to a registered callback.</p>
    * 
    * @param parameter the given parameter that was registered with the callback instance.
-   * @param wakeupTime the actual system time that the wakeup event was scheduled for.
+   * @param wakeupTime the time that the wakeup event was scheduled for, in milliseconds on the scheduler's monotonic
+   *                   {@link SchedulerClock}.  This is not a wall clock time.
    */
   public void wakeup(int parameter, long wakeupTime);
 }
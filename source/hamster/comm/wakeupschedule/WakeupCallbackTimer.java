@@ -0,0 +1,26 @@
+package hamster.comm.wakeupschedule;
+
+/**
+ * <p>Times the {@link WakeupCallback#wakeup(int, long)} calls made by a scheduler.  Set with
+ * {@link AsyncWakeupScheduler#setCallbackTimer(WakeupCallbackTimer)} or {@link SyncWakeupScheduler#setCallbackTimer(WakeupCallbackTimer)}.
+ *
+ * @author jdf19
+ */
+public interface WakeupCallbackTimer
+{
+  /**
+   * <p>Called before a wakeup callback.
+   *
+   * @return the start time to pass to {@link #endWakeup(long, WakeupCallback, int)}, or 0 if the call is not being timed.
+   */
+  public long startWakeup();
+
+  /**
+   * <p>Called after a wakeup callback.
+   *
+   * @param startTime the value returned by {@link #startWakeup()}.
+   * @param callback the callback that was called.
+   * @param parameter the parameter it was called with.
+   */
+  public void endWakeup(long startTime, WakeupCallback callback, int parameter);
+}
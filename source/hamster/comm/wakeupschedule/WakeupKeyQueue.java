@@ -0,0 +1,432 @@
+package hamster.comm.wakeupschedule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Indexed priority queue of wakeup keys, used by the {@link AsyncWakeupScheduler} and {@link SyncWakeupScheduler} classes.
+ * <p>The keys are held in a binary min-heap ordered by wakeup time and then by the order in which they were scheduled.  Each key
+ * stores its own position in the heap, and an open addressing hash table indexes the keys by their caller id and parameter
+ * combination without boxing, so no operation allocates unless a table has to grow.  This means that:
+ * <ul>
+ * <li>finding a scheduled wakeup is O(1);</li>
+ * <li>scheduling, restating and cancelling a wakeup is O(log n);</li>
+ * <li>finding the next due wakeup is O(1), so servicing costs are proportional to the number of expired wakeups rather than the
+ * number of scheduled wakeups.</li>
+ * </ul>
+ * <p>Every time a key is (re)inserted it receives a new sequence number.  A service pass can record the sequence number at the
+ * start of the pass and ignore keys scheduled during the pass, so that a callback which reschedules itself with no delay does
+ * not cause an endless service loop.
+ *
+ * @author jdf19
+ */
+final class WakeupKeyQueue
+{
+  /**
+   * <p>Initial heap array size.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * <p>Heap array.  Elements 0 to size - 1 are in use.
+   */
+  private WakeupKey[] heap = new WakeupKey[INITIAL_CAPACITY];
+
+  /**
+   * <p>Number of keys in the heap.
+   */
+  private int size = 0;
+
+  /**
+   * <p>Initial index table size.  Must be a power of 2.
+   */
+  private static final int INITIAL_INDEX_CAPACITY = 32;
+
+  /**
+   * <p>Index of keys by caller id and parameter.  Open addressing with linear probing; the table is kept at most half full.
+   */
+  private WakeupKey[] index = new WakeupKey[INITIAL_INDEX_CAPACITY];
+
+  /**
+   * <p>Sequence number of the last scheduled key.
+   */
+  private long sequence = 0;
+
+  /**
+   * <p>Reusable list for bulk removals.
+   */
+  private final List<WakeupKey> removalList = new ArrayList<>();
+
+  /**
+   * <p>Find the scheduled key for the caller id and parameter combination.
+   *
+   * @param callerID the caller id.
+   * @param parameter the parameter.
+   * @return the key, or <code>null</code> if there is no wakeup scheduled for the combination.
+   */
+  WakeupKey find(int callerID, int parameter)
+  {
+    return indexGet(callerID, parameter);
+  }
+
+  /**
+   * <p>Schedule the given key at its wakeup time.  If the key is already scheduled then its position is updated to reflect its
+   * current wakeup time.
+   *
+   * @param key the key to schedule.
+   */
+  void schedule(WakeupKey key)
+  {
+    //New sequence number - the key is (re)scheduled now.
+    key.sequence = ++sequence;
+
+    if(key.heapIndex < 0)
+    {
+      //Not in the heap.  Add it.
+      if(size == heap.length)
+      {
+        heap = Arrays.copyOf(heap, size * 2);
+      }
+      key.heapIndex = size;
+      heap[size++] = key;
+      indexPut(key);
+      siftUp(key.heapIndex);
+    }
+    else
+    {
+      //Already in the heap.  Update its position.
+      resift(key.heapIndex);
+    }
+  }
+
+  /**
+   * <p>Remove the scheduled key for the caller id and parameter combination.
+   *
+   * @param callerID the caller id.
+   * @param parameter the parameter.
+   * @return the removed key, or <code>null</code> if there was no wakeup scheduled for the combination.
+   */
+  WakeupKey remove(int callerID, int parameter)
+  {
+    WakeupKey key = indexGet(callerID, parameter);
+    if(key != null)
+    {
+      remove(key);
+    }
+    return key;
+  }
+
+  /**
+   * <p>Remove all scheduled keys for the caller id.  This requires a scan of all scheduled keys.
+   *
+   * @param callerID the caller id.
+   */
+  void removeAll(int callerID)
+  {
+    //Collect first; removing from the heap while scanning it would move unscanned keys.
+    for(int i = 0; i < size; i++)
+    {
+      if(heap[i].callerID == callerID)
+      {
+        removalList.add(heap[i]);
+      }
+    }
+
+    for(int i = 0; i < removalList.size(); i++)
+    {
+      remove(removalList.get(i));
+    }
+
+    removalList.clear();
+  }
+
+  /**
+   * <p>Remove the given key from the queue.
+   *
+   * @param key the key to remove.  Must be scheduled.
+   */
+  void remove(WakeupKey key)
+  {
+    indexRemove(key);
+
+    int i = key.heapIndex;
+    key.heapIndex = -1;
+
+    //Move the last key into the vacated slot.
+    WakeupKey last = heap[--size];
+    heap[size] = null;
+    if(i < size)
+    {
+      heap[i] = last;
+      last.heapIndex = i;
+      resift(i);
+    }
+  }
+
+  /**
+   * <p>Return the key with the earliest wakeup time without removing it.
+   *
+   * @return the earliest key, or <code>null</code> if the queue is empty.
+   */
+  WakeupKey peek()
+  {
+    return (size > 0) ? heap[0] : null;
+  }
+
+  /**
+   * <p>Return the sequence number of the most recently scheduled key.
+   *
+   * @return the current sequence number.
+   */
+  long currentSequence()
+  {
+    return sequence;
+  }
+
+  /**
+   * <p>Return the number of keys scheduled.
+   *
+   * @return the queue size.
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * <p>Return true if no keys are scheduled.
+   *
+   * @return true if the queue is empty.
+   */
+  boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * <p>Remove all keys.
+   */
+  void clear()
+  {
+    for(int i = 0; i < size; i++)
+    {
+      heap[i].heapIndex = -1;
+      heap[i] = null;
+    }
+    size = 0;
+    Arrays.fill(index, null);
+  }
+
+  /**
+   * <p>Restore the heap order for the key at the given position after its wakeup time or sequence has changed.
+   *
+   * @param i the heap position.
+   */
+  private void resift(int i)
+  {
+    if(i > 0 && isBefore(heap[i], heap[(i - 1) >>> 1]))
+    {
+      siftUp(i);
+    }
+    else
+    {
+      siftDown(i);
+    }
+  }
+
+  private void siftUp(int i)
+  {
+    WakeupKey key = heap[i];
+    while(i > 0)
+    {
+      int parent = (i - 1) >>> 1;
+      WakeupKey p = heap[parent];
+      if(!isBefore(key, p))
+      {
+        break;
+      }
+      heap[i] = p;
+      p.heapIndex = i;
+      i = parent;
+    }
+    heap[i] = key;
+    key.heapIndex = i;
+  }
+
+  private void siftDown(int i)
+  {
+    WakeupKey key = heap[i];
+    int half = size >>> 1;
+    while(i < half)
+    {
+      int child = (i << 1) + 1;
+      int right = child + 1;
+      if(right < size && isBefore(heap[right], heap[child]))
+      {
+        child = right;
+      }
+      if(!isBefore(heap[child], key))
+      {
+        break;
+      }
+      heap[i] = heap[child];
+      heap[i].heapIndex = i;
+      i = child;
+    }
+    heap[i] = key;
+    key.heapIndex = i;
+  }
+
+  /**
+   * <p>Heap ordering.  Earlier wakeup first, then earlier scheduled first.
+   */
+  private static boolean isBefore(WakeupKey a, WakeupKey b)
+  {
+    long diff = a.nextWakeup - b.nextWakeup;
+    return (diff < 0) || ((diff == 0) && (a.sequence < b.sequence));
+  }
+
+  /**
+   * <p>Return the home slot in the index table for the caller id and parameter combination.
+   */
+  private int indexSlot(int callerID, int parameter)
+  {
+    long h = (((long) callerID << 32) | (parameter & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32) & (index.length - 1);
+  }
+
+  /**
+   * <p>Find the key for the caller id and parameter combination in the index.
+   */
+  private WakeupKey indexGet(int callerID, int parameter)
+  {
+    int mask = index.length - 1;
+    for(int i = indexSlot(callerID, parameter); ; i = (i + 1) & mask)
+    {
+      WakeupKey key = index[i];
+      if(key == null || (key.callerID == callerID && key.parameter == parameter))
+      {
+        return key;
+      }
+    }
+  }
+
+  /**
+   * <p>Add a key which is not in the index.  The table is doubled when it would be more than half full.
+   */
+  private void indexPut(WakeupKey key)
+  {
+    if((size << 1) > index.length)
+    {
+      WakeupKey[] old = index;
+      index = new WakeupKey[old.length << 1];
+      for(WakeupKey k : old)
+      {
+        if(k != null) indexInsert(k);
+      }
+    }
+    indexInsert(key);
+  }
+
+  /**
+   * <p>Put a key in the first free slot from its home slot.
+   */
+  private void indexInsert(WakeupKey key)
+  {
+    int mask = index.length - 1;
+    int i = indexSlot(key.callerID, key.parameter);
+    while(index[i] != null)
+    {
+      i = (i + 1) & mask;
+    }
+    index[i] = key;
+  }
+
+  /**
+   * <p>Remove a key from the index.  The keys after it in its probe run are shifted back so that no tombstones are needed.
+   */
+  private void indexRemove(WakeupKey key)
+  {
+    int mask = index.length - 1;
+    int i = indexSlot(key.callerID, key.parameter);
+    while(index[i] != key)
+    {
+      if(index[i] == null) return;
+      i = (i + 1) & mask;
+    }
+
+    //Empty the slot, then fill it with any later key in the run whose home slot is not between the gap and that key.
+    index[i] = null;
+    for(int j = (i + 1) & mask; index[j] != null; j = (j + 1) & mask)
+    {
+      int home = indexSlot(index[j].callerID, index[j].parameter);
+      if(((j - home) & mask) >= ((j - i) & mask))
+      {
+        index[i] = index[j];
+        index[j] = null;
+        i = j;
+      }
+    }
+  }
+
+  /**
+   * <p>Scheduled wakeup.
+   */
+  static final class WakeupKey
+  {
+    WakeupCallback callback;
+
+    final int callerID;
+
+    final int parameter;
+
+    /**
+     * <p>Wakeup time in scheduler clock nanoseconds.
+     */
+    long nextWakeup;
+
+    /**
+     * <p>Wakeup period in nanoseconds for synchronous wakeups; 0 for asynchronous wakeups.
+     */
+    long periodNanos;
+
+    private long sequence;
+
+    private int heapIndex = -1;
+
+    WakeupKey(WakeupCallback callback, int callerID, int parameter, long nextWakeup, long periodNanos)
+    {
+      this.callback = callback;
+      this.callerID = callerID;
+      this.parameter = parameter;
+      this.nextWakeup = nextWakeup;
+      this.periodNanos = periodNanos;
+    }
+
+    /**
+     * <p>Return the sequence number the key was last scheduled with.
+     *
+     * @return the sequence number.
+     */
+    long sequence()
+    {
+      return sequence;
+    }
+
+    /**
+     * <p>Return true if the key is currently scheduled.
+     *
+     * @return true if scheduled.
+     */
+    boolean isScheduled()
+    {
+      return heapIndex >= 0;
+    }
+
+    long nanosToGo(long currentNanoTime)
+    {
+      return nextWakeup - currentNanoTime;
+    }
+  }
+}
@@ -7,12 +7,14 @@
  */
 module hamster.comm
 {
-  requires slf4j.api;
+  requires org.slf4j;
 
   exports hamster.comm;
 
   exports hamster.comm.buffer;
 
+  exports hamster.comm.codec;
+
   exports hamster.comm.communication;
   exports hamster.comm.communication.sockopts;
 
@@ -25,6 +27,8 @@ module hamster.comm
 
   exports hamster.comm.logging;
 
+  exports hamster.comm.metrics;
+
   exports hamster.comm.server;
   exports hamster.comm.server.exception;
   exports hamster.comm.server.listener;
@@ -1,5 +1,7 @@
 package test.hamster.comm.buffer;
 
+import java.nio.BufferOverflowException;
+
 import hamster.comm.buffer.AccessBuffer;
 import hamster.comm.buffer.BufferFactory;
 import hamster.comm.buffer.PipelineBuffer;
@@ -55,4 +57,23 @@ public class AccessPipelineTest
     //Init a new message.
     ab.init(10);
   }
+
+  @Test
+  public void transferOverflowTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(64));
+    AccessBuffer ab = new AccessBuffer(BufferFactory.getDefaultBufferFactory().setSize(16));
+    pb.produceFromBytes(new byte[32]);
+
+    //More data than the access buffer can hold.  Nothing is transferred.
+    try
+    {
+      ab.transferFrom(pb);
+      Assert.fail();
+    }
+    catch(BufferOverflowException e)
+    {
+    }
+    Assert.assertEquals(32, pb.size());
+  }
 }
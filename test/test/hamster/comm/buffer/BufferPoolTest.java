@@ -0,0 +1,81 @@
+package test.hamster.comm.buffer;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.BufferPool;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class BufferPoolTest
+{
+  @Test
+  public void reuseTest()
+  {
+    BufferPool pool = new BufferPool(4, 2, false, null);
+    BufferFactory factory = BufferFactory.getDefaultBufferFactory().setPool(pool);
+
+    //Allocated.  The default size is rounded up to the size class.
+    PipelineBuffer pb1 = new PipelineBuffer(factory);
+    pb1.produceInt(1234);
+    Assert.assertTrue(pb1.canAcceptTransfer());
+    Assert.assertEquals(1, pool.getAllocatedCount());
+
+    //Released and reused.  The reused buffer starts empty.
+    pb1.release();
+    Assert.assertTrue(pb1.isReleased());
+    PipelineBuffer pb2 = new PipelineBuffer(factory);
+    Assert.assertEquals(1, pool.getAllocatedCount());
+    Assert.assertEquals(1, pool.getReusedCount());
+    Assert.assertEquals(0, pb2.size());
+    pb2.produceInt(5678);
+    Assert.assertEquals(5678, pb2.consumeInt());
+
+    //A different size class is allocated separately.
+    new PipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(100).setPool(pool));
+    Assert.assertEquals(2, pool.getAllocatedCount());
+  }
+
+  @Test
+  public void overflowTest()
+  {
+    //No thread cache, a shared pool of 1.
+    BufferPool pool = new BufferPool(1, 0, false, null);
+    BufferFactory factory = BufferFactory.getDefaultBufferFactory().setPool(pool);
+
+    PipelineBuffer pb1 = new PipelineBuffer(factory);
+    PipelineBuffer pb2 = new PipelineBuffer(factory);
+    pb1.release();
+    pb2.release();
+
+    //Only one was kept.
+    new PipelineBuffer(factory);
+    new PipelineBuffer(factory);
+    Assert.assertEquals(3, pool.getAllocatedCount());
+    Assert.assertEquals(1, pool.getReusedCount());
+  }
+
+  @Test
+  public void trackingTest()
+  {
+    BufferPool pool = new BufferPool(4, 4, true, LoggerFactory.getLogger(BufferPoolTest.class));
+    BufferFactory factory = BufferFactory.getDefaultBufferFactory().setPool(pool);
+
+    PipelineBuffer pb1 = new PipelineBuffer(factory);
+    PipelineBuffer pb2 = new PipelineBuffer(factory);
+    Assert.assertEquals(2, pool.getOutstandingCount());
+
+    pb1.release();
+    pb2.release();
+    Assert.assertEquals(0, pool.getOutstandingCount());
+    Assert.assertEquals(0, pool.recoverLeaks());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void doubleReleaseTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory().setPool(new BufferPool(4, 4, false, null)));
+    pb.release();
+    pb.release();
+  }
+}
@@ -0,0 +1,99 @@
+package test.hamster.comm.buffer;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.ElasticPipelineBuffer;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulkArrayTest
+{
+  @Test
+  public void roundTripTest()
+  {
+    for(ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN})
+    {
+      PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory().configureOrder(order).setDirectness(order == ByteOrder.BIG_ENDIAN));
+      long[] longs = {1, -2, Long.MAX_VALUE, 4};
+      double[] doubles = {0.5, -1e300};
+      int[] ints = {7, 8, 9};
+
+      //Bulk produce mixed with scalar produce.
+      pb.produceByte((byte) 1).produceLongs(longs, 1, 3).produceDoubles(doubles, 0, 2).produceInts(ints, 0, 3);
+      pb.produceShorts(new short[] {-1, 2}, 0, 2).produceChars("ab".toCharArray(), 0, 2).produceFloats(new float[] {1.5f}, 0, 1);
+      Assert.assertEquals(1 + 24 + 16 + 12 + 4 + 4 + 4, pb.size());
+
+      //The bulk data are laid out as the scalar methods lay them out.
+      Assert.assertEquals(-2L, pb.peekLong(1));
+      Assert.assertEquals(1, pb.consumeByte());
+
+      //Bulk consume mixed with scalar consume.
+      long[] longsOut = new long[4];
+      pb.consumeLongs(longsOut, 0, 3);
+      Assert.assertArrayEquals(new long[] {-2, Long.MAX_VALUE, 4, 0}, longsOut);
+      Assert.assertEquals(0.5, pb.consumeDouble(), 0);
+      double[] doublesOut = new double[1];
+      pb.consumeDoubles(doublesOut, 0, 1);
+      Assert.assertEquals(-1e300, doublesOut[0], 0);
+      int[] intsOut = new int[3];
+      pb.consumeInts(intsOut, 0, 3);
+      Assert.assertArrayEquals(ints, intsOut);
+      short[] shortsOut = new short[2];
+      pb.consumeShorts(shortsOut, 0, 2);
+      Assert.assertEquals(-1, shortsOut[0]);
+      char[] charsOut = new char[2];
+      pb.consumeChars(charsOut, 0, 2);
+      Assert.assertEquals("ab", new String(charsOut));
+      float[] floatsOut = new float[1];
+      pb.consumeFloats(floatsOut, 0, 1);
+      Assert.assertEquals(1.5f, floatsOut[0], 0);
+      Assert.assertTrue(pb.isEmpty());
+    }
+  }
+
+  @Test
+  public void boundsTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16));
+    pb.produceInt(1);
+    try
+    {
+      pb.produceLongs(new long[2], 0, 2);
+      Assert.fail();
+    }
+    catch(BufferOverflowException e)
+    {
+    }
+    try
+    {
+      pb.consumeInts(new int[2], 0, 2);
+      Assert.fail();
+    }
+    catch(BufferUnderflowException e)
+    {
+    }
+
+    //Nothing moved.
+    Assert.assertEquals(4, pb.size());
+    Assert.assertEquals(1, pb.consumeInt());
+  }
+
+  @Test
+  public void elasticTest()
+  {
+    ElasticPipelineBuffer pb = new ElasticPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16), 4096);
+    long[] data = new long[100];
+    for(int i = 0; i < data.length; i++)
+    {
+      data[i] = i * 3L;
+    }
+    pb.produceLongs(data, 0, data.length);
+    long[] out = new long[100];
+    pb.consumeLongs(out, 0, out.length);
+    Assert.assertArrayEquals(data, out);
+  }
+}
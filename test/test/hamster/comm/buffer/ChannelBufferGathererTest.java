@@ -0,0 +1,125 @@
+package test.hamster.comm.buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.ChannelBufferGatherer;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChannelBufferGathererTest
+{
+  private static final BufferFactory FACTORY = BufferFactory.getDefaultBufferFactory().configureOrder(ByteOrder.BIG_ENDIAN);
+
+  @Test
+  public void gatherAllTest() throws IOException
+  {
+    PipelineBuffer header = new PipelineBuffer(FACTORY);
+    PipelineBuffer payload = new PipelineBuffer(FACTORY);
+    header.produceInt(8);
+    payload.produceLong(0x0102030405060708L);
+
+    LimitedChannel channel = new LimitedChannel(100);
+    long i = new ChannelBufferGatherer().drainBuffersToChannel(channel, header, payload);
+
+    //One gathering write, everything sent in order.
+    Assert.assertEquals(12, i);
+    Assert.assertEquals(1, channel.writeCalls);
+    Assert.assertFalse(header.hasDataToConsume());
+    Assert.assertFalse(payload.hasDataToConsume());
+    Assert.assertArrayEquals(new byte[] {0, 0, 0, 8, 1, 2, 3, 4, 5, 6, 7, 8}, channel.written.toByteArray());
+  }
+
+  @Test
+  public void gatherPartialTest() throws IOException
+  {
+    PipelineBuffer header = new PipelineBuffer(FACTORY);
+    PipelineBuffer payload = new PipelineBuffer(FACTORY);
+    PipelineBuffer trailer = new PipelineBuffer(FACTORY);
+    header.produceInt(8);
+    payload.produceLong(0x0102030405060708L);
+    trailer.produceByte((byte) 9);
+
+    //Only room for the header and part of the payload.
+    LimitedChannel channel = new LimitedChannel(6);
+    ChannelBufferGatherer gatherer = new ChannelBufferGatherer();
+    Assert.assertEquals(6, gatherer.drainBuffersToChannel(channel, header, payload, trailer));
+    Assert.assertEquals(0, header.size());
+    Assert.assertEquals(6, payload.size());
+    Assert.assertEquals(1, trailer.size());
+
+    //More room.  The rest goes out in order.
+    channel.room = 100;
+    Assert.assertEquals(7, gatherer.drainBuffersToChannel(channel, header, payload, trailer));
+    Assert.assertEquals(0, payload.size());
+    Assert.assertEquals(0, trailer.size());
+    Assert.assertArrayEquals(new byte[] {0, 0, 0, 8, 1, 2, 3, 4, 5, 6, 7, 8, 9}, channel.written.toByteArray());
+
+    //The buffers can be produced to again.
+    payload.produceChar('A');
+    Assert.assertEquals('A', payload.consumeChar());
+  }
+
+  /**
+   * <p>Gathering channel which accepts a limited number of bytes.
+   */
+  private static class LimitedChannel implements GatheringByteChannel
+  {
+    private int room;
+
+    private int writeCalls = 0;
+
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    private LimitedChannel(int room)
+    {
+      this.room = room;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+    {
+      writeCalls++;
+      long total = 0;
+      for(int i = offset; i < offset + length && room > 0; i++)
+      {
+        total += write(srcs[i]);
+      }
+      return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs)
+    {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+      int n = Math.min(room, src.remaining());
+      for(int i = 0; i < n; i++)
+      {
+        written.write(src.get());
+      }
+      room -= n;
+      return n;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}
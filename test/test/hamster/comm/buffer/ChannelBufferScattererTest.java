@@ -0,0 +1,119 @@
+package test.hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ScatteringByteChannel;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.ChannelBufferScatterer;
+import hamster.comm.buffer.FillableChannelBuffer;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChannelBufferScattererTest
+{
+  private static final BufferFactory FACTORY = BufferFactory.getDefaultBufferFactory().configureOrder(ByteOrder.BIG_ENDIAN);
+
+  @Test
+  public void headerBodyTest() throws IOException
+  {
+    PipelineBuffer header = new PipelineBuffer(FACTORY);
+    PipelineBuffer body = new PipelineBuffer(FACTORY);
+
+    //A 4 byte header followed by 6 bytes of body.
+    ArrayChannel channel = new ArrayChannel(new byte[] {0, 0, 0, 6, 1, 2, 3, 4, 5, 6});
+    ChannelBufferScatterer scatterer = new ChannelBufferScatterer();
+    long i = scatterer.fillBuffersFromChannel(channel, new FillableChannelBuffer[] {header, body}, new int[] {4, 100});
+
+    //One scattering read.  The header lands in the header buffer and the rest in the body buffer.
+    Assert.assertEquals(10, i);
+    Assert.assertEquals(1, channel.readCalls);
+    Assert.assertEquals(4, header.size());
+    Assert.assertEquals(6, header.consumeInt());
+    Assert.assertEquals(6, body.size());
+    Assert.assertEquals(1, body.consumeByte());
+
+    //Nothing more to read.
+    Assert.assertEquals(0, scatterer.fillBuffersFromChannel(channel, header, body));
+
+    //End of stream.
+    channel.endOfStream = true;
+    Assert.assertEquals(-1, scatterer.fillBuffersFromChannel(channel, header, body));
+  }
+
+  @Test
+  public void shortReadTest() throws IOException
+  {
+    PipelineBuffer header = new PipelineBuffer(FACTORY);
+    PipelineBuffer body = new PipelineBuffer(FACTORY);
+
+    //Only part of the header is available.  Nothing goes to the body buffer.
+    ArrayChannel channel = new ArrayChannel(new byte[] {0, 0});
+    Assert.assertEquals(2, new ChannelBufferScatterer().fillBuffersFromChannel(channel, new FillableChannelBuffer[] {header, body}, new int[] {4, 100}));
+    Assert.assertEquals(2, header.size());
+    Assert.assertEquals(0, body.size());
+  }
+
+  /**
+   * <p>Scattering channel which supplies the bytes of an array.
+   */
+  private static class ArrayChannel implements ScatteringByteChannel
+  {
+    private final ByteBuffer data;
+
+    private int readCalls = 0;
+
+    private boolean endOfStream = false;
+
+    private ArrayChannel(byte[] data)
+    {
+      this.data = ByteBuffer.wrap(data);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length)
+    {
+      readCalls++;
+      if(endOfStream && !data.hasRemaining())
+      {
+        return -1;
+      }
+      long total = 0;
+      for(int i = offset; i < offset + length; i++)
+      {
+        total += read(dsts[i]);
+      }
+      return total;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts)
+    {
+      return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public int read(ByteBuffer dst)
+    {
+      int n = Math.min(dst.remaining(), data.remaining());
+      for(int i = 0; i < n; i++)
+      {
+        dst.put(data.get());
+      }
+      return n;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}
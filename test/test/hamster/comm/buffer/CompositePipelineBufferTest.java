@@ -0,0 +1,117 @@
+package test.hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Pipe;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.BufferPool;
+import hamster.comm.buffer.CompositePipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class CompositePipelineBufferTest
+{
+  @Test
+  public void crossSegmentScalarTest()
+  {
+    for(ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN})
+    {
+      CompositePipelineBuffer buffer = new CompositePipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16).configureOrder(order), 32);
+
+      //Odd offsets so that values straddle the segment boundaries.
+      buffer.produceByte((byte) 1);
+      for(int i = 0; i < 10; i++)
+      {
+        buffer.produceLong(0x0102030405060708L * i).produceShort((short) -i).produceInt(i << 20).produceDouble(i + 0.5);
+      }
+      Assert.assertEquals(1 + 10 * 22, buffer.size());
+      Assert.assertEquals(1, buffer.peekByte(0));
+      Assert.assertEquals(0x0102030405060708L * 3, buffer.peekLong(1 + 3 * 22));
+
+      Assert.assertEquals(1, buffer.consumeByte());
+      for(int i = 0; i < 10; i++)
+      {
+        Assert.assertEquals(0x0102030405060708L * i, buffer.consumeLong());
+        Assert.assertEquals(-i, buffer.consumeShort());
+        Assert.assertEquals(i << 20, buffer.consumeInt());
+        Assert.assertEquals(i + 0.5, buffer.consumeDouble(), 0);
+      }
+
+      //Consumed segments have gone.
+      Assert.assertTrue(buffer.isEmpty());
+      Assert.assertEquals(1, buffer.segmentCount());
+    }
+  }
+
+  @Test
+  public void largeMessageTransferTest() throws IOException
+  {
+    CompositePipelineBuffer out = new CompositePipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(64), 100);
+    CompositePipelineBuffer in = new CompositePipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(64), 100).setFillSegments(8);
+    byte[] data = new byte[5000];
+    for(int i = 0; i < data.length; i++)
+    {
+      data[i] = (byte) i;
+    }
+
+    //A message much bigger than a segment.
+    out.startWriteMessage();
+    out.produceInt(0);
+    out.produceFromBytes(data);
+    out.produceIntAt(0, out.messageBlockWritePosition() - 4);
+    out.completeWriteMessage();
+    Assert.assertEquals(79, out.segmentCount());
+
+    //Through a pipe.
+    Pipe pipe = Pipe.open();
+    pipe.source().configureBlocking(false);
+    int moved = 0;
+    while(moved < 5004)
+    {
+      out.drainBufferToChannel(pipe.sink());
+      moved += Math.max(0, in.fillBufferFromChannel(pipe.source()));
+    }
+    Assert.assertTrue(out.isEmpty());
+
+    //Read it back as one message.
+    in.startReadMessage(in.peekInt(0) + 4);
+    Assert.assertEquals(5000, in.consumeInt());
+    byte[] received = new byte[5000];
+    in.consumeBytes(received);
+    Assert.assertFalse(in.hasReadMessageDataRemaining());
+    in.rewindReadMessage();
+    Assert.assertEquals(5004, in.size());
+    in.startReadMessage(5004);
+    in.completeReadMessage();
+    Assert.assertArrayEquals(data, received);
+    Assert.assertTrue(in.isEmpty());
+    Assert.assertEquals(1, in.segmentCount());
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void maxSegmentsTest()
+  {
+    CompositePipelineBuffer buffer = new CompositePipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16), 4);
+    Assert.assertTrue(buffer.hasSpaceFor(64));
+    Assert.assertFalse(buffer.hasSpaceFor(65));
+    buffer.produceFromByteBuffer(ByteBuffer.allocate(65));
+  }
+
+  @Test
+  public void pooledSegmentTest()
+  {
+    BufferPool pool = new BufferPool(64, 64, true, LoggerFactory.getLogger(CompositePipelineBufferTest.class));
+    CompositePipelineBuffer buffer = new CompositePipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(64).setPool(pool), 64);
+
+    //Segments come from the pool and go back when consumed or released.  One consumed segment is kept back.
+    buffer.produceFromBytes(new byte[64 * 10]);
+    buffer.consumeBytes(new byte[64 * 5]);
+    Assert.assertEquals(6, pool.getOutstandingCount());
+    buffer.release();
+    Assert.assertEquals(0, pool.getOutstandingCount());
+  }
+}
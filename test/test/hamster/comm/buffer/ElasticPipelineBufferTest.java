@@ -0,0 +1,143 @@
+package test.hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import hamster.comm.buffer.AccessBuffer;
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.BufferPool;
+import hamster.comm.buffer.ElasticPipelineBuffer;
+import hamster.comm.buffer.MappedAccessBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ElasticPipelineBufferTest
+{
+  @Test
+  public void growShrinkTest()
+  {
+    ElasticPipelineBuffer buffer = new ElasticPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16).configureOrder(ByteOrder.BIG_ENDIAN), 64);
+    buffer.setIdleChecksToShrink(2);
+
+    //Grow by doubling.
+    for(int i = 0; i < 5; i++)
+    {
+      buffer.produceInt(i);
+    }
+    Assert.assertEquals(32, buffer.capacity());
+
+    //Space checks don't grow the buffer.
+    Assert.assertTrue(buffer.hasSpaceFor(40));
+    Assert.assertTrue(buffer.canAcceptTransfer());
+    Assert.assertEquals(32, buffer.capacity());
+    buffer.produceFromBytes(new byte[40]);
+    Assert.assertEquals(64, buffer.capacity());
+
+    //Not beyond the maximum.
+    Assert.assertFalse(buffer.hasSpaceFor(5));
+    Assert.assertTrue(buffer.hasSpaceFor(4));
+    for(int i = 0; i < 5; i++)
+    {
+      Assert.assertEquals(i, buffer.consumeInt());
+    }
+    buffer.consumeBytes(new byte[40]);
+
+    //Idle checks.  The first one sees that the buffer held more than its initial capacity.
+    Assert.assertFalse(buffer.trimIfIdle());
+    Assert.assertFalse(buffer.trimIfIdle());
+    Assert.assertTrue(buffer.trimIfIdle());
+    Assert.assertEquals(16, buffer.capacity());
+
+    //Small traffic keeps it small.
+    buffer.produceLong(1);
+    Assert.assertEquals(1, buffer.consumeLong());
+    Assert.assertEquals(16, buffer.capacity());
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void maxCapacityTest()
+  {
+    ElasticPipelineBuffer buffer = new ElasticPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16), 32);
+    buffer.produceFromBytes(new byte[33]);
+  }
+
+  @Test
+  public void writeMessageGrowTest()
+  {
+    ElasticPipelineBuffer buffer = new ElasticPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16).configureOrder(ByteOrder.BIG_ENDIAN), 1024);
+
+    //Some consumed data ahead of the message, so growing moves the message.
+    buffer.produceLong(7);
+    buffer.consumeInt();
+
+    //Write a length-prefixed message which outgrows the initial capacity, then fill the length in.
+    buffer.startWriteMessage();
+    buffer.produceInt(0);
+    buffer.produceFromBytes(new byte[30]);
+    buffer.produceIntAt(0, buffer.messageBlockWritePosition() - 4);
+    buffer.completeWriteMessage();
+
+    Assert.assertEquals(64, buffer.capacity());
+    Assert.assertEquals(38, buffer.size());
+    Assert.assertEquals(7, buffer.consumeInt());
+    Assert.assertEquals(30, buffer.consumeInt());
+  }
+
+  @Test
+  public void accessTransferGrowTest() throws IOException
+  {
+    ElasticPipelineBuffer buffer = new ElasticPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16).configureOrder(ByteOrder.BIG_ENDIAN), 256);
+
+    //From an access buffer.
+    AccessBuffer access = new AccessBuffer(BufferFactory.getDefaultBufferFactory().setSize(40).configureOrder(ByteOrder.BIG_ENDIAN));
+    access.init(40);
+    access.setIntAt(0, 12345);
+    access.transferTo(buffer);
+    Assert.assertEquals(64, buffer.capacity());
+    Assert.assertEquals(40, buffer.size());
+
+    //From a mapped access buffer.
+    Path path = Files.createTempFile("elastic", ".bin");
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+    {
+      MappedAccessBuffer mapped = new MappedAccessBuffer(file, FileChannel.MapMode.READ_WRITE, 0, 100, ByteOrder.BIG_ENDIAN);
+      mapped.setIntAt(0, 67890);
+      mapped.transferTo(buffer);
+      Assert.assertEquals(256, buffer.capacity());
+      Assert.assertEquals(140, buffer.size());
+    }
+    finally
+    {
+      Files.delete(path);
+    }
+
+    Assert.assertEquals(12345, buffer.consumeInt());
+    buffer.consumeBytes(new byte[36]);
+    Assert.assertEquals(67890, buffer.consumeInt());
+  }
+
+  @Test
+  public void pooledTest()
+  {
+    BufferPool pool = new BufferPool(16, 16, false, null);
+    ElasticPipelineBuffer buffer = new ElasticPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(64).setPool(pool), 4096);
+    buffer.setIdleChecksToShrink(1);
+
+    //Grow and shrink twice.  Only the first grow allocates; every other buffer comes from the pool.
+    for(int i = 0; i < 2; i++)
+    {
+      buffer.produceFromBytes(new byte[1000]);
+      buffer.consumeBytes(new byte[1000]);
+      buffer.trimIfIdle();
+      Assert.assertTrue(buffer.trimIfIdle());
+    }
+    Assert.assertEquals(2, pool.getAllocatedCount());
+    Assert.assertEquals(3, pool.getReusedCount());
+    buffer.release();
+  }
+}
@@ -0,0 +1,73 @@
+package test.hamster.comm.buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.ChannelBufferGatherer;
+import hamster.comm.buffer.FileRegionBuffer;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileRegionBufferTest
+{
+  @Test
+  public void headerAndFileTest() throws IOException
+  {
+    //A file bigger than the pipe can hold at once.
+    byte[] data = new byte[300_000];
+    for(int i = 0; i < data.length; i++)
+    {
+      data[i] = (byte) (i * 31);
+    }
+    Path path = Files.createTempFile("region", ".bin");
+    Files.write(path, data);
+
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ))
+    {
+      PipelineBuffer header = new PipelineBuffer(BufferFactory.getDefaultBufferFactory().configureOrder(ByteOrder.BIG_ENDIAN));
+      header.produceInt(data.length - 1000);
+      FileRegionBuffer region = new FileRegionBuffer(file, 1000, data.length - 1000);
+
+      //Non blocking pipe, so the transfer happens in parts as it would to a busy socket.
+      Pipe pipe = Pipe.open();
+      pipe.sink().configureBlocking(false);
+      pipe.source().configureBlocking(false);
+      ChannelBufferGatherer gatherer = new ChannelBufferGatherer();
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+      while(region.hasDataToConsume() || header.hasDataToConsume())
+      {
+        gatherer.drainBuffersToChannel(pipe.sink(), header, region);
+        int n;
+        while((n = pipe.source().read(readBuffer)) > 0)
+        {
+          received.write(readBuffer.array(), 0, n);
+          readBuffer.clear();
+        }
+      }
+
+      //Header then the file region.
+      byte[] out = received.toByteArray();
+      Assert.assertEquals(4 + data.length - 1000, out.length);
+      Assert.assertEquals(data.length - 1000, ByteBuffer.wrap(out).getInt());
+      for(int i = 1000; i < data.length; i++)
+      {
+        Assert.assertEquals(data[i], out[4 + i - 1000]);
+      }
+      Assert.assertEquals(data.length, region.position());
+    }
+    finally
+    {
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package test.hamster.comm.buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.JournalBuffer;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JournalBufferTest
+{
+  @Test
+  public void appendAckReplayTest() throws IOException
+  {
+    Path directory = Files.createTempDirectory("journal");
+    byte[] data = new byte[250];
+    for(int i = 0; i < data.length; i++)
+    {
+      data[i] = (byte) i;
+    }
+
+    try
+    {
+      //Segments of 100 data bytes.  Append from each kind of source.
+      JournalBuffer journal = new JournalBuffer(directory, 108);
+      PipelineBuffer pipeline = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+      pipeline.produceFromBytes(data, 0, 150);
+      Assert.assertEquals(150, journal.append(pipeline));
+      Assert.assertTrue(pipeline.isEmpty());
+      Assert.assertEquals(200, journal.append(ByteBuffer.wrap(data, 150, 50)));
+      Assert.assertEquals(250, journal.append(data, 200, 50));
+      Assert.assertEquals(3, journal.segmentCount());
+
+      //Drain everything.
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Assert.assertEquals(250, journal.drainBufferToChannel(Channels.newChannel(out)));
+      Assert.assertArrayEquals(data, out.toByteArray());
+      Assert.assertFalse(journal.hasDataToConsume());
+
+      //The peer has 150 bytes.  The first segment goes.
+      journal.acknowledge(150);
+      Assert.assertEquals(2, journal.segmentCount());
+
+      //Reconnect - send again from where the peer got to.
+      journal.replayUnacknowledged();
+      out.reset();
+      Assert.assertEquals(100, journal.drainBufferToChannel(Channels.newChannel(out)));
+      Assert.assertArrayEquals(Arrays.copyOfRange(data, 150, 250), out.toByteArray());
+      journal.close();
+
+      //Restart.  The unacknowledged data are sent again.
+      JournalBuffer reopened = new JournalBuffer(directory, 108);
+      Assert.assertEquals(250, reopened.appendOffset());
+      Assert.assertEquals(150, reopened.acknowledgedOffset());
+      Assert.assertEquals(150, reopened.sendOffset());
+      reopened.replay(200);
+      out.reset();
+      Assert.assertEquals(50, reopened.drainBufferToChannel(Channels.newChannel(out)));
+      Assert.assertArrayEquals(Arrays.copyOfRange(data, 200, 250), out.toByteArray());
+      Assert.assertEquals(1, reopened.segmentCount());
+      reopened.close();
+    }
+    finally
+    {
+      try (Stream<Path> files = Files.list(directory))
+      {
+        for(Path file : (Iterable<Path>) files::iterator)
+        {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void ackBeyondSentTest() throws IOException
+  {
+    Path directory = Files.createTempDirectory("journal");
+    JournalBuffer journal = new JournalBuffer(directory, 108);
+    try
+    {
+      journal.append(new byte[10], 0, 10);
+      journal.acknowledge(5);
+    }
+    finally
+    {
+      journal.close();
+      Files.delete(directory.resolve("00000000000000000000.seg"));
+      Files.delete(directory.resolve("journal.ack"));
+      Files.delete(directory);
+    }
+  }
+}
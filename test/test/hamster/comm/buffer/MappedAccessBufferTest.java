@@ -0,0 +1,82 @@
+package test.hamster.comm.buffer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.MappedAccessBuffer;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedAccessBufferTest
+{
+  @Test
+  public void mappedTableTest() throws IOException
+  {
+    Path path = Files.createTempFile("mapped", ".bin");
+    try
+    {
+      //Write a table through a read-write mapping.
+      try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+      {
+        MappedAccessBuffer table = new MappedAccessBuffer(file, FileChannel.MapMode.READ_WRITE, 0, 4096, ByteOrder.BIG_ENDIAN);
+        Assert.assertEquals(4096, table.size());
+        for(int i = 0; i < 512; i++)
+        {
+          table.setLongAt(i * 8, i * 1000L);
+        }
+        table.force();
+      }
+      Assert.assertEquals(4096, Files.size(path));
+
+      //Read part of it back through a read-only mapping of a region.
+      try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ))
+      {
+        MappedAccessBuffer region = new MappedAccessBuffer(file, FileChannel.MapMode.READ_ONLY, 800, 80, ByteOrder.BIG_ENDIAN);
+        Assert.assertEquals(100_000L, region.readLong(0));
+        Assert.assertEquals(109_000L, region.readLong(72));
+      }
+    }
+    finally
+    {
+      Files.delete(path);
+    }
+  }
+
+  @Test
+  public void pipelineTransferTest() throws IOException
+  {
+    Path path = Files.createTempFile("mapped", ".bin");
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+    {
+      BufferFactory factory = BufferFactory.getDefaultBufferFactory().configureOrder(ByteOrder.LITTLE_ENDIAN).setDirectness(true);
+      MappedAccessBuffer mapped = new MappedAccessBuffer(file, FileChannel.MapMode.READ_WRITE, 0, 1024, ByteOrder.LITTLE_ENDIAN);
+      PipelineBuffer pipeline = new PipelineBuffer(factory);
+
+      //Pipeline to a region of the mapping.
+      pipeline.produceInt(42).produceInt(43);
+      Assert.assertEquals(8, mapped.transferFrom(pipeline, 100, 16));
+      Assert.assertTrue(pipeline.isEmpty());
+      Assert.assertEquals(42, mapped.readInt(100));
+      Assert.assertEquals(43, mapped.readInt(104));
+
+      //Region of the mapping to the pipeline.
+      mapped.transferTo(pipeline, 104, 4);
+      Assert.assertEquals(4, pipeline.size());
+      Assert.assertEquals(43, pipeline.consumeInt());
+
+      //Absolute access still covers the whole mapping.
+      mapped.setIntAt(1020, 7);
+      Assert.assertEquals(7, mapped.readInt(1020));
+    }
+    finally
+    {
+      Files.delete(path);
+    }
+  }
+}
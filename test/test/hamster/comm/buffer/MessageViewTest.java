@@ -0,0 +1,80 @@
+package test.hamster.comm.buffer;
+
+import java.nio.ByteOrder;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.MessageView;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageViewTest
+{
+  @Test
+  public void viewTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory().configureOrder(ByteOrder.BIG_ENDIAN));
+    MessageView view = new MessageView();
+    MessageView part = new MessageView();
+
+    //Two messages: length, int, long, 3 bytes.
+    for(int m = 0; m < 2; m++)
+    {
+      pb.produceChar((char) 17).produceInt(100 + m).produceLong(-5L * m).produceFromBytes(new byte[] {1, 2, 3});
+    }
+
+    for(int m = 0; m < 2; m++)
+    {
+      //Strip the length then view the rest.
+      Assert.assertTrue(pb.tryStartReadMessage(pb.peekChar(0)));
+      pb.consumeChar();
+      pb.wrapReadMessage(view);
+      Assert.assertEquals(15, view.length());
+
+      //Fields in any order.
+      Assert.assertEquals(-5L * m, view.getLong(4));
+      Assert.assertEquals(100 + m, view.getInt(0));
+
+      //A slice over the trailing bytes.
+      view.slice(12, 3, part);
+      Assert.assertEquals(3, part.getByte(2));
+      byte[] bytes = new byte[3];
+      part.getBytes(0, bytes, 0, 3);
+      Assert.assertArrayEquals(new byte[] {1, 2, 3}, bytes);
+
+      //Nothing was consumed by the view.
+      Assert.assertEquals(100 + m, pb.consumeInt());
+
+      //Past the end of the view.
+      try
+      {
+        view.getInt(12);
+        Assert.fail();
+      }
+      catch(IndexOutOfBoundsException e)
+      {
+      }
+
+      pb.completeReadMessage();
+
+      //Stale after completion.
+      try
+      {
+        part.getByte(0);
+        Assert.fail();
+      }
+      catch(IllegalStateException e)
+      {
+      }
+    }
+    Assert.assertTrue(pb.isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void noMessageTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+    pb.produceInt(1);
+    pb.wrapReadMessage(new MessageView());
+  }
+}
@@ -0,0 +1,180 @@
+package test.hamster.comm.buffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.RingPipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingPipelineBufferTest
+{
+  @Test
+  public void wrappedScalarTest()
+  {
+    for(ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN})
+    {
+      RingPipelineBuffer buffer = new RingPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16).configureOrder(order));
+
+      //Move the consume position near the end so that the following values straddle the wrap.
+      buffer.produceLong(0).produceInt(0).produceShort((short) 0);
+      buffer.consumeLong();
+      buffer.consumeInt();
+      buffer.produceLong(0x0102030405060708L).produceInt(-5);
+      buffer.consumeShort();
+
+      Assert.assertEquals(12, buffer.size());
+      Assert.assertEquals(0x0102030405060708L, buffer.peekLong(0));
+      Assert.assertEquals(0x0102030405060708L, buffer.consumeLong());
+      Assert.assertEquals(-5, buffer.consumeInt());
+      Assert.assertTrue(buffer.isEmpty());
+
+      //Floating point and char values across the wrap.
+      buffer.produceLong(0).produceShort((short) 0).produceByte((byte) 0);
+      buffer.consumeLong();
+      buffer.consumeShort();
+      buffer.consumeByte();
+      buffer.produceDouble(1.5).produceFloat(-2.25f).produceChar('x');
+      Assert.assertEquals(1.5, buffer.consumeDouble(), 0);
+      Assert.assertEquals(-2.25f, buffer.consumeFloat(), 0);
+      Assert.assertEquals('x', buffer.consumeChar());
+    }
+  }
+
+  @Test
+  public void channelTransferTest() throws IOException
+  {
+    RingPipelineBuffer buffer = new RingPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16));
+    Pipe pipe = Pipe.open();
+
+    //Leave 10 bytes of free space at the end and 4 at the start.
+    buffer.produceFromBytes(new byte[12]);
+    buffer.consumeBytes(new byte[10]);
+    byte[] data = new byte[14];
+    for(int i = 0; i < data.length; i++)
+    {
+      data[i] = (byte) i;
+    }
+
+    //Scattering fill across the wrap.
+    pipe.sink().write(ByteBuffer.wrap(data));
+    Assert.assertEquals(14, buffer.fillBufferFromChannel(pipe.source()));
+    Assert.assertEquals(16, buffer.size());
+    Assert.assertFalse(buffer.canAcceptTransfer());
+
+    //Gathering drain across the wrap.
+    buffer.consumeShort();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Assert.assertEquals(14, buffer.drainBufferToChannel(new GatheringSink(out)));
+    Assert.assertArrayEquals(data, out.toByteArray());
+    Assert.assertTrue(buffer.isEmpty());
+
+    //Sequential transfers with plain channels.
+    buffer.produceFromBytes(new byte[12]);
+    buffer.consumeBytes(new byte[12]);
+    buffer.produceFromBytes(new byte[12]);
+    buffer.consumeBytes(new byte[10]);
+    Assert.assertEquals(14, buffer.fillBufferFromChannel(Channels.newChannel(new ByteArrayInputStream(data))));
+    buffer.consumeShort();
+    out.reset();
+    Assert.assertEquals(14, buffer.drainBufferToChannel(Channels.newChannel(out)));
+    Assert.assertArrayEquals(data, out.toByteArray());
+  }
+
+  @Test
+  public void messageBlockTest()
+  {
+    RingPipelineBuffer buffer = new RingPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16).configureOrder(ByteOrder.BIG_ENDIAN));
+    buffer.produceFromBytes(new byte[12]);
+    buffer.consumeBytes(new byte[11]);
+
+    //Write a length-prefixed message which wraps, filling the length in afterwards.
+    buffer.startWriteMessage();
+    buffer.produceInt(0);
+    buffer.produceShort((short) 7).produceShort((short) 8);
+    buffer.produceIntAt(0, buffer.messageBlockWritePosition() - 4);
+    buffer.completeWriteMessage();
+
+    //Read it back.
+    buffer.consumeByte();
+    Assert.assertFalse(buffer.tryStartReadMessage(9));
+    buffer.startReadMessage(8);
+    Assert.assertEquals(4, buffer.consumeInt());
+    Assert.assertEquals(7, buffer.consumeShort());
+    buffer.rewindReadMessage();
+    Assert.assertEquals(8, buffer.size());
+
+    buffer.startReadMessage(8);
+    Assert.assertEquals(4, buffer.consumeInt());
+    Assert.assertTrue(buffer.hasReadMessageDataRemaining());
+    buffer.completeReadMessage();
+    Assert.assertTrue(buffer.isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void consumeInWriteBlockTest()
+  {
+    RingPipelineBuffer buffer = new RingPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16));
+    buffer.startWriteMessage().produceInt(1);
+    buffer.consumeInt();
+  }
+
+  /**
+   * <p>Gathering channel which accepts everything into a stream.
+   */
+  private static class GatheringSink implements GatheringByteChannel
+  {
+    private final ByteArrayOutputStream out;
+
+    private GatheringSink(ByteArrayOutputStream out)
+    {
+      this.out = out;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+    {
+      long total = 0;
+      for(int i = offset; i < offset + length; i++)
+      {
+        total += write(srcs[i]);
+      }
+      return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs)
+    {
+      return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+      int n = src.remaining();
+      while(src.hasRemaining())
+      {
+        out.write(src.get());
+      }
+      return n;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}
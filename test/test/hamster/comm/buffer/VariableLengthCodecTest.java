@@ -0,0 +1,124 @@
+package test.hamster.comm.buffer;
+
+import java.nio.BufferUnderflowException;
+
+import hamster.comm.buffer.AccessBuffer;
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.ElasticPipelineBuffer;
+import hamster.comm.buffer.PipelineBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VariableLengthCodecTest
+{
+  private static final String TEXT = "héllo € 😀";
+
+  @Test
+  public void pipelineVarintTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+    long[] longs = {0, 1, 127, 128, 300, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+    for(long v : longs)
+    {
+      pb.produceVarLong(v).produceZigZagLong(v);
+    }
+    pb.produceVarInt(-1).produceZigZagInt(Integer.MIN_VALUE).produceZigZagInt(-64);
+
+    //Encoded lengths.
+    Assert.assertEquals(1 + 1 + 1 + 1 + 1 + 2 + 2 + 2 + 2 + 2 + 9 + 10 + 10 + 1 + 10 + 10 + 5 + 5 + 1, pb.size());
+
+    for(long v : longs)
+    {
+      Assert.assertEquals(v, pb.consumeVarLong());
+      Assert.assertEquals(v, pb.consumeZigZagLong());
+    }
+    Assert.assertEquals(-1, pb.consumeVarInt());
+    Assert.assertEquals(Integer.MIN_VALUE, pb.consumeZigZagInt());
+    Assert.assertEquals(-64, pb.consumeZigZagInt());
+    Assert.assertTrue(pb.isEmpty());
+  }
+
+  @Test
+  public void pipelineStringTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+    pb.produceUtf8(TEXT).produceAscii("plain").produceAscii("café").produceUtf8("");
+
+    //Decode into one reused builder.
+    StringBuilder sb = new StringBuilder();
+    Assert.assertEquals(TEXT, pb.consumeUtf8(sb).toString());
+    sb.setLength(0);
+    Assert.assertEquals("plain", pb.consumeAscii(sb).toString());
+    Assert.assertEquals("caf?", pb.consumeAscii());
+    Assert.assertEquals("", pb.consumeUtf8());
+    Assert.assertTrue(pb.isEmpty());
+  }
+
+  @Test
+  public void incompleteTest()
+  {
+    PipelineBuffer pb = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+    pb.produceByte((byte) 0x80);
+    try
+    {
+      pb.consumeVarLong();
+      Assert.fail();
+    }
+    catch(BufferUnderflowException e)
+    {
+    }
+
+    //Nothing was consumed; completing the value makes it readable.
+    pb.produceByte((byte) 0x01);
+    Assert.assertEquals(128, pb.consumeVarLong());
+
+    //Incomplete string.
+    pb.produceByte((byte) 3).produceByte((byte) 'a');
+    try
+    {
+      pb.consumeAscii();
+      Assert.fail();
+    }
+    catch(BufferUnderflowException e)
+    {
+    }
+    Assert.assertEquals(2, pb.size());
+  }
+
+  @Test
+  public void elasticGrowTest()
+  {
+    ElasticPipelineBuffer pb = new ElasticPipelineBuffer(BufferFactory.getDefaultBufferFactory().setSize(16), 1024);
+    pb.produceUtf8("a string longer than sixteen bytes").produceZigZagLong(-5);
+    Assert.assertEquals("a string longer than sixteen bytes", pb.consumeUtf8());
+    Assert.assertEquals(-5, pb.consumeZigZagLong());
+  }
+
+  @Test
+  public void accessTest()
+  {
+    AccessBuffer ab = new AccessBuffer(BufferFactory.getDefaultBufferFactory());
+    ab.init(100);
+
+    //Fields one after another.
+    int pos = 0;
+    pos += ab.setZigZagIntAt(pos, -3);
+    pos += ab.setVarLongAt(pos, 1L << 40);
+    int stringPos = pos;
+    pos += ab.setUtf8At(pos, TEXT);
+    pos += ab.setAsciiAt(pos, "end");
+    Assert.assertEquals(100, ab.size());
+
+    //Read them back.
+    Assert.assertEquals(-3, ab.readZigZagInt(0));
+    Assert.assertEquals(1, AccessBuffer.zigZagLength(-3));
+    Assert.assertEquals(1L << 40, ab.readVarLong(1));
+    Assert.assertEquals(stringPos, 1 + AccessBuffer.varLongLength(1L << 40));
+    StringBuilder sb = new StringBuilder();
+    int read = ab.readUtf8(stringPos, sb);
+    Assert.assertEquals(TEXT, sb.toString());
+    sb.setLength(0);
+    ab.readAscii(stringPos + read, sb);
+    Assert.assertEquals("end", sb.toString());
+  }
+}
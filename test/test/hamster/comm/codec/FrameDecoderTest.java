@@ -0,0 +1,132 @@
+package test.hamster.comm.codec;
+
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.codec.DelimiterFrameDecoder;
+import hamster.comm.codec.FixedLengthFrameDecoder;
+import hamster.comm.codec.FrameFormatException;
+import hamster.comm.codec.FrameListener;
+import hamster.comm.codec.LengthFieldFrameDecoder;
+import hamster.comm.codec.VarintLengthFrameDecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameDecoderTest
+{
+  //Collects the frame data as strings.
+  private final List<String> frames = new ArrayList<>();
+
+  private final FrameListener collector = new FrameListener()
+  {
+    @Override
+    public void handleFrame(PipelineBuffer frame)
+    {
+      StringBuilder sb = new StringBuilder();
+      while(frame.hasReadMessageDataRemaining())
+      {
+        sb.append((char) frame.consumeByte());
+      }
+      frames.add(sb.toString());
+    }
+  };
+
+  private PipelineBuffer newBuffer()
+  {
+    return new PipelineBuffer(BufferFactory.getDefaultBufferFactory().configureOrder(ByteOrder.BIG_ENDIAN));
+  }
+
+  @Test
+  public void lengthFieldTest()
+  {
+    PipelineBuffer buffer = newBuffer();
+    LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(2, false, 100);
+
+    //Two whole frames and the start of a third.
+    buffer.produceChar((char) 3).produceFromBytes("abc".getBytes(StandardCharsets.US_ASCII));
+    buffer.produceChar((char) 0);
+    buffer.produceChar((char) 4).produceFromBytes("de".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(2, decoder.decodeFrames(buffer, collector));
+    Assert.assertEquals(List.of("abc", ""), frames);
+    Assert.assertEquals(4, buffer.size());
+
+    //The rest of the third.
+    buffer.produceFromBytes("fg".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(1, decoder.decodeFrames(buffer, collector));
+    Assert.assertEquals("defg", frames.get(2));
+    Assert.assertTrue(buffer.isEmpty());
+  }
+
+  @Test
+  public void lengthIncludesFieldTest()
+  {
+    PipelineBuffer buffer = newBuffer();
+    LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(4, true, 100);
+    buffer.produceInt(6).produceFromBytes("hi".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(1, decoder.decodeFrames(buffer, collector));
+    Assert.assertEquals(List.of("hi"), frames);
+
+    //Unconsumed frame data are skipped.
+    buffer.produceInt(7).produceFromBytes("xyz".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(1, decoder.decodeFrames(buffer, f -> {}));
+    Assert.assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void varintTest()
+  {
+    PipelineBuffer buffer = newBuffer();
+    VarintLengthFrameDecoder decoder = new VarintLengthFrameDecoder(1000);
+
+    //300 = 0xAC 0x02.  Send the length field in parts.
+    byte[] data = new byte[300];
+    java.util.Arrays.fill(data, (byte) 'q');
+    buffer.produceByte((byte) 0xac);
+    Assert.assertEquals(0, decoder.decodeFrames(buffer, collector));
+    buffer.produceByte((byte) 0x02).produceFromBytes(data, 0, 299);
+    Assert.assertEquals(0, decoder.decodeFrames(buffer, collector));
+    buffer.produceFromBytes(data, 299, 1).produceByte((byte) 1).produceByte((byte) 'z');
+    Assert.assertEquals(2, decoder.decodeFrames(buffer, collector));
+    Assert.assertEquals(300, frames.get(0).length());
+    Assert.assertEquals("z", frames.get(1));
+  }
+
+  @Test
+  public void delimiterTest()
+  {
+    PipelineBuffer buffer = newBuffer();
+    DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(new byte[] {'\r', '\n'}, 100);
+
+    buffer.produceFromBytes("one\r\ntwo\r".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(1, decoder.decodeFrames(buffer, collector));
+    buffer.produceFromBytes("\n\r\nthree".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(2, decoder.decodeFrames(buffer, collector));
+    buffer.produceFromBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(1, decoder.decodeFrames(buffer, collector));
+    Assert.assertEquals(List.of("one", "two", "", "three"), frames);
+    Assert.assertTrue(buffer.isEmpty());
+  }
+
+  @Test
+  public void fixedLengthTest()
+  {
+    PipelineBuffer buffer = newBuffer();
+    FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(3);
+    buffer.produceFromBytes("abcdefgh".getBytes(StandardCharsets.US_ASCII));
+    Assert.assertEquals(2, decoder.decodeFrames(buffer, collector));
+    Assert.assertEquals(List.of("abc", "def"), frames);
+    Assert.assertEquals(2, buffer.size());
+  }
+
+  @Test(expected = FrameFormatException.class)
+  public void oversizeTest()
+  {
+    PipelineBuffer buffer = newBuffer();
+    buffer.produceChar((char) 500);
+    new LengthFieldFrameDecoder(2, false, 100).decodeFrames(buffer, collector);
+  }
+}
@@ -0,0 +1,234 @@
+package test.hamster.comm.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import hamster.comm.buffer.BaseBuffer;
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.DrainableChannelBuffer;
+import hamster.comm.buffer.FillableChannelBuffer;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.codec.FrameFormatException;
+import hamster.comm.codec.FrameListener;
+import hamster.comm.codec.FrameOutbox;
+import hamster.comm.codec.LengthFieldFrameDecoder;
+import hamster.comm.itf.controller.SocketChannelController;
+import hamster.comm.metrics.ChannelMetrics;
+import hamster.comm.wakeupschedule.ManualSchedulerClock;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameOutboxTest
+{
+  //Records the writes made through the controller.
+  private static class RecordingController implements SocketChannelController
+  {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final WritableByteChannel channel = Channels.newChannel(out);
+    private int writes = 0;
+    private boolean subscribed = false;
+    private final ChannelMetrics metrics = new ChannelMetrics(null);
+
+    @Override
+    public int writeOutgoingData(DrainableChannelBuffer writer)
+    {
+      try
+      {
+        writes++;
+        return writer.drainBufferToChannel(channel);
+      }
+      catch(IOException e)
+      {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public int writeOutgoingData(DrainableChannelBuffer writer, int maxBytesToSend)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long writeOutgoingData(DrainableChannelBuffer... writers)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int fillBufferFromChannel(FillableChannelBuffer targetBuffer)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int fillBufferFromChannel(FillableChannelBuffer targetBuffer, int maxBytesToFill)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long fillBufferFromChannel(FillableChannelBuffer... targetBuffers)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long fillBufferFromChannel(FillableChannelBuffer[] targetBuffers, int[] maxBytesToFill)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void shut()
+    {
+    }
+
+    @Override
+    public void releaseOnShutdown(BaseBuffer... buffers)
+    {
+    }
+
+    @Override
+    public void closeOutput()
+    {
+    }
+
+    @Override
+    public SocketChannel liberate()
+    {
+      return null;
+    }
+
+    @Override
+    public void nudge()
+    {
+    }
+
+    @Override
+    public void activateCommLoopEndNotification(boolean notify)
+    {
+      subscribed = notify;
+    }
+
+    @Override
+    public ChannelMetrics getChannelMetrics()
+    {
+      return metrics;
+    }
+  }
+
+  private final BufferFactory factory = BufferFactory.getDefaultBufferFactory().configureOrder(ByteOrder.BIG_ENDIAN);
+
+  @Test
+  public void loopEndBatchTest()
+  {
+    RecordingController controller = new RecordingController();
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    FrameOutbox outbox = new FrameOutbox(controller, new PipelineBuffer(factory), 2, clock);
+
+    //Three frames in one loop.  The second is finished off with a positional produce, after the 2 byte length field.
+    outbox.startFrame().produceInt(1);
+    outbox.completeFrame();
+    outbox.startFrame().produceByte((byte) 0).produceInt(2).produceByteAt(2, (byte) 9);
+    outbox.completeFrame();
+    outbox.startFrame();
+    outbox.completeFrame();
+    Assert.assertEquals(0, controller.writes);
+    Assert.assertTrue(controller.subscribed);
+
+    //One write at loop end.
+    outbox.handleLoopEnd();
+    Assert.assertEquals(1, controller.writes);
+    Assert.assertFalse(controller.subscribed);
+    Assert.assertFalse(outbox.isHolding());
+
+    //Nothing to do at the next loop end.
+    outbox.handleLoopEnd();
+    Assert.assertEquals(1, controller.writes);
+
+    //Decode what was written.
+    PipelineBuffer received = new PipelineBuffer(factory);
+    received.produceFromBytes(controller.out.toByteArray());
+    List<Integer> lengths = new ArrayList<>();
+    FrameListener listener = f ->
+    {
+      int length = 0;
+      while(f.hasReadMessageDataRemaining())
+      {
+        f.consumeByte();
+        length++;
+      }
+      lengths.add(length);
+    };
+    Assert.assertEquals(3, new LengthFieldFrameDecoder(2, false, 100).decodeFrames(received, listener));
+    Assert.assertEquals(List.of(4, 5, 0), lengths);
+    Assert.assertEquals(9, controller.out.toByteArray()[8]);
+  }
+
+  @Test
+  public void thresholdTest()
+  {
+    RecordingController controller = new RecordingController();
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    FrameOutbox outbox = new FrameOutbox(controller, new PipelineBuffer(factory), 0, clock).setMaxLatencyNanos(1000).setMaxBytes(20);
+
+    //Held over the first loop end.
+    outbox.startFrame().produceLong(1);
+    outbox.completeFrame();
+    clock.advanceNanos(500);
+    outbox.handleLoopEnd();
+    Assert.assertEquals(0, controller.writes);
+
+    //Flushed at the loop end after the latency.
+    clock.advanceNanos(500);
+    outbox.handleLoopEnd();
+    Assert.assertEquals(1, controller.writes);
+
+    //Flushed as soon as the byte threshold is reached.
+    outbox.startFrame().produceLong(2);
+    outbox.completeFrame();
+    outbox.startFrame().produceLong(3);
+    outbox.completeFrame();
+    Assert.assertEquals(1, controller.writes);
+    outbox.startFrame().produceLong(4);
+    outbox.completeFrame();
+    Assert.assertEquals(2, controller.writes);
+    Assert.assertEquals(32, controller.out.size());
+    Assert.assertEquals(2, outbox.flushCount());
+  }
+
+  @Test
+  public void oversizeFrameTest()
+  {
+    RecordingController controller = new RecordingController();
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    FrameOutbox outbox = new FrameOutbox(controller, new PipelineBuffer(factory), 1, clock);
+
+    //A frame before and after one which is too long for the 1 byte length field.
+    outbox.startFrame().produceInt(1);
+    outbox.completeFrame();
+    outbox.startFrame().produceFromBytes(new byte[256]);
+    try
+    {
+      outbox.completeFrame();
+      Assert.fail();
+    }
+    catch(FrameFormatException e)
+    {
+    }
+    outbox.startFrame().produceInt(2);
+    outbox.completeFrame();
+
+    //The long frame was thrown away, and the others are intact.
+    outbox.flush();
+    Assert.assertArrayEquals(new byte[] {4, 0, 0, 0, 1, 4, 0, 0, 0, 2}, controller.out.toByteArray());
+  }
+}
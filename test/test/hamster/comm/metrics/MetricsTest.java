@@ -0,0 +1,109 @@
+package test.hamster.comm.metrics;
+
+import hamster.comm.metrics.ChannelMetrics;
+import hamster.comm.metrics.Histogram;
+import hamster.comm.metrics.LoopMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest
+{
+  @Test
+  public void histogramTest()
+  {
+    Histogram h = new Histogram();
+    Assert.assertEquals(0, h.valueAtPercentile(50));
+
+    //1 to 1000.
+    for(int i = 1; i <= 1000; i++)
+    {
+      h.record(i);
+    }
+    Assert.assertEquals(1000, h.count());
+    Assert.assertEquals(500500, h.sum());
+    Assert.assertEquals(1000, h.max());
+    Assert.assertEquals(500.5, h.mean(), 0.001);
+
+    //Small values are exact, larger ones within the bucket resolution.
+    Assert.assertEquals(1, h.valueAtPercentile(0));
+    Assert.assertEquals(10, h.valueAtPercentile(1));
+    Assert.assertEquals(500, h.valueAtPercentile(50), 500 / 32);
+    Assert.assertEquals(990, h.valueAtPercentile(99), 990 / 32);
+    Assert.assertEquals(1000, h.valueAtPercentile(100));
+
+    //Very large values.
+    h.record(Long.MAX_VALUE);
+    Assert.assertEquals(Long.MAX_VALUE, h.max());
+    Assert.assertEquals(Long.MAX_VALUE, h.valueAtPercentile(100));
+
+    h.reset();
+    Assert.assertEquals(0, h.count());
+    Assert.assertEquals(0, h.max());
+  }
+
+  @Test
+  public void intervalTest()
+  {
+    Histogram recorder = new Histogram();
+    for(int i = 0; i < 100; i++)
+    {
+      recorder.record(5);
+    }
+
+    //Copy, record some more, then work out the interval.
+    Histogram earlier = recorder.copyInto(new Histogram());
+    for(int i = 0; i < 10; i++)
+    {
+      recorder.record(2000);
+    }
+    Histogram interval = recorder.copyInto(new Histogram());
+    interval.subtract(earlier);
+    Assert.assertEquals(10, interval.count());
+    Assert.assertEquals(20000, interval.sum());
+    Assert.assertEquals(2000, interval.valueAtPercentile(50), 2000 / 32);
+
+    //Add it back.
+    earlier.add(interval);
+    Assert.assertEquals(recorder.count(), earlier.count());
+    Assert.assertEquals(recorder.sum(), earlier.sum());
+  }
+
+  @Test
+  public void channelTotalsTest()
+  {
+    LoopMetrics loop = new LoopMetrics();
+    ChannelMetrics a = new ChannelMetrics(loop.channelTotals());
+    ChannelMetrics b = new ChannelMetrics(loop.channelTotals());
+
+    a.addBytesRead(100);
+    a.addBytesWritten(40);
+    a.readPaused();
+    b.addBytesRead(7);
+    b.writeInterestToggled();
+    b.writeInterestToggled();
+
+    Assert.assertEquals(100, a.bytesRead());
+    Assert.assertEquals(1, a.readPauses());
+    Assert.assertEquals(2, b.writeInterestToggles());
+    Assert.assertEquals(107, loop.channelTotals().bytesRead());
+    Assert.assertEquals(40, loop.channelTotals().bytesWritten());
+    Assert.assertEquals(1, loop.channelTotals().readPauses());
+    Assert.assertEquals(2, loop.channelTotals().writeInterestToggles());
+  }
+
+  @Test
+  public void loopPhaseTest()
+  {
+    LoopMetrics loop = new LoopMetrics();
+    loop.recordLoop(3, 1000, 1500, 1700, 1710, 1750);
+    loop.recordLoop(0, 2000, 9000, 9000, 9005, 9010);
+
+    Assert.assertEquals(2, loop.iterations());
+    Assert.assertEquals(500 + 7000, loop.selectNanos().sum());
+    Assert.assertEquals(200, loop.dispatchNanos().sum());
+    Assert.assertEquals(15, loop.loopEndNanos().sum());
+    Assert.assertEquals(45, loop.serviceNanos().sum());
+    Assert.assertEquals(3, loop.readyKeys().max());
+    Assert.assertEquals(1.5, loop.readyKeys().mean(), 0.001);
+  }
+}
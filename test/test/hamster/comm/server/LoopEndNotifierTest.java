@@ -0,0 +1,254 @@
+package test.hamster.comm.server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.ServerSocketChannelController;
+import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
+import hamster.comm.itf.listener.SimpleSocketChannelListener;
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.logging.DummyLogger;
+import hamster.comm.metrics.LoopMetrics;
+import hamster.comm.server.NonBlockingCommunicationApplicationImpl;
+import hamster.comm.server.NonBlockingCommunicationApplicationServer;
+import hamster.comm.server.exception.ChannelRegistrationException;
+import hamster.comm.server.listener.CommunicationApplicationController;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoopEndNotifierTest
+{
+  //Listens on an ephemeral port, giving each accepted channel the next listener, and keeps the loop iterating with a short sync wakeup.
+  private static class App implements NonBlockingCommunicationApplicationImpl
+  {
+    private final CountDownLatch listening = new CountDownLatch(1);
+    private final Queue<SocketChannelListener> listeners = new ConcurrentLinkedQueue<>();
+    private volatile int port;
+    private CommunicationApplicationController controller;
+
+    @Override
+    public void registerAppController(CommunicationApplicationController controller)
+    {
+      this.controller = controller;
+      try
+      {
+        port = controller.openServerSocket(new InetSocketAddress("127.0.0.1", 0), new InitialisedServerSocketChannelListener()
+        {
+          @Override
+          public void initController(ServerSocketChannelController controller)
+          {
+          }
+
+          @Override
+          public SocketChannelListener handleIncomingConnection(SocketAddress socketAddress)
+          {
+            return listeners.poll();
+          }
+
+          @Override
+          public void hasShut()
+          {
+          }
+        });
+      }
+      catch(ChannelRegistrationException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      controller.getProcessScheduler().registerSyncWakeup(1, 5, (p, t) -> {});
+      listening.countDown();
+    }
+
+    @Override
+    public void externalShutdownCommand()
+    {
+      controller.getCommLoopCloser().closeCommLoop();
+    }
+  }
+
+  //Counts the loop end calls, and checks that there is at most one per loop iteration.  'S' subscribes to every loop end, 'U'
+  //unsubscribes, and every byte read is echoed from the loop end callback.
+  private static class Recorder extends SimpleSocketChannelListener
+  {
+    private final PipelineBuffer buffer = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+    private final LoopMetrics metrics;
+    private volatile int calls;
+    private volatile boolean initialisedFirst = true;
+    private volatile boolean repeated;
+    private long lastIteration = -1;
+
+    private Recorder(LoopMetrics metrics)
+    {
+      this.metrics = metrics;
+    }
+
+    @Override
+    public void handleDataRead()
+    {
+      channelController.fillBufferFromChannel(buffer);
+      byte command = buffer.peekByte(buffer.size() - 1);
+      if(command == 'S') channelController.activateCommLoopEndNotification(true);
+      if(command == 'U') channelController.activateCommLoopEndNotification(false);
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+      channelController.writeOutgoingData(buffer);
+    }
+
+    @Override
+    public void handleServerLoopEnd()
+    {
+      if(channelController == null) initialisedFirst = false;
+      count();
+
+      //Writing requests another loop end for this channel, which must not be actioned in this loop.
+      if(channelController != null && buffer.hasDataToConsume()) channelController.writeOutgoingData(buffer);
+    }
+
+    protected void count()
+    {
+      long iteration = metrics.iterations();
+      if(iteration == lastIteration) repeated = true;
+      lastIteration = iteration;
+      calls++;
+    }
+
+    private void nudge()
+    {
+      channelController.nudge();
+    }
+  }
+
+  //Subscribes to every loop end as soon as it is initialised, and throws from every loop end call.
+  private static class Thrower extends Recorder
+  {
+    private Thrower(LoopMetrics metrics)
+    {
+      super(metrics);
+    }
+
+    @Override
+    protected void initialised()
+    {
+      channelController.activateCommLoopEndNotification(true);
+    }
+
+    @Override
+    public void handleServerLoopEnd()
+    {
+      count();
+      throw new IllegalStateException("Loop end failure");
+    }
+  }
+
+  @Test
+  public void loopEndTest() throws Exception
+  {
+    App app = new App();
+    NonBlockingCommunicationApplicationServer server = new NonBlockingCommunicationApplicationServer(app, new DummyLogger());
+    Recorder recorder = new Recorder(server.getLoopMetrics());
+    app.listeners.add(recorder);
+    Thread thread = new Thread(server);
+    thread.start();
+    try(Socket client = connect(app))
+    {
+      client.setSoTimeout(5000);
+      OutputStream out = client.getOutputStream();
+      InputStream in = client.getInputStream();
+
+      //A newly registered channel gets a loop end call, after it has been initialised.
+      waitForCalls(recorder, 1);
+      Assert.assertTrue(recorder.initialisedFirst);
+
+      //Subscribed channels are called at the end of every loop.
+      out.write('S');
+      Assert.assertEquals('S', in.read());
+      int subscribed = recorder.calls;
+      waitForCalls(recorder, subscribed + 10);
+
+      //Unsubscribed channels are only called when there has been activity.
+      out.write('U');
+      Assert.assertEquals('U', in.read());
+      int unsubscribed = recorder.calls;
+      long iterations = server.getLoopMetrics().iterations();
+      Thread.sleep(100);
+      Assert.assertTrue(server.getLoopMetrics().iterations() > iterations + 5);
+      Assert.assertEquals(unsubscribed, recorder.calls);
+
+      //A nudge from another thread gets a loop end call.
+      recorder.nudge();
+      waitForCalls(recorder, unsubscribed + 1);
+
+      //Never called twice in the same loop iteration.
+      Assert.assertFalse(recorder.repeated);
+    }
+    finally
+    {
+      server.externalApplicationShutdownRequired();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void throwingListenerTest() throws Exception
+  {
+    App app = new App();
+    NonBlockingCommunicationApplicationServer server = new NonBlockingCommunicationApplicationServer(app, new DummyLogger());
+    Recorder thrower = new Thrower(server.getLoopMetrics());
+    Recorder recorder = new Recorder(server.getLoopMetrics());
+    app.listeners.add(thrower);
+    app.listeners.add(recorder);
+    Thread thread = new Thread(server);
+    thread.start();
+    try(Socket throwingClient = connect(app); Socket client = connect(app))
+    {
+      throwingClient.setSoTimeout(5000);
+      client.setSoTimeout(5000);
+      OutputStream out = client.getOutputStream();
+      InputStream in = client.getInputStream();
+
+      //The second channel is still notified while the first one throws at the end of every loop.
+      waitForCalls(thrower, 5);
+      out.write('S');
+      Assert.assertEquals('S', in.read());
+      int calls = recorder.calls;
+      waitForCalls(recorder, calls + 10);
+
+      //Neither is notified twice in the same loop iteration, so the failed passes left nothing behind.
+      Assert.assertFalse(thrower.repeated);
+      Assert.assertFalse(recorder.repeated);
+    }
+    finally
+    {
+      server.externalApplicationShutdownRequired();
+      thread.join();
+    }
+  }
+
+  private static Socket connect(App app) throws Exception
+  {
+    Assert.assertTrue(app.listening.await(5, TimeUnit.SECONDS));
+    return new Socket("127.0.0.1", app.port);
+  }
+
+  private static void waitForCalls(Recorder recorder, int calls) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + 5000;
+    while(recorder.calls < calls && System.currentTimeMillis() < deadline)
+    {
+      Thread.sleep(5);
+    }
+    Assert.assertTrue(recorder.calls >= calls);
+  }
+}
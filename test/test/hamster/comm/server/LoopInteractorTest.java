@@ -0,0 +1,192 @@
+package test.hamster.comm.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.ServerSocketChannelController;
+import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
+import hamster.comm.itf.listener.SimpleSocketChannelListener;
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.logging.DummyLogger;
+import hamster.comm.server.AdaptiveLoopInteractor;
+import hamster.comm.server.BackoffLoopInteractor;
+import hamster.comm.server.NonBlockingCommunicationApplicationImpl;
+import hamster.comm.server.NonBlockingCommunicationApplicationServer;
+import hamster.comm.server.exception.ChannelRegistrationException;
+import hamster.comm.server.listener.CommunicationApplicationController;
+import hamster.comm.wakeupschedule.ManualSchedulerClock;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoopInteractorTest
+{
+  @Test
+  public void adaptiveTest()
+  {
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    AdaptiveLoopInteractor interactor = new AdaptiveLoopInteractor(100_000L, clock);
+
+    //Quiet - sleep in the selector.
+    Assert.assertTrue(interactor.shouldWaitForNetworkEvent());
+    Assert.assertFalse(interactor.isSpinning());
+
+    //Burst of events every 10us.  Switches to spinning.
+    for(int i = 0; i < 20; i++)
+    {
+      clock.advanceNanos(10_000L);
+      interactor.handleSelectResult(1);
+    }
+    Assert.assertFalse(interactor.shouldWaitForNetworkEvent());
+    Assert.assertTrue(interactor.isSpinning());
+
+    //Idle iterations don't change the average.
+    clock.advanceNanos(50_000L);
+    interactor.handleSelectResult(0);
+    Assert.assertFalse(interactor.shouldWaitForNetworkEvent());
+
+    //Quiet for longer than the spin gap - back to sleeping.
+    clock.advanceNanos(60_000L);
+    interactor.handleSelectResult(0);
+    Assert.assertTrue(interactor.shouldWaitForNetworkEvent());
+
+    //After a very long quiet period, the next burst still switches back to spinning quickly.
+    clock.advanceMillis(10_000);
+    interactor.handleSelectResult(1);
+    for(int i = 0; i < 20; i++)
+    {
+      clock.advanceNanos(10_000L);
+      interactor.handleSelectResult(1);
+    }
+    Assert.assertFalse(interactor.shouldWaitForNetworkEvent());
+  }
+
+  @Test
+  public void backoffTest()
+  {
+    BackoffLoopInteractor interactor = new BackoffLoopInteractor(2, 2, 1_000L, 4_000L);
+
+    //Spin and yield stages poll the selector.
+    for(int i = 0; i < 5; i++)
+    {
+      Assert.assertFalse(interactor.shouldWaitForNetworkEvent());
+      interactor.handleSelectResult(0);
+    }
+
+    //Park stage waits in the selector, doubling the park time up to the maximum.
+    Assert.assertTrue(interactor.shouldWaitForNetworkEvent());
+    Assert.assertEquals(1_000L, interactor.maxNetworkWaitNanos());
+    interactor.handleSelectResult(0);
+    Assert.assertTrue(interactor.shouldWaitForNetworkEvent());
+    Assert.assertEquals(2_000L, interactor.maxNetworkWaitNanos());
+    interactor.handleSelectResult(0);
+    interactor.handleSelectResult(0);
+    interactor.handleSelectResult(0);
+    Assert.assertEquals(4_000L, interactor.maxNetworkWaitNanos());
+
+    //A ready channel resets to spinning.
+    interactor.handleSelectResult(3);
+    Assert.assertFalse(interactor.shouldWaitForNetworkEvent());
+    Assert.assertEquals(1_000L, interactor.maxNetworkWaitNanos());
+  }
+
+  //Listens with a backoff interactor which parks for 10 seconds, and counts down when a byte is read.
+  private static class ParkedApp implements NonBlockingCommunicationApplicationImpl
+  {
+    private final CountDownLatch listening = new CountDownLatch(1);
+    private final CountDownLatch read = new CountDownLatch(1);
+    private volatile int port;
+    private CommunicationApplicationController controller;
+
+    @Override
+    public void registerAppController(CommunicationApplicationController controller)
+    {
+      this.controller = controller;
+      controller.setLoopInteractor(new BackoffLoopInteractor(0, 0, 10_000_000_000L, 10_000_000_000L));
+      try
+      {
+        port = controller.openServerSocket(new InetSocketAddress("127.0.0.1", 0), new InitialisedServerSocketChannelListener()
+        {
+          @Override
+          public void initController(ServerSocketChannelController controller)
+          {
+          }
+
+          @Override
+          public SocketChannelListener handleIncomingConnection(SocketAddress socketAddress)
+          {
+            return new SimpleSocketChannelListener()
+            {
+              private final PipelineBuffer buffer = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+
+              @Override
+              public void handleDataRead()
+              {
+                channelController.fillBufferFromChannel(buffer);
+                read.countDown();
+              }
+
+              @Override
+              public void handleChannelWriteContinue()
+              {
+              }
+            };
+          }
+
+          @Override
+          public void hasShut()
+          {
+          }
+        });
+      }
+      catch(ChannelRegistrationException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      listening.countDown();
+    }
+
+    @Override
+    public void externalShutdownCommand()
+    {
+      controller.getCommLoopCloser().closeCommLoop();
+    }
+  }
+
+  @Test
+  public void backoffParkServicesChannelsTest() throws Exception
+  {
+    ParkedApp app = new ParkedApp();
+    NonBlockingCommunicationApplicationServer server = new NonBlockingCommunicationApplicationServer(app, new DummyLogger());
+    Thread thread = new Thread(server);
+    thread.start();
+    try
+    {
+      Assert.assertTrue(app.listening.await(5, TimeUnit.SECONDS));
+
+      //Let the loop go idle into the park stage, then connect and send a byte.  It is serviced well inside the park time.
+      Thread.sleep(200);
+      try(SocketChannel client = SocketChannel.open(new InetSocketAddress("127.0.0.1", app.port)))
+      {
+        client.write(ByteBuffer.wrap(new byte[] {1}));
+        Assert.assertTrue(app.read.await(2, TimeUnit.SECONDS));
+      }
+    }
+    finally
+    {
+      server.externalApplicationShutdownRequired();
+      thread.join();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void backoffArgumentTest()
+  {
+    new BackoffLoopInteractor(1, 1, 2_000L, 1_000L);
+  }
+}
@@ -0,0 +1,202 @@
+package test.hamster.comm.server;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.BufferPool;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.ServerSocketChannelController;
+import hamster.comm.itf.listener.ClientSocketChannelListener;
+import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
+import hamster.comm.itf.listener.SimpleSocketChannelListener;
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.logging.DummyLogger;
+import hamster.comm.server.CommLoopStatistics;
+import hamster.comm.server.LoopSnapshot;
+import hamster.comm.server.NonBlockingCommunicationApplicationImpl;
+import hamster.comm.server.NonBlockingCommunicationApplicationServer;
+import hamster.comm.server.exception.ChannelRegistrationException;
+import hamster.comm.server.listener.CommunicationApplicationController;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoopSnapshotTest
+{
+  //Listening socket, one client connection which sends a byte, and a wakeup of each kind.
+  private static class App implements NonBlockingCommunicationApplicationImpl
+  {
+    private CommunicationApplicationController controller;
+
+    @Override
+    public void registerAppController(CommunicationApplicationController controller)
+    {
+      this.controller = controller;
+      try
+      {
+        int port = controller.openServerSocket(new InetSocketAddress("127.0.0.1", 0), new Acceptor());
+        controller.openClientSocket(new InetSocketAddress("127.0.0.1", port), new Connector());
+      }
+      catch(ChannelRegistrationException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      controller.getProcessScheduler().requestWakeupCall(1, 60_000, (p, t) -> {});
+      controller.getProcessScheduler().registerSyncWakeup(2, 60_000, (p, t) -> {});
+    }
+
+    @Override
+    public void externalShutdownCommand()
+    {
+      controller.getCommLoopCloser().closeCommLoop();
+    }
+  }
+
+  private static class Acceptor implements InitialisedServerSocketChannelListener
+  {
+    @Override
+    public void initController(ServerSocketChannelController controller)
+    {
+    }
+
+    @Override
+    public SocketChannelListener handleIncomingConnection(SocketAddress socketAddress)
+    {
+      return new SlowReader();
+    }
+
+    @Override
+    public void hasShut()
+    {
+    }
+  }
+
+  private static class Connector implements ClientSocketChannelListener
+  {
+    @Override
+    public SocketChannelListener handleConnectionSuccess(SocketAddress saRemote)
+    {
+      return new Sender();
+    }
+
+    @Override
+    public void handleConnectionFailure(String failReason)
+    {
+    }
+  }
+
+  //Sends one byte when connected.
+  private static class Sender extends SimpleSocketChannelListener
+  {
+    @Override
+    protected void initialised()
+    {
+      PipelineBuffer buffer = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+      buffer.produceByte((byte) 1);
+      channelController.writeOutgoingData(buffer);
+    }
+
+    @Override
+    public void handleDataRead()
+    {
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+    }
+  }
+
+  //Blocks the loop for 20ms when reading.
+  private static class SlowReader extends SimpleSocketChannelListener
+  {
+    private final PipelineBuffer buffer = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+
+    @Override
+    public void handleDataRead()
+    {
+      channelController.fillBufferFromChannel(buffer);
+      try
+      {
+        Thread.sleep(20);
+      }
+      catch(InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+    }
+  }
+
+  @Test
+  public void snapshotTest() throws Exception
+  {
+    NonBlockingCommunicationApplicationServer server = new NonBlockingCommunicationApplicationServer(new App(), new DummyLogger());
+    server.monitorBufferPool(new BufferPool(4, 4, false, new DummyLogger()));
+    server.setSlowestCallbackRecording(true);
+    Thread thread = new Thread(server);
+    thread.start();
+    try
+    {
+      //Wait for the connection and the slow read, keeping the slowest dispatch reported.
+      LoopSnapshot.SlowCallback slowest = null;
+      LoopSnapshot snapshot = null;
+      long deadline = System.currentTimeMillis() + 5000;
+      while(System.currentTimeMillis() < deadline)
+      {
+        snapshot = server.takeSnapshot(1000);
+        for(LoopSnapshot.SlowCallback callback : snapshot.getSlowestCallbacks())
+        {
+          if(slowest == null || callback.getNanos() > slowest.getNanos()) slowest = callback;
+        }
+        if(snapshot.getReadWriteKeys() == 2 && server.getLoopMetrics().channelTotals().bytesRead() == 1 && slowest != null && slowest.getNanos() >= 20_000_000L) break;
+        Thread.sleep(10);
+      }
+
+      Assert.assertEquals(1, snapshot.getAcceptKeys());
+      Assert.assertEquals(0, snapshot.getConnectKeys());
+      Assert.assertEquals(2, snapshot.getReadWriteKeys());
+      Assert.assertEquals(0, snapshot.getDatagramKeys());
+      Assert.assertEquals(1, snapshot.getPendingAsyncWakeups());
+      Assert.assertEquals(1, snapshot.getPendingSyncWakeups());
+      Assert.assertEquals(1, snapshot.getBufferPools().length);
+      Assert.assertEquals(SlowReader.class.getName(), slowest.getListenerClass());
+      Assert.assertTrue(slowest.getNanos() >= 20_000_000L);
+
+      //Each snapshot has a new sequence number.
+      Assert.assertEquals(snapshot.getSequence() + 1, server.takeSnapshot(1000).getSequence());
+
+      //Nothing is recorded while recording is off.
+      server.setSlowestCallbackRecording(false);
+      Assert.assertEquals(0, server.takeSnapshot(1000).getSlowestCallbacks().length);
+
+      //The JMX view.
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("hamster.comm:type=CommLoop,name=LoopSnapshotTest");
+      mbs.registerMBean(new CommLoopStatistics(server, 0), name);
+      try
+      {
+        Assert.assertEquals(2, mbs.getAttribute(name, "ReadWriteKeys"));
+        Assert.assertEquals(1L, mbs.getAttribute(name, "BytesRead"));
+        Assert.assertEquals(1, ((String[]) mbs.getAttribute(name, "BufferPools")).length);
+      }
+      finally
+      {
+        mbs.unregisterMBean(name);
+      }
+    }
+    finally
+    {
+      server.externalApplicationShutdownRequired();
+      thread.join();
+    }
+  }
+}
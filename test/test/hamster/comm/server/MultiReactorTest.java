@@ -0,0 +1,245 @@
+package test.hamster.comm.server;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.ServerSocketChannelController;
+import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
+import hamster.comm.itf.listener.SimpleSocketChannelListener;
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.logging.DummyLogger;
+import hamster.comm.server.MultiReactorCommunicationApplicationServer;
+import hamster.comm.server.NonBlockingCommunicationApplicationImpl;
+import hamster.comm.server.ReactorBalancePolicy;
+import hamster.comm.server.WorkerApplicationFactory;
+import hamster.comm.server.exception.ChannelRegistrationException;
+import hamster.comm.server.listener.CommunicationApplicationController;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MultiReactorTest
+{
+  private static final int WORKERS = 3;
+  private static final int CLIENTS = 9;
+
+  //Boss application.  Listens on an ephemeral port; every accepted channel gets an echo listener.
+  private static class BossApp implements NonBlockingCommunicationApplicationImpl
+  {
+    private final CountDownLatch listening = new CountDownLatch(1);
+    private final Queue<EchoListener> listeners = new ConcurrentLinkedQueue<>();
+    private volatile int port;
+    private CommunicationApplicationController controller;
+
+    @Override
+    public void registerAppController(CommunicationApplicationController controller)
+    {
+      this.controller = controller;
+      try
+      {
+        port = controller.openServerSocket(new InetSocketAddress("127.0.0.1", 0), new InitialisedServerSocketChannelListener()
+        {
+          @Override
+          public void initController(ServerSocketChannelController controller)
+          {
+          }
+
+          @Override
+          public SocketChannelListener handleIncomingConnection(SocketAddress socketAddress)
+          {
+            EchoListener listener = new EchoListener();
+            listeners.add(listener);
+            return listener;
+          }
+
+          @Override
+          public void hasShut()
+          {
+          }
+        });
+      }
+      catch(ChannelRegistrationException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      listening.countDown();
+    }
+
+    @Override
+    public void externalShutdownCommand()
+    {
+      controller.getCommLoopCloser().closeCommLoop();
+    }
+  }
+
+  //Echoes everything read, and records the threads that it was called back in.
+  private static class EchoListener extends SimpleSocketChannelListener
+  {
+    private final PipelineBuffer buffer = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+    private volatile String initThread;
+    private volatile String shutThread;
+
+    @Override
+    protected void initialised()
+    {
+      initThread = Thread.currentThread().getName();
+    }
+
+    @Override
+    public void handleDataRead()
+    {
+      channelController.fillBufferFromChannel(buffer);
+      channelController.writeOutgoingData(buffer);
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+      channelController.writeOutgoingData(buffer);
+    }
+
+    @Override
+    public void hasShut()
+    {
+      shutThread = Thread.currentThread().getName();
+    }
+  }
+
+  //Worker application which closes its loop as soon as it starts.
+  private static class ClosingWorkerApp implements NonBlockingCommunicationApplicationImpl
+  {
+    private final CountDownLatch closed;
+
+    private ClosingWorkerApp(CountDownLatch closed)
+    {
+      this.closed = closed;
+    }
+
+    @Override
+    public void registerAppController(CommunicationApplicationController controller)
+    {
+      controller.getCommLoopCloser().closeCommLoop();
+      closed.countDown();
+    }
+
+    @Override
+    public void externalShutdownCommand()
+    {
+    }
+  }
+
+  @Test
+  public void roundRobinTest() throws Exception
+  {
+    int[] counts = distribute(ReactorBalancePolicy.ROUND_ROBIN);
+    for(int count : counts)
+    {
+      Assert.assertEquals(CLIENTS / WORKERS, count);
+    }
+  }
+
+  @Test
+  public void leastLoadedTest() throws Exception
+  {
+    //Each connection stays open, so the least loaded worker is always one with the fewest so far.
+    int[] counts = distribute(ReactorBalancePolicy.LEAST_LOADED);
+    for(int count : counts)
+    {
+      Assert.assertEquals(CLIENTS / WORKERS, count);
+    }
+  }
+
+  @Test
+  public void finishedWorkerClosesHandoverTest() throws Exception
+  {
+    CountDownLatch closed = new CountDownLatch(1);
+    WorkerApplicationFactory factory = workerIndex -> new ClosingWorkerApp(closed);
+    BossApp boss = new BossApp();
+    MultiReactorCommunicationApplicationServer server = new MultiReactorCommunicationApplicationServer(boss, factory, 1, ReactorBalancePolicy.ROUND_ROBIN, new DummyLogger());
+    Thread bossThread = new Thread(server, "boss");
+    bossThread.start();
+    try
+    {
+      Assert.assertTrue(boss.listening.await(5, TimeUnit.SECONDS));
+      Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+
+      //The only worker has closed, so the handed over channel is closed instead of registered.
+      try(Socket client = new Socket("127.0.0.1", boss.port))
+      {
+        client.setSoTimeout(5000);
+        Assert.assertEquals(-1, client.getInputStream().read());
+      }
+
+      //The listener was never initialised, and was never called back in the boss thread.
+      EchoListener listener = boss.listeners.peek();
+      Assert.assertNotNull(listener);
+      Assert.assertNull(listener.initThread);
+      Assert.assertNotEquals("boss", listener.shutThread);
+    }
+    finally
+    {
+      server.externalApplicationShutdownRequired();
+      bossThread.join();
+    }
+  }
+
+  /**
+   * <p>Connect the clients one at a time to a multi-reactor server, check that each one is echoed, and return the number of
+   * channels that each worker loop was given.
+   */
+  private static int[] distribute(ReactorBalancePolicy policy) throws Exception
+  {
+    BossApp boss = new BossApp();
+    MultiReactorCommunicationApplicationServer server = new MultiReactorCommunicationApplicationServer(boss, null, WORKERS, policy, new DummyLogger());
+    Thread bossThread = new Thread(server, "boss");
+    bossThread.start();
+    List<Socket> clients = new ArrayList<>();
+    try
+    {
+      Assert.assertTrue(boss.listening.await(5, TimeUnit.SECONDS));
+
+      //Data flows through each handed over channel.
+      for(int i = 0; i < CLIENTS; i++)
+      {
+        Socket client = new Socket("127.0.0.1", boss.port);
+        clients.add(client);
+        client.setSoTimeout(5000);
+        OutputStream out = client.getOutputStream();
+        InputStream in = client.getInputStream();
+        out.write(new byte[] {(byte) i, 42});
+        Assert.assertEquals(i, in.read());
+        Assert.assertEquals(42, in.read());
+      }
+
+      //Each channel was initialised in a worker thread.
+      int[] counts = new int[WORKERS];
+      for(EchoListener listener : boss.listeners)
+      {
+        String name = listener.initThread;
+        Assert.assertNotNull(name);
+        int worker = Integer.parseInt(name.substring(name.lastIndexOf('_') + 1));
+        counts[worker]++;
+      }
+      return counts;
+    }
+    finally
+    {
+      for(Socket client : clients)
+      {
+        client.close();
+      }
+      server.externalApplicationShutdownRequired();
+      bossThread.join();
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package test.hamster.comm.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import hamster.comm.buffer.BufferFactory;
+import hamster.comm.buffer.PipelineBuffer;
+import hamster.comm.itf.controller.ServerSocketChannelController;
+import hamster.comm.itf.listener.ClientSocketChannelListener;
+import hamster.comm.itf.listener.InitialisedServerSocketChannelListener;
+import hamster.comm.itf.listener.SimpleSocketChannelListener;
+import hamster.comm.itf.listener.SocketChannelListener;
+import hamster.comm.logging.DummyLogger;
+import hamster.comm.server.NonBlockingCommunicationApplicationImpl;
+import hamster.comm.server.NonBlockingCommunicationApplicationServer;
+import hamster.comm.server.SlowCallbackDetector;
+import hamster.comm.server.exception.ChannelRegistrationException;
+import hamster.comm.server.listener.CommunicationApplicationController;
+import hamster.comm.wakeupschedule.WakeupCallback;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlowCallbackDetectorTest
+{
+  private static final WakeupCallback SLEEPER = (p, t) -> sleep(20);
+
+  private static void sleep(long millis)
+  {
+    try
+    {
+      Thread.sleep(millis);
+    }
+    catch(InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  //Collects warnings.
+  private static class WarningLogger extends DummyLogger
+  {
+    private final List<String> warnings = new ArrayList<>();
+
+    @Override
+    public void warn(String msg)
+    {
+      warnings.add(msg);
+    }
+  }
+
+  @Test
+  public void disabledTest()
+  {
+    SlowCallbackDetector detector = new SlowCallbackDetector(4);
+    Assert.assertEquals(0, detector.getThresholdNanos());
+
+    //Not timed when disabled.
+    long start = detector.startWakeup();
+    Assert.assertEquals(0, start);
+    sleep(2);
+    detector.endWakeup(start, SLEEPER, 1);
+    Assert.assertEquals(0, detector.getSlowCallCount());
+    Assert.assertEquals(0, detector.getRecentSlowCalls().length);
+
+    //Calls under the threshold are not recorded.
+    detector.setThresholdNanos(10_000_000_000L);
+    detector.endWakeup(detector.startWakeup(), SLEEPER, 1);
+    Assert.assertEquals(0, detector.getSlowCallCount());
+  }
+
+  @Test
+  public void ringTest()
+  {
+    SlowCallbackDetector detector = new SlowCallbackDetector(4);
+    detector.setThresholdNanos(100_000);
+    WarningLogger logger = new WarningLogger();
+    detector.setWarningLog(logger, 60_000);
+
+    for(int i = 0; i < 6; i++)
+    {
+      long start = detector.startWakeup();
+      sleep(1);
+      detector.endWakeup(start, SLEEPER, i);
+    }
+
+    //The ring keeps the latest four, oldest first.
+    Assert.assertEquals(6, detector.getSlowCallCount());
+    SlowCallbackDetector.SlowCall[] calls = detector.getRecentSlowCalls();
+    Assert.assertEquals(4, calls.length);
+    for(int i = 0; i < 4; i++)
+    {
+      Assert.assertEquals(SlowCallbackDetector.CallbackType.WAKEUP, calls[i].getType());
+      Assert.assertEquals("wakeup parameter " + (i + 2), calls[i].getChannel());
+      Assert.assertEquals(SLEEPER.getClass().getName(), calls[i].getListenerClass());
+      Assert.assertTrue(calls[i].getNanos() > 100_000);
+    }
+
+    //One warning in the interval.
+    Assert.assertEquals(1, logger.warnings.size());
+  }
+
+  //Listening socket, one client connection which sends a byte, and a slow wakeup.
+  private static class App implements NonBlockingCommunicationApplicationImpl
+  {
+    private CommunicationApplicationController controller;
+
+    @Override
+    public void registerAppController(CommunicationApplicationController controller)
+    {
+      this.controller = controller;
+      try
+      {
+        int port = controller.openServerSocket(new InetSocketAddress("127.0.0.1", 0), new Acceptor());
+        controller.openClientSocket(new InetSocketAddress("127.0.0.1", port), new Connector());
+      }
+      catch(ChannelRegistrationException e)
+      {
+        throw new IllegalStateException(e);
+      }
+      controller.getProcessScheduler().requestWakeupCall(7, 50, SLEEPER);
+    }
+
+    @Override
+    public void externalShutdownCommand()
+    {
+      controller.getCommLoopCloser().closeCommLoop();
+    }
+  }
+
+  private static class Acceptor implements InitialisedServerSocketChannelListener
+  {
+    @Override
+    public void initController(ServerSocketChannelController controller)
+    {
+    }
+
+    @Override
+    public SocketChannelListener handleIncomingConnection(SocketAddress socketAddress)
+    {
+      return new SlowReader();
+    }
+
+    @Override
+    public void hasShut()
+    {
+    }
+  }
+
+  private static class Connector implements ClientSocketChannelListener
+  {
+    @Override
+    public SocketChannelListener handleConnectionSuccess(SocketAddress saRemote)
+    {
+      return new Sender();
+    }
+
+    @Override
+    public void handleConnectionFailure(String failReason)
+    {
+    }
+  }
+
+  //Sends one byte when connected.
+  private static class Sender extends SimpleSocketChannelListener
+  {
+    @Override
+    protected void initialised()
+    {
+      PipelineBuffer buffer = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+      buffer.produceByte((byte) 1);
+      channelController.writeOutgoingData(buffer);
+    }
+
+    @Override
+    public void handleDataRead()
+    {
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+    }
+  }
+
+  //Blocks the loop for 20ms when reading.
+  private static class SlowReader extends SimpleSocketChannelListener
+  {
+    private final PipelineBuffer buffer = new PipelineBuffer(BufferFactory.getDefaultBufferFactory());
+
+    @Override
+    public void handleDataRead()
+    {
+      channelController.fillBufferFromChannel(buffer);
+      sleep(20);
+    }
+
+    @Override
+    public void handleChannelWriteContinue()
+    {
+    }
+  }
+
+  @Test
+  public void loopTest() throws Exception
+  {
+    NonBlockingCommunicationApplicationServer server = new NonBlockingCommunicationApplicationServer(new App(), new DummyLogger());
+    SlowCallbackDetector detector = server.getSlowCallbackDetector();
+    detector.setThresholdNanos(10_000_000L);
+    Thread thread = new Thread(server);
+    thread.start();
+    try
+    {
+      //Wait for the slow read and the slow wakeup.
+      SlowCallbackDetector.SlowCall read = null;
+      SlowCallbackDetector.SlowCall wakeup = null;
+      long deadline = System.currentTimeMillis() + 5000;
+      while((read == null || wakeup == null) && System.currentTimeMillis() < deadline)
+      {
+        for(SlowCallbackDetector.SlowCall call : detector.getRecentSlowCalls())
+        {
+          if(call.getType() == SlowCallbackDetector.CallbackType.DATA_READ) read = call;
+          if(call.getType() == SlowCallbackDetector.CallbackType.WAKEUP) wakeup = call;
+        }
+        Thread.sleep(10);
+      }
+
+      Assert.assertNotNull(read);
+      Assert.assertEquals(SlowReader.class.getName(), read.getListenerClass());
+      Assert.assertTrue(read.getNanos() >= 20_000_000L);
+      Assert.assertNotNull(wakeup);
+      Assert.assertEquals("wakeup parameter 7", wakeup.getChannel());
+    }
+    finally
+    {
+      server.externalApplicationShutdownRequired();
+      thread.join();
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package test.hamster.comm.wakeupschedule;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import hamster.comm.wakeupschedule.AsyncWakeupScheduler;
+import hamster.comm.wakeupschedule.ManualSchedulerClock;
+import hamster.comm.wakeupschedule.ProcessCallbackScheduler;
+import hamster.comm.wakeupschedule.SyncWakeupScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WakeupSchedulerTest
+{
+  @Test
+  public void asyncWakeupTest()
+  {
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    AsyncWakeupScheduler scheduler = new AsyncWakeupScheduler(clock);
+    List<Integer> woken = new ArrayList<>();
+
+    //Two wakeups, out of order.
+    scheduler.requestWakeupCall(1, 0, 200, (p, t) -> woken.add(p));
+    scheduler.requestWakeupCall(2, 0, 100, (p, t) -> woken.add(p));
+
+    //Nothing due yet.  Next wakeup is in 100ms.
+    Assert.assertEquals(100, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertTrue(woken.isEmpty());
+
+    //Part of a millisecond to go rounds up.
+    clock.advanceNanos(99_500_000L);
+    Assert.assertEquals(1, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertTrue(woken.isEmpty());
+
+    //First due.
+    clock.advanceMillis(1);
+    Assert.assertEquals(0, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertEquals(1, woken.size());
+    Assert.assertEquals(2, (int) woken.get(0));
+
+    //Second due.
+    clock.advanceMillis(100);
+    Assert.assertEquals(0, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertEquals(2, woken.size());
+    Assert.assertEquals(1, (int) woken.get(1));
+    Assert.assertTrue(scheduler.isNoCallsPending());
+  }
+
+  @Test
+  public void manyWakeupsTest()
+  {
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    AsyncWakeupScheduler scheduler = new AsyncWakeupScheduler(clock);
+    Set<Integer> woken = new HashSet<>();
+
+    //Enough wakeups to grow the index several times, over a few caller ids.
+    for(int i = 0; i < 1000; i++)
+    {
+      int p = i;
+      scheduler.requestWakeupCall(p, i % 7, 10 + (i % 50), (param, t) -> Assert.assertTrue(woken.add(param)));
+    }
+    Assert.assertEquals(1000, scheduler.pendingCallCount());
+
+    //Restating a wakeup replaces it.
+    for(int i = 0; i < 1000; i += 5)
+    {
+      int p = i;
+      scheduler.requestWakeupCall(p, i % 7, 20, (param, t) -> Assert.assertTrue(woken.add(param)));
+    }
+    Assert.assertEquals(1000, scheduler.pendingCallCount());
+
+    //Cancel every third.
+    for(int i = 0; i < 1000; i += 3)
+    {
+      scheduler.cancelWakeup(i, i % 7);
+    }
+    Assert.assertEquals(666, scheduler.pendingCallCount());
+
+    //The rest are each woken once.
+    clock.advanceMillis(100);
+    scheduler.serviceObjects(clock.nanoTime());
+    Assert.assertTrue(scheduler.isNoCallsPending());
+    Assert.assertEquals(666, woken.size());
+    for(int i = 0; i < 1000; i++)
+    {
+      Assert.assertEquals(i % 3 != 0, woken.contains(i));
+    }
+  }
+
+  @Test
+  public void loopTimeTest()
+  {
+    ManualSchedulerClock clock = new ManualSchedulerClock(5_000_000_000L);
+    AsyncWakeupScheduler scheduler = new AsyncWakeupScheduler(clock);
+    List<Long> woken = new ArrayList<>();
+
+    //Sample the loop time, then let the clock move on.  The request is measured from the loop time.
+    scheduler.setLoopTime(clock.nanoTime());
+    clock.advanceMillis(30);
+    scheduler.requestWakeupCall(1, 0, 50, (p, t) -> woken.add(t));
+
+    Assert.assertEquals(20, scheduler.serviceObjects(clock.nanoTime()));
+    clock.advanceMillis(20);
+    Assert.assertEquals(0, scheduler.serviceObjects(clock.nanoTime()));
+
+    //Wakeup time is given in clock milliseconds.
+    Assert.assertEquals(1, woken.size());
+    Assert.assertEquals(5050L, (long) woken.get(0));
+  }
+
+  @Test
+  public void syncWakeupTest()
+  {
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    SyncWakeupScheduler scheduler = new SyncWakeupScheduler(clock);
+    int[] count = new int[1];
+
+    scheduler.requestWakeupCall(1, 0, 10, (p, t) -> count[0]++);
+
+    //The period is kept from the scheduled time, not the service time.
+    clock.advanceMillis(13);
+    Assert.assertEquals(0, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertEquals(1, count[0]);
+    Assert.assertEquals(7, scheduler.serviceObjects(clock.nanoTime()));
+
+    //A late service only calls back once.
+    clock.advanceMillis(30);
+    Assert.assertEquals(0, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertEquals(2, count[0]);
+
+    //Cancelled.
+    scheduler.cancelWakeup(0);
+    clock.advanceMillis(100);
+    Assert.assertEquals(12000, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertEquals(2, count[0]);
+  }
+
+  @Test
+  public void nanosWakeupTest()
+  {
+    ManualSchedulerClock clock = new ManualSchedulerClock();
+    AsyncWakeupScheduler async = new AsyncWakeupScheduler(clock);
+    SyncWakeupScheduler sync = new SyncWakeupScheduler(clock);
+    ProcessCallbackScheduler scheduler = new ProcessCallbackScheduler(async, sync);
+    int[] count = new int[2];
+
+    scheduler.requestWakeupCallNanos(1, 250_000L, (p, t) -> count[0]++);
+    scheduler.registerSyncWakeupNanos(1, 400_000L, (p, t) -> count[1]++);
+    Assert.assertEquals(Long.MAX_VALUE, new AsyncWakeupScheduler(clock).nanosToNextWakeup(clock.nanoTime()));
+    Assert.assertEquals(250_000L, async.nanosToNextWakeup(clock.nanoTime()));
+
+    //Less than a millisecond to go rounds up to 1ms for the selector.
+    Assert.assertEquals(1, async.serviceObjects(clock.nanoTime()));
+
+    clock.advanceNanos(250_000L);
+    Assert.assertEquals(0, async.nanosToNextWakeup(clock.nanoTime()));
+    async.serviceObjects(clock.nanoTime());
+    sync.serviceObjects(clock.nanoTime());
+    Assert.assertEquals(1, count[0]);
+    Assert.assertEquals(0, count[1]);
+
+    clock.advanceNanos(150_000L);
+    async.serviceObjects(clock.nanoTime());
+    sync.serviceObjects(clock.nanoTime());
+    Assert.assertEquals(1, count[1]);
+    Assert.assertEquals(400_000L, sync.nanosToNextWakeup(clock.nanoTime()));
+
+    scheduler.unregisterSyncWakeup(1);
+    Assert.assertTrue(sync.isNoCallsPending());
+  }
+
+  @Test
+  public void clockJumpTest()
+  {
+    //Times either side of the long overflow point still order correctly.
+    ManualSchedulerClock clock = new ManualSchedulerClock(Long.MAX_VALUE - 50_000_000L);
+    AsyncWakeupScheduler scheduler = new AsyncWakeupScheduler(clock);
+    int[] count = new int[1];
+
+    scheduler.requestWakeupCall(1, 0, 100, (p, t) -> count[0]++);
+    Assert.assertEquals(100, scheduler.serviceObjects(clock.nanoTime()));
+    clock.advanceMillis(100);
+    Assert.assertEquals(0, scheduler.serviceObjects(clock.nanoTime()));
+    Assert.assertEquals(1, count[0]);
+  }
+}